@@ -0,0 +1,33 @@
+package org.hl7.fhir.tools.bench;
+
+import java.io.IOException;
+
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * Locating the inputs for the benchmarks. The benchmarks are run from the root of 
+ * the repository (see build.xml), so they can use the real source and templates 
+ * as well as the fixtures that are checked in with them
+ */
+public class Fixtures {
+
+  public static String root() {
+    return System.getProperty("user.dir");
+  }
+
+  public static String source(String... parts) throws IOException {
+    String[] path = new String[parts.length + 1];
+    path[0] = root();
+    System.arraycopy(parts, 0, path, 1, parts.length);
+    return Utilities.path(path);
+  }
+
+  public static String fixture(String name) throws IOException {
+    return Utilities.path(root(), "tools", "java", "org.hl7.fhir.tools.bench", "fixtures", name);
+  }
+
+  public static String loadFixture(String name) throws IOException {
+    return TextFile.fileToString(fixture(name));
+  }
+}
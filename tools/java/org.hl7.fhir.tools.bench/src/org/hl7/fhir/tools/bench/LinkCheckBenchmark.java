@@ -0,0 +1,84 @@
+package org.hl7.fhir.tools.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.tools.publisher.FolderManager;
+import org.hl7.fhir.tools.publisher.HTMLLinkChecker;
+import org.hl7.fhir.tools.publisher.PageProcessor;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HTMLLinkChecker over a generated site: each page is fixtures/page.html, with links to
+ * a few other pages. Registering the files is included, since the cost of looking up 
+ * link targets depends on how many are registered
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LinkCheckBenchmark {
+
+  @Param({"100", "1000"})
+  public int pages;
+
+  private PageProcessor page;
+  private File output;
+
+  @Setup
+  public void setup() throws Exception {
+    output = Files.createTempDirectory("fhir-bench").toFile();
+    page = new PageProcessor(PageProcessor.DEF_TS_SERVER);
+    page.setFolders(new FolderManager(Fixtures.root(), output.getAbsolutePath()));
+    Utilities.createDirectory(page.getFolders().dstDir);
+    String template = Fixtures.loadFixture("page.html");
+    for (int i = 0; i < pages; i++) {
+      String links = "<a href=\""+name(i + 1)+"\">next</a>, <a href=\""+name(i * 7)+"#content\">content</a>, <a href=\""+name(i * 13)+"#scope\">scope</a>";
+      TextFile.stringToFile(template.replace("[%links%]", links), Utilities.path(page.getFolders().dstDir, name(i)));
+    }
+    // the other pages the fixture links to
+    for (String n : new String[] {"index.html", "modules.html", "resourcelist.html", "datatypes.html", "valueset-example.html", "codesystem-example.html", "search.html"}) 
+      TextFile.stringToFile(template.replace("[%links%]", ""), Utilities.path(page.getFolders().dstDir, n));
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Utilities.clearDirectory(output.getAbsolutePath());
+    output.delete();
+  }
+
+  private String name(int i) {
+    return "page"+Integer.toString(i % pages)+".html";
+  }
+
+  @Benchmark
+  public List<ValidationMessage> check() throws Exception {
+    List<ValidationMessage> issues = new ArrayList<ValidationMessage>();
+    HTMLLinkChecker checker = new HTMLLinkChecker(page, issues, "http://hl7.org/fhir");
+    for (int i = 0; i < pages; i++)
+      checker.registerFile(name(i), "Page "+Integer.toString(i), HTMLLinkChecker.XHTML_TYPE, true);
+    for (String n : new String[] {"index.html", "modules.html", "resourcelist.html", "datatypes.html", "valueset-example.html", "codesystem-example.html", "search.html", "fhir.css"}) 
+      checker.registerFile(n, n, HTMLLinkChecker.determineType(n), true);
+    checker.produce();
+    return issues;
+  }
+}
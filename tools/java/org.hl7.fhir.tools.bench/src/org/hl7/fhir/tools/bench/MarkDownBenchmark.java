@@ -0,0 +1,49 @@
+package org.hl7.fhir.tools.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.definitions.model.Definitions;
+import org.hl7.fhir.tools.converters.MarkDownPreProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MarkDownPreProcessor.process on typical markdown. The fixture has no [[[ ]]] logical 
+ * links (resolving those needs the loaded definitions), so this is the || handling
+ * and the link prefixing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkDownBenchmark {
+
+  private String text;
+  private Definitions definitions;
+
+  @Setup
+  public void setup() throws Exception {
+    text = Fixtures.loadFixture("markdown.md");
+    definitions = new Definitions();
+  }
+
+  @Benchmark
+  public String process() throws Exception {
+    return MarkDownPreProcessor.process(definitions, null, null, text, "markdown.md", null);
+  }
+
+  @Benchmark
+  public String processWithPrefix() throws Exception {
+    return MarkDownPreProcessor.process(definitions, null, null, text, "markdown.md", "../");
+  }
+}
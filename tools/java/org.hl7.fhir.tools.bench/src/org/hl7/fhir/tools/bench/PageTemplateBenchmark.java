@@ -0,0 +1,66 @@
+package org.hl7.fhir.tools.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.tools.publisher.PageTemplate;
+import org.hl7.fhir.utilities.TextFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The template processing behind PageProcessor.processPageIncludes, on the real page
+ * templates. The commands are replaced with a fixed snippet, since what they expand 
+ * to depends on the whole build having been loaded
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageTemplateBenchmark {
+
+  @Param({"template.html", "template-vs.html", "template-examples.html"})
+  public String template;
+
+  private String source;
+  private PageTemplate parsed;
+  private PageTemplate.CommandProcessor processor;
+
+  @Setup
+  public void setup() throws Exception {
+    source = TextFile.fileToString(Fixtures.source("tools", "templates", template));
+    parsed = PageTemplate.parse(source);
+    processor = new PageTemplate.CommandProcessor() {
+      @Override
+      public void processCommand(String command, String[] com, StringBuilder out) {
+        out.append("<span class=\"").append(com[0]).append("\">").append(command).append("</span>");
+      }
+    };
+  }
+
+  /**
+   * a page from source (e.g. processPageIncludes(String src...))
+   */
+  @Benchmark
+  public String parseAndProcess() throws Exception {
+    return PageTemplate.parse(source).process(processor);
+  }
+
+  /**
+   * a page from a template that's already been parsed (e.g. from the TemplateRegistry)
+   */
+  @Benchmark
+  public String process() throws Exception {
+    return parsed.process(processor);
+  }
+}
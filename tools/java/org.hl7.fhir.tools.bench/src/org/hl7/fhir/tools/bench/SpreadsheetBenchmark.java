@@ -0,0 +1,50 @@
+package org.hl7.fhir.tools.bench;
+
+import java.io.FileInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.utilities.xls.XLSXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a resource spreadsheet - the first step of SpreadsheetParser.parseResource,
+ * and the part that doesn't need the rest of the definitions to be loaded
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpreadsheetBenchmark {
+
+  @Param({"catalog/catalog-spreadsheet.xml", "observation/observation-extensions-spreadsheet.xml"})
+  public String spreadsheet;
+
+  private String filename;
+
+  @Setup
+  public void setup() throws Exception {
+    filename = Fixtures.source("source", spreadsheet);
+  }
+
+  @Benchmark
+  public XLSXmlParser load() throws Exception {
+    FileInputStream in = new FileInputStream(filename);
+    try {
+      return new XLSXmlParser(in, filename);
+    } finally {
+      in.close();
+    }
+  }
+}
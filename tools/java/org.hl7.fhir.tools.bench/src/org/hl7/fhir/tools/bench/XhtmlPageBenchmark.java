@@ -0,0 +1,62 @@
+package org.hl7.fhir.tools.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.tools.publisher.PublisherBenchAccess;
+import org.hl7.fhir.tools.publisher.SectionTracker;
+import org.hl7.fhir.utilities.xhtml.XhtmlComposer;
+import org.hl7.fhir.utilities.xhtml.XhtmlDocument;
+import org.hl7.fhir.utilities.xhtml.XhtmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publisher.insertSectionNumbers parses each page, numbers the headings, and writes it
+ * out again. parse and compose are its two ends on their own. The section tracker is
+ * an IG one, so the headings aren't added to the table of contents, which needs the
+ * whole build
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XhtmlPageBenchmark {
+
+  private String source;
+  private XhtmlDocument doc;
+  private PublisherBenchAccess publisher;
+
+  @Setup
+  public void setup() throws Exception {
+    source = Fixtures.loadFixture("page.html");
+    doc = new XhtmlParser().parse(source, "html");
+    publisher = new PublisherBenchAccess();
+  }
+
+  @Benchmark
+  public XhtmlDocument parse() throws Exception {
+    return new XhtmlParser().parse(source, "html");
+  }
+
+  @Benchmark
+  public String compose() throws Exception {
+    return new XhtmlComposer(XhtmlComposer.HTML).compose(doc);
+  }
+
+  @Benchmark
+  public String insertSectionNumbers() throws Exception {
+    SectionTracker st = new SectionTracker("1", true);
+    st.start("");
+    return publisher.insertSectionNumbers(source, st, "page.html", 0);
+  }
+}
@@ -0,0 +1,69 @@
+package org.hl7.fhir.tools.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.definitions.validation.XmlValidator;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+/**
+ * The XML parts of ExampleInspector.doValidate: schema validation, and schematron
+ * validation (XmlValidator.checkBySchematron) using the ISO schematron skeleton 
+ * in tools/schematron
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlValidationBenchmark {
+
+  private XmlValidator validator;
+  private List<ValidationMessage> errors = new ArrayList<ValidationMessage>();
+  private String instance;
+
+  @Setup
+  public void setup() throws Exception {
+    Map<String, byte[]> schemas = new HashMap<String, byte[]>();
+    schemas.put("bench.xsd", TextFile.fileToBytes(Fixtures.fixture("bench.xsd")));
+    schemas.put("bench.sch", TextFile.fileToBytes(Fixtures.fixture("bench.sch")));
+    Map<String, byte[]> transforms = new HashMap<String, byte[]>();
+    String dir = Fixtures.source("tools", "schematron");
+    for (String s : new File(dir).list()) {
+      if (s.endsWith(".xsl") || s.endsWith(".xslt"))
+        transforms.put(s, TextFile.fileToBytes(Utilities.path(dir, s)));
+    }
+    validator = new XmlValidator(errors, schemas, transforms);
+    instance = Fixtures.fixture("bench-instance.xml");
+  }
+
+  @Benchmark
+  public Element checkBySchema() throws Exception {
+    errors.clear();
+    return validator.checkBySchema(instance, true);
+  }
+
+  @Benchmark
+  public void checkBySchematron() throws Exception {
+    errors.clear();
+    validator.checkBySchematron(instance, "bench.sch", true);
+  }
+}
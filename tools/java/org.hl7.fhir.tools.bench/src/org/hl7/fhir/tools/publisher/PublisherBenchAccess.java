@@ -0,0 +1,14 @@
+package org.hl7.fhir.tools.publisher;
+
+/**
+ * The package-private parts of the publisher that the benchmarks call. This is in the
+ * bench module (not the publisher), so it isn't part of the build
+ */
+public class PublisherBenchAccess {
+
+  private final Publisher publisher = new Publisher();
+
+  public String insertSectionNumbers(String src, SectionTracker st, String link, int level) throws Exception {
+    return publisher.insertSectionNumbers(src, st, link, level, null);
+  }
+}
@@ -29,20 +29,46 @@ POSSIBILITY OF SUCH DAMAGE.
 */
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.tools.publisher.XmlParsers;
 import org.hl7.fhir.utilities.CSFileInputStream;
 import org.hl7.fhir.utilities.CSVProcessor;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.xml.XMLUtil;
 import org.w3c.dom.Document;
 
+/**
+ * An example of a resource.
+ *
+ * The DOM of an example that is read from a file isn't kept for the whole build - there
+ * are thousands of them. When the example is loaded, the file is just scanned for the
+ * resource type, the id, and (for a Bundle) the type and id of each entry, and the DOM
+ * is parsed again when it's asked for. The most recently used DOMs are kept, up to
+ * CACHE_LIMIT bytes of source.
+ *
+ * An example that is built in memory (a part of a container) has no file to come back
+ * to, and a container is changed when its parts are divided out, so those DOMs are
+ * kept as they are
+ */
 public class Example {
+
+  private static final long CACHE_LIMIT = 16 * 1024 * 1024;
+  private static final LinkedHashMap<Example, Document> cache = new LinkedHashMap<Example, Document>(256, 0.75f, true);
+  private static long cached;
+
   private String name;
   private String id;
   private String description;
@@ -50,7 +76,10 @@ public class Example {
   private String xhtm;
   private ExampleType type;
   private boolean registered;
-  private Document xml;
+  private volatile Document xml; // if it's kept
+  private File source; // where the DOM comes from, if it isn't kept
+  private long length;
+  private List<String> entries; // Bundle entries, as type/id
   private String resourceName;
   private Set<Example> inbounds = new HashSet<Example>();
   private String ig;
@@ -76,6 +105,7 @@ public class Example {
     
     xml = doc;
     resourceName = xml.getDocumentElement().getNodeName();
+    entries = listEntries(xml);
     if (XMLUtil.getNamedChild(xml.getDocumentElement(), "id") == null)
       throw new Exception("no id element (looking for '"+id+"' from example "+id);
     String xid = XMLUtil.getNamedChild(xml.getDocumentElement(), "id").getAttribute("value");
@@ -106,21 +136,17 @@ public class Example {
     }
     
     if (type == ExampleType.XmlFile || type == ExampleType.CsvFile || type == ExampleType.Container) {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
+      String xid;
       try {
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        xml = builder.parse(new CSFileInputStream(path.getAbsolutePath()));
-        resourceName = xml.getDocumentElement().getNodeName();
+        source = path;
+        length = path.length();
+        xid = scan();
       } catch (Exception e) {
         throw new Exception("unable to read "+path.getAbsolutePath()+": "+e.getMessage(), e);
       }
-    }
-    if (xml != null && !noId) {
-      if (!Utilities.noString(id)) {
-        if (XMLUtil.getNamedChild(xml.getDocumentElement(), "id") == null)
+      if (!noId && !Utilities.noString(id)) {
+        if (xid == null)
           throw new Exception("no id element (looking for '"+id+"' from "+path.getName());
-        String xid = XMLUtil.getNamedChild(xml.getDocumentElement(), "id").getAttribute("value");
         if (!id.equals(xid)) {
           throw new Exception("misidentified resource "+path+" expected '"+id+"' found '"+xid+"'");
         }
@@ -176,7 +202,134 @@ public class Example {
   }
 
   public Document getXml() {
-    return xml;
+    Document doc = xml;
+    if (doc != null || source == null)
+      return doc;
+    synchronized (cache) {
+      doc = cache.get(this);
+    }
+    if (doc != null)
+      return doc;
+    // the parse isn't done holding the lock - the other threads want other examples.
+    // If two threads parse the same example, the first one to finish is kept
+    doc = parse();
+    synchronized (cache) {
+      if (type == ExampleType.Container) {
+        if (xml == null)
+          xml = doc;
+        return xml;
+      }
+      Document other = cache.get(this);
+      if (other != null)
+        return other;
+      cache.put(this, doc);
+      cached = cached + length;
+      Iterator<Example> i = cache.keySet().iterator(); // least recently used first
+      while (cached > CACHE_LIMIT && i.hasNext()) {
+        Example e = i.next();
+        if (e != this) {
+          cached = cached - e.length;
+          i.remove();
+        }
+      }
+      return doc;
+    }
+  }
+
+  /**
+   * true if this is a Bundle, with an entry for the resource (any type, if type is null)
+   */
+  public boolean hasBundleEntry(String type, String id) {
+    if (entries != null)
+      for (String s : entries)
+        if (type == null ? s.endsWith("/"+id) : s.equals(type+"/"+id))
+          return true;
+    return false;
+  }
+
+  /**
+   * if this is a Bundle, the type/id of each of the entries
+   */
+  public List<String> getBundleEntries() {
+    return entries == null ? new ArrayList<String>() : entries;
+  }
+
+  private Document parse() {
+    try {
+      return XmlParsers.parse(new CSFileInputStream(source.getAbsolutePath()), true);
+    } catch (Exception e) {
+      throw new Error("unable to read "+source.getAbsolutePath()+": "+e.getMessage(), e);
+    }
+  }
+
+  /**
+   * read the resource type, the id (returned), and the Bundle entries from the source,
+   * without building a DOM
+   */
+  private String scan() throws Exception {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    InputStream in = new CSFileInputStream(source.getAbsolutePath());
+    try {
+      XMLStreamReader xml = factory.createXMLStreamReader(in);
+      String xid = null;
+      String entryType = null;
+      boolean inResource = false;
+      boolean bundle = false;
+      int depth = 0;
+      while (xml.hasNext()) {
+        int event = xml.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          String name = xml.getLocalName();
+          if (depth == 1) {
+            resourceName = Utilities.noString(xml.getPrefix()) ? name : xml.getPrefix()+":"+name;
+            bundle = "Bundle".equals(name);
+            if (bundle)
+              entries = new ArrayList<String>();
+          } else if (depth == 2 && xid == null && "id".equals(name))
+            xid = value(xml);
+          else if (bundle && depth == 2 && "entry".equals(name))
+            entryType = null;
+          else if (bundle && depth == 3 && "resource".equals(name))
+            inResource = entryType == null;
+          else if (inResource && depth == 4 && entryType == null)
+            entryType = name;
+          else if (inResource && depth == 5 && "id".equals(name)) {
+            entries.add(entryType+"/"+value(xml));
+            inResource = false;
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (depth == 4)
+            inResource = false; // the first resource in the entry has no id
+          depth--;
+        }
+      }
+      xml.close();
+      return xid;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String value(XMLStreamReader xml) {
+    String s = xml.getAttributeValue(null, "value");
+    return s == null ? "" : s;
+  }
+
+  private static List<String> listEntries(Document doc) {
+    if (!"Bundle".equals(doc.getDocumentElement().getLocalName()))
+      return null;
+    List<String> res = new ArrayList<String>();
+    List<org.w3c.dom.Element> list = new ArrayList<org.w3c.dom.Element>();
+    XMLUtil.getNamedChildren(doc.getDocumentElement(), "entry", list);
+    for (org.w3c.dom.Element e : list) {
+      org.w3c.dom.Element r = XMLUtil.getFirstChild(XMLUtil.getNamedChild(e, "resource"));
+      if (r != null && XMLUtil.getNamedChild(r, "id") != null)
+        res.add(r.getLocalName()+"/"+XMLUtil.getNamedChildValue(r, "id"));
+    }
+    return res;
   }
 
   public boolean isRegistered() {
@@ -232,7 +385,7 @@ public class Example {
 
 
   public boolean hasXml() {
-    return xml != null;
+    return xml != null || source != null;
   }
   
   
@@ -36,8 +36,6 @@ import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.utilities.StandardsStatus;
 import org.hl7.fhir.utilities.Utilities;
-import org.hl7.fhir.utilities.xml.XMLUtil;
-import org.w3c.dom.Element;
 
 public class ResourceDefn  {
 
@@ -387,15 +385,8 @@ public class ResourceDefn  {
     for (Example e : examples) {
       if (e.getId().equals(id))
         return e;
-      if ("Bundle".equals(e.getResourceName())) {
-        List<Element> children = new ArrayList<Element>();
-        XMLUtil.getNamedChildren(e.getXml().getDocumentElement(), "entry", children);
-        for (Element c : children) {
-          Element res = XMLUtil.getFirstChild(XMLUtil.getNamedChild(c, "resource"));
-          if (id.equals(XMLUtil.getNamedChildValue(res, "id")))
-            return e;
-        }
-      }
+      if (e.hasBundleEntry(null, id))
+        return e;
     }
     return null;
   }
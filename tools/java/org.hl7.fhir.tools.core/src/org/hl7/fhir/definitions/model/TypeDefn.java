@@ -1,10 +1,23 @@
 package org.hl7.fhir.definitions.model;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.hl7.fhir.r5.model.StructureDefinition;
 
+/**
+ * The root element of a resource or data type.
+ *
+ * Once the definitions are loaded, the elements that paths and names resolve to (through
+ * choice types, content references and types as asked for) are indexed as they are
+ * looked up, so each path is only resolved once
+ */
 public class TypeDefn extends ElementDefn {
+  private static final ElementDefn NOT_FOUND = new ElementDefn();
+
   private StructureDefinition profile;
   private String fmmLevel = "1";
+  private Map<String, ElementDefn> paths = new ConcurrentHashMap<String, ElementDefn>();
   
   public StructureDefinition getProfile() {
     return profile;
@@ -22,5 +35,48 @@ public class TypeDefn extends ElementDefn {
     this.fmmLevel = fmmLevel;
   }
 
+  @Override
+  public ElementDefn getElementForPath(String pathname, Definitions definitions, String purpose, boolean throughChoice, boolean followType) throws Exception {
+    if (definitions == null || !definitions.isLoaded())
+      return super.getElementForPath(pathname, definitions, purpose, throughChoice, followType);
+    String key = key("path", pathname, throughChoice, followType);
+    ElementDefn res = paths.get(key);
+    if (res == null) {
+      res = super.getElementForPath(pathname, definitions, purpose, throughChoice, followType);
+      paths.put(key, res == null ? NOT_FOUND : res);
+    }
+    return res == NOT_FOUND ? null : res;
+  }
+
+  @Override
+  public ElementDefn getElementByName(String name, boolean throughChoice, Definitions definitions, String purpose, boolean followType) throws Exception {
+    if (definitions == null || !definitions.isLoaded())
+      return super.getElementByName(name, throughChoice, definitions, purpose, followType);
+    String key = key("name", name, throughChoice, followType);
+    ElementDefn res = paths.get(key);
+    if (res == null) {
+      res = super.getElementByName(name, throughChoice, definitions, purpose, followType);
+      paths.put(key, res == null ? NOT_FOUND : res);
+    }
+    return res == NOT_FOUND ? null : res;
+  }
+
+  @Override
+  public ElementDefn getElementByName(Definitions definitions, String name, boolean throughChoice, boolean followType) {
+    if (definitions == null || !definitions.isLoaded())
+      return super.getElementByName(definitions, name, throughChoice, followType);
+    String key = key("child", name, throughChoice, followType);
+    ElementDefn res = paths.get(key);
+    if (res == null) {
+      res = super.getElementByName(definitions, name, throughChoice, followType);
+      paths.put(key, res == null ? NOT_FOUND : res);
+    }
+    return res == NOT_FOUND ? null : res;
+  }
+
+  private static String key(String kind, String name, boolean throughChoice, boolean followType) {
+    return kind+(throughChoice ? ":c" : ":-")+(followType ? "t:" : "-:")+name;
+  }
+
   
 }
@@ -58,8 +58,7 @@ import org.hl7.fhir.r5.terminologies.ValueSetUtilities;
 import org.hl7.fhir.r5.utils.ToolingExtensions;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.xls.XLSXmlNormaliser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser.Sheet;
+import org.hl7.fhir.definitions.parsers.WorkbookReader.Sheet;
 
 public class BindingsParser {
 
@@ -67,7 +66,7 @@ public class BindingsParser {
   private String filename;
   private String version;
   private String root;
-  private XLSXmlParser xls;
+  private WorkbookReader xls;
   private OIDRegistry registry;
   private CanonicalResourceManager<CodeSystem> codeSystems;
   private CanonicalResourceManager<ConceptMap> maps;
@@ -95,7 +94,7 @@ public class BindingsParser {
     //		n.setBinding(BindingSpecification.Binding.Unbound);
     //		results.add(n);
 
-    xls = new XLSXmlParser(file, filename);
+    xls = new WorkbookReader(file, filename);
     new XLSXmlNormaliser(filename, exceptionIfExcelNotNormalised).go();
     Sheet sheet = xls.getSheets().get("Bindings");
         
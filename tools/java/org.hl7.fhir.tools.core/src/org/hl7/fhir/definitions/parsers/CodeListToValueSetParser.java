@@ -26,7 +26,7 @@ import org.hl7.fhir.r5.model.ValueSet.ValueSetComposeComponent;
 import org.hl7.fhir.r5.terminologies.CodeSystemUtilities;
 import org.hl7.fhir.r5.utils.ToolingExtensions;
 import org.hl7.fhir.utilities.Utilities;
-import org.hl7.fhir.utilities.xls.XLSXmlParser.Sheet;
+import org.hl7.fhir.definitions.parsers.WorkbookReader.Sheet;
 
 public class CodeListToValueSetParser {
 
@@ -36,6 +36,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -107,6 +108,7 @@ import org.hl7.fhir.r5.model.StructureDefinition.StructureDefinitionContextCompo
 import org.hl7.fhir.r5.model.StructureDefinition.TypeDerivationRule;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.utils.ToolingExtensions;
+import org.hl7.fhir.tools.publisher.BuildCache;
 import org.hl7.fhir.tools.publisher.BuildWorkerContext;
 import org.hl7.fhir.tools.publisher.PageProcessor;
 import org.hl7.fhir.tools.publisher.PageProcessor.PageInfo;
@@ -124,8 +126,7 @@ import org.hl7.fhir.utilities.xhtml.XhtmlComposer;
 import org.hl7.fhir.utilities.xhtml.XhtmlNode;
 import org.hl7.fhir.utilities.xhtml.XhtmlParser;
 import org.hl7.fhir.utilities.xls.XLSXmlNormaliser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser.Sheet;
+import org.hl7.fhir.definitions.parsers.WorkbookReader.Sheet;
 import org.hl7.fhir.utilities.xml.XMLUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -164,6 +165,8 @@ public class SourceParser {
   private Bundle externals;
   private List<String> errors = new ArrayList<String>();
   private boolean exceptionIfExcelNotNormalised;
+  private int threads = 1;
+  private SpreadsheetLoader sheets;
   
 
   public SourceParser(Logger logger, String root, Definitions definitions, boolean forPublication, FHIRVersion version, BuildWorkerContext context, Calendar genDate, PageProcessor page, List<FHIRPathUsage> fpUsages, boolean exceptionIfExcelNotNormalised) throws IOException, ParserConfigurationException, SAXException {
@@ -220,6 +223,10 @@ public class SourceParser {
       definitions.getVsFixups().add(id);
     }
 
+    // the spreadsheets are read in the background, and interpreted here in order
+    sheets = new SpreadsheetLoader(threads, exceptionIfExcelNotNormalised, rootDir + "temp" + File.separator + "spreadsheets.cache", rootDir + "temp" + File.separator + "spreadsheets");
+    queueDefinitionSpreadsheets();
+
     for (String n : ini.getPropertyNames("infrastructure")) {
       loadCompositeType(n, definitions.getInfrastructure(), "5", "abstract".equals(ini.getStringProperty("infrastructure", n)));
     }
@@ -269,6 +276,7 @@ public class SourceParser {
     for (String n : ini.getPropertyNames("resources")) {
       loadResource(n, definitions.getResources(), false, false);
     }
+    queueProfileSpreadsheets();
 
     processSearchExpressions();
     processContainerExamples();
@@ -315,6 +323,7 @@ public class SourceParser {
       }
     }
     definitions.setLoaded(true);
+    sheets.close();
     
     for (ImplementationGuideDefn ig : definitions.getSortedIgs()) {
       if (!Utilities.noString(ig.getSource())) {
@@ -346,6 +355,47 @@ public class SourceParser {
     closeTemplates();
   }
 
+  /**
+   * the spreadsheets for the types, logical models and resources, in the order parse() loads them
+   */
+  private void queueDefinitionSpreadsheets() throws IOException {
+    for (String s : new String[] {"infrastructure", "types", "shared"}) {
+      String[] names = ini.getPropertyNames(s);
+      if (names != null) {
+        for (String n : names) {
+          // only the simple cases - anything else is read when it's loaded
+          File csv = new File(dtDir + n.toLowerCase() + ".xml");
+          if (n.matches("[A-Za-z]+") && csv.exists())
+            sheets.queue(csv.getAbsolutePath());
+        }
+      }
+    }
+    String[] logical = ini.getPropertyNames("logical");
+    if (logical != null)
+      for (String n : logical)
+        sheets.queue(Utilities.path(srcDir, n, n+"-spreadsheet.xml"));
+    for (String n : ini.getPropertyNames("resource-infrastructure"))
+      sheets.queue(srcDir + n + File.separatorChar + n + "-spreadsheet.xml");
+    for (String n : ini.getPropertyNames("resources"))
+      sheets.queue(srcDir + n + File.separatorChar + n + "-spreadsheet.xml");
+  }
+
+  /**
+   * the spreadsheets for the profiles, once the resources (which list most of them) are loaded
+   */
+  private void queueProfileSpreadsheets() throws IOException {
+    for (String n : ini.getPropertyNames("profiles"))
+      sheets.queue(Utilities.path(rootDir, ini.getStringProperty("profiles", n).split("\\:")[1]));
+    for (ResourceDefn r : definitions.getBaseResources().values())
+      for (Profile p : r.getConformancePackages())
+        if (p.getSourceType() == ConformancePackageSourceType.Spreadsheet)
+          sheets.queue(p.getSource());
+    for (ResourceDefn r : definitions.getResources().values())
+      for (Profile p : r.getConformancePackages())
+        if (p.getSourceType() == ConformancePackageSourceType.Spreadsheet)
+          sheets.queue(p.getSource());
+  }
+
   private void loadExternals() throws Exception {
     String[] externals = ini.getPropertyNames("externals");
 
@@ -483,8 +533,8 @@ public class SourceParser {
 
   private LogicalModel loadLogicalModel(String n) throws Exception {
     File spreadsheet = new CSFile(Utilities.path(srcDir, n, n+"-spreadsheet.xml"));    
-    SpreadsheetParser sparser = new SpreadsheetParser(n, new CSFileInputStream(spreadsheet), spreadsheet.getName(), spreadsheet.getAbsolutePath(), definitions, srcDir, logger, registry, version, context, genDate, false, page, 
-        false, ini, wg("fhir"), definitions.getProfileIds(), fpUsages, page.getConceptMaps(), exceptionIfExcelNotNormalised, page.packageInfo(), page.getRc());
+    SpreadsheetParser sparser = new SpreadsheetParser(n, sheets.load(spreadsheet.getAbsolutePath()), spreadsheet.getName(), definitions, srcDir, logger, registry, version, context, genDate, false, page, 
+        false, ini, wg("fhir"), definitions.getProfileIds(), fpUsages, page.getConceptMaps(), page.packageInfo(), page.getRc());
     sparser.setFolder(Utilities.getDirectoryForFile(spreadsheet.getAbsolutePath()));
     LogicalModel lm = sparser.parseLogicalModel();
     lm.setId(n);
@@ -803,7 +853,7 @@ public class SourceParser {
   }
 
   private void loadStatusCodes() throws FileNotFoundException, Exception {
-    XLSXmlParser xml = new XLSXmlParser(new CSFileInputStream(srcDir+"status-codes.xml"), "Status Codes");
+    WorkbookReader xml = new WorkbookReader(new CSFileInputStream(srcDir+"status-codes.xml"), "Status Codes", Collections.singleton("Status Codes"));
     new XLSXmlNormaliser(srcDir+"status-codes.xml", exceptionIfExcelNotNormalised).go();
     Sheet sheet = xml.getSheets().get("Status Codes");
     for (int row = 0; row < sheet.rows.size(); row++) {
@@ -820,7 +870,7 @@ public class SourceParser {
   }
 
   private void loadCompartments() throws FileNotFoundException, Exception {
-    XLSXmlParser xml = new XLSXmlParser(new CSFileInputStream(srcDir+"compartments.xml"), "compartments.xml");
+    WorkbookReader xml = new WorkbookReader(new CSFileInputStream(srcDir+"compartments.xml"), "compartments.xml", Collections.singleton("compartments"));
     new XLSXmlNormaliser(srcDir+"compartments.xml", exceptionIfExcelNotNormalised).go();
     Sheet sheet = xml.getSheets().get("compartments");
     for (int row = 0; row < sheet.rows.size(); row++) {
@@ -880,7 +930,7 @@ public class SourceParser {
     String[] v = ini.getStringProperty("profiles", n).split("\\:");
     File spreadsheet = new CSFile(Utilities.path(rootDir, v[1]));
     if (TextFile.fileToString(spreadsheet.getAbsolutePath()).contains("urn:schemas-microsoft-com:office:spreadsheet")) {
-      SpreadsheetParser sparser = new SpreadsheetParser(n, new CSFileInputStream(spreadsheet), spreadsheet.getName(), spreadsheet.getAbsolutePath(), definitions, srcDir, logger, registry, version, context, genDate, false, page, false, ini, wg(v[0]), definitions.getProfileIds(), fpUsages, page.getConceptMaps(), exceptionIfExcelNotNormalised, page.packageInfo(), page.getRc());
+      SpreadsheetParser sparser = new SpreadsheetParser(n, sheets.load(spreadsheet.getAbsolutePath()), spreadsheet.getName(), definitions, srcDir, logger, registry, version, context, genDate, false, page, false, ini, wg(v[0]), definitions.getProfileIds(), fpUsages, page.getConceptMaps(), page.packageInfo(), page.getRc());
       try {
         Profile pack = new Profile(usage);
         pack.setTitle(n);
@@ -960,7 +1010,7 @@ public class SourceParser {
 
   private void loadConformancePackage(Profile ap, List<ValidationMessage> issues, WorkGroup wg) throws FileNotFoundException, IOException, Exception {
     if (ap.getSourceType() == ConformancePackageSourceType.Spreadsheet) {
-      SpreadsheetParser sparser = new SpreadsheetParser(ap.getCategory(), new CSFileInputStream(ap.getSource()), Utilities.noString(ap.getId()) ? ap.getSource() : ap.getId(), ap.getSource(), definitions, srcDir, logger, registry, version, context, genDate, false, page, false, ini, wg, definitions.getProfileIds(), fpUsages, page.getConceptMaps(), exceptionIfExcelNotNormalised, page.packageInfo(), page.getRc());
+      SpreadsheetParser sparser = new SpreadsheetParser(ap.getCategory(), sheets.load(ap.getSource()), Utilities.noString(ap.getId()) ? ap.getSource() : ap.getId(), definitions, srcDir, logger, registry, version, context, genDate, false, page, false, ini, wg, definitions.getProfileIds(), fpUsages, page.getConceptMaps(), page.packageInfo(), page.getRc());
       sparser.setFolder(Utilities.getDirectoryForFile(ap.getSource()));
       sparser.parseConformancePackage(ap, definitions, Utilities.getDirectoryForFile(ap.getSource()), ap.getCategory(), issues, wg);
       errors.addAll(sparser.getErrors());
@@ -1018,7 +1068,7 @@ public class SourceParser {
   }
 
   private void loadPrimitives() throws Exception {
-    XLSXmlParser xls = new XLSXmlParser(new CSFileInputStream(dtDir+ "primitives.xml"), "primitives");
+    WorkbookReader xls = new WorkbookReader(new CSFileInputStream(dtDir+ "primitives.xml"), "primitives", Collections.singleton("Imports"));
     new XLSXmlNormaliser(dtDir+ "primitives.xml", exceptionIfExcelNotNormalised).go();
     Sheet sheet = xls.getSheets().get("Imports");
     for (int row = 0; row < sheet.rows.size(); row++) {
@@ -1089,7 +1139,7 @@ public class SourceParser {
       TypeRef t = ts.get(0);
       File csv = new CSFile(dtDir + t.getName().toLowerCase() + ".xml");
       if (csv.exists()) {
-        SpreadsheetParser p = new SpreadsheetParser("core", new CSFileInputStream(csv), csv.getName(), csv.getAbsolutePath(), definitions, srcDir, logger, registry, version, context, genDate, isAbstract, page, true, ini, wg("fhir"), definitions.getProfileIds(), fpUsages, page.getConceptMaps(), exceptionIfExcelNotNormalised, page.packageInfo(), page.getRc());
+        SpreadsheetParser p = new SpreadsheetParser("core", sheets.load(csv.getAbsolutePath()), csv.getName(), definitions, srcDir, logger, registry, version, context, genDate, isAbstract, page, true, ini, wg("fhir"), definitions.getProfileIds(), fpUsages, page.getConceptMaps(), page.packageInfo(), page.getRc());
         org.hl7.fhir.definitions.model.TypeDefn el = p.parseCompositeType();
         el.setFmmLevel(fmm);
         el.setStandardsStatus(status);
@@ -1103,8 +1153,7 @@ public class SourceParser {
         csv = new CSFile(dtDir + p.toLowerCase() + ".xml");
         if (!csv.exists())
           throw new Exception("unable to find a definition for " + n + " in " + p);
-        XLSXmlParser xls = new XLSXmlParser(new CSFileInputStream(csv), csv.getAbsolutePath());
-        new XLSXmlNormaliser(csv.getAbsolutePath(), exceptionIfExcelNotNormalised).go();
+        WorkbookReader xls = sheets.load(csv.getAbsolutePath());
 
         Sheet sheet = xls.getSheets().get("Restrictions");
         boolean found = false;
@@ -1168,8 +1217,7 @@ public class SourceParser {
     if (wg == null)
       throw new Exception("No Workgroup found for resource "+n+": '"+ini.getStringProperty("workgroups", n)+"'");
     
-    SpreadsheetParser sparser = new SpreadsheetParser("core", new CSFileInputStream(
-        spreadsheet), spreadsheet.getName(), spreadsheet.getAbsolutePath(), definitions, srcDir, logger, registry, version, context, genDate, isAbstract, page, false, ini, wg, definitions.getProfileIds(), fpUsages, page.getConceptMaps(), exceptionIfExcelNotNormalised, page.packageInfo(), page.getRc());
+    SpreadsheetParser sparser = new SpreadsheetParser("core", sheets.load(spreadsheet.getAbsolutePath()), spreadsheet.getName(), definitions, srcDir, logger, registry, version, context, genDate, isAbstract, page, false, ini, wg, definitions.getProfileIds(), fpUsages, page.getConceptMaps(), page.packageInfo(), page.getRc());
     ResourceDefn root;
     try {
       root = sparser.parseResource(isTemplate);
@@ -1279,20 +1327,18 @@ public class SourceParser {
       errors.add("Unable to find "+purpose+" file "+file+" in "+dir);
       return false;
     } else  {
-      long d = f.lastModified();
-      if (!f.getAbsolutePath().endsWith(".gen.svg") && !f.getName().contains("please-close-this-in-excel-and-return-the-build-prior-to-committing") && (!dates.containsKey(category) || d > dates.get(category)))
-        dates.put(category, d);
+      buildCache.register(category, f);
       return true;
     }
       }
-  private Map<String, Long> dates;
+  private BuildCache buildCache;
   private ValueSetGenerator vsGen;
 
-  public void checkConditions(List<String> errors, Map<String, Long> dates) throws Exception {
+  public void checkConditions(List<String> errors, BuildCache buildCache) throws Exception {
     Utilities.checkFolder(srcDir, errors);
     Utilities.checkFolder(termDir, errors);
     Utilities.checkFolder(imgDir, errors);
-    this.dates = dates;
+    this.buildCache = buildCache;
     checkFile("required", termDir, "bindings.xml", errors, "all");
     checkFile("required", dtDir, "primitives.xml", errors, "all");
 
@@ -1355,6 +1401,14 @@ public class SourceParser {
   }
 
 
+  /**
+   * the number of threads to read the source spreadsheets on
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+
 
 
   public List<String> getErrors() {
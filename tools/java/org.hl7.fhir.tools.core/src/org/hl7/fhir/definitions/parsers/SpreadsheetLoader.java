@@ -0,0 +1,228 @@
+package org.hl7.fhir.definitions.parsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.hl7.fhir.utilities.IniFile;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.xls.XLSXmlNormaliser;
+
+/**
+ * Reads the source spreadsheets (parses the workbook, and checks that it's normalised)
+ * on a pool of worker threads, ahead of the SourceParser.
+ *
+ * Reading the workbooks is most of the cost of loading the source, and each one is
+ * independent of the others. Interpreting them isn't - it registers OIDs, bindings,
+ * search parameters etc, and resources refer to the ones loaded before them - so the
+ * SourceParser still interprets them one at a time, in the same order as ever, and the
+ * definitions come out exactly the same.
+ *
+ * Spreadsheets are read in the order they are queued, and only a few per thread are read
+ * ahead of the one being interpreted, so they aren't all held in memory at once. A
+ * spreadsheet that wasn't queued (or with 1 thread) is just read when it's asked for.
+ *
+ * Workbooks are cached by their content hash (SHA-1): the sheets of each workbook that
+ * has been parsed are saved (see WorkbookReader.save) in temp/spreadsheets, and a
+ * workbook with the same content is loaded from there rather than parsed again. Saved
+ * sheets for content that no spreadsheet has any more are deleted when the loader is
+ * closed.
+ *
+ * Checking that a workbook is normalised means parsing it all over again, so the hash
+ * of each workbook that has passed the check is kept in temp/spreadsheets.cache, and
+ * the check is skipped for a workbook that hasn't changed since
+ */
+public class SpreadsheetLoader {
+
+  private static final int WINDOW = 4; // spreadsheets read ahead per thread
+
+  private final int threads;
+  private final boolean exceptionIfExcelNotNormalised;
+  private final IniFile normalised;
+  private boolean changed;
+  private final File cacheDir;
+  private final Set<String> used = new HashSet<String>();
+  private final ExecutorService executor;
+  private final LinkedList<String> queue = new LinkedList<String>();
+  private final Map<String, Future<WorkbookReader>> reading = new HashMap<String, Future<WorkbookReader>>();
+
+  public SpreadsheetLoader(int threads, boolean exceptionIfExcelNotNormalised, String cacheFile, String cacheDir) {
+    super();
+    this.threads = Math.max(threads, 1);
+    this.exceptionIfExcelNotNormalised = exceptionIfExcelNotNormalised;
+    this.normalised = new IniFile(cacheFile);
+    this.cacheDir = new File(cacheDir);
+    this.cacheDir.mkdirs();
+    if (this.threads > 1) {
+      executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+        private int count;
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "spreadsheets-"+Integer.toString(++count));
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    } else
+      executor = null;
+  }
+
+  /**
+   * start reading this spreadsheet in the background, once the ones queued before it
+   * have been read
+   */
+  public void queue(String filename) {
+    if (executor == null || executor.isShutdown())
+      return;
+    String key = key(filename);
+    if (!reading.containsKey(key) && !queue.contains(key)) {
+      queue.add(key);
+      fill();
+    }
+  }
+
+  public WorkbookReader load(String filename) throws Exception {
+    String key = key(filename);
+    Future<WorkbookReader> f = reading.remove(key);
+    WorkbookReader xls;
+    if (f == null) {
+      queue.remove(key);
+      xls = read(key);
+    } else {
+      try {
+        xls = f.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception)
+          throw (Exception) e.getCause();
+        throw new Exception(e.getCause());
+      }
+    }
+    fill();
+    return xls;
+  }
+
+  public void close() {
+    queue.clear();
+    reading.clear();
+    if (executor != null)
+      executor.shutdownNow();
+    synchronized (normalised) {
+      if (changed)
+        normalised.save();
+      changed = false;
+      Set<String> current = new HashSet<String>();
+      synchronized (used) {
+        current.addAll(used);
+      }
+      String[] names = normalised.getPropertyNames("normalised");
+      if (names != null)
+        for (String n : names)
+          current.add(normalised.getStringProperty("normalised", n));
+      File[] saved = cacheDir.listFiles();
+      if (saved != null)
+        for (File f : saved)
+          if (f.getName().endsWith(".sheets") && !current.contains(f.getName().substring(0, f.getName().length() - 7)))
+            f.delete();
+    }
+  }
+
+  private void fill() {
+    while (!queue.isEmpty() && reading.size() < threads * WINDOW) {
+      final String key = queue.removeFirst();
+      reading.put(key, executor.submit(new Callable<WorkbookReader>() {
+        @Override
+        public WorkbookReader call() throws Exception {
+          return read(key);
+        }
+      }));
+    }
+  }
+
+  private static String key(String filename) {
+    return new File(filename).getAbsolutePath();
+  }
+
+  private WorkbookReader read(String filename) throws Exception {
+    byte[] content = TextFile.fileToBytes(filename);
+    String contentHash = hash(content);
+    synchronized (used) {
+      used.add(contentHash);
+    }
+    WorkbookReader xls = fromCache(contentHash, filename);
+    if (xls == null) {
+      xls = new WorkbookReader(new ByteArrayInputStream(content), filename);
+      toCache(contentHash, xls);
+    }
+    String key = filename.replace(File.separatorChar, '/');
+    String hash;
+    synchronized (normalised) {
+      hash = normalised.getStringProperty("normalised", key);
+    }
+    if (hash == null || !hash.equals(contentHash)) {
+      new XLSXmlNormaliser(filename, exceptionIfExcelNotNormalised).go();
+      // the normaliser may have rewritten it
+      hash = hash(TextFile.fileToBytes(filename));
+      synchronized (normalised) {
+        normalised.setStringProperty("normalised", key, hash, null);
+        changed = true;
+      }
+    }
+    return xls;
+  }
+
+  private WorkbookReader fromCache(String hash, String filename) {
+    File f = new File(cacheDir, hash + ".sheets");
+    if (!f.exists())
+      return null;
+    try {
+      InputStream in = new FileInputStream(f);
+      try {
+        return WorkbookReader.load(in, filename);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // damaged, or from an older version - parse the workbook instead
+      return null;
+    }
+  }
+
+  private void toCache(String hash, WorkbookReader xls) throws IOException {
+    // written under another name first, so a loader never sees it half written
+    File tmp = File.createTempFile(hash, ".tmp", cacheDir);
+    OutputStream out = new FileOutputStream(tmp);
+    try {
+      xls.save(out);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(new File(cacheDir, hash + ".sheets")))
+      tmp.delete(); // another thread has saved the same content
+  }
+
+  private static String hash(byte[] content) throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA-1");
+    StringBuilder b = new StringBuilder();
+    for (byte v : md.digest(content)) {
+      b.append(Character.forDigit((v >> 4) & 0xF, 16));
+      b.append(Character.forDigit(v & 0xF, 16));
+    }
+    return b.toString();
+  }
+}
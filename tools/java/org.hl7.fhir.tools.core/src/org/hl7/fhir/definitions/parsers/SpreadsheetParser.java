@@ -143,8 +143,7 @@ import org.hl7.fhir.utilities.TextFile;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.xls.XLSXmlNormaliser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser.Sheet;
+import org.hl7.fhir.definitions.parsers.WorkbookReader.Sheet;
 
 import com.trilead.ssh2.crypto.Base64;
 
@@ -152,7 +151,7 @@ public class SpreadsheetParser {
 
   private String usageContext;
 	private String name;
-	private XLSXmlParser xls;
+	private WorkbookReader xls;
 	private List<EventDefn> events = new ArrayList<EventDefn>();
 	private boolean isProfile;
 	private String profileExtensionBase;
@@ -189,10 +188,17 @@ public class SpreadsheetParser {
   
 	public SpreadsheetParser(String usageContext, InputStream in, String name, String filename, Definitions definitions, String root, Logger log, OIDRegistry registry, FHIRVersion version, BuildWorkerContext context, Calendar genDate, boolean isAbstract, 
 	     ProfileKnowledgeProvider pkp, boolean isType, IniFile ini, WorkGroup committee, Map<String, ConstraintStructure> profileIds, List<FHIRPathUsage> fpUsages, CanonicalResourceManager<ConceptMap> maps, boolean exceptionIfExcelNotNormalised, PackageVersion packageInfo, RenderingContext rc) throws Exception {
+	  this(usageContext, read(in, filename, exceptionIfExcelNotNormalised), name, definitions, root, log, registry, version, context, genDate, isAbstract, pkp, isType, ini, committee, profileIds, fpUsages, maps, packageInfo, rc);
+	}
+
+	/**
+	 * for a workbook that has already been read (see SpreadsheetLoader)
+	 */
+	public SpreadsheetParser(String usageContext, WorkbookReader xls, String name, Definitions definitions, String root, Logger log, OIDRegistry registry, FHIRVersion version, BuildWorkerContext context, Calendar genDate, boolean isAbstract, 
+	     ProfileKnowledgeProvider pkp, boolean isType, IniFile ini, WorkGroup committee, Map<String, ConstraintStructure> profileIds, List<FHIRPathUsage> fpUsages, CanonicalResourceManager<ConceptMap> maps, PackageVersion packageInfo, RenderingContext rc) throws Exception {
 	  this.usageContext = usageContext;
 		this.name = name;
-  	xls = new XLSXmlParser(in, filename);
-    new XLSXmlNormaliser(filename, exceptionIfExcelNotNormalised).go();
+		this.xls = xls;
 		this.definitions = definitions;
 		this.workgroups = definitions.getWorkgroups();
 		this.mappings = definitions.getMapTypes();
@@ -222,11 +228,17 @@ public class SpreadsheetParser {
 		this.rc = rc;
 	}
 
+  private static WorkbookReader read(InputStream in, String filename, boolean exceptionIfExcelNotNormalised) throws Exception {
+    WorkbookReader xls = new WorkbookReader(in, filename);
+    new XLSXmlNormaliser(filename, exceptionIfExcelNotNormalised).go();
+    return xls;
+  }
+
   public SpreadsheetParser(String usageContext, InputStream in, String name, String filename, ImplementationGuideDefn ig, String root, Logger log, OIDRegistry registry, FHIRVersion version, BuildWorkerContext context, Calendar genDate, boolean isAbstract, ProfileKnowledgeProvider pkp, boolean isType, WorkGroup committee, Map<String, MappingSpace> mappings, Map<String, ConstraintStructure> profileIds, CanonicalResourceManager<CodeSystem> codeSystems, CanonicalResourceManager<ConceptMap> maps, Map<String, WorkGroup> workgroups, boolean exceptionIfExcelNotNormalised) throws Exception {
     this.usageContext = usageContext;
     this.name = name;
     this.registry = registry;
-    xls = new XLSXmlParser(in, filename);
+    xls = new WorkbookReader(in, filename);
     new XLSXmlNormaliser(filename, exceptionIfExcelNotNormalised).go();
     this.definitions = null;
     this.workgroups = workgroups;
@@ -0,0 +1,361 @@
+package org.hl7.fhir.definitions.parsers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * Reads an Excel 2003 XML workbook (the source spreadsheets) - the same content as
+ * XLSXmlParser, but streamed, rather than loaded into a DOM first.
+ *
+ * Only the cell values are kept, each row as a fixed array of strings; the styles,
+ * document properties, worksheet options, cell comments etc are skipped as they're
+ * read. If the caller knows which sheets it wants, the rest are skipped too
+ */
+public class WorkbookReader {
+
+  private static final String XLS_NS = "urn:schemas-microsoft-com:office:spreadsheet";
+  private static final int VERSION = 1; // of the saved form
+
+  public static class Sheet {
+    public String title;
+    public List<String> columns;
+    public List<List<String>> rows = new ArrayList<List<String>>();
+
+    public boolean hasColumn(int row, String column) {
+      String s = getColumn(row, column);
+      return s != null && !s.equals("");
+    }
+
+    public boolean hasColumn(String column) {
+      return indexOf(column) > -1;
+    }
+
+    public String getColumn(int row, String column) {
+      int c = indexOf(column);
+      if (c == -1 || rows.get(row).size() <= c)
+        return "";
+      String s = rows.get(row).get(c);
+      return s == null ? "" : s.trim();
+    }
+
+    public String getNonEmptyColumn(int row, String column) throws FHIRException {
+      String s = getColumn(row, column);
+      if (Utilities.noString(s))
+        throw new FHIRException("Missing value for column "+column+" at row "+Integer.toString(row));
+      return s;
+    }
+
+    public int getIntColumn(int row, String column) {
+      String s = getColumn(row, column);
+      return Utilities.noString(s) ? 0 : Integer.parseInt(s);
+    }
+
+    /**
+     * the value in the (last) column whose name starts with prefix
+     */
+    public String getByColumnPrefix(int row, String prefix) {
+      int c = -1;
+      for (int i = 0; i < columns.size(); i++)
+        if (columns.get(i) != null && columns.get(i).startsWith(prefix))
+          c = i;
+      if (c == -1 || rows.get(row).size() <= c)
+        return "";
+      String s = rows.get(row).get(c);
+      return s == null ? "" : s.trim();
+    }
+
+    /**
+     * true if any row has a value in the column (the name must match exactly)
+     */
+    public boolean hasColumnContent(String column) {
+      int c = columns.indexOf(column);
+      if (c == -1)
+        return false;
+      for (List<String> row : rows)
+        if (row.size() > c && !Utilities.noString(row.get(c)))
+          return true;
+      return false;
+    }
+
+    public List<List<String>> getRows() {
+      return rows;
+    }
+
+    private int indexOf(String column) {
+      int c = -1;
+      for (int i = 0; i < columns.size(); i++)
+        if (column.equalsIgnoreCase(columns.get(i)))
+          c = i;
+      return c;
+    }
+  }
+
+  private String name;
+  private Map<String, Sheet> sheets = new HashMap<String, Sheet>();
+
+  public WorkbookReader(InputStream in, String name) throws FHIRException {
+    this(in, name, null);
+  }
+
+  /**
+   * @param wanted the names of the sheets to read (or null for all of them)
+   */
+  public WorkbookReader(InputStream in, String name, Set<String> wanted) throws FHIRException {
+    super();
+    this.name = name;
+    try {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+      factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+      XMLStreamReader xml = factory.createXMLStreamReader(in);
+      try {
+        xml.nextTag();
+        check(XLS_NS.equals(xml.getNamespaceURI()), "Spreadsheet namespace incorrect");
+        check("Workbook".equals(xml.getLocalName()), "Spreadsheet element name incorrect");
+        while (nextElement(xml)) {
+          if (isXls(xml, "Worksheet")) {
+            String title = xml.getAttributeValue(XLS_NS, "Name");
+            if (wanted == null || wanted.contains(title))
+              readWorksheet(xml, title);
+            else
+              skip(xml);
+          } else
+            skip(xml);
+        }
+      } finally {
+        xml.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new FHIRException("Error reading "+name+": "+e.getMessage(), e);
+    }
+  }
+
+  private WorkbookReader(String name) {
+    super();
+    this.name = name;
+  }
+
+  public Map<String, Sheet> getSheets() {
+    return sheets;
+  }
+
+  /**
+   * writes the sheets out in a compact binary form, so they can be read again (by
+   * {@link #load(InputStream, String)}) without parsing the workbook
+   */
+  public void save(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(VERSION);
+    out.writeInt(sheets.size());
+    for (Sheet sheet : sheets.values()) {
+      writeString(out, sheet.title);
+      writeRow(out, sheet.columns);
+      out.writeInt(sheet.rows.size());
+      for (List<String> row : sheet.rows)
+        writeRow(out, row);
+    }
+    out.flush();
+  }
+
+  /**
+   * a workbook saved by {@link #save(OutputStream)}
+   */
+  public static WorkbookReader load(InputStream stream, String name) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+    if (in.readInt() != VERSION)
+      throw new IOException("Saved workbook "+name+" is from a different version");
+    WorkbookReader res = new WorkbookReader(name);
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      Sheet sheet = new Sheet();
+      sheet.title = readString(in);
+      sheet.columns = readRow(in);
+      int rows = in.readInt();
+      for (int r = 0; r < rows; r++)
+        sheet.rows.add(readRow(in));
+      res.sheets.put(sheet.title, sheet);
+    }
+    return res;
+  }
+
+  private static void writeRow(DataOutputStream out, List<String> row) throws IOException {
+    if (row == null)
+      out.writeInt(-1);
+    else {
+      out.writeInt(row.size());
+      for (String s : row)
+        writeString(out, s);
+    }
+  }
+
+  private static List<String> readRow(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size == -1)
+      return null;
+    String[] row = new String[size];
+    for (int i = 0; i < size; i++)
+      row[i] = readString(in);
+    return Arrays.asList(row);
+  }
+
+  // writeUTF can't take more than 64k, and a cell can
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null)
+      out.writeInt(-1);
+    else {
+      byte[] b = s.getBytes("UTF-8");
+      out.writeInt(b.length);
+      out.write(b);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length == -1)
+      return null;
+    byte[] b = new byte[length];
+    in.readFully(b);
+    return new String(b, "UTF-8");
+  }
+
+  private void readWorksheet(XMLStreamReader xml, String title) throws XMLStreamException, FHIRException {
+    Sheet sheet = new Sheet();
+    sheet.title = title;
+    sheets.put(title, sheet);
+    boolean table = false;
+    while (nextElement(xml)) {
+      if (isXls(xml, "Table")) {
+        check(!table, "multiple table elements");
+        table = true;
+        while (nextElement(xml)) {
+          if (isXls(xml, "Row")) {
+            List<String> row = readRow(xml);
+            if (sheet.columns == null)
+              sheet.columns = row;
+            else
+              sheet.rows.add(row);
+          } else
+            skip(xml);
+        }
+      } else
+        skip(xml);
+    }
+  }
+
+  private List<String> readRow(XMLStreamReader xml) throws XMLStreamException, FHIRException {
+    List<String> res = new ArrayList<String>();
+    int ndx = 1;
+    while (nextElement(xml)) {
+      if (isXls(xml, "Cell")) {
+        String index = xml.getAttributeValue(XLS_NS, "Index");
+        if (index != null) {
+          int i = Integer.parseInt(index);
+          while (ndx < i) {
+            res.add("");
+            ndx++;
+          }
+        }
+        res.add(readCell(xml, ndx, res.isEmpty() ? "?" : res.get(0)));
+        ndx++;
+      } else
+        skip(xml);
+    }
+    return Arrays.asList(res.toArray(new String[res.size()]));
+  }
+
+  private String readCell(XMLStreamReader xml, int col, String s) throws XMLStreamException, FHIRException {
+    String res = "";
+    boolean data = false;
+    while (nextElement(xml)) {
+      if (isXls(xml, "Data")) {
+        check(!data, "Multiple Data encountered (@ col "+Integer.toString(col)+" ("+s+"))");
+        data = true;
+        String type = xml.getAttributeValue(XLS_NS, "Type");
+        String text = readText(xml);
+        if ("Boolean".equals(type))
+          res = text.equals("1") ? "True" : "False";
+        else if ("String".equals(type) || "Number".equals(type) || "DateTime".equals(type))
+          res = text;
+        else if ("Error".equals(type))
+          res = null;
+        else
+          throw new FHIRException("Cell Type is not known ("+type+") in "+name);
+      } else
+        skip(xml); // comments etc
+    }
+    return res;
+  }
+
+  /**
+   * the text content of the current element, including any formatting (html:Font etc)
+   * inside it
+   */
+  private String readText(XMLStreamReader xml) throws XMLStreamException {
+    StringBuilder b = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT)
+        depth++;
+      else if (event == XMLStreamConstants.END_ELEMENT)
+        depth--;
+      else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)
+        b.append(xml.getText());
+    }
+    return b.toString();
+  }
+
+  /**
+   * move to the next child element of the current element - false at the end of it
+   */
+  private boolean nextElement(XMLStreamReader xml) throws XMLStreamException {
+    while (true) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT)
+        return true;
+      if (event == XMLStreamConstants.END_ELEMENT)
+        return false;
+    }
+  }
+
+  private void skip(XMLStreamReader xml) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT)
+        depth++;
+      else if (event == XMLStreamConstants.END_ELEMENT)
+        depth--;
+    }
+  }
+
+  private boolean isXls(XMLStreamReader xml, String name) {
+    return XLS_NS.equals(xml.getNamespaceURI()) && name.equals(xml.getLocalName());
+  }
+
+  private void check(boolean test, String message) throws FHIRException {
+    if (!test)
+      throw new FHIRException(message+" in "+name);
+  }
+}
@@ -0,0 +1,193 @@
+package org.hl7.fhir.definitions.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.hl7.fhir.definitions.parsers.WorkbookReader.Sheet;
+import org.hl7.fhir.exceptions.FHIRException;
+import org.junit.Test;
+
+public class WorkbookReaderTests {
+
+  private static final String START =
+      "<?xml version=\"1.0\"?>\r\n"+
+      "<?mso-application progid=\"Excel.Sheet\"?>\r\n"+
+      "<Workbook xmlns=\"urn:schemas-microsoft-com:office:spreadsheet\" xmlns:o=\"urn:schemas-microsoft-com:office:office\"\r\n"+
+      "  xmlns:ss=\"urn:schemas-microsoft-com:office:spreadsheet\" xmlns:html=\"http://www.w3.org/TR/REC-html40\">\r\n"+
+      " <DocumentProperties xmlns=\"urn:schemas-microsoft-com:office:office\"><Author>test</Author></DocumentProperties>\r\n"+
+      " <Styles><Style ss:ID=\"s1\"><Font ss:Bold=\"1\"/></Style></Styles>\r\n";
+  private static final String END = "</Workbook>\r\n";
+
+  private WorkbookReader read(String sheets) throws Exception {
+    return read(sheets, null);
+  }
+
+  private WorkbookReader read(String sheets, String[] wanted) throws Exception {
+    byte[] b = (START+sheets+END).getBytes("UTF-8");
+    return new WorkbookReader(new ByteArrayInputStream(b), "test.xml", wanted == null ? null : new HashSet<String>(Arrays.asList(wanted)));
+  }
+
+  private String sheet(String name, String rows) {
+    return " <Worksheet ss:Name=\""+name+"\">\r\n  <Table ss:ExpandedColumnCount=\"5\">\r\n"+
+        "   <Column ss:Width=\"80\"/>\r\n"+rows+"  </Table>\r\n"+
+        "  <WorksheetOptions xmlns=\"urn:schemas-microsoft-com:office:excel\"><Selected/></WorksheetOptions>\r\n </Worksheet>\r\n";
+  }
+
+  private String cell(String value) {
+    return "<Cell><Data ss:Type=\"String\">"+value+"</Data></Cell>";
+  }
+
+  private List<String> row(String... values) {
+    return Arrays.asList(values);
+  }
+
+  @Test
+  public void testValues() throws Exception {
+    WorkbookReader wb = read(sheet("Data",
+        "   <Row>"+cell("Element")+cell("Card.")+cell("Must Support")+cell("Count")+cell("Value")+"</Row>\r\n"+
+        "   <Row ss:StyleID=\"s1\">"+cell("Patient.name")+cell("0..*")+
+        "<Cell><Data ss:Type=\"Boolean\">1</Data></Cell><Cell><Data ss:Type=\"Number\">12</Data></Cell>"+
+        "<Cell><Data ss:Type=\"Error\">#REF!</Data></Cell></Row>\r\n"+
+        "   <Row><Cell><Data ss:Type=\"Boolean\">0</Data></Cell><Cell><Data ss:Type=\"DateTime\">2016-01-01T00:00:00.000</Data></Cell></Row>\r\n"));
+    Sheet s = wb.getSheets().get("Data");
+    assertEquals("Data", s.title);
+    assertEquals(row("Element", "Card.", "Must Support", "Count", "Value"), s.columns);
+    assertEquals(2, s.rows.size());
+    assertEquals(row("Patient.name", "0..*", "True", "12", null), s.rows.get(0));
+    assertEquals(row("False", "2016-01-01T00:00:00.000"), s.rows.get(1));
+
+    assertEquals("0..*", s.getColumn(0, "card."));
+    assertTrue(s.hasColumn(0, "Must Support"));
+    assertEquals(12, s.getIntColumn(0, "Count"));
+    assertEquals("", s.getColumn(0, "Value")); // the error
+    assertEquals("", s.getColumn(1, "Count")); // past the end of the row
+    assertEquals("", s.getColumn(0, "Missing"));
+    assertEquals("True", s.getByColumnPrefix(0, "Must"));
+    assertTrue(s.hasColumnContent("Card."));
+    assertFalse(s.hasColumnContent("Value"));
+  }
+
+  @Test
+  public void testText() throws Exception {
+    // the same text repeated, formatting runs inside a cell, entities and CDATA: only the text is kept
+    WorkbookReader wb = read(sheet("Data",
+        "   <Row>"+cell("Name")+cell("Name")+"</Row>\r\n"+
+        "   <Row><Cell ss:StyleID=\"s1\"><ss:Data ss:Type=\"String\" xmlns=\"http://www.w3.org/TR/REC-html40\"><B>bold</B> and <Font html:Color=\"#FF0000\">red</Font></ss:Data></Cell>"+
+        cell("a &amp; b &lt;c&gt;&#10;line 2")+cell("<![CDATA[x < y]]>")+cell("  padded  ")+"</Row>\r\n"));
+    Sheet s = wb.getSheets().get("Data");
+    assertEquals(row("Name", "Name"), s.columns);
+    assertEquals(row("bold and red", "a & b <c>\nline 2", "x < y", "  padded  "), s.rows.get(0));
+  }
+
+  @Test
+  public void testEmptyCells() throws Exception {
+    // cells that are left out (the next cell has an index), cells without data, and empty rows
+    WorkbookReader wb = read(sheet("Data",
+        "   <Row>"+cell("A")+cell("B")+cell("C")+cell("D")+"</Row>\r\n"+
+        "   <Row><Cell ss:Index=\"3\"><Data ss:Type=\"String\">c</Data></Cell></Row>\r\n"+
+        "   <Row><Cell ss:StyleID=\"s1\"/>"+cell("b")+"<Cell><Comment><Data>a note</Data></Comment></Cell>"+cell("d")+"</Row>\r\n"+
+        "   <Row/>\r\n"+
+        "   <Row><Cell><Data ss:Type=\"String\"></Data></Cell><Cell ss:Index=\"4\"><Data ss:Type=\"String\">d</Data></Cell></Row>\r\n"));
+    Sheet s = wb.getSheets().get("Data");
+    assertEquals(4, s.rows.size());
+    assertEquals(row("", "", "c"), s.rows.get(0));
+    assertEquals(row("", "b", "", "d"), s.rows.get(1));
+    assertEquals(row(), s.rows.get(2));
+    assertEquals(row("", "", "", "d"), s.rows.get(3));
+    assertFalse(s.hasColumn(0, "A"));
+    assertEquals("", s.getColumn(2, "D"));
+    assertEquals("d", s.getColumn(3, "D"));
+  }
+
+  @Test
+  public void testMergedCells() throws Exception {
+    // a merged cell's value is in its first column; the cells it covers are empty, and the
+    // cell after it has an index
+    WorkbookReader wb = read(sheet("Data",
+        "   <Row>"+cell("A")+cell("B")+cell("C")+cell("D")+"</Row>\r\n"+
+        "   <Row><Cell ss:MergeAcross=\"1\"><Data ss:Type=\"String\">ab</Data></Cell><Cell ss:Index=\"3\" ss:MergeDown=\"1\"><Data ss:Type=\"String\">c</Data></Cell>"+cell("d")+"</Row>\r\n"+
+        "   <Row><Cell ss:Index=\"4\"><Data ss:Type=\"String\">d2</Data></Cell></Row>\r\n"));
+    Sheet s = wb.getSheets().get("Data");
+    assertEquals(row("ab", "", "c", "d"), s.rows.get(0));
+    assertEquals(row("", "", "", "d2"), s.rows.get(1));
+    assertEquals("", s.getColumn(1, "C"));
+  }
+
+  @Test
+  public void testSheets() throws Exception {
+    String sheets = sheet("One", "   <Row>"+cell("A")+"</Row>\r\n   <Row>"+cell("1")+"</Row>\r\n")+
+        sheet("Two", "   <Row>"+cell("B")+"</Row>\r\n")+
+        " <Worksheet ss:Name=\"Empty\"/>\r\n";
+    WorkbookReader wb = read(sheets);
+    assertEquals(new HashSet<String>(Arrays.asList("One", "Two", "Empty")), wb.getSheets().keySet());
+    assertEquals(row("B"), wb.getSheets().get("Two").columns);
+    assertTrue(wb.getSheets().get("Two").rows.isEmpty());
+    assertNull(wb.getSheets().get("Empty").columns);
+
+    wb = read(sheets, new String[] { "Two", "Missing" });
+    assertEquals(new HashSet<String>(Arrays.asList("Two")), wb.getSheets().keySet());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 10000; i++)
+      big.append("long text ");
+    WorkbookReader wb = read(sheet("One", "   <Row>"+cell("A")+cell("B")+"</Row>\r\n   <Row>"+cell("\u00e9")+"<Cell><Data ss:Type=\"Error\">#N/A</Data></Cell></Row>\r\n"+
+        "   <Row><Cell ss:Index=\"2\"><Data ss:Type=\"String\">"+big.toString()+"</Data></Cell></Row>\r\n")+
+        " <Worksheet ss:Name=\"Empty\"/>\r\n");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    wb.save(out);
+    WorkbookReader loaded = WorkbookReader.load(new ByteArrayInputStream(out.toByteArray()), "test.xml");
+    assertEquals(wb.getSheets().keySet(), loaded.getSheets().keySet());
+    Sheet s = loaded.getSheets().get("One");
+    assertEquals("One", s.title);
+    assertEquals(wb.getSheets().get("One").columns, s.columns);
+    assertEquals(wb.getSheets().get("One").rows, s.rows);
+    assertEquals(row("\u00e9", null), s.rows.get(0));
+    assertEquals(big.toString(), s.rows.get(1).get(1));
+    assertNull(loaded.getSheets().get("Empty").columns);
+
+    byte[] b = out.toByteArray();
+    b[3]++; // the version
+    try {
+      WorkbookReader.load(new ByteArrayInputStream(b), "test.xml");
+      fail("loaded a different version");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("different version"));
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    checkError(sheet("Data", "   <Row><Cell><Data ss:Type=\"String\">a</Data><Data ss:Type=\"String\">b</Data></Cell></Row>\r\n"), "Multiple Data");
+    checkError(sheet("Data", "   <Row><Cell><Data ss:Type=\"Formula\">a</Data></Cell></Row>\r\n"), "Cell Type is not known (Formula)");
+    checkError(" <Worksheet ss:Name=\"Data\"><Table/><Table/></Worksheet>\r\n", "multiple table elements");
+    checkError(sheet("Data", "   <Row>"+cell("a")+"</Row\r\n"), "Error reading test.xml");
+    try {
+      new WorkbookReader(new ByteArrayInputStream("<Workbook/>".getBytes("UTF-8")), "test.xml");
+      fail("read a workbook in no namespace");
+    } catch (FHIRException e) {
+      assertEquals("Spreadsheet namespace incorrect in test.xml", e.getMessage());
+    }
+  }
+
+  private void checkError(String sheets, String message) throws Exception {
+    try {
+      read(sheets);
+      fail("no error: "+message);
+    } catch (FHIRException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+}
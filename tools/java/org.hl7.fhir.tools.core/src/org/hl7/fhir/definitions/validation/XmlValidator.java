@@ -21,7 +21,16 @@ package org.hl7.fhir.definitions.validation;
  */
 
 
+import net.sf.saxon.s9api.DOMDestination;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
 import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.tools.publisher.XmlParsers;
 import org.hl7.fhir.utilities.*;
 import org.hl7.fhir.utilities.Logger.LogMessageType;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
@@ -38,23 +47,52 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 public class XmlValidator {
 
+  private static final String SVRL_SKELETON = "iso_svrl_for_xslt2.xsl";
+
+  // compiling a schematron (running the ISO skeleton over it, then compiling the
+  // stylesheet that produces) costs far more than running it over an example, so each
+  // one is compiled once and shared by all the validators (worker threads) that have the
+  // same source. Keyed by the content itself: byte[] has identity equality, and the entry
+  // goes when the content does
+  private static final Processor processor = new Processor(false);
+  private static final Map<byte[], XsltExecutable> compiled = new WeakHashMap<byte[], XsltExecutable>();
+
+  // likewise the schema: a Schema is thread safe, and compiling fhir-single.xsd takes
+  // longer than validating most examples. Keyed by the names and digests of the xsd
+  // files, and only the last few are kept (the daemon sees new ones as the source changes)
+  private static final int MAX_SCHEMAS = 4;
+  private static final Map<String, Schema> schemaCache = new LinkedHashMap<String, Schema>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Schema> eldest) {
+      return size() > MAX_SCHEMAS;
+    }
+  };
+
   private Schema schema;
   private Map<String, byte[]> schemas;
   private Map<String, byte[]> transforms;
@@ -75,28 +113,48 @@ public class XmlValidator {
   }
 
   private void load() throws SAXException {
-    int c = 0;
+    List<String> names = new ArrayList<String>();
     for (String s : schemas.keySet())
       if (s.endsWith(".xsd"))
-        c++;
-    StreamSource[] sources = new StreamSource[c];
-    int i = 0;
-    for (String s : schemas.keySet()) {
-      if (s.endsWith(".xsd")) {
-        sources[i] = new StreamSource(new ByteArrayInputStream(schemas.get(s)), s);
-        i++;
+        names.add(s);
+    Collections.sort(names);
+    String key = schemaKey(names);
+    synchronized (schemaCache) {
+      schema = schemaCache.get(key);
+      if (schema == null) {
+        StreamSource[] sources = new StreamSource[names.size()];
+        for (int i = 0; i < names.size(); i++)
+          sources[i] = new StreamSource(new ByteArrayInputStream(schemas.get(names.get(i))), names.get(i));
+        SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        schemaFactory.setErrorHandler(new MyErrorHandler(errors, null));
+        schemaFactory.setResourceResolver(new MyResourceResolver());
+        schema = schemaFactory.newSchema(sources);
+        schemaCache.put(key, schema);
+      }
+    }
+  }
+
+  private String schemaKey(List<String> names) throws SAXException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder b = new StringBuilder();
+      for (String s : names) {
+        b.append(s);
+        b.append("*");
+        for (byte x : digest.digest(schemas.get(s)))
+          b.append(String.format("%02x", x));
+        b.append("|");
       }
+      return b.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new SAXException(e);
     }
-    SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-    schemaFactory.setErrorHandler(new MyErrorHandler(errors, null));
-    schemaFactory.setResourceResolver(new MyResourceResolver());
-    schema = schemaFactory.newSchema(sources);
   }
 
   private void loadTransforms(String xsltDir) throws FileNotFoundException, IOException {
     Map<String, byte[]> res = new HashMap<String, byte[]>();
     for (String s : new File(xsltDir).list()) {
-      if (s.endsWith(".xslt"))
+      if (s.endsWith(".xslt") || s.endsWith(".xsl"))
         res.put(s, TextFile.fileToBytes(Utilities.path(xsltDir, s)));
     }
     this.transforms = res;
@@ -117,38 +175,44 @@ public class XmlValidator {
   }
 
   public Element checkBySchema(String fileToCheck, boolean wantThrow) throws FileNotFoundException, SAXException, IOException, ParserConfigurationException, FHIRException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    factory.setValidating(false);
-    factory.setSchema(schema);
-    DocumentBuilder builder = factory.newDocumentBuilder();
     MyErrorHandler err = new MyErrorHandler(errors, fileToCheck);
-    builder.setErrorHandler(err);
-    CSFileInputStream f = new CSFileInputStream(new CSFile(fileToCheck));
-    Document doc = builder.parse(f);
+    Document doc = XmlParsers.parse(new CSFileInputStream(new CSFile(fileToCheck)), schema, err);
     if (wantThrow && err.getErrors().size() > 0)
       throw new FHIRException("File " + fileToCheck + " failed schema validation");
     return doc.getDocumentElement();
   }
 
+  /**
+   * the same as checkBySchema, for when the DOM isn't wanted
+   */
+  public void validateBySchema(String fileToCheck, boolean wantThrow) throws FileNotFoundException, SAXException, IOException, FHIRException {
+    Validator validator = XmlParsers.getValidator(schema);
+    MyErrorHandler err = new MyErrorHandler(errors, fileToCheck);
+    validator.setErrorHandler(err);
+    CSFileInputStream f = new CSFileInputStream(new CSFile(fileToCheck));
+    try {
+      validator.validate(new StreamSource(f, fileToCheck));
+    } finally {
+      f.close();
+    }
+    if (wantThrow && err.getErrors().size() > 0)
+      throw new FHIRException("File " + fileToCheck + " failed schema validation");
+  }
+
   public void checkBySchematron(String filename, String sch, boolean wantThrow) throws IOException, ParserConfigurationException, SAXException, FileNotFoundException, FHIRException {
-    DocumentBuilderFactory factory;
-    DocumentBuilder builder;
-    Document doc;
-    byte[] out = null;
+    Document doc = XmlParsers.newDocument();
     try {
-      out = XsltUtilities.saxonTransform(transforms, schemas.get(sch), transforms.get("iso_svrl_for_xslt2.xsl"));
-      out = XsltUtilities.saxonTransform(transforms, TextFile.fileToBytes(filename), out);
+      XsltTransformer t = getSchematron(sch).load();
+      t.setSource(new StreamSource(new ByteArrayInputStream(TextFile.fileToBytes(filename)), filename));
+      t.setDestination(new DOMDestination(doc));
+      t.transform();
     } catch (Throwable e) {
       errors.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, filename + ":" + sch, e.getMessage(), IssueSeverity.ERROR));
       if (wantThrow)
         throw new FHIRException("Error validating " + filename + " with schematrons", e);
+      return;
     }
 
-    factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    builder = factory.newDocumentBuilder();
-    doc = builder.parse(new ByteArrayInputStream(out));
     NodeList nl = doc.getDocumentElement().getElementsByTagNameNS("http://purl.oclc.org/dsdl/svrl", "failed-assert");
     if (nl.getLength() > 0) {
       logger.log("Schematron Validation Failed for " + filename, LogMessageType.Error);
@@ -162,6 +226,53 @@ public class XmlValidator {
     }
   }
 
+  private XsltExecutable getSchematron(String sch) throws SaxonApiException, FHIRException {
+    byte[] source = schemas.get(sch);
+    if (source == null)
+      throw new FHIRException("Unknown schematron " + sch);
+    synchronized (compiled) {
+      XsltExecutable res = compiled.get(source);
+      if (res == null) {
+        byte[] skeleton = transforms.get(SVRL_SKELETON);
+        if (skeleton == null)
+          throw new FHIRException("Unable to find " + SVRL_SKELETON);
+        XsltExecutable iso = compiled.get(skeleton);
+        if (iso == null) {
+          iso = newCompiler().compile(new StreamSource(new ByteArrayInputStream(skeleton), SVRL_SKELETON));
+          compiled.put(skeleton, iso);
+        }
+        XsltTransformer t = iso.load();
+        XdmDestination svrl = new XdmDestination();
+        t.setSource(new StreamSource(new ByteArrayInputStream(source), sch));
+        t.setDestination(svrl);
+        t.transform();
+        res = newCompiler().compile(svrl.getXdmNode().asSource());
+        compiled.put(source, res);
+      }
+      return res;
+    }
+  }
+
+  private XsltCompiler newCompiler() {
+    XsltCompiler compiler = processor.newXsltCompiler();
+    compiler.setURIResolver(new TransformResolver());
+    return compiler;
+  }
+
+  /**
+   * finds the stylesheets that the skeleton imports in the transforms that were loaded
+   */
+  private class TransformResolver implements URIResolver {
+
+    @Override
+    public javax.xml.transform.Source resolve(String href, String base) throws TransformerException {
+      String name = href.contains("/") ? href.substring(href.lastIndexOf("/") + 1) : href;
+      if (!transforms.containsKey(name))
+        throw new TransformerException("Unable to find " + href);
+      return new StreamSource(new ByteArrayInputStream(transforms.get(name)), name);
+    }
+  }
+
   public class MyErrorHandler implements ErrorHandler {
 
     private List<String> errors = new ArrayList<String>();
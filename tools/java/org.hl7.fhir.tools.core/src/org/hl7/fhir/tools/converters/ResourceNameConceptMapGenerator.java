@@ -16,8 +16,8 @@ import org.hl7.fhir.r5.model.ConceptMap.SourceElementComponent;
 import org.hl7.fhir.r5.model.Enumerations.ConceptMapRelationship;
 import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
 import org.hl7.fhir.utilities.Utilities;
-import org.hl7.fhir.utilities.xls.XLSXmlParser;
-import org.hl7.fhir.utilities.xls.XLSXmlParser.Sheet;
+import org.hl7.fhir.definitions.parsers.WorkbookReader;
+import org.hl7.fhir.definitions.parsers.WorkbookReader.Sheet;
 
 public class ResourceNameConceptMapGenerator {
 
@@ -25,7 +25,7 @@ public class ResourceNameConceptMapGenerator {
     String srcFolder = args[0]; 
     String filename = Utilities.path(srcFolder, "resource-name-tracker.xml");
     Date date = new Date(new File(filename).lastModified());
-    XLSXmlParser xls = new XLSXmlParser(new FileInputStream(filename), "resource-name-tracker.xml");
+    WorkbookReader xls = new WorkbookReader(new FileInputStream(filename), "resource-name-tracker.xml");
     String dstFolder = args[1]; 
     genMap("r2", "1.0", "r3", "3.0", xls.getSheets().get("Map"), dstFolder, "resource-names-r2-r3", date);
     genMap("r2", "1.0", "r4", "4.0", xls.getSheets().get("Map"), dstFolder, "resource-names-r2-r4", date);
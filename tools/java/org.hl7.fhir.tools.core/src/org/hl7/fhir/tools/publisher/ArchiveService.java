@@ -0,0 +1,269 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.hl7.fhir.tools.publisher.ArchiveWriter.Filter;
+import org.hl7.fhir.utilities.TextFile;
+
+/**
+ * Writes the archives that the build produces (the definitions and examples zips, the
+ * schema zips, the version archive etc), from any phase of the build, sharing one pool
+ * of worker threads between them.
+ *
+ * Entries are compressed on the worker threads. Content that has already been
+ * compressed for another archive is reused rather than compressed again: content is
+ * recognised by its digest, whether it comes from a file or from memory (so
+ * profiles-resources.xml is only compressed once, though it's in several archives, and
+ * a file that is rewritten with the same content is still recognised). Filtered entries,
+ * and files too big to keep, are always compressed.
+ *
+ * Each archive is timed (under "archive" in the build metrics), and {@link #report()}
+ * summarises the compression
+ */
+public class ArchiveService {
+
+  /**
+   * the deflated content of an entry
+   */
+  public static class Content {
+    byte[] data;
+    long crc; // of the uncompressed content
+    long size; // uncompressed
+  }
+
+  public class Stats {
+    private String filename;
+    private BuildMetrics.Timer timer;
+    private long start = System.currentTimeMillis();
+    private long elapsed;
+    private int entries;
+    private long size;
+    private long written;
+    private AtomicInteger reused = new AtomicInteger();
+    private AtomicLong compressing = new AtomicLong(); // nanoseconds, across the worker threads
+
+    void add(Content c) {
+      entries++;
+      size = size + c.size;
+    }
+  }
+
+  private static final long CACHE_LIMIT = 64 * 1024 * 1024;
+
+  private final int threads;
+  private final ExecutorService executor;
+  private final BuildMetrics metrics;
+  private final LinkedHashMap<String, Content> cache = new LinkedHashMap<String, Content>(256, 0.75f, true);
+  private long cached;
+  private final List<Stats> archives = new ArrayList<Stats>();
+
+  public ArchiveService(int threads, BuildMetrics metrics) {
+    super();
+    this.threads = Math.max(threads, 1);
+    this.metrics = metrics;
+    if (this.threads > 1) {
+      executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+        private int count;
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "archive-"+Integer.toString(++count));
+          t.setDaemon(true); // the service lasts as long as the build
+          return t;
+        }
+      });
+    } else
+      executor = null;
+  }
+
+  public ZipArchiveWriter zip(String filename) throws IOException {
+    return new ZipArchiveWriter(this, filename);
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  Stats start(String filename) {
+    Stats s = new Stats();
+    s.filename = filename;
+    if (metrics != null)
+      s.timer = metrics.start("archive", new File(filename).getName());
+    return s;
+  }
+
+  void finish(Stats s, long written) {
+    s.elapsed = System.currentTimeMillis() - s.start;
+    s.written = written;
+    if (s.timer != null)
+      s.timer.stop();
+    synchronized (archives) {
+      archives.add(s);
+    }
+  }
+
+  /**
+   * compress the content of a file, or bytes, on a worker thread (or inline, if there's
+   * only one thread)
+   */
+  Future<Content> compress(final File file, final byte[] bytes, final Filter filter, final Stats stats) {
+    Callable<Content> task = new Callable<Content>() {
+      @Override
+      public Content call() throws Exception {
+        long start = System.nanoTime();
+        try {
+          return content(file, bytes, filter, stats);
+        } finally {
+          stats.compressing.addAndGet(System.nanoTime() - start);
+        }
+      }
+    };
+    if (executor != null)
+      return executor.submit(task);
+    FutureTask<Content> f = new FutureTask<Content>(task);
+    f.run();
+    return f;
+  }
+
+  private Content content(File file, byte[] bytes, Filter filter, Stats stats) throws IOException {
+    if (filter != null)
+      return deflate(file, bytes, filter);
+    if (bytes == null) {
+      if (file.length() > CACHE_LIMIT / 8)
+        return deflate(file, null, null); // it wouldn't be kept anyway
+      bytes = TextFile.fileToBytes(file.getAbsolutePath());
+    }
+    String key = digest(bytes);
+    Content c = fromCache(key);
+    if (c != null) {
+      stats.reused.incrementAndGet();
+      return c;
+    }
+    c = deflate(null, bytes, null);
+    toCache(key, c);
+    return c;
+  }
+
+  private synchronized Content fromCache(String key) {
+    return cache.get(key);
+  }
+
+  private synchronized void toCache(String key, Content c) {
+    if (c.data.length > CACHE_LIMIT / 8)
+      return;
+    Content old = cache.put(key, c);
+    if (old != null)
+      cached = cached - old.data.length;
+    cached = cached + c.data.length;
+    Iterator<Content> i = cache.values().iterator(); // least recently used first
+    while (cached > CACHE_LIMIT && i.hasNext()) {
+      cached = cached - i.next().data.length;
+      i.remove();
+    }
+  }
+
+  private Content deflate(File file, byte[] bytes, Filter filter) throws IOException {
+    long length = file != null ? file.length() : bytes.length;
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(length / 2 + 64, Integer.MAX_VALUE));
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    CRC32 crc = new CRC32();
+    Content c = new Content();
+    try {
+      // buffered, so the deflater gets big pieces whatever size the filters write in
+      OutputStream out = new CheckedOutputStream(new BufferedOutputStream(new DeflaterOutputStream(buffer, deflater, 65536), 65536), crc);
+      if (filter != null)
+        out = filter.filter(out);
+      InputStream in = file != null ? new FileInputStream(file) : new ByteArrayInputStream(bytes);
+      try {
+        byte[] b = new byte[65536];
+        int n;
+        while ((n = in.read(b)) > 0)
+          out.write(b, 0, n);
+      } finally {
+        in.close();
+      }
+      out.close(); // finishes the deflate stream (the deflater is ours, so it's not ended yet)
+      c.size = deflater.getBytesRead();
+    } finally {
+      deflater.end();
+    }
+    c.crc = crc.getValue();
+    c.data = buffer.toByteArray();
+    return c;
+  }
+
+  private static String digest(byte[] bytes) throws IOException {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      byte[] d = md.digest(bytes);
+      StringBuilder b = new StringBuilder();
+      for (byte v : d)
+        b.append(String.format("%02x", v & 0xFF));
+      return b.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * stops the worker threads, including any that are still compressing entries for an
+   * archive that failed. The service can't be used after this
+   */
+  public void close() {
+    if (executor != null)
+      executor.shutdownNow();
+  }
+
+  public String report() {
+    StringBuilder b = new StringBuilder();
+    long size = 0;
+    long written = 0;
+    long compressing = 0;
+    int reused = 0;
+    synchronized (archives) {
+      for (Stats s : archives) {
+        size = size + s.size;
+        written = written + s.written;
+        compressing = compressing + s.compressing.get();
+        reused = reused + s.reused.get();
+      }
+      b.append("Archives: "+Integer.toString(archives.size())+" written on "+Integer.toString(threads)+" threads, "+mb(size)+" -> "+mb(written)+
+          ", "+Long.toString(compressing / 1000000)+"ms compressing, "+Integer.toString(reused)+" entries reused");
+      for (Stats s : archives) {
+        b.append("\r\n  "+new File(s.filename).getName()+": "+Integer.toString(s.entries)+" entries, "+mb(s.size)+" -> "+mb(s.written)+
+            ", "+Long.toString(s.compressing.get() / 1000000)+"ms compressing, "+Long.toString(s.elapsed)+"ms elapsed");
+        if (s.reused.get() > 0)
+          b.append(" ("+Integer.toString(s.reused.get())+" reused)");
+      }
+    }
+    return b.toString();
+  }
+
+  private static String mb(long bytes) {
+    return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,195 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.tools.publisher.ArchiveService.Content;
+import org.hl7.fhir.utilities.CSFile;
+
+/**
+ * A zip being written by the {@link ArchiveService}.
+ *
+ * Entries are added in the order they should appear in the archive, as files (with an
+ * optional filter that is applied to the content as it's read - e.g. the watermark for
+ * the version archive) or as content that's already in memory. The entries are read
+ * and deflated on the service's worker threads, and written out in the order they were
+ * added, so the archive doesn't depend on the number of threads. Only a few entries
+ * per thread are held in memory at once.
+ *
+ * Directories are listed in name order, so the archives are the same whatever order
+ * the file system lists them in. As for ZipGenerator, an entry with the same name as
+ * one that has already been added is left out
+ */
+public abstract class ArchiveWriter {
+
+  public interface Filter {
+    OutputStream filter(OutputStream out) throws IOException;
+  }
+
+  private class Entry {
+    private String name;
+    private long time;
+    private Future<Content> content;
+  }
+
+  private static final int WINDOW = 4; // entries in flight per thread
+
+  protected final ArchiveService service;
+  protected final ArchiveService.Stats stats;
+  private LinkedList<Entry> pending = new LinkedList<Entry>();
+  private Set<String> names = new HashSet<String>();
+  private String filename;
+  private OutputStream stream;
+  private boolean closed;
+  protected long offset;
+
+  protected ArchiveWriter(ArchiveService service, String filename) throws IOException {
+    super();
+    this.service = service;
+    this.filename = filename;
+    this.stats = service.start(filename);
+    stream = new BufferedOutputStream(new FileOutputStream(filename), 65536);
+  }
+
+  protected abstract void writeEntry(String name, long time, Content content) throws IOException;
+
+  protected abstract void writeEnd() throws IOException;
+
+  public void addFile(String name, File file, Filter filter) throws Exception {
+    if (names.add(name))
+      add(name, file.lastModified(), service.compress(file, null, filter, stats));
+  }
+
+  public void addFileName(String name, String path) throws Exception {
+    addFile(name, new CSFile(path), null);
+  }
+
+  public void addBytes(String name, byte[] bytes) throws Exception {
+    if (names.add(name))
+      add(name, System.currentTimeMillis(), service.compress(null, bytes, null, stats));
+  }
+
+  /**
+   * the files in dir (not sub-directories) that end with ext and don't end with noExt
+   * (either can be null), named prefix + the file name
+   */
+  public void addFiles(String dir, String prefix, String ext, String noExt) throws Exception {
+    addFilesFiltered(dir, prefix, ext, noExt == null ? new String[0] : new String[] { noExt });
+  }
+
+  public void addFilesFiltered(String dir, String prefix, String ext, String[] noExt) throws Exception {
+    for (File f : list(dir)) {
+      boolean ok = f.isFile() && (ext == null || f.getName().endsWith(ext));
+      for (String n : noExt)
+        ok = ok && !f.getName().endsWith(n);
+      if (ok)
+        addFile(prefix + f.getName(), f, null);
+    }
+  }
+
+  /**
+   * everything in dir, including the sub-directories
+   */
+  public void addFolder(String dir, String prefix) throws Exception {
+    for (File f : list(dir)) {
+      if (f.isDirectory())
+        addFolder(f.getAbsolutePath(), prefix + f.getName() + "/");
+      else
+        addFile(prefix + f.getName(), f, null);
+    }
+  }
+
+  public void close() throws Exception {
+    try {
+      while (!pending.isEmpty())
+        write(pending.removeFirst());
+      writeEnd();
+      stream.close();
+      closed = true;
+    } finally {
+      abort();
+    }
+    service.finish(stats, offset);
+  }
+
+  /**
+   * abandons the archive if it hasn't been closed: the entries that are still to be
+   * compressed are cancelled, and the partial file is deleted. Use in a finally block,
+   * so a failure part way through doesn't leave the file open
+   */
+  public void abort() {
+    if (closed)
+      return;
+    closed = true;
+    for (Entry e : pending)
+      e.content.cancel(true);
+    pending.clear();
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // we're giving up on it anyway
+    }
+    new File(filename).delete();
+  }
+
+  private void add(String name, long time, Future<Content> content) throws Exception {
+    Entry e = new Entry();
+    e.name = name;
+    e.time = time;
+    e.content = content;
+    pending.add(e);
+    while (pending.size() > service.getThreads() * WINDOW)
+      write(pending.removeFirst());
+  }
+
+  private void write(Entry e) throws Exception {
+    Content c;
+    try {
+      c = e.content.get();
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof Exception)
+        throw (Exception) ex.getCause();
+      throw new Exception(ex.getCause());
+    }
+    stats.add(c);
+    writeEntry(e.name, e.time, c);
+  }
+
+  private File[] list(String dir) {
+    File[] files = new CSFile(dir).listFiles();
+    if (files == null)
+      return new File[0]; // as for ZipGenerator, a missing directory is just empty
+    Arrays.sort(files);
+    return files;
+  }
+
+  protected void writeShort(int v) throws IOException {
+    stream.write(v & 0xFF);
+    stream.write((v >> 8) & 0xFF);
+    offset = offset + 2;
+  }
+
+  protected void writeInt(long v) throws IOException {
+    writeShort((int) (v & 0xFFFF));
+    writeShort((int) ((v >> 16) & 0xFFFF));
+  }
+
+  protected void writeLong(long v) throws IOException {
+    writeInt(v & 0xFFFFFFFFL);
+    writeInt((v >> 32) & 0xFFFFFFFFL);
+  }
+
+  protected void writeBytes(byte[] b) throws IOException {
+    stream.write(b);
+    offset = offset + b.length;
+  }
+}
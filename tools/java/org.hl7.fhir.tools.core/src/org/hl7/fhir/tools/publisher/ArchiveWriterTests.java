@@ -0,0 +1,251 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArchiveWriterTests {
+
+  private File dir;
+  private ArchiveService service;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("archive").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    if (service != null)
+      service.close();
+    delete(dir);
+  }
+
+  private void delete(File f) {
+    File[] files = f.listFiles();
+    if (files != null)
+      for (File c : files)
+        delete(c);
+    f.delete();
+  }
+
+  private File file(String name, String content) throws IOException {
+    File f = new File(dir, name);
+    f.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  private String read(ZipFile zip, String name) throws IOException {
+    ZipEntry e = zip.getEntry(name);
+    assertNotNull(name, e);
+    InputStream in = zip.getInputStream(e);
+    try {
+      ByteArrayOutputStream b = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0)
+        b.write(buf, 0, n);
+      return new String(b.toByteArray(), "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  private List<String> names(ZipFile zip) {
+    List<String> res = new ArrayList<String>();
+    Enumeration<? extends ZipEntry> e = zip.entries();
+    while (e.hasMoreElements())
+      res.add(e.nextElement().getName());
+    return res;
+  }
+
+  @Test
+  public void testEntries() throws Exception {
+    service = new ArchiveService(2, null);
+    File src = file("a.xml", "<a/>");
+    String fn = new File(dir, "out.zip").getAbsolutePath();
+    ZipArchiveWriter zip = service.zip(fn);
+    zip.addFileName("a.xml", src.getAbsolutePath());
+    zip.addBytes("b.txt", "b\u00e9".getBytes("UTF-8"));
+    zip.addBytes("\u00e9.txt", new byte[0]);
+    zip.close();
+
+    ZipFile z = new ZipFile(fn);
+    try {
+      assertEquals(3, z.size());
+      assertEquals("<a/>", read(z, "a.xml"));
+      assertEquals("b\u00e9", read(z, "b.txt"));
+      assertEquals("", read(z, "\u00e9.txt"));
+    } finally {
+      z.close();
+    }
+  }
+
+  @Test
+  public void testDuplicates() throws Exception {
+    // as for ZipGenerator, the first entry with a name is kept
+    service = new ArchiveService(1, null);
+    File src = file("a.txt", "file");
+    String fn = new File(dir, "out.zip").getAbsolutePath();
+    ZipArchiveWriter zip = service.zip(fn);
+    zip.addBytes("a.txt", "first".getBytes("UTF-8"));
+    zip.addBytes("a.txt", "second".getBytes("UTF-8"));
+    zip.addFileName("a.txt", src.getAbsolutePath());
+    zip.addFileName("b.txt", src.getAbsolutePath());
+    zip.close();
+
+    ZipFile z = new ZipFile(fn);
+    try {
+      assertEquals(2, z.size());
+      assertEquals("first", read(z, "a.txt"));
+      assertEquals("file", read(z, "b.txt"));
+    } finally {
+      z.close();
+    }
+  }
+
+  @Test
+  public void testManyEntries() throws Exception {
+    // more entries than the original end record can count, so there's a zip64 end record
+    service = new ArchiveService(4, null);
+    String fn = new File(dir, "out.zip").getAbsolutePath();
+    ZipArchiveWriter zip = service.zip(fn);
+    for (int i = 0; i < 70000; i++)
+      zip.addBytes("e"+Integer.toString(i)+".txt", Integer.toString(i % 100).getBytes("UTF-8"));
+    zip.close();
+
+    ZipFile z = new ZipFile(fn);
+    try {
+      assertEquals(70000, z.size());
+      assertEquals("0", read(z, "e0.txt"));
+      assertEquals("99", read(z, "e65599.txt"));
+      assertEquals("99", read(z, "e69999.txt"));
+      List<String> names = names(z);
+      assertEquals("e65535.txt", names.get(65535));
+      assertEquals("e69999.txt", names.get(69999));
+    } finally {
+      z.close();
+    }
+  }
+
+  @Test
+  public void testFolders() throws Exception {
+    // names are in order, whatever order the file system lists them in
+    service = new ArchiveService(2, null);
+    file("src/c.xml", "c");
+    file("src/a.xml", "a");
+    file("src/b.json", "b");
+    file("src/a.xml.bak", "bak");
+    file("src/sub/d.xml", "d");
+    String fn = new File(dir, "out.zip").getAbsolutePath();
+    ZipArchiveWriter zip = service.zip(fn);
+    zip.addFiles(new File(dir, "src").getAbsolutePath(), "x/", ".xml", null);
+    zip.addFolder(new File(dir, "src").getAbsolutePath(), "y/");
+    zip.addFiles(new File(dir, "missing").getAbsolutePath(), "z/", null, null);
+    zip.close();
+
+    ZipFile z = new ZipFile(fn);
+    try {
+      List<String> expected = new ArrayList<String>();
+      for (String s : new String[] { "x/a.xml", "x/c.xml", "y/a.xml", "y/a.xml.bak", "y/b.json", "y/c.xml", "y/sub/d.xml" })
+        expected.add(s);
+      assertEquals(expected, names(z));
+      assertEquals("d", read(z, "y/sub/d.xml"));
+    } finally {
+      z.close();
+    }
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    service = new ArchiveService(2, null);
+    File src = file("a.html", "<body>text</body>");
+    String fn = new File(dir, "out.zip").getAbsolutePath();
+    ZipArchiveWriter zip = service.zip(fn);
+    zip.addFile("a.html", src, new ArchiveWriter.Filter() {
+      @Override
+      public OutputStream filter(OutputStream out) throws IOException {
+        return new ReplacingOutputStream(out, "<body>", "<body><div/>", null);
+      }
+    });
+    zip.addFileName("b.html", src.getAbsolutePath());
+    zip.close();
+
+    ZipFile z = new ZipFile(fn);
+    try {
+      assertEquals("<body><div/>text</body>", read(z, "a.html"));
+      assertEquals("<body>text</body>", read(z, "b.html"));
+    } finally {
+      z.close();
+    }
+  }
+
+  @Test
+  public void testThreads() throws Exception {
+    // the archive is the same however many threads there are
+    for (int i = 0; i < 200; i++)
+      file("src/f"+Integer.toString(i)+".txt", new String(new char[i * 50]).replace('\0', (char) ('a' + i % 26)));
+    byte[][] results = new byte[2][];
+    int[] threads = { 1, 4 };
+    for (int t = 0; t < threads.length; t++) {
+      ArchiveService s = new ArchiveService(threads[t], null);
+      try {
+        File fn = new File(dir, "out"+Integer.toString(t)+".zip");
+        ZipArchiveWriter zip = s.zip(fn.getAbsolutePath());
+        zip.addFolder(new File(dir, "src").getAbsolutePath(), "");
+        zip.close();
+        results[t] = Files.readAllBytes(fn.toPath());
+      } finally {
+        s.close();
+      }
+    }
+    assertArrayEquals(results[0], results[1]);
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    service = new ArchiveService(2, null);
+    File fn = new File(dir, "out.zip");
+    ZipArchiveWriter zip = service.zip(fn.getAbsolutePath());
+    zip.addBytes("a.txt", "a".getBytes("UTF-8"));
+    zip.abort();
+    assertFalse(fn.exists());
+
+    // a missing file fails the archive when it's written, and close leaves no partial file behind
+    zip = service.zip(fn.getAbsolutePath());
+    zip.addFileName("missing.txt", new File(dir, "missing.txt").getAbsolutePath());
+    Exception ex = null;
+    try {
+      zip.close();
+    } catch (IOException e) {
+      ex = e;
+    }
+    assertNotNull(ex);
+    assertFalse(fn.exists());
+    assertFalse(service.report().contains("out.zip"));
+  }
+}
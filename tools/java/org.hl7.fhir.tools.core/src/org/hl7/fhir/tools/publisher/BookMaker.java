@@ -30,15 +30,20 @@ POSSIBILITY OF SUCH DAMAGE.
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.hl7.fhir.definitions.model.ResourceDefn;
 import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
@@ -49,173 +54,260 @@ import org.hl7.fhir.utilities.xhtml.XhtmlDocument;
 import org.hl7.fhir.utilities.xhtml.XhtmlNode;
 import org.hl7.fhir.utilities.xhtml.XhtmlParser;
 
+/**
+ * Produces fhir-book.html - all the pages of the spec, in navigation order, as a
+ * single document.
+ *
+ * The book form of each page is spooled to temp/book (cleared for each build) - when it's registered, or,
+ * for pages registered with a PageSource, when the book first needs it - and the book is built in two
+ * passes over them, with only one page in memory at a time:
+ *  - the first pass works out the section number that goes with each anchor, and
+ *    collects the anchors and links of each page for checking the cross links
+ *  - the second pass fixes up the references in each page, and writes it straight
+ *    out into fhir-book.html
+ */
 public class BookMaker {
 
+  private static final String CONTENT_MARKER = "[%book-content%]";
+
+  /**
+   * renders the book form of a page, when the book is produced
+   */
+  public interface PageSource {
+    public String render() throws Exception;
+  }
+
   private PageProcessor page;
   private String target;
   private List<ValidationMessage> issues;
-  
-  private Map<String, XhtmlDocument> pages = new HashMap<String, XhtmlDocument>();
 
-  private class RefTarget {
-    XhtmlNode parent;
-    int index;
+  private Set<String> pages = new LinkedHashSet<String>();
+  private Map<String, PageSource> sources = new HashMap<String, PageSource>(); // pages that haven't been rendered yet
+  private Map<String, PageIndex> index = new HashMap<String, PageIndex>();
+  private Map<String, String> sections = new HashMap<String, String>(); // anchor in the book -> section number of the heading that follows it, or ""
+
+  // what checkCrossLinks needs to know about a page
+  private class PageIndex {
+    private Set<String> names = new HashSet<String>();
+    private List<PageLink> links = new ArrayList<PageLink>();
+  }
+
+  private class PageLink {
+    private String href;
+    private String text;
   }
 
   
-  public BookMaker(PageProcessor page, List<ValidationMessage> issues) {
+  public BookMaker(PageProcessor page, List<ValidationMessage> issues) throws IOException {
     super();
     this.page = page;
     this.issues = issues;
+    String dir = Utilities.path(page.getFolders().tmpDir, "book");
+    Utilities.createDirectory(dir);
+    Utilities.clearDirectory(dir);
+  }
+
+  /**
+   * register the book form of a page. The source is spooled to disk, not kept
+   */
+  public void registerPage(String filename, String source) throws Exception {
+    String fn = spoolFile(filename);
+    Utilities.createDirectory(Utilities.getDirectoryForFile(fn)); // ig pages are in a sub-folder
+    TextFile.stringToFile(source, fn);
+    synchronized (pages) {
+      pages.add(filename);
+      sources.remove(filename);
+    }
+  }
+
+  /**
+   * register a page that is only rendered (and spooled) if the book is produced
+   */
+  public void registerPage(String filename, PageSource source) {
+    synchronized (pages) {
+      pages.add(filename);
+      sources.put(filename, source);
+    }
+  }
+
+  private String spoolFile(String filename) throws Exception {
+    return Utilities.path(page.getFolders().tmpDir, "book", filename);
+  }
+
+  private XhtmlDocument loadPage(String filename) throws Exception {
+    if (!pages.contains(filename))
+      throw new Exception("No content found for "+filename);
+    PageSource source = sources.remove(filename);
+    if (source != null)
+      registerPage(filename, source.render());
+    return new XhtmlParser().parse(TextFile.fileToString(spoolFile(filename)), "html");
   }
 
   private void produceBookForm() throws FileNotFoundException, Exception {
     target = page.getFolders().dstDir;
     target = target + File.separator;
     
-    checkCrossLinks();
-    
     String src = TextFile.fileToString(page.getFolders().srcDir+"book.html");
     src = page.processPageIncludes(page.getFolders().srcDir+"book.html", src, "book", null, null, null, "Book", null, null, null);
     XhtmlDocument doc = new XhtmlParser().parse(src, "html");
     XhtmlNode body = doc.getElement("html").getElement("body");
     addTOC(body);   
-    addContent(body);
-    addReferenceIds(body);
-    new XhtmlComposer(XhtmlComposer.HTML).compose(new FileOutputStream(target+"fhir-book.html"), doc); 
+    XhtmlNode e = body.getElement("contents");
+    int i = body.getChildNodes().indexOf(e);
+    body.getChildNodes().remove(e);
+    body.addText(i, CONTENT_MARKER);
+
+    // pass 1
+    indexTargets(body, false);
+    addContent(null);
+    for (String name : pages)
+      if (!index.containsKey(name))
+        indexLinks(name, loadPage(name));
+    checkCrossLinks();
+
+    // pass 2
+    updateRefs(body, false, false);
+    String skeleton = new XhtmlComposer(XhtmlComposer.HTML).compose(doc);
+    int c = skeleton.indexOf(CONTENT_MARKER);
+    if (c == -1)
+      throw new Exception("Unable to find the content in book.html");
+    OutputStream out = new FileOutputStream(target+"fhir-book.html");
+    try {
+      write(out, skeleton.substring(0, c));
+      write(out, "<div>");
+      addContent(out);
+      write(out, "</div>");
+      write(out, skeleton.substring(c + CONTENT_MARKER.length()));
+    } finally {
+      out.close();
+    }
   }
 
-  private void checkCrossLinks() {
-	  for (String name : pages.keySet()) {
-		  if (!"toc.html".equals(name)) {
-			  XhtmlDocument d = pages.get(name);
-			  checkCrossLinks(name, d);
-		  }
-	}
+  private void write(OutputStream out, String s) throws Exception {
+    out.write(s.getBytes("UTF-8"));
   }
-  
-  private boolean findTarget(XhtmlNode node, String name) {
-	if (node == null)
-	  return false;
-	if (node.getNodeType() == NodeType.Element && node.getName().equals("a") && name.equals(node.getAttribute("name"))) 
-	  return true;
-	boolean r = false;
-	for (XhtmlNode c : node.getChildNodes()) 
-	  r = r || findTarget(c, name);
-	return r;
+
+  private void indexLinks(String name, XhtmlNode node) {
+    PageIndex pi = new PageIndex();
+    index.put(name, pi);
+    indexLinks(pi, node);
   }
-  
-  private void checkCrossLinks(String name, XhtmlNode node) {
-	  if (node.getNodeType() == NodeType.Element && node.getName().equals("a")) {
-		  String href = node.getAttribute("href");
-		  if (href != null) {
-			  if (!pages.containsKey(href)) {
-				  boolean found = false;
-				  if (href.endsWith(".xsd") || href.endsWith(".xml") || href.endsWith(".xml.html") || href.endsWith(".json") || href.endsWith(".zip"))
-					  found = true;
-				  else if (pages.containsKey(href))
-					  found = true;
-				  else if (href.startsWith("http:") || href.startsWith("https:") || href.startsWith("mailto:") || href.startsWith("ftp:"))
-					  found = true;
-				  else if (href.startsWith("v2/") || href.startsWith("v3/") || href.startsWith("../")) {
-				    found = true;
-				    node.setAttribute("href", "http://hl7.org/fhir"+href);
-				  }
-				  if (!found && href.contains("#")) {
-					  String parts[] = href.split("#");
-					  if (parts == null || parts.length == 0) {
-					    parts = new String[] { name };
-					  } else if (parts[0].equals(""))
-						  parts[0] = name;
-					  found = pages.containsKey(parts[0]);
-					  if (found && parts[1] != null && !parts[1].equals(""))
-					  {
-						  found = findTarget(pages.get(parts[0]), parts[1]);
-						  if (!found)
-							try {
-								if (new File("c:\\temp\\source.html").exists())
-								  new XhtmlComposer(XhtmlComposer.HTML).compose(new FileOutputStream("c:\\temp\\source.html"), pages.get(parts[0]));
-							} catch (Exception e) {
-								e.printStackTrace();
-							}
-					  }
-				  }
-				  if (!found && !new File(page.getFolders().dstDir+href).exists() && !href.equals("qa.html")) {
-				    issues.add(new ValidationMessage(Source.Publisher, IssueType.INFORMATIONAL, -1, -1, name, "broken link in "+name+": <a href=\""+href+"\">"+node.allText()+"</a>", IssueSeverity.ERROR));
-				  }
-			  }
-		  }
-	  } else {
-		  if (!(node.getNodeType() == NodeType.Element && "div".equals(node.getName()) && "index-only-no-book".equals(node.getAttribute("class"))))
-  		    for (XhtmlNode c : node.getChildNodes()) 
-	 		  checkCrossLinks(name, c);
-	  }
+
+  private void indexLinks(PageIndex pi, XhtmlNode node) {
+    if (node.getNodeType() == NodeType.Element && node.getName().equals("a") && node.getAttribute("name") != null)
+      pi.names.add(node.getAttribute("name"));
+    if (node.getNodeType() == NodeType.Element && node.getName().equals("a")) {
+      if (node.getAttribute("href") != null) {
+        PageLink link = new PageLink();
+        link.href = node.getAttribute("href");
+        link.text = node.allText();
+        pi.links.add(link);
+      }
+    } else if (!(node.getNodeType() == NodeType.Element && "div".equals(node.getName()) && "index-only-no-book".equals(node.getAttribute("class"))))
+      for (XhtmlNode c : node.getChildNodes()) 
+        indexLinks(pi, c);
   }
 
-  private void addReferenceIds(XhtmlNode body) {
-    Map<String, RefTarget> tgts = new HashMap<String, RefTarget>();
-    List<XhtmlNode> refs = new ArrayList<XhtmlNode>();
-    List<XhtmlNode> norefs = new ArrayList<XhtmlNode>();
-    buildIndex(refs, norefs, tgts, body, false, false);
-    for (XhtmlNode a : norefs) {
-    //      updateRef(tgts, a, false);
-    }
-    for (XhtmlNode a : refs) {
-      updateRef(tgts, a, true);
-    }    
+  // links to v2, v3 or the parent folder are absolute in the book
+  private void fixExternalLinks(XhtmlNode node) {
+    if (node.getNodeType() == NodeType.Element && node.getName().equals("a")) {
+      String href = node.getAttribute("href");
+      if (href != null && !pages.contains(href) && (href.startsWith("v2/") || href.startsWith("v3/") || href.startsWith("../")))
+        node.setAttribute("href", "http://hl7.org/fhir"+href);
+    } else if (!(node.getNodeType() == NodeType.Element && "div".equals(node.getName()) && "index-only-no-book".equals(node.getAttribute("class"))))
+      for (XhtmlNode c : node.getChildNodes()) 
+        fixExternalLinks(c);
   }
 
-  private void updateRef(Map<String, RefTarget> tgts, XhtmlNode a, boolean update) {
-    if (a.getAttributes().get("href").startsWith("#")) {
-      RefTarget r = tgts.get(a.getAttributes().get("href").substring(1));
-      if (r != null) {
-        if (update) {
-          int n = r.index + 1;
-          while (n < r.parent.getChildNodes().size() && r.parent.getChildNodes().get(n).getNodeType() != NodeType.Element)
-            n++;
-          if (n < r.parent.getChildNodes().size()) {
-            XhtmlNode h = r.parent.getChildNodes().get(n);
-            if (h.getName().startsWith("h")) {
-              String s = h.allText();
-              if (s.contains(":"))
-                a.addText(" (§"+s.substring(0, s.indexOf(':'))+")");
-            } 
-          }
+  private void checkCrossLinks() {
+	  for (String name : index.keySet()) {
+		  if (!"toc.html".equals(name))
+			  checkCrossLinks(name, index.get(name));
+	  }
+  }
+  
+  private void checkCrossLinks(String name, PageIndex pi) {
+    for (PageLink link : pi.links) {
+      String href = link.href;
+      if (!index.containsKey(href)) {
+        boolean found = false;
+        if (href.endsWith(".xsd") || href.endsWith(".xml") || href.endsWith(".xml.html") || href.endsWith(".json") || href.endsWith(".zip"))
+          found = true;
+        else if (href.startsWith("http:") || href.startsWith("https:") || href.startsWith("mailto:") || href.startsWith("ftp:"))
+          found = true;
+        else if (href.startsWith("v2/") || href.startsWith("v3/") || href.startsWith("../"))
+          found = true;
+        if (!found && href.contains("#")) {
+          String parts[] = href.split("#");
+          if (parts == null || parts.length == 0) {
+            parts = new String[] { name };
+          } else if (parts[0].equals(""))
+            parts[0] = name;
+          found = index.containsKey(parts[0]);
+          if (found && parts.length > 1 && !parts[1].equals(""))
+            found = index.get(parts[0]).names.contains(parts[1]);
+        }
+        if (!found && !new File(page.getFolders().dstDir+href).exists() && !href.equals("qa.html")) {
+          issues.add(new ValidationMessage(Source.Publisher, IssueType.INFORMATIONAL, -1, -1, name, "broken link in "+name+": <a href=\""+href+"\">"+link.text+"</a>", IssueSeverity.ERROR));
         }
-      } else {
-       // page.log("unable to resolve reference to "+a.getAttributes().get("href").substring(1)+" on \""+a.allText()+"\"");
-        a.addText(" (Known Broken Link - needs to be resolved)");
       }
     }
   }
 
-  private void buildIndex(List<XhtmlNode> refs, List<XhtmlNode> norefs, Map<String, RefTarget> tgts, XhtmlNode focus, boolean started, boolean noUpdate) {
+  // pass 1: the section number for each anchor (after the hr in book.html)
+  private void indexTargets(XhtmlNode focus, boolean started) {
     int i = 0;
     for (XhtmlNode child : focus.getChildNodes()) {
       if (started) {
-        if ("a".equals(child.getName()) && child.getAttributes().containsKey("name")) {
-          RefTarget r = new RefTarget();
-          r.parent = focus;
-          r.index = i;
-          String n = child.getAttributes().get("name");
-//          System.out.println("        ref: "+n);
-          tgts.put(n, r);
-        }
-        if ("a".equals(child.getName()) && child.getAttributes().containsKey("href")) {
-          //System.out.println("found "+child.getAttributes().get("href"));
-          if (noUpdate)
-            norefs.add(child);
-          else
-            refs.add(child);
-        }
-
+        if ("a".equals(child.getName()) && child.getAttributes().containsKey("name")) 
+          sections.put(child.getAttributes().get("name"), sectionFollowing(focus, i));
         if (child.getNodeType() == NodeType.Element)
-          buildIndex(refs, norefs, tgts, child, true, noUpdate || child.getName().equals("pre"));
+          indexTargets(child, true);
       } else if ("hr".equals(child.getName()))
         started = true;
       i++;
     }
-    
+  }
+
+  private String sectionFollowing(XhtmlNode parent, int index) {
+    int n = index + 1;
+    while (n < parent.getChildNodes().size() && parent.getChildNodes().get(n).getNodeType() != NodeType.Element)
+      n++;
+    if (n < parent.getChildNodes().size()) {
+      XhtmlNode h = parent.getChildNodes().get(n);
+      if (h.getName().startsWith("h")) {
+        String s = h.allText();
+        if (s.contains(":"))
+          return s.substring(0, s.indexOf(':'));
+      } 
+    }
+    return "";
+  }
+
+  // pass 2: add the section number to each internal reference
+  private void updateRefs(XhtmlNode focus, boolean started, boolean noUpdate) {
+    for (XhtmlNode child : focus.getChildNodes()) {
+      if (started) {
+        if ("a".equals(child.getName()) && child.getAttributes().containsKey("href") && !noUpdate) 
+          updateRef(child);
+        if (child.getNodeType() == NodeType.Element)
+          updateRefs(child, true, noUpdate || child.getName().equals("pre"));
+      } else if ("hr".equals(child.getName()))
+        started = true;
+    }
+  }
+
+  private void updateRef(XhtmlNode a) {
+    if (a.getAttributes().get("href").startsWith("#")) {
+      String s = sections.get(a.getAttributes().get("href").substring(1));
+      if (s != null) {
+        if (s.length() > 0)
+          a.addText(" (§"+s+")");
+      } else {
+       // page.log("unable to resolve reference to "+a.getAttributes().get("href").substring(1)+" on \""+a.allText()+"\"");
+        a.addText(" (Known Broken Link - needs to be resolved)");
+      }
+    }
   }
 
   private class LevelCounter {
@@ -224,14 +316,14 @@ public class BookMaker {
     int l3;
     int l4;
   }
-  private void addContent(XhtmlNode body) throws Exception {
+
+  /**
+   * walk the pages in book order. With no output, this is pass 1 (indexing), else pass 2 (writing)
+   */
+  private void addContent(OutputStream out) throws Exception {
     List<String> list = new ArrayList<String>();
     loadResources(list, page.getDefinitions().getResources().keySet());
 
-    XhtmlNode e = body.getElement("contents");
-    XhtmlNode div = body.addTag(body.getChildNodes().indexOf(e), "div");
-    body.getChildNodes().remove(e);
-
     List<String> links = new ArrayList<String>();
 
     LevelCounter lvl = new LevelCounter();
@@ -239,12 +331,11 @@ public class BookMaker {
     for (Navigation.Category s : page.getNavigation().getCategories()) {
       lvl.l1++;
       
-//      div.addTag("div").setAttribute("class", "page-break");
-      XhtmlNode divS = div.addTag("div");
-      divS.attribute("class", "section");
-      XhtmlNode h1 = divS.addTag("h1");
-      h1.addText(Integer.toString(lvl.l1)+": "+s.getName());
-      addPageContent(lvl, divS, s.getLink(), s.getName());
+      if (out != null) {
+        write(out, "<div class=\"section\">");
+        write(out, "<h1>"+Utilities.escapeXml(Integer.toString(lvl.l1)+": "+s.getName())+"</h1>");
+      }
+      addPageContent(lvl, out, s.getLink(), s.getName());
       links.add(s.getLink());
 
       lvl.l2 = 0;
@@ -254,26 +345,16 @@ public class BookMaker {
         if (n.getLink() != null) {
           if (n.getLink().equals("[codes]")) {
             lvl.l2--;
-            List<String> names = new ArrayList<String>();
             throw new Error("fix this");
-//            for (BindingSpecification bs : page.getDefinitions().getBindings().values()) {
-//              if (bs.getBinding() == Binding.CodeList) 
-//                names.add(bs.getReference());
-//            }
-//            Collections.sort(names);
-//            for (String l : names) { 
-//              addPageContent(lvl, divS, l.substring(1), page.getDefinitions().getBindingByReference(l).getName());
-////              links.add(l.substring(1));
-//            }
           }
           else {
-            addPageContent(lvl, divS, n.getLink(), n.getName());
+            addPageContent(lvl, out, n.getLink(), n.getName());
             links.add(n.getLink());
           }
         }
         for (Navigation.Entry g : n.getEntries()) {
           if (g.getLink() != null) {
-            addPageContent(lvl, divS, g.getLink(), g.getName());
+            addPageContent(lvl, out, g.getLink(), g.getName());
             links.add(g.getLink());
           }
         }
@@ -285,7 +366,7 @@ public class BookMaker {
             lvl.l2++;
             lvl.l3 = 0;
             ResourceDefn r = page.getDefinitions().getResourceByName(rn);
-            addPageContent(lvl, divS, rn.toLowerCase(), r.getName());
+            addPageContent(lvl, out, rn.toLowerCase(), r.getName());
           }
         }
       }
@@ -295,7 +376,7 @@ public class BookMaker {
           lvl.l2++;
           lvl.l3 = 0;
             ResourceDefn r = page.getDefinitions().getResourceByName(rn);
-            addPageContent(lvl, divS, rn.toLowerCase()+"Ex", r.getName());
+            addPageContent(lvl, out, rn.toLowerCase()+"Ex", r.getName());
         }
       }
       if (s.getLink().equals("page") && s.getName().equals("Detailed Descriptions")) {
@@ -304,46 +385,34 @@ public class BookMaker {
           lvl.l2++;
           lvl.l3 = 0;
             ResourceDefn r = page.getDefinitions().getResourceByName(rn);
-            addPageContent(lvl, divS, rn.toLowerCase()+"Defn", r.getName());
+            addPageContent(lvl, out, rn.toLowerCase()+"Defn", r.getName());
         }
       }
+      if (out != null)
+        write(out, "</div>");
     }
   }
 
   private void loadResources(List<String> list, Set<String> keySet) throws Exception {
     list.addAll(page.getDefinitions().getResources().keySet());
     Collections.sort(list);
-    //    list.add("Profile");
-    //    list.add("MessageHeader");
-    //    list.add("DocumentHeader");
-    //    list.add("ValueSet");
-    //    list.add("CapabilityStatement");
-    //    list.add("Agent");
-    //    list.add("Animal");
-    //    list.add("AssessmentScale");
-    //    list.add("LabReport"); 
-    //    list.add("Organization");
-    //    list.add("Patient");
-    //    list.add("Person");
-    //    list.add("Prescription");
-    //    if (list.size() != keySet.size())
-    //      throw new Exception("Please consult Grahame");    
   }
 
-  private void addPageContent(LevelCounter lvl, XhtmlNode divS, String link, String name) throws Exception, Error {
-    XhtmlNode divT = divS.addTag("div");
+  private void addPageContent(LevelCounter lvl, OutputStream out, String link, String name) throws Exception, Error {
+    XhtmlNode divT = new XhtmlNode(NodeType.Element, "div");
     XhtmlNode a = divT.addTag("a");
     a.attribute("name", link);
     a.addText(" "); // work around for a browser bug
 
     boolean first = true;
-    XhtmlDocument page = pages.get(link+".html");
-    if (page == null)
-      throw new Exception("No content found for "+link+".html");
+    XhtmlDocument page = loadPage(link+".html");
     if (page.getElement("html") == null)
       throw new Exception("No 'html' tag found in "+link+".html");
     if (page.getElement("html").getElement("body") == null)
       throw new Exception("No 'body' tag found in "+link+".html");
+    if (out == null)
+      indexLinks(link+".html", page);
+    fixExternalLinks(page);
     XhtmlNode pageBody = page.getElement("html").getElement("body");
     
     List<XhtmlNode> wantDelete = new ArrayList<XhtmlNode>();
@@ -379,9 +448,13 @@ public class BookMaker {
         child.setName("h5");
       }
     }
-//        if (i2 != 1)
-//          divT.addTag("div").setAttribute("class", "page-break");
     divT.getChildNodes().addAll(pageBody.getChildNodes());
+    if (out == null)
+      indexTargets(divT, true);
+    else {
+      updateRefs(divT, true, false);
+      write(out, new XhtmlComposer(XhtmlComposer.HTML).compose(divT));
+    }
   }
 
   
@@ -549,10 +622,4 @@ public class BookMaker {
     
   }
 
-  public Map<String, XhtmlDocument> getPages() {
-    return pages;
-  }
-
-
-  
 }
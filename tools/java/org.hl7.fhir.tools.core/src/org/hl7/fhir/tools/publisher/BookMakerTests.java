@@ -0,0 +1,111 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.definitions.model.Definitions;
+import org.hl7.fhir.definitions.model.ImplementationGuideDefn;
+import org.hl7.fhir.definitions.model.ResourceDefn;
+import org.hl7.fhir.definitions.model.WorkGroup;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.utils.Translations;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.xhtml.XhtmlNode;
+import org.junit.Test;
+
+/**
+ * builds a two page book from a fixture book.html, without the rest of the publisher
+ */
+public class BookMakerTests {
+
+  private class FixturePageProcessor extends PageProcessor {
+    private FolderManager folders;
+    private Navigation navigation = new Navigation();
+    private Definitions definitions = new Definitions();
+
+    public FixturePageProcessor(FolderManager folders) throws Exception {
+      super(PageProcessor.DEF_TS_SERVER);
+      this.folders = folders;
+      Navigation.Category c = new Navigation.Category();
+      c.setName("Basics");
+      c.setLink("intro");
+      Navigation.Entry e = new Navigation.Entry();
+      e.setName("Second");
+      e.setLink("second");
+      c.getEntries().add(e);
+      navigation.getCategories().add(c);
+    }
+
+    @Override
+    public FolderManager getFolders() {
+      return folders;
+    }
+
+    @Override
+    public Navigation getNavigation() {
+      return navigation;
+    }
+
+    @Override
+    public Definitions getDefinitions() {
+      return definitions;
+    }
+
+    @Override
+    public BreadCrumbManager getBreadCrumbManager() {
+      return new BreadCrumbManager(new Translations()) {
+        @Override
+        public void makeToc(XhtmlNode p) {
+          p.addText("toc");
+        }
+      };
+    }
+
+    @Override
+    public String processPageIncludes(String file, String src, String type, Map<String, String> others, Resource resource, List<String> tabs, String crumbTitle, ImplementationGuideDefn ig, ResourceDefn rd, WorkGroup wg) throws Exception {
+      return src;
+    }
+  }
+
+  private int renders;
+
+  @Test
+  public void testBook() throws Exception {
+    String root = Files.createTempDirectory("book").toFile().getAbsolutePath();
+    FolderManager folders = new FolderManager(root, null);
+    Utilities.createDirectory(folders.srcDir);
+    Utilities.createDirectory(folders.dstDir);
+    TextFile.stringToFile("<html><head><title>Book</title></head><body><index/><hr/><contents/></body></html>", folders.srcDir + "book.html");
+
+    List<ValidationMessage> issues = new ArrayList<ValidationMessage>();
+    BookMaker book = new BookMaker(new FixturePageProcessor(folders), issues);
+    book.registerPage("intro.html", "<html><body><h1>Intro</h1><p>See <a href=\"second.html#detail\">the detail</a></p></body></html>");
+    book.registerPage("second.html", new BookMaker.PageSource() {
+      @Override
+      public String render() throws Exception {
+        renders++;
+        return "<html><body><h1>Second</h1><a name=\"detail\"> </a><h2>Detail</h2><p>text</p></body></html>";
+      }
+    });
+    assertEquals("pages registered with a PageSource are only rendered for the book", 0, renders);
+
+    book.produce();
+    assertEquals(1, renders);
+    assertTrue(issues.toString(), issues.isEmpty());
+    String out = TextFile.fileToString(folders.dstDir + "fhir-book.html");
+    assertTrue(out, out.contains("1.0: Intro"));
+    assertTrue(out, out.contains("1.1: Second"));
+    assertTrue(out, out.contains("1.1.1: Detail"));
+    assertTrue(out, out.contains("href=\"#second.detail\""));
+    assertTrue(out, out.contains("(§1.1.1)"));
+  }
+
+}
@@ -0,0 +1,243 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.hl7.fhir.utilities.IniFile;
+
+/**
+ * Tracks the inputs and outputs of each artifact that a partial build can produce on its
+ * own (a resource's pages, a page, or "all" for everything that depends on the common
+ * files), to decide which of them need to be built again.
+ *
+ * For each artifact, the content hash (SHA-1) of each of its input files is recorded,
+ * and the date and size of each of the files it wrote. An artifact is out of date if
+ * any of its inputs has changed, or been added or removed, or if any of its outputs has
+ * gone or been changed since it was written. Inputs are compared by content, not by file
+ * date, so checking out a branch or touching a file doesn't trigger a rebuild, and
+ * restoring an older version of a file does.
+ *
+ * The outputs are noted as they are written (see {@link #output(String)}), against the
+ * artifact that the writing thread is building at the time (see {@link #building(String)}).
+ *
+ * The state is kept in temp/build.cache. An artifact's inputs are only recorded once it
+ * has been built (see {@link #commit(String)}), so an artifact that was out of date
+ * stays out of date until a build actually produces it. The hash of each input file is
+ * kept along with its date and size; a file is only read again if those change
+ */
+public class BuildCache {
+
+  private String root;
+  private IniFile ini;
+  private Map<String, List<File>> artifacts = new HashMap<String, List<File>>();
+  private Map<String, String> current = new HashMap<String, String>(); // the inputs found this time, by artifact
+  private Map<String, List<String>> reasons = new HashMap<String, List<String>>();
+  private Map<String, Set<File>> outputs = new HashMap<String, Set<File>>(); // the files written this time, by artifact (lower case)
+  private ThreadLocal<String> building = new ThreadLocal<String>();
+
+  public BuildCache(String root, String filename) {
+    super();
+    this.root = new File(root).getAbsolutePath();
+    ini = new IniFile(filename);
+  }
+
+  /**
+   * note that a file is an input for the artifact
+   */
+  public synchronized void register(String artifact, File f) {
+    if (f.getAbsolutePath().endsWith(".gen.svg") || f.getName().contains("please-close-this-in-excel-and-return-the-build-prior-to-committing"))
+      return;
+    if (!artifacts.containsKey(artifact))
+      artifacts.put(artifact, new ArrayList<File>());
+    artifacts.get(artifact).add(f);
+  }
+
+  public Set<String> getArtifacts() {
+    return artifacts.keySet();
+  }
+
+  /**
+   * for each artifact with any inputs, whether it is out of date. Why is available from
+   * {@link #getReasons(String)}
+   */
+  public Map<String, Boolean> checkChanges() throws IOException {
+    Map<String, Boolean> res = new HashMap<String, Boolean>();
+    for (String artifact : artifacts.keySet()) {
+      Map<String, String> inputs = new TreeMap<String, String>();
+      for (File f : artifacts.get(artifact))
+        inputs.put(relativePath(f), hashFile(f));
+      List<String> why = new ArrayList<String>();
+      Map<String, String> before = decode(ini.getStringProperty("inputs", artifact));
+      if (before == null)
+        why.add("not built before");
+      else {
+        for (String path : inputs.keySet())
+          if (!before.containsKey(path))
+            why.add(path+" added");
+          else if (!before.get(path).equals(inputs.get(path)))
+            why.add(path+" changed");
+        for (String path : before.keySet())
+          if (!inputs.containsKey(path))
+            why.add(path+" removed");
+        Map<String, String> outputs = decode(ini.getStringProperty("outputs", artifact));
+        if (outputs != null)
+          for (String path : outputs.keySet()) {
+            File o = new File(root + path);
+            if (!o.exists())
+              why.add(path+" is missing");
+            else if (!stamp(o).equals(outputs.get(path)))
+              why.add(path+" has been changed");
+          }
+      }
+      current.put(artifact, encode(inputs));
+      reasons.put(artifact, why);
+      res.put(artifact, !why.isEmpty());
+    }
+    return res;
+  }
+
+  /**
+   * why the artifact is out of date (empty if it isn't)
+   */
+  public List<String> getReasons(String artifact) {
+    return reasons.containsKey(artifact) ? reasons.get(artifact) : new ArrayList<String>();
+  }
+
+  /**
+   * the files written on this thread from now on are outputs of the artifact (null: of
+   * nothing in particular). Returns the artifact it was building before, to restore 
+   * when it's done
+   */
+  public String building(String artifact) {
+    String previous = building.get();
+    if (artifact == null)
+      building.remove();
+    else
+      building.set(artifact);
+    return previous;
+  }
+
+  /**
+   * note that the file is being written for the artifact this thread is building (if any).
+   * Returns the filename, so it can wrap the name where the file is written
+   */
+  public String output(String filename) {
+    return output(building.get(), filename);
+  }
+
+  /**
+   * note that the file is being written for the artifact, whatever this thread is building
+   */
+  public synchronized String output(String artifact, String filename) {
+    if (artifact != null) {
+      String key = artifact.toLowerCase();
+      if (!outputs.containsKey(key))
+        outputs.put(key, new LinkedHashSet<File>());
+      outputs.get(key).add(new File(filename));
+    }
+    return filename;
+  }
+
+  /**
+   * the artifact has been built from the inputs found by {@link #checkChanges()}, and
+   * wrote the files noted by {@link #output(String)}. Recorded, but not saved
+   */
+  public void commit(String artifact) {
+    if (!current.containsKey(artifact))
+      return;
+    ini.setStringProperty("inputs", artifact, current.get(artifact), null);
+    Map<String, String> o = new TreeMap<String, String>();
+    Set<File> written = outputs.get(artifact.toLowerCase());
+    if (written != null)
+      for (File f : written)
+        if (f.exists())
+          o.put(relativePath(f), stamp(f));
+    ini.setStringProperty("outputs", artifact, encode(o), null);
+  }
+
+  public void save() {
+    ini.save();
+  }
+
+  private String hashFile(File f) throws IOException {
+    String key = relativePath(f);
+    String stamp = stamp(f);
+    String cached = ini.getStringProperty("files", key);
+    if (cached != null && cached.startsWith(stamp+":"))
+      return cached.substring(stamp.length()+1);
+    MessageDigest md = digest();
+    InputStream s = new FileInputStream(f);
+    try {
+      byte[] buffer = new byte[65536];
+      int n;
+      while ((n = s.read(buffer)) > 0)
+        md.update(buffer, 0, n);
+    } finally {
+      s.close();
+    }
+    String hash = toHex(md.digest());
+    ini.setStringProperty("files", key, stamp+":"+hash, null);
+    return hash;
+  }
+
+  private static String stamp(File f) {
+    return Long.toString(f.lastModified())+":"+Long.toString(f.length());
+  }
+
+  // path*value|path*value... (neither | nor * can be in a file name on windows)
+  private static String encode(Map<String, String> map) {
+    StringBuilder b = new StringBuilder();
+    for (String path : map.keySet()) {
+      if (b.length() > 0)
+        b.append('|');
+      b.append(path);
+      b.append('*');
+      b.append(map.get(path));
+    }
+    return b.toString();
+  }
+
+  private static Map<String, String> decode(String s) {
+    if (s == null)
+      return null;
+    Map<String, String> res = new TreeMap<String, String>();
+    for (String e : s.split("\\|"))
+      if (e.contains("*"))
+        res.put(e.substring(0, e.lastIndexOf('*')), e.substring(e.lastIndexOf('*')+1));
+    return res;
+  }
+  private String relativePath(File f) {
+    String path = f.getAbsolutePath();
+    if (path.startsWith(root))
+      path = path.substring(root.length());
+    return path.replace(File.separatorChar, '/');
+  }
+
+  private static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder b = new StringBuilder();
+    for (byte v : bytes) {
+      b.append(Character.forDigit((v >> 4) & 0xF, 16));
+      b.append(Character.forDigit(v & 0xF, 16));
+    }
+    return b.toString();
+  }
+}
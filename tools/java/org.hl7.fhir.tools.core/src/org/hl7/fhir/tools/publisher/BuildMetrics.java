@@ -0,0 +1,182 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.utilities.TextFile;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Timings for the phases of the build (load, parse, profile, generate, validate,
+ * link-check), and for individual artifacts within them (e.g. each resource).
+ *
+ * For each timer, records elapsed time, bytes allocated on the thread that ran it,
+ * GC count and pause time, and process I/O (where the OS reports it - Linux only).
+ * Each timer is also a JFR event (org.hl7.fhir.publisher.BuildPhase) if the JVM
+ * supports JFR, so a flight recording of the build shows the phases alongside
+ * everything else.
+ *
+ * At the end of the build the metrics are saved as build-metrics.json beside qa.html,
+ * for tracking across builds
+ */
+public class BuildMetrics {
+
+  private static final boolean JFR = hasJfr();
+
+  public class Timer {
+    private String category;
+    private String name;
+    private String thread;
+    private long start;
+    private long allocated;
+    private long gcCount;
+    private long gcTime;
+    private long[] io;
+    private Object event;
+
+    public void stop() {
+      long elapsed = System.nanoTime() - start;
+      long alloc = allocatedBytes();
+      long[] gc = gc();
+      long[] io2 = io();
+      Record r = new Record();
+      r.category = category;
+      r.name = name;
+      r.thread = thread;
+      r.elapsed = elapsed / 1000000;
+      r.allocated = alloc < 0 || allocated < 0 ? -1 : alloc - allocated;
+      r.gcCount = gc[0] - gcCount;
+      r.gcTime = gc[1] - gcTime;
+      r.read = io == null || io2 == null ? -1 : io2[0] - io[0];
+      r.written = io == null || io2 == null ? -1 : io2[1] - io[1];
+      if (event != null)
+        BuildPhaseEvent.end(event, r.allocated);
+      synchronized (records) {
+        records.add(r);
+      }
+    }
+  }
+
+  private static class Record {
+    private String category;
+    private String name;
+    private String thread;
+    private long elapsed;
+    private long allocated;
+    private long gcCount;
+    private long gcTime;
+    private long read;
+    private long written;
+  }
+
+  private final List<Record> records = new ArrayList<Record>();
+  private final long start = System.currentTimeMillis();
+
+  /**
+   * start timing something. category is the kind of thing (phase, resource, page...)
+   */
+  public Timer start(String category, String name) {
+    Timer t = new Timer();
+    t.category = category;
+    t.name = name;
+    t.thread = Thread.currentThread().getName();
+    t.allocated = allocatedBytes();
+    long[] gc = gc();
+    t.gcCount = gc[0];
+    t.gcTime = gc[1];
+    t.io = io();
+    if (JFR)
+      t.event = BuildPhaseEvent.begin(category, name);
+    t.start = System.nanoTime();
+    return t;
+  }
+
+  public void save(String filename) throws IOException {
+    JsonObject json = new JsonObject();
+    json.addProperty("date", start);
+    json.addProperty("elapsed", System.currentTimeMillis() - start);
+    json.addProperty("maxHeap", Runtime.getRuntime().maxMemory());
+    json.addProperty("processors", Runtime.getRuntime().availableProcessors());
+    long[] gc = gc();
+    json.addProperty("gcCount", gc[0]);
+    json.addProperty("gcTime", gc[1]);
+    JsonArray list = new JsonArray();
+    json.add("timers", list);
+    synchronized (records) {
+      for (Record r : records) {
+        JsonObject t = new JsonObject();
+        list.add(t);
+        t.addProperty("category", r.category);
+        t.addProperty("name", r.name);
+        t.addProperty("thread", r.thread);
+        t.addProperty("elapsed", r.elapsed);
+        if (r.allocated >= 0)
+          t.addProperty("allocated", r.allocated);
+        t.addProperty("gcCount", r.gcCount);
+        t.addProperty("gcTime", r.gcTime);
+        if (r.read >= 0) {
+          t.addProperty("read", r.read);
+          t.addProperty("written", r.written);
+        }
+      }
+    }
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    TextFile.stringToFile(gson.toJson(json), filename);
+  }
+
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sbean = (com.sun.management.ThreadMXBean) bean;
+      if (sbean.isThreadAllocatedMemorySupported() && sbean.isThreadAllocatedMemoryEnabled())
+        return sbean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static long[] gc() {
+    long[] res = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      res[0] = res[0] + Math.max(gc.getCollectionCount(), 0);
+      res[1] = res[1] + Math.max(gc.getCollectionTime(), 0);
+    }
+    return res;
+  }
+
+  // bytes read and written by the whole process (rchar / wchar), or null if not known
+  private static long[] io() {
+    File f = new File("/proc/self/io");
+    if (!f.exists())
+      return null;
+    try {
+      long[] res = new long[2];
+      for (String line : TextFile.fileToString(f).split("\\n")) {
+        if (line.startsWith("rchar:"))
+          res[0] = Long.parseLong(line.substring(6).trim());
+        else if (line.startsWith("wchar:"))
+          res[1] = Long.parseLong(line.substring(6).trim());
+      }
+      return res;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static boolean hasJfr() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (Throwable e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.hl7.fhir.tools.publisher;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a BuildMetrics timer. Only loaded if the JVM has JFR
+ */
+@Name("org.hl7.fhir.publisher.BuildPhase")
+@Label("FHIR Build Phase")
+@Category("FHIR Publisher")
+public class BuildPhaseEvent extends Event {
+
+  @Label("Category")
+  private String phaseCategory;
+
+  @Label("Name")
+  private String phaseName;
+
+  @Label("Allocated")
+  @DataAmount
+  private long allocated;
+
+  static Object begin(String category, String name) {
+    BuildPhaseEvent e = new BuildPhaseEvent();
+    if (!e.isEnabled())
+      return null;
+    e.phaseCategory = category;
+    e.phaseName = name;
+    e.begin();
+    return e;
+  }
+
+  static void end(Object event, long allocated) {
+    BuildPhaseEvent e = (BuildPhaseEvent) event;
+    e.allocated = allocated;
+    e.commit();
+  }
+}
@@ -0,0 +1,249 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.tools.publisher.BuildTaskPool.BuildTask;
+import org.hl7.fhir.tools.publisher.BuildTaskPool.SharedUpdate;
+
+/**
+ * A set of build phases (e.g. the schema generators) with explicit dependencies
+ * between them.
+ *
+ * Each phase says what it produces (e.g. "xsd", "schematron"), and what it needs
+ * from the other phases, and the phases are run on a pool of worker threads as soon
+ * as everything they need has been produced. Phases only communicate through what
+ * they declare - any other change to shared state (e.g. validation messages) is
+ * journaled as for a {@link BuildTaskPool}, and replayed once all the phases have
+ * finished, in the order the phases were added.
+ *
+ * With 1 thread, the phases run inline in the order they were added (which must
+ * respect the dependencies).
+ *
+ * After execution, {@link #report()} describes the critical path - the chain of phases
+ * that determined how long the whole thing took
+ */
+public class BuildTaskGraph {
+
+  public class Phase {
+    private String name;
+    private BuildTask task;
+    private List<String> needs = new ArrayList<String>();
+    private List<String> produces = new ArrayList<String>();
+    private List<Phase> dependencies = new ArrayList<Phase>();
+    private List<Phase> dependents = new ArrayList<Phase>();
+    private List<SharedUpdate> journal = new ArrayList<SharedUpdate>();
+    private int waiting;
+    private long start;
+    private long end;
+
+    public Phase needs(String... artifacts) {
+      for (String s : artifacts)
+        needs.add(s);
+      return this;
+    }
+
+    public Phase produces(String... artifacts) {
+      for (String s : artifacts)
+        produces.add(s);
+      return this;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getDuration() {
+      return end - start;
+    }
+
+    private void run() throws Exception {
+      BuildMetrics.Timer timer = metrics == null ? null : metrics.start(BuildTaskGraph.this.name, name);
+      start = System.currentTimeMillis();
+      try {
+        task.execute();
+      } finally {
+        end = System.currentTimeMillis();
+      }
+      if (timer != null)
+        timer.stop();
+    }
+  }
+
+  private final String name;
+  private final int threads;
+  private final List<Phase> phases = new ArrayList<Phase>();
+  private BuildMetrics metrics;
+  private long start;
+  private long end;
+
+  public BuildTaskGraph(String name, int threads) {
+    super();
+    this.name = name;
+    this.threads = threads;
+  }
+
+  /**
+   * time each phase (under the name of the graph)
+   */
+  public void setMetrics(BuildMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public Phase add(String name, BuildTask task) {
+    Phase p = new Phase();
+    p.name = name;
+    p.task = task;
+    phases.add(p);
+    return p;
+  }
+
+  public void execute() throws Exception {
+    resolve();
+    start = System.currentTimeMillis();
+    try {
+      if (threads <= 1) {
+        for (Phase p : phases)
+          p.run();
+      } else
+        executeOnPool();
+    } finally {
+      end = System.currentTimeMillis();
+    }
+  }
+
+  private void resolve() throws Exception {
+    Map<String, Phase> producers = new HashMap<String, Phase>();
+    for (Phase p : phases) {
+      for (String s : p.produces) {
+        if (producers.containsKey(s))
+          throw new Exception("Build phases "+producers.get(s).name+" and "+p.name+" both produce "+s);
+        producers.put(s, p);
+      }
+    }
+    for (Phase p : phases) {
+      for (String s : p.needs) {
+        Phase d = producers.get(s);
+        if (d == null)
+          throw new Exception("Build phase "+p.name+" needs "+s+" but no phase produces it");
+        if (phases.indexOf(d) > phases.indexOf(p))
+          throw new Exception("Build phase "+p.name+" needs "+s+" but is added before "+d.name+" which produces it");
+        if (!p.dependencies.contains(d)) {
+          p.dependencies.add(d);
+          d.dependents.add(p);
+        }
+      }
+      p.waiting = p.dependencies.size();
+    }
+  }
+
+  private void executeOnPool() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, phases.size()));
+    try {
+      CompletionService<Phase> completion = new ExecutorCompletionService<Phase>(executor);
+      Map<Future<Phase>, Phase> running = new HashMap<Future<Phase>, Phase>();
+      Map<Phase, Throwable> failures = new HashMap<Phase, Throwable>();
+      for (Phase p : phases)
+        if (p.waiting == 0)
+          running.put(completion.submit(worker(p)), p);
+      while (!running.isEmpty()) {
+        Future<Phase> f = completion.take();
+        Phase p = running.remove(f);
+        try {
+          f.get();
+        } catch (ExecutionException e) {
+          failures.put(p, e.getCause());
+          continue;
+        }
+        // once something has failed, just wait for whatever is already running
+        if (failures.isEmpty()) {
+          for (Phase d : p.dependents) {
+            d.waiting--;
+            if (d.waiting == 0)
+              running.put(completion.submit(worker(d)), d);
+          }
+        }
+      }
+      for (Phase p : phases) {
+        if (failures.containsKey(p)) {
+          Throwable cause = failures.get(p);
+          if (cause instanceof Exception)
+            throw (Exception) cause;
+          if (cause instanceof Error)
+            throw (Error) cause;
+          throw new Exception("Error running "+name+" phase "+p.name+": "+cause.getMessage(), cause);
+        }
+      }
+      for (Phase p : phases)
+        for (SharedUpdate update : p.journal)
+          update.apply();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Callable<Phase> worker(final Phase p) {
+    return new Callable<Phase>() {
+      @Override
+      public Phase call() throws Exception {
+        Thread.currentThread().setName(name+"-"+p.name);
+        BuildTaskPool.beginJournal(p.journal);
+        try {
+          p.run();
+        } finally {
+          BuildTaskPool.endJournal();
+        }
+        return p;
+      }
+    };
+  }
+
+  /**
+   * The phases that bound the elapsed time: starting from the phase that finished last,
+   * each phase is preceded by the dependency it was waiting for (the one that finished
+   * last). Anything not on this path could take longer without slowing the build down
+   */
+  public List<Phase> getCriticalPath() {
+    List<Phase> path = new ArrayList<Phase>();
+    Phase last = null;
+    for (Phase p : phases)
+      if (last == null || p.end > last.end)
+        last = p;
+    while (last != null) {
+      path.add(last);
+      Phase gate = null;
+      for (Phase d : last.dependencies)
+        if (gate == null || d.end > gate.end)
+          gate = d;
+      last = gate;
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  public String report() {
+    StringBuilder b = new StringBuilder();
+    long total = 0;
+    for (Phase p : phases)
+      total = total + p.getDuration();
+    b.append(name+": "+Integer.toString(phases.size())+" phases, "+Long.toString(end - start)+"ms elapsed ("+Long.toString(total)+"ms of work) on "+Integer.toString(Math.max(threads, 1))+" threads");
+    b.append("\r\n  critical path:");
+    boolean first = true;
+    for (Phase p : getCriticalPath()) {
+      b.append(first ? " " : " -> ");
+      first = false;
+      b.append(p.name+" ("+Long.toString(p.getDuration())+"ms)");
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,223 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a set of independent publication tasks (e.g. validating the examples) on a pool of
+ * worker threads.
+ *
+ * The tasks still share a lot of state with the rest of the build (the resource feeds,
+ * the html link checker, the validation messages, the registries). Changes to that
+ * state are made through {@link #update(SharedUpdate)} / {@link #append(List, Object)}.
+ * When called from a worker, the change is journaled against the task, and once all
+ * the tasks have finished, the journals are replayed on the calling thread in the
+ * order the tasks were added. So the shared state ends up exactly as it would in a
+ * serial build, and the output is the same.
+ *
+ * With 1 thread, the tasks run inline, and changes are applied immediately
+ */
+public class BuildTaskPool {
+
+  public interface BuildTask {
+    public void execute() throws Exception;
+  }
+
+  public interface SharedUpdate {
+    public void apply() throws Exception;
+  }
+
+  private static final ThreadLocal<List<SharedUpdate>> journal = new ThreadLocal<List<SharedUpdate>>();
+
+  private final String name;
+  private final int threads;
+  private final List<String> names = new ArrayList<String>();
+  private final List<BuildTask> tasks = new ArrayList<BuildTask>();
+
+  public BuildTaskPool(String name, int threads) {
+    super();
+    this.name = name;
+    this.threads = threads;
+  }
+
+  public void add(String name, BuildTask task) {
+    names.add(name);
+    tasks.add(task);
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * true if the current thread is running a task on a worker (and changes to shared state must be journaled)
+   */
+  public static boolean isWorker() {
+    return journal.get() != null;
+  }
+
+  /**
+   * journal changes to shared state made on this thread (see BuildTaskGraph)
+   */
+  static void beginJournal(List<SharedUpdate> updates) {
+    journal.set(updates);
+  }
+
+  static void endJournal() {
+    journal.remove();
+  }
+
+  /**
+   * apply a change to shared state now, or when the task that makes it is committed
+   */
+  public static void update(SharedUpdate update) throws Exception {
+    List<SharedUpdate> j = journal.get();
+    if (j == null)
+      update.apply();
+    else
+      j.add(update);
+  }
+
+  public static void update(final Runnable update) {
+    List<SharedUpdate> j = journal.get();
+    if (j == null)
+      update.run();
+    else
+      j.add(new SharedUpdate() {
+        @Override
+        public void apply() {
+          update.run();
+        }
+      });
+  }
+
+  public static <T> void append(final List<T> list, final T item) {
+    List<SharedUpdate> j = journal.get();
+    if (j == null)
+      list.add(item);
+    else
+      j.add(new SharedUpdate() {
+        @Override
+        public void apply() {
+          list.add(item);
+        }
+      });
+  }
+
+  public void execute() throws Exception {
+    if (threads <= 1 || tasks.size() <= 1) {
+      for (BuildTask task : tasks)
+        task.execute();
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), new WorkerFactory(name));
+      try {
+        List<Future<List<SharedUpdate>>> results = new ArrayList<Future<List<SharedUpdate>>>();
+        for (final BuildTask task : tasks) {
+          results.add(executor.submit(new Callable<List<SharedUpdate>>() {
+            @Override
+            public List<SharedUpdate> call() throws Exception {
+              List<SharedUpdate> updates = new ArrayList<SharedUpdate>();
+              journal.set(updates);
+              try {
+                task.execute();
+              } finally {
+                journal.remove();
+              }
+              return updates;
+            }
+          }));
+        }
+        // wait for everything before committing anything, so that no worker is reading
+        // shared state while it's being changed
+        List<List<SharedUpdate>> journals = new ArrayList<List<SharedUpdate>>();
+        for (int i = 0; i < results.size(); i++) {
+          try {
+            journals.add(results.get(i).get());
+          } catch (ExecutionException e) {
+            journals.add(null);
+          }
+        }
+        for (int i = 0; i < results.size(); i++) {
+          if (journals.get(i) == null)
+            rethrow(names.get(i), results.get(i));
+          for (SharedUpdate update : journals.get(i))
+            update.apply();
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  private void rethrow(String task, Future<List<SharedUpdate>> result) throws Exception {
+    try {
+      result.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new Exception("Error running "+name+" task "+task+": "+cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * A list for shared state that is appended to from all over the place (e.g. the 
+   * validation messages). Appends made on a worker are journaled like any other update
+   */
+  public static class JournaledList<T> extends ArrayList<T> {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public boolean add(final T item) {
+      if (!isWorker())
+        return super.add(item);
+      journal.get().add(new SharedUpdate() {
+        @Override
+        public void apply() {
+          JournaledList.super.add(item);
+        }
+      });
+      return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> items) {
+      if (!isWorker())
+        return super.addAll(items);
+      final List<T> copy = new ArrayList<T>(items);
+      journal.get().add(new SharedUpdate() {
+        @Override
+        public void apply() {
+          JournaledList.super.addAll(copy);
+        }
+      });
+      return !copy.isEmpty();
+    }
+  }
+
+  private static class WorkerFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public WorkerFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, name+"-"+count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -120,6 +120,10 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
   private String version;
   private List<String> resourceNames = new ArrayList<String>();
   private Definitions definitions;
+  // the snomed and loinc codes are filled in from the terminology server as codes are 
+  // validated, which can be on several threads at once (the examples are validated on a
+  // BuildTaskPool), so the methods that read and fill them are synchronized. Everything 
+  // else is loaded before validation starts, and only read after that
   private Map<String, Concept> snomedCodes = new HashMap<String, Concept>();
   private Map<String, Concept> loincCodes = new HashMap<String, Concept>();
   private boolean triedServer = false;
@@ -299,7 +303,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     return null;
   }
 
-  private ConceptDefinitionComponent locateSnomed(String code) throws Exception {
+  private synchronized ConceptDefinitionComponent locateSnomed(String code) throws Exception {
     if (!snomedCodes.containsKey(code))
       queryForTerm(code);
     if (!snomedCodes.containsKey(code))
@@ -310,7 +314,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     return cc;
   }
 
-  private ValidationResult verifySnomed(String code, String display) throws Exception {
+  private synchronized ValidationResult verifySnomed(String code, String display) throws Exception {
     SnomedServerResponse response = null;
     if (!snomedCodes.containsKey(code))
       response = queryForTerm(code);
@@ -385,7 +389,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
       return null;
   }
 
-  private ConceptDefinitionComponent locateLoinc(String code) throws Exception {
+  private synchronized ConceptDefinitionComponent locateLoinc(String code) throws Exception {
     if (!loincCodes.containsKey(code))
       return null;
     ConceptDefinitionComponent cc = new ConceptDefinitionComponent();
@@ -395,7 +399,7 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     return cc;
   }
 
-  private ValidationResult verifyLoinc(String code, String display) throws Exception {
+  private synchronized ValidationResult verifyLoinc(String code, String display) throws Exception {
     if (!loincCodes.containsKey(code)) {
       String d = lookupLoinc(code);
       if (d != null)
@@ -515,6 +519,26 @@ public class BuildWorkerContext extends BaseWorkerContext implements IWorkerCont
     }
   }
 
+  public Map<String, Concept> getSnomedCodes() {
+    return snomedCodes;
+  }
+
+  /**
+   * use snomed codes that have already been loaded (by an earlier build in the same
+   * PublisherDaemon), rather than loading them again
+   */
+  public void setSnomedCodes(Map<String, Concept> snomedCodes) {
+    this.snomedCodes = snomedCodes;
+  }
+
+  public Map<String, Concept> getLoincCodes() {
+    return loincCodes;
+  }
+
+  public void setLoincCodes(Map<String, Concept> loincCodes) {
+    this.loincCodes = loincCodes;
+  }
+
   public void loadUcum(String filename) throws UcumException {
     this.ucum = new UcumEssenceService(filename);
   }
@@ -192,7 +192,7 @@ public class ExampleAdorner implements XhtmlGeneratorAdorner {
                 ImplementationGuideDefn ig = definitions.getIgs().get(e.getIg());
                 return new ExampleAdornerState(State.Reference, s.getPath()+".reference", s.getDefinition(), "<a href=\""+prefix+ig.getPrefix()+e.getTitle()+".xml.html\">", "</a>");
               }
-            if (e.getXml() != null && e.getXml().getDocumentElement().getLocalName().equals("feed")) {
+            if (e.hasXml() && "feed".equals(e.getResourceName())) {
               List<Element> entries = new ArrayList<Element>();
               XMLUtil.getNamedChildren(e.getXml().getDocumentElement(), "entry", entries);
               String url = "http://hl7.org/fhir/"+type+"/"+id;
@@ -163,10 +163,39 @@ public class ExampleInspector implements IValidatorResourceFetcher {
   private static final boolean VALIDATE_BY_JSON_SCHEMA = false;
   private static final boolean VALIDATE_RDF = false;
   
+  /**
+   * The validators are not thread safe, so each thread that validates examples
+   * gets its own set (including the FHIRPath host services they call back into). 
+   * They all share the worker context: everything it holds has been loaded before 
+   * the examples are validated, and the terminology caches that validation fills 
+   * are locked (see BuildWorkerContext)
+   */
+  private class Worker {
+    private List<ValidationMessage> errors = new ArrayList<ValidationMessage>();
+    private InstanceValidator validator;
+    private XmlValidator xml;
+    private FHIRPathEngine fpe;
+    private ExampleHostServices hostServices;
+
+    public Worker() throws Exception {
+      hostServices = new ExampleHostServices();
+      validator = new InstanceValidator(context, hostServices);
+      validator.setSuppressLoincSnomedMessages(true);
+      validator.setResourceIdRule(IdStatus.REQUIRED);
+      validator.setBestPracticeWarningLevel(BestPracticeWarningLevel.Warning);
+      validator.getExtensionDomains().add("http://hl7.org/fhir/us");
+      validator.setFetcher(ExampleInspector.this);
+      validator.setAllowExamples(true);
+      validator.setDebug(true);
+
+      xml = new XmlValidator(errors, schemas, transforms);
+      fpe = new FHIRPathEngine(context);
+    }
+  }
+
   private IWorkerContext context;
   private String rootDir;
   private String xsltDir;
-  private List<ValidationMessage> errorsInt;
   private List<ValidationMessage> errorsExt;
   private Logger logger;
   private Definitions definitions;
@@ -174,7 +203,6 @@ public class ExampleInspector implements IValidatorResourceFetcher {
   private boolean bySchematron = VALIDATE_BY_SCHEMATRON;
   private boolean byJsonSchema = VALIDATE_BY_JSON_SCHEMA;
   private boolean byRdf = VALIDATE_RDF;
-  private ExampleHostServices hostServices;
   
   public ExampleInspector(IWorkerContext context, Logger logger, String rootDir, String xsltDir, List<ValidationMessage> errors, Definitions definitions) throws JsonSyntaxException, FileNotFoundException, IOException {
     super();
@@ -183,34 +211,27 @@ public class ExampleInspector implements IValidatorResourceFetcher {
     this.rootDir = rootDir;
     this.xsltDir = xsltDir;
     this.errorsExt = errors;
-    this.errorsInt = new ArrayList<ValidationMessage>();
     this.definitions = definitions;
-    hostServices = new ExampleHostServices();
     jsonLdDefns = (JsonObject) new com.google.gson.JsonParser().parse(TextFile.fileToString(Utilities.path(rootDir, "fhir.jsonld")));
   }
 
-  private XmlValidator xml;
-  private InstanceValidator validator;
+  private Map<String, byte[]> schemas;
+  private Map<String, byte[]> transforms;
+  private ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
   private int errorCount = 0;
   private int warningCount = 0;
   private int informationCount = 0;
+  private int exampleCount = 0;
+  private long start;
 
   private org.everit.json.schema.Schema jschema;
-  private FHIRPathEngine fpe;
   private JsonObject jsonLdDefns;
   private ShExValidator shex;
   
   public void prepare() throws Exception {
-    validator = new InstanceValidator(context, hostServices);
-    validator.setSuppressLoincSnomedMessages(true);
-    validator.setResourceIdRule(IdStatus.REQUIRED);
-    validator.setBestPracticeWarningLevel(BestPracticeWarningLevel.Warning);
-    validator.getExtensionDomains().add("http://hl7.org/fhir/us");
-    validator.setFetcher(this);
-    validator.setAllowExamples(true);
-    validator.setDebug(true);
-
-    xml = new XmlValidator(errorsInt, loadSchemas(), loadTransforms());
+    schemas = loadSchemas();
+    transforms = loadTransforms();
+    workers.set(new Worker());
 
     if (VALIDATE_BY_JSON_SCHEMA) {
       String source = TextFile.fileToString(Utilities.path(rootDir, "fhir.schema.json"));
@@ -221,8 +242,21 @@ public class ExampleInspector implements IValidatorResourceFetcher {
       shex = new ShExValidator(Utilities.path(rootDir, "fhir.shex"));
     }
     
-    fpe = new FHIRPathEngine(context);
     checkJsonLd();
+    start = System.currentTimeMillis();
+  }
+
+  private Worker getWorker() {
+    Worker w = workers.get();
+    if (w == null) {
+      try {
+        w = new Worker();
+      } catch (Exception e) {
+        throw new Error("Unable to prepare example validation: "+e.getMessage(), e);
+      }
+      workers.set(w);
+    }
+    return w;
   }
 
   
@@ -269,7 +303,7 @@ public class ExampleInspector implements IValidatorResourceFetcher {
   private Map<String, byte[]> loadTransforms() throws FileNotFoundException, IOException {
     Map<String, byte[]> res = new HashMap<String, byte[]>();
     for (String s : new File(xsltDir).list()) {
-      if (s.endsWith(".xslt"))
+      if (s.endsWith(".xslt") || s.endsWith(".xsl"))
         res.put(s, TextFile.fileToBytes(Utilities.path(xsltDir, s)));
     }
     return res;
@@ -300,24 +334,42 @@ public class ExampleInspector implements IValidatorResourceFetcher {
     doValidate(n, rt, null);    
   }
   
-  public void doValidate(String n, String rt, StructureDefinition profile) {
+  /**
+   * Validates one example. This can be called from a BuildTaskPool worker; the messages 
+   * are committed to the shared list when the task is (so they stay in example order)
+   */
+  public void doValidate(final String n, String rt, StructureDefinition profile) {
+    Worker w = getWorker();
+    List<ValidationMessage> errorsInt = w.errors;
     errorsInt.clear();
     logger.log(" ...validate " + n, LogMessageType.Process);
     try {
-      Element e = validateLogical(Utilities.path(rootDir, n+".xml"), profile, FhirFormat.XML);
-      org.w3c.dom.Element xe = validateXml(Utilities.path(rootDir, n+".xml"), profile == null ? null : profile.getId());
+      Element e = validateLogical(w, Utilities.path(rootDir, n+".xml"), profile, FhirFormat.XML);
+      org.w3c.dom.Element xe = validateXml(w, Utilities.path(rootDir, n+".xml"), profile == null ? null : profile.getId());
 
-      validateLogical(Utilities.path(rootDir, n+".json"), profile, FhirFormat.JSON);
+      validateLogical(w, Utilities.path(rootDir, n+".json"), profile, FhirFormat.JSON);
       validateJson(Utilities.path(rootDir, n+".json"), profile == null ? null : profile.getId());
       validateRDF(Utilities.path(rootDir, n+".ttl"), Utilities.path(rootDir, n+".jsonld"), rt);
       
-      checkSearchParameters(xe, e);
+      checkSearchParameters(w, xe, e);
     } catch (Exception e) {
       e.printStackTrace();
       errorsInt.add(new ValidationMessage(Source.InstanceValidator, IssueType.STRUCTURE, -1, -1, n, e.getMessage(), IssueSeverity.ERROR));
     }
     
-    for (ValidationMessage m : errorsInt) {
+    final List<ValidationMessage> messages = new ArrayList<ValidationMessage>(errorsInt);
+    errorsInt.clear();
+    BuildTaskPool.update(new Runnable() {
+      @Override
+      public void run() {
+        commit(n, messages);
+      }
+    });
+  }
+
+  private void commit(String n, List<ValidationMessage> messages) {
+    exampleCount++;
+    for (ValidationMessage m : messages) {
       if (!m.getLevel().equals(IssueSeverity.INFORMATION) && !m.getLevel().equals(IssueSeverity.WARNING)) {
         m.setMessage(n+":: "+m.getLocation()+": "+m.getMessage());
         errorsExt.add(m);
@@ -330,28 +382,27 @@ public class ExampleInspector implements IValidatorResourceFetcher {
       else
         errorCount++;
     }
-    Runtime.getRuntime().gc();
   }
  
-  private Element validateLogical(String f, StructureDefinition profile, FhirFormat fmt) throws Exception {
+  private Element validateLogical(Worker w, String f, StructureDefinition profile, FhirFormat fmt) throws Exception {
     Element e = Manager.parse(context, new CSFileInputStream(f), fmt);
     new DefinitionsUsageTracker(definitions).updateUsage(e);
-    validator.validate(null, errorsInt, e);
+    w.validator.validate(null, w.errors, e);
     if (profile != null) {
       List<StructureDefinition> list = new ArrayList<StructureDefinition>();
       list.add(profile);
-      validator.validate(null, errorsInt, e, list);
+      w.validator.validate(null, w.errors, e, list);
     }
     return e;
   }
 
 
-  private org.w3c.dom.Element validateXml(String f, String profile) throws FileNotFoundException, IOException, ParserConfigurationException, SAXException, FHIRException  {
-    org.w3c.dom.Element e = xml.checkBySchema(f, false);
+  private org.w3c.dom.Element validateXml(Worker w, String f, String profile) throws FileNotFoundException, IOException, ParserConfigurationException, SAXException, FHIRException  {
+    org.w3c.dom.Element e = w.xml.checkBySchema(f, false);
     if (VALIDATE_BY_SCHEMATRON) {
-      xml.checkBySchematron(f, "fhir-invariants.sch", false);
+      w.xml.checkBySchematron(f, "fhir-invariants.sch", false);
       if (profile != null && new File(Utilities.path(rootDir, profile+".sch")).exists()) {
-        xml.checkBySchematron(f, profile+".sch", false);
+        w.xml.checkBySchematron(f, profile+".sch", false);
       }
     }
     return e;
@@ -408,22 +459,24 @@ public class ExampleInspector implements IValidatorResourceFetcher {
   }
 
   public void summarise() throws EValidationFailed {
+    long secs = Math.max(System.currentTimeMillis() - start, 1);
+    logger.log("Validated "+Integer.toString(exampleCount)+" examples in "+Long.toString(secs / 1000)+" sec ("+Long.toString((exampleCount * 1000L) / secs)+" examples/sec)", LogMessageType.Process);
     logger.log("Summary: Errors="+Integer.toString(errorCount)+", Warnings="+Integer.toString(warningCount)+", Information messages="+Integer.toString(informationCount), LogMessageType.Error);
     if (errorCount > 0)
       throw new EValidationFailed("Resource Examples failed instance validation");
   }
 
 
-  private void checkSearchParameters(org.w3c.dom.Element xe, Element e) throws FHIRException {
+  private void checkSearchParameters(Worker w, org.w3c.dom.Element xe, Element e) throws FHIRException {
     // test the base
     testSearchParameters(xe, xe.getTagName(), false);
-    testSearchParameters(e);
+    testSearchParameters(w, e);
     
     if (e.fhirType().equals("Bundle")) {
       for (Element be : e.getChildrenByName("entry")) {
         Element res = be.getNamedChild("resource");
         if (res != null)
-          testSearchParameters(res);
+          testSearchParameters(w, res);
       }
       // XPath is turned off. We don't really care about this; ust that the xpaths compile, which is otherwise checked
 //      // for ZXath, iterating the entries running xpaths takes too long. What we're going to do
@@ -446,14 +499,16 @@ public class ExampleInspector implements IValidatorResourceFetcher {
     }
   }
 
-  private void testSearchParameters(Element e) throws FHIRException {
+  private void testSearchParameters(Worker w, Element e) throws FHIRException {
     ResourceDefn r = definitions.getResources().get(e.fhirType());
     if (r != null) {
       for (SearchParameterDefn sp : r.getSearchParams().values()) {
         if (!Utilities.noString(sp.getExpression())) {
-          if (sp.getExpressionNode() == null)
-            sp.setExpressionNode(fpe.parse(sp.getExpression()));
-          if (fpe.evaluate(e, sp.getExpressionNode()).size() > 0)
+          synchronized (sp) {
+            if (sp.getExpressionNode() == null)
+              sp.setExpressionNode(w.fpe.parse(sp.getExpression()));
+          }
+          if (w.fpe.evaluate(e, sp.getExpressionNode()).size() > 0)
             sp.setWorks(true);
         }
       }
@@ -463,9 +518,8 @@ public class ExampleInspector implements IValidatorResourceFetcher {
   private void testSearchParameters(org.w3c.dom.Element xe, String rn, boolean inBundle) throws FHIRException {
     ResourceDefn r = definitions.getResources().get(rn);
     for (SearchParameterDefn sp : r.getSearchParams().values()) {
-      if (!sp.isXPathDone() && !Utilities.noString(sp.getXPath())) {
+      if (!Utilities.noString(sp.getXPath()) && claimXPath(sp)) {
         try {
-          sp.setXPathDone(true);
           NamespaceContext context = new NamespaceContextMap("f", "http://hl7.org/fhir", "h", "http://www.w3.org/1999/xhtml");
           XPathFactory factory = XPathFactory.newInstance();
           XPath xpath = factory.newXPath();
@@ -482,6 +536,16 @@ public class ExampleInspector implements IValidatorResourceFetcher {
     }
   }
 
+  // only the first example to get to a search parameter checks the xpath 
+  private boolean claimXPath(SearchParameterDefn sp) {
+    synchronized (sp) {
+      if (sp.isXPathDone())
+        return false;
+      sp.setXPathDone(true);
+      return true;
+    }
+  }
+
   public boolean isByProfile() {
     return byProfile;
   }
@@ -528,14 +592,16 @@ public class ExampleInspector implements IValidatorResourceFetcher {
     if (parts.length == 2 && definitions.hasResource(parts[0])) {
       ResourceDefn r = definitions.getResourceByName(parts[0]);
       for (Example e : r.getExamples()) {
-        if (e.getElement() == null && e.hasXml()) {
-          e.setElement(new org.hl7.fhir.r5.elementmodel.XmlParser(context).parse(e.getXml()));
-          if (e.getElement().getProperty().getStructure().getBaseDefinition().contains("MetadataResource")) {
-            String urle = e.getElement().getChildValue("url");
-            String v = e.getElement().getChildValue("url");
-            if (urle != null && urle.startsWith("http://hl7.org/fhir") && !Constants.VERSION.equals(v)) {
-              e.getElement().setChildValue("version", Constants.VERSION);
-              
+        synchronized (e) {
+          if (e.getElement() == null && e.hasXml()) {
+            e.setElement(new org.hl7.fhir.r5.elementmodel.XmlParser(context).parse(e.getXml()));
+            if (e.getElement().getProperty().getStructure().getBaseDefinition().contains("MetadataResource")) {
+              String urle = e.getElement().getChildValue("url");
+              String v = e.getElement().getChildValue("url");
+              if (urle != null && urle.startsWith("http://hl7.org/fhir") && !Constants.VERSION.equals(v)) {
+                e.getElement().setChildValue("version", Constants.VERSION);
+
+              }
             }
           }
         }
@@ -0,0 +1,123 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.hl7.fhir.definitions.model.ConstraintStructure;
+import org.hl7.fhir.definitions.model.Definitions;
+import org.hl7.fhir.definitions.model.Example;
+import org.hl7.fhir.definitions.model.Profile;
+import org.hl7.fhir.definitions.model.ResourceDefn;
+import org.hl7.fhir.r5.formats.FormatUtilities;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.xml.XMLUtil;
+import org.w3c.dom.Element;
+
+/**
+ * Finds the example that a reference in another example points to, when the examples
+ * are checked.
+ *
+ * Built once all the examples have been loaded. A reference to type/id resolves to the
+ * first example of that type with that id, or containing that type/id in a Bundle (in
+ * the order of the examples); failing that, to the first Bundle of any type that
+ * contains it - as the examples were searched before
+ */
+public class ExampleReferenceIndex {
+
+  private Definitions definitions;
+  private Map<String, Map<String, Example>> byType = new HashMap<String, Map<String, Example>>(); // filled in as each type is asked for
+  private Map<String, Example> inBundles = new HashMap<String, Example>(); // type/id
+  private Set<String> profiles = new HashSet<String>();
+  private Map<String, String> targetIds = new HashMap<String, String>();
+  private Pattern reference;
+
+  public ExampleReferenceIndex(Definitions definitions, String pipeResources) {
+    super();
+    this.definitions = definitions;
+    for (ResourceDefn r : definitions.getResources().values()) {
+      for (Example e : r.getExamples())
+        for (String s : e.getBundleEntries())
+          if (!inBundles.containsKey(s))
+            inBundles.put(s, e);
+      for (Profile cp : r.getConformancePackages())
+        for (ConstraintStructure p : cp.getProfiles())
+          profiles.add(p.getId());
+    }
+    for (Profile cp : definitions.getPackList())
+      for (ConstraintStructure p : cp.getProfiles())
+        profiles.add(p.getId());
+    reference = Pattern.compile("((http|https)://([A-Za-z0-9\\\\\\/\\.\\:\\%\\$])*)?("+pipeResources+")\\/"+FormatUtilities.ID_REGEX+"(\\/_history\\/"+FormatUtilities.ID_REGEX+")?");
+  }
+
+  /**
+   * the example that a reference to type/id points to (or null). type must be a resource
+   */
+  public Example find(String type, String id) throws Exception {
+    Map<String, Example> map = byType.get(type);
+    if (map == null) {
+      map = new HashMap<String, Example>();
+      String prefix = type+"/";
+      for (Example e : definitions.getResourceByName(type).getExamples()) {
+        if (e.getId() != null && !map.containsKey(e.getId()))
+          map.put(e.getId(), e);
+        for (String s : e.getBundleEntries())
+          if (s.startsWith(prefix) && !map.containsKey(s.substring(prefix.length())))
+            map.put(s.substring(prefix.length()), e);
+      }
+      byType.put(type, map);
+    }
+    Example e = map.get(id);
+    return e != null ? e : inBundles.get(type+"/"+id);
+  }
+
+  /**
+   * true if id is the id of a profile in one of the conformance packages
+   */
+  public boolean isProfile(String id) {
+    return profiles.contains(id);
+  }
+
+  /**
+   * true if ref looks like a reference to a resource (whether it resolves or not)
+   */
+  public boolean isReference(String ref) {
+    return reference.matcher(ref).matches();
+  }
+
+  /**
+   * the ids of the examples of a type, for an error message
+   */
+  public String listTargetIds(String type) throws Exception {
+    String res = targetIds.get(type);
+    if (res == null) {
+      StringBuilder b = new StringBuilder();
+      ResourceDefn r = definitions.getResourceByName(type);
+      if (r != null) {
+        for (Example e : r.getExamples()) {
+          if (!Utilities.noString(e.getId()))
+            b.append(e.getId()).append(", ");
+          if (e.hasXml() && "feed".equals(e.getResourceName())) {
+            List<Element> entries = new ArrayList<Element>();
+            XMLUtil.getNamedChildren(e.getXml().getDocumentElement(), "entry", entries);
+            for (Element c : entries) {
+              String id = XMLUtil.getNamedChild(c, "id").getTextContent();
+              if (id.startsWith("http://hl7.org/fhir/") && id.contains("@"))
+                b.append(id.substring(id.indexOf("@") + 1)).append(", ");
+              else
+                b.append(id).append(", ");
+            }
+          }
+        }
+      } else
+        b.append("(unknown resource type)");
+      res = b.toString();
+      targetIds.put(type, res);
+    }
+    return res;
+  }
+}
@@ -0,0 +1,160 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.hl7.fhir.definitions.model.ConstraintStructure;
+import org.hl7.fhir.definitions.model.Definitions;
+import org.hl7.fhir.definitions.model.Example;
+import org.hl7.fhir.definitions.model.Example.ExampleType;
+import org.hl7.fhir.definitions.model.ImplementationGuideDefn;
+import org.hl7.fhir.definitions.model.Profile;
+import org.hl7.fhir.definitions.model.ResourceDefn;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ExampleReferenceIndexTests {
+
+  private Definitions definitions;
+  private ImplementationGuideDefn ig;
+
+  @Before
+  public void setUp() throws Exception {
+    definitions = new Definitions();
+    for (String n : new String[] { "Patient", "Observation", "Bundle" }) {
+      ResourceDefn r = new ResourceDefn();
+      r.setName(n);
+      definitions.getResources().put(n, r);
+    }
+    ig = new ImplementationGuideDefn("fhir", "core", "Core", null, null, false, null, null, null, true, null);
+  }
+
+  private Example example(String type, String xml) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    String id = doc.getDocumentElement().getElementsByTagName("id").item(0).getAttributes().getNamedItem("value").getNodeValue();
+    Example e = new Example(id, id, id, "test", false, ExampleType.XmlFile, doc);
+    definitions.getResourceByName(type).getExamples().add(e);
+    return e;
+  }
+
+  private String resource(String type, String id) {
+    return "<"+type+" xmlns=\"http://hl7.org/fhir\"><id value=\""+id+"\"/></"+type+">";
+  }
+
+  private String bundle(String id, String... entries) {
+    StringBuilder b = new StringBuilder();
+    b.append("<Bundle xmlns=\"http://hl7.org/fhir\"><id value=\""+id+"\"/>");
+    for (String s : entries) {
+      String[] p = s.split("/");
+      b.append("<entry><fullUrl value=\"http://example.org/"+s+"\"/><resource>"+resource(p[0], p[1])+"</resource></entry>");
+    }
+    b.append("</Bundle>");
+    return b.toString();
+  }
+
+  private ExampleReferenceIndex index() {
+    return new ExampleReferenceIndex(definitions, "Patient|Observation|Bundle");
+  }
+
+  @Test
+  public void testFind() throws Exception {
+    Example p1 = example("Patient", resource("Patient", "p1"));
+    Example o1 = example("Observation", resource("Observation", "o1"));
+    Example b1 = example("Bundle", bundle("b1", "Patient/p2", "Observation/o2"));
+    ExampleReferenceIndex index = index();
+    assertSame(p1, index.find("Patient", "p1"));
+    assertSame(o1, index.find("Observation", "o1"));
+    assertSame(b1, index.find("Bundle", "b1"));
+    // resources that are only in a Bundle
+    assertSame(b1, index.find("Patient", "p2"));
+    assertSame(b1, index.find("Observation", "o2"));
+    assertNull(index.find("Patient", "o1"));
+    assertNull(index.find("Observation", "p1"));
+    assertNull(index.find("Patient", "missing"));
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    // a Bundle in the examples of the type comes before a Bundle of any other type,
+    // and otherwise the first example wins
+    Example other = example("Bundle", bundle("b1", "Patient/p1", "Patient/p2", "Patient/p3"));
+    Example first = example("Patient", bundle("b2", "Patient/p2", "Patient/p3"));
+    example("Patient", resource("Patient", "p3")); // after the Bundle that has it
+    Example second = example("Patient", bundle("b3", "Patient/p3", "Patient/p4"));
+    Example last = example("Observation", bundle("b4", "Patient/p5"));
+    Example later = example("Bundle", bundle("b5", "Patient/p5"));
+    ExampleReferenceIndex index = index();
+    assertSame(other, index.find("Patient", "p1"));
+    assertSame(first, index.find("Patient", "p2"));
+    assertSame(first, index.find("Patient", "p3"));
+    assertSame(second, index.find("Patient", "p4"));
+    // as before, an example is found by its own id, whatever it is
+    assertSame(first, index.find("Patient", "b2"));
+    assertNull(index.find("Patient", "b1"));
+    // the types are in no particular order, so only check that one of them is found
+    Example p5 = index.find("Patient", "p5");
+    assertTrue(p5 == last || p5 == later);
+  }
+
+  @Test
+  public void testIndexIsOnlyBuiltOnce() throws Exception {
+    Example p1 = example("Patient", resource("Patient", "p1"));
+    ExampleReferenceIndex index = index();
+    assertSame(p1, index.find("Patient", "p1"));
+    // the examples are all loaded before the index is built, so later ones aren't seen
+    example("Patient", resource("Patient", "p2"));
+    assertNull(index.find("Patient", "p2"));
+  }
+
+  @Test
+  public void testProfiles() throws Exception {
+    Profile pack = new Profile("core");
+    pack.getProfiles().add(new ConstraintStructure("patient-profile", "Patient Profile", null, ig, null, null, false));
+    definitions.getResourceByName("Patient").getConformancePackages().add(pack);
+    Profile other = new Profile("core");
+    other.getProfiles().add(new ConstraintStructure("other-profile", "Other Profile", null, ig, null, null, false));
+    definitions.getPackList().add(other);
+    ExampleReferenceIndex index = index();
+    assertTrue(index.isProfile("patient-profile"));
+    assertTrue(index.isProfile("other-profile"));
+    assertFalse(index.isProfile("Patient"));
+  }
+
+  @Test
+  public void testIsReference() throws Exception {
+    ExampleReferenceIndex index = index();
+    assertTrue(index.isReference("Patient/p1"));
+    assertTrue(index.isReference("Observation/o1.a-2"));
+    assertTrue(index.isReference("Patient/p1/_history/2"));
+    assertTrue(index.isReference("http://example.org/fhir/Patient/p1"));
+    assertTrue(index.isReference("https://example.org:8080/fhir/Patient/p1/_history/1"));
+    assertFalse(index.isReference("Patient"));
+    assertFalse(index.isReference("Patient/"));
+    assertFalse(index.isReference("Device/d1"));
+    assertFalse(index.isReference("#contained"));
+    assertFalse(index.isReference("Patient/p1/extra"));
+  }
+
+  @Test
+  public void testListTargetIds() throws Exception {
+    example("Patient", resource("Patient", "p1"));
+    example("Patient", bundle("b1", "Patient/p2"));
+    example("Patient", "<feed><id value=\"f1\"/><entry><id>http://hl7.org/fhir/Patient/@p3</id></entry><entry><id>p4</id></entry></feed>");
+    ExampleReferenceIndex index = index();
+    assertEquals("p1, b1, f1, p3, p4, ", index.listTargetIds("Patient"));
+    assertEquals("", index.listTargetIds("Observation"));
+    // kept, once it's been worked out
+    example("Patient", resource("Patient", "p5"));
+    assertEquals("p1, b1, f1, p3, p4, ", index.listTargetIds("Patient"));
+  }
+}
@@ -1,11 +1,15 @@
 package org.hl7.fhir.tools.publisher;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.hl7.fhir.utilities.FileNotifier;
 import org.hl7.fhir.utilities.TextFile;
@@ -14,10 +18,6 @@ import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
 import org.hl7.fhir.utilities.validation.ValidationMessage.Source;
-import org.hl7.fhir.utilities.xhtml.XhtmlComposer;
-import org.hl7.fhir.utilities.xhtml.XhtmlDocument;
-import org.hl7.fhir.utilities.xhtml.XhtmlNode;
-import org.hl7.fhir.utilities.xhtml.XhtmlParser;
 
 /**
  * This class started out in life as a pbulisher for epubs, but 
@@ -45,9 +45,11 @@ public class HTMLLinkChecker implements FileNotifier {
     private String title;
     private String type;
     private boolean include;
-    private List<String> anchors = new ArrayList<String>();
+    private Set<String> anchors = new HashSet<String>();
+    private List<Link> links = new ArrayList<Link>();
+    private List<Message> messages = new ArrayList<Message>();
+    private boolean scanned = false;
     private boolean checked = false;
-    public byte[] bytes;
 
     public Entry(String filename, String title, String type, boolean include) {
       super();
@@ -58,9 +60,22 @@ public class HTMLLinkChecker implements FileNotifier {
     }
   }
 
+  // only the links that need checking are kept, and only the target of each - there
+  // are a lot of them, and they're kept until produce()
+  private class Link {
+    private String href;
+    private int line;
+  }
+
+  private class Message {
+    private int line;
+    private String text;
+  }
+
   private PageProcessor page;
   private List<Entry> entries = new ArrayList<HTMLLinkChecker.Entry>();
-  private List<String> externals = new ArrayList<String>();
+  private Map<String, Entry> index = new HashMap<String, Entry>(); // by lower case filename
+  private Set<String> externals = new HashSet<String>();
   private List<ValidationMessage> issues;
   private String webPath;
 
@@ -82,131 +97,198 @@ public class HTMLLinkChecker implements FileNotifier {
       filename = filename.substring(page.getFolders().dstDir.length());
 //    if (type == null)
 //      type = BIN_TYPE;
-    if (getEntryForFile(filename, "registerExternal") != null)
-      throw new Error("File "+filename+" already registered");
-    else
-      entries.add(new Entry(filename, "--title--", BIN_TYPE, false));
+    final String fn = filename;
+    BuildTaskPool.update(new Runnable() {
+      @Override
+      public void run() {
+        if (getEntryForFile(fn, "registerExternal") != null)
+          throw new Error("File "+fn+" already registered");
+        else
+          add(new Entry(fn, "--title--", BIN_TYPE, false));
+      }
+    });
   }
   
   public void registerFile(String filename, String title, String type, boolean include) {
+    if (type == null)
+      type = BIN_TYPE;
+    register(new Entry(localName(filename), title, type, include));
+  }
+
+  /**
+   * register a page that the publisher has just written. html is the page as written to
+   * the destination folder. The anchors and links are taken from it now, so the page
+   * isn't read back from the destination folder when it's checked
+   */
+  public void registerPage(String filename, String title, boolean include, String html) {
+    Entry e = new Entry(localName(filename), title, XHTML_TYPE, include);
+    scan(e, html);
+    register(e);
+  }
+
+  private String localName(String filename) {
     if (filename.startsWith(page.getFolders().dstDir))
       filename = filename.substring(page.getFolders().dstDir.length()+1);
     if (filename.startsWith("\\"))
       throw new Error("wrong path?");
-    if (type == null)
-      type = BIN_TYPE;
-    if (getEntryForFile(filename, "registerFile") != null)
-      throw new Error("File "+filename+" already registered");
-    else
-      entries.add(new Entry(filename, title, type, include));
+    return filename;
+  }
+
+  private void register(final Entry e) {
+    // when running on a worker, the registration is deferred until the task is committed
+    // so that entries end up in the same order as a serial build
+    BuildTaskPool.update(new Runnable() {
+      @Override
+      public void run() {
+        if (getEntryForFile(e.filename, "registerFile") != null)
+          throw new Error("File "+e.filename+" already registered");
+        else
+          add(e);
+      }
+    });
   }
 
   public void produce() throws FileNotFoundException, Exception {
+    produce(1);
+  }
+
+  /**
+   * threads is used for reading the pages that weren't registered with their content
+   */
+  public void produce(int threads) throws FileNotFoundException, Exception {
     if (WANT_CHECK) {
-      build();
+      build(threads);
     }
   }
 
 
 
-  private void build() throws FileNotFoundException, Exception {
+  private void build(int threads) throws FileNotFoundException, Exception {
+    scanFiles(threads);
     for (Entry e : entries) {
-      if (XHTML_TYPE.equals(e.type)) {
-        if (!e.checked)
-          check(e);
-        if (e.bytes == null)
-          System.out.println("no content in "+e.filename);
-        else 
-        e.bytes = null;        
-      } else {
-      }
+      if (XHTML_TYPE.equals(e.type) && !e.checked)
+        check(e);
     }
   }
 
-  private void check(Entry e) throws Exception {
-    if (new File(Utilities.path(page.getFolders().dstDir, e.filename)).exists()) { 
-      e.checked = true;
-      checkNormativeStatus(e.filename);
-      XhtmlDocument doc;
-      try {
-        doc = new XhtmlParser().parse(new FileInputStream(Utilities.path(page.getFolders().dstDir, e.filename)), "html");
-        checkAnchors(doc, e);
-        checkLinks(doc, e);
-        stripDivs(doc);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        new XhtmlComposer(XhtmlComposer.HTML).compose(stream, doc);
-        e.bytes = stream.toByteArray();
-        if (e.bytes == null || e.bytes.length == 0)
-          throw new Exception("File is empty");
-      } catch (Exception e1) {
-        throw new Exception("Error parsing "+Utilities.path(page.getFolders().dstDir, e.filename), e1);
-      }
-    } else {
-      reportError(e.filename, "Unable to find file "+e.filename);
+  /**
+   * Read the pages that weren't registered with their content (e.g. the ones registered
+   * with registerFile) back from the destination folder, and scan them. Each page is read,
+   * scanned and dropped, and this is done on a fork/join pool; the links themselves are
+   * checked afterwards, in order
+   */
+  private void scanFiles(int threads) throws Exception {
+    List<Entry> list = new ArrayList<Entry>();
+    for (Entry e : entries)
+      if (XHTML_TYPE.equals(e.type) && !e.scanned && new File(Utilities.path(page.getFolders().dstDir, e.filename)).exists())
+        list.add(e);
+    ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+    try {
+      pool.invoke(new ScanTask(list, 0, list.size()));
+    } finally {
+      pool.shutdown();
     }
   }
 
-  private void checkNormativeStatus(String filename) {
-    String src;
-    try {
-      src = TextFile.fileToString(Utilities.path(page.getFolders().dstDir, filename));
-      if (!src.contains("<!--!ns!-->") && !src.contains("<!-- !ns! -->"))
-        reportError(filename, "File "+filename+" has no normative marker");
-      if ((src.contains("may not") || src.contains("May not")) && !(src.contains("Apache") || src.contains("TemplateStatusCode"))) // those words appear in the Apache license
-        if (!filename.contains("v2"+File.separator) && !filename.contains("v3"+File.separator) && !filename.contains("dicom") && !src.contains("http://terminology.hl7.org/CodeSystem/v3-") && !Utilities.existsInList(filename, "terminologies-valuesets.html"))
-          reportError(filename, "File "+filename+" contains the prohibited words 'may not' - use 'might not' or 'SHALL not', or if the content is external, talk to the FHIR product Director");
-//      if (src.contains("should"))
-//        reportError(filename, "File "+filename+" contains the word 'should'. Make it uppercase, or if the content is external, talk to FHIR product Director");
-    } catch (Exception e) {
-      reportError(filename, "File "+filename+" has no normative marker (Exception = "+e.getMessage()+")");
+  private class ScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int BATCH = 16;
+
+    private List<Entry> list;
+    private int start;
+    private int end;
+
+    public ScanTask(List<Entry> list, int start, int end) {
+      super();
+      this.list = list;
+      this.start = start;
+      this.end = end;
     }
-  }
 
-  private void stripDivs(XhtmlNode node) {
-    for (int i = node.getChildNodes().size() - 1; i >= 0; i--) {
-      XhtmlNode child = node.getChildNodes().get(i);
-      if ("div".equals(child.getName()) && wantEliminate(child.getAttribute("id")))
-        node.getChildNodes().remove(i);
-      else 
-        stripDivs(child);
+    @Override
+    protected void compute() {
+      if (end - start <= BATCH) {
+        for (int i = start; i < end; i++) {
+          Entry e = list.get(i);
+          String path = null;
+          try {
+            path = Utilities.path(page.getFolders().dstDir, e.filename);
+            scan(e, TextFile.fileToString(path));
+          } catch (Exception ex) {
+            throw new Error("Error reading "+path+": "+ex.getMessage(), ex);
+          }
+        }
+      } else {
+        int mid = (start + end) / 2;
+        invokeAll(new ScanTask(list, start, mid), new ScanTask(list, mid, end));
+      }
     }
   }
 
-  private boolean wantEliminate(String id) {
-    if ("segment-header".equals(id))
-      return true;
-    if ("segment-navbar".equals(id))
-      return true;
-    if ("segment-breadcrumb".equals(id))
-      return true;
-    if ("segment-footer".equals(id))
-      return true;
-    if ("segment-post-footer".equals(id))
-      return true;
-    return false;
+  private void check(Entry e) throws Exception {
+    if (!e.scanned) {
+      reportError(e.filename, -1, "Unable to find file "+e.filename);
+      return;
+    }
+    e.checked = true;
+    for (Message msg : e.messages)
+      reportError(e.filename, msg.line, msg.text);
+    for (Link link : e.links)
+      check(link, e.filename, e.filename);
+    e.messages = null;
+    e.links = null;
   }
 
-  private void checkAnchors(XhtmlNode node, Entry e) throws FileNotFoundException, Exception {
-    if ("a".equals(node.getName())) {
-      if (node.getAttributes().containsKey("name")) {
-        e.anchors.add(node.getAttribute("name"));
+  // this may run on a worker thread, so problems are kept with the entry, and reported when it's checked
+  private void scan(final Entry e, String src) {
+    checkNormativeStatus(e, src);
+    HTMLLinkScanner.scan(src, new HTMLLinkScanner.Handler() {
+      @Override
+      public void anchor(String id) {
+        e.anchors.add(id);
       }
-      else if (node.getAttributes().containsKey("href") || node.getAttributes().containsKey("xlink:href") ) {
+
+      @Override
+      public void link(String href, String clss, String text, int line) {
+        if (href == null)
+          throw new Error("no ref at "+text+" in "+e.filename);
+        if (wantCheck(href, clss)) {
+          Link link = new Link();
+          link.href = href;
+          link.line = line;
+          e.links.add(link);
+        }
       }
-      else if (!"true".equals(node.getAttribute("ok"))) {
-        String msg = "Invalid \"a\" link in "+e.filename+" - no href or name ("+node.allText()+")";
-        reportError(e.filename, msg);      
+
+      @Override
+      public void invalidLink(String text, int line) {
+        addMessage(e, line, "Invalid \"a\" link in "+e.filename+" - no href or name ("+text+")");
       }
-    }
-    if (node.getAttributes().containsKey("id"))
-      e.anchors.add(node.getAttribute("id"));
-    for (XhtmlNode child : node.getChildNodes())
-      checkAnchors(child, e);    
+    });
+    e.scanned = true;
+  }
+
+  private void addMessage(Entry e, int line, String text) {
+    Message msg = new Message();
+    msg.line = line;
+    msg.text = text;
+    e.messages.add(msg);
+  }
+
+  private void checkNormativeStatus(Entry e, String src) {
+    String filename = e.filename;
+    if (!src.contains("<!--!ns!-->") && !src.contains("<!-- !ns! -->"))
+      addMessage(e, -1, "File "+filename+" has no normative marker");
+    if ((src.contains("may not") || src.contains("May not")) && !(src.contains("Apache") || src.contains("TemplateStatusCode"))) // those words appear in the Apache license
+      if (!filename.contains("v2"+File.separator) && !filename.contains("v3"+File.separator) && !filename.contains("dicom") && !src.contains("http://terminology.hl7.org/CodeSystem/v3-") && !Utilities.existsInList(filename, "terminologies-valuesets.html"))
+        addMessage(e, -1, "File "+filename+" contains the prohibited words 'may not' - use 'might not' or 'SHALL not', or if the content is external, talk to the FHIR product Director");
+//    if (src.contains("should"))
+//      addMessage(e, -1, "File "+filename+" contains the word 'should'. Make it uppercase, or if the content is external, talk to FHIR product Director");
   }
 
-  private void reportError(String path, String msg) {
+  private void reportError(String path, int line, String msg) {
     if (!ok(msg)) {
-      issues.add(new ValidationMessage(Source.Publisher, IssueType.INFORMATIONAL, -1, -1, path, msg, IssueSeverity.ERROR));
+      issues.add(new ValidationMessage(Source.Publisher, IssueType.INFORMATIONAL, line, -1, path, msg, IssueSeverity.ERROR));
     }
   }
 
@@ -230,24 +312,23 @@ public class HTMLLinkChecker implements FileNotifier {
     return false;
   }
 
-  private void checkLinks(XhtmlNode node, Entry e) throws FileNotFoundException, Exception {
-    if ("a".equals(node.getName())) {
-      if (node.getAttributes().containsKey("href") || node.getAttributes().containsKey("xlink:href") ) {
-        String href = node.getAttribute("href");
-        if (Utilities.noString(href))
-          href = node.getAttribute("xlink:href");
-        check(node, href, e.filename, e.filename);
-      }
-    }
-    for (XhtmlNode child : node.getChildNodes())
-      checkLinks(child, e);    
+  /**
+   * false for the links that checking can't find a problem with: external links, links
+   * within the page (the anchors aren't checked, yet), and the ones that are let through
+   */
+  private boolean wantCheck(String href, String clss) {
+    if (href.startsWith("http:") || href.startsWith("https:") || href.startsWith("ftp:") || href.startsWith("mailto:"))
+      return false;
+    String path = href.contains("#") ? href.substring(0, href.indexOf("#")) : href;
+    if (Utilities.noString(path))
+      return false;
+    if (href.endsWith("qa.html") || href.endsWith(".epub.zip")) 
+      return false;
+    return !"self-link".equals(clss);
   }
 
-  private void check(XhtmlNode node, String href, String base, String source) throws FileNotFoundException, Exception {
-    if (href == null)
-      throw new Exception("no ref at "+node.allText());
-    if (href.startsWith("http:") || href.startsWith("https:") || href.startsWith("ftp:") || href.startsWith("mailto:"))
-      return;
+  private void check(Link link, String base, String source) throws FileNotFoundException, Exception {
+    String href = link.href;
     String path = href;
     String anchor = null;
     if (href.contains("#")) {
@@ -256,18 +337,12 @@ public class HTMLLinkChecker implements FileNotifier {
     }
     Entry e;
     if (!Utilities.noString(path)) {
-      if (href.endsWith("qa.html") || href.endsWith(".epub.zip")) 
-        return;
-      if ("self-link".equals(node.getAttribute("class")))
-        return; 
       String target = collapse(base, path, source);
       if (target.endsWith(".xml") || target.endsWith(".json") || target.endsWith(".jsonld") || target.endsWith(".xsd") || target.endsWith(".shex") || target.endsWith(".txt") || target.endsWith(".sch") || target.endsWith(".pdf") || target.endsWith(".epub")) {
         if (!(new File(Utilities.path(page.getFolders().dstDir, target)).exists()))
-          reportError(base, "Broken Link (1) in "+base+": '"+href+"' not found at \""+Utilities.path(page.getFolders().dstDir, target)+"\" ("+node.allText()+")");
-        node.setAttribute("href", webPath+"/"+target.replace(File.separatorChar, '/'));
+          reportError(base, link.line, "Broken Link (1) in "+base+": '"+href+"' not found at \""+Utilities.path(page.getFolders().dstDir, target)+"\"");
         e = null;
       } else if (externals.contains(target)) {
-        node.setAttribute("href", webPath+"/"+target.replace(File.separatorChar, '/'));
         e = null;
       } else {
         e = getEntryForFile(target, source);
@@ -276,10 +351,8 @@ public class HTMLLinkChecker implements FileNotifier {
             return;
           if (target.endsWith(".zip") || target.endsWith(".ttl") || target.endsWith(".jar") || target.endsWith(".cfm") || target.endsWith(".tgz") || target.endsWith(".xlsx"))
             return;
-          reportError(base, "Broken Link (2) in "+base+": '"+href+"' not found at \""+target+"\"("+node.allText()+")");
+          reportError(base, link.line, "Broken Link (2) in "+base+": '"+href+"' not found at \""+target+"\"");
           return;
-        } else if (!e.include) {
-          node.setAttribute("href", webPath+"/"+node.getAttribute("href"));          
         }
       }
     } else 
@@ -297,15 +370,16 @@ public class HTMLLinkChecker implements FileNotifier {
     }
   }
 
+  private void add(Entry e) {
+    entries.add(e);
+    index.put(e.filename.toLowerCase(), e);
+  }
+
   private Entry getEntryForFile(String target, String source) {
-    for (Entry e : entries) {
-      if (e.filename.equalsIgnoreCase(target)) {
-        if (!e.filename.equals(target))
-          System.out.println("Case Error: found "+e.filename+" looking for "+target+" in "+source);
-        return e;
-      }
-    }
-    return null;
+    Entry e = index.get(target.toLowerCase());
+    if (e != null && !e.filename.equals(target))
+      System.out.println("Case Error: found "+e.filename+" looking for "+target+" in "+source);
+    return e;
   }
 
   private String collapse(String base, String path, String source) throws Exception {
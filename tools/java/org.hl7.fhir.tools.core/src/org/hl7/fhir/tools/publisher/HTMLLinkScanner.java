@@ -0,0 +1,202 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * Pulls the anchors (@id, a/@name) and links (a/@href) out of an html page in a single
+ * pass over the tags, without building a document, and keeps track of the line numbers
+ * as it goes.
+ *
+ * This is all the link checker needs from a page, and it's lenient - it never fails,
+ * whatever the content is like (the pages have already been parsed properly by the
+ * time they are checked). Element and attribute names are matched ignoring case, as
+ * html does
+ */
+public class HTMLLinkScanner {
+
+  public interface Handler {
+    void anchor(String id);
+    void link(String href, String clss, String text, int line);
+    void invalidLink(String text, int line); // an a with no href or name
+  }
+
+  private String src;
+  private Handler handler;
+  private int cursor;
+  private int line = 1;
+
+  // the a we're in, if any
+  private boolean inA;
+  private boolean aIsLink;
+  private boolean aIsInvalid;
+  private String aHref;
+  private String aClass;
+  private int aLine;
+  private StringBuilder aText = new StringBuilder();
+
+  private HTMLLinkScanner(String src, Handler handler) {
+    super();
+    this.src = src;
+    this.handler = handler;
+  }
+
+  public static void scan(String src, Handler handler) {
+    new HTMLLinkScanner(src, handler).scan();
+  }
+
+  private void scan() {
+    while (cursor < src.length()) {
+      int i = src.indexOf('<', cursor);
+      if (i == -1)
+        i = src.length();
+      text(i);
+      if (i == src.length())
+        break;
+      if (src.startsWith("<!--", i))
+        skipPast("-->");
+      else if (src.startsWith("<![CDATA[", i)) {
+        advance(i + 9);
+        int e = src.indexOf("]]>", cursor);
+        text(e == -1 ? src.length() : e);
+        advance(Math.min(cursor + 3, src.length()));
+      } else if (src.startsWith("<!", i) || src.startsWith("<?", i))
+        skipPast(">");
+      else if (src.startsWith("</", i)) {
+        String name = readName(i + 2).toLowerCase();
+        skipPast(">");
+        if ("a".equals(name))
+          endA();
+      } else
+        tag();
+    }
+    endA();
+  }
+
+  private void tag() {
+    int tagLine = line;
+    String raw = readName(cursor + 1);
+    String name = raw.toLowerCase();
+    if (name.length() == 0) {
+      // a stray <
+      if (inA)
+        aText.append('<');
+      advance(cursor + 1);
+      return;
+    }
+    Map<String, String> attributes = new HashMap<String, String>();
+    boolean closed = false;
+    int i = cursor + 1 + raw.length();
+    while (i < src.length()) {
+      char c = src.charAt(i);
+      if (c == '>') {
+        i++;
+        break;
+      } else if (c == '/' && i + 1 < src.length() && src.charAt(i + 1) == '>') {
+        closed = true;
+        i = i + 2;
+        break;
+      } else if (Character.isWhitespace(c) || c == '/') {
+        i++;
+      } else {
+        int s = i;
+        while (i < src.length() && !Character.isWhitespace(src.charAt(i)) && "=>/".indexOf(src.charAt(i)) == -1)
+          i++;
+        String an = src.substring(s, i).toLowerCase();
+        while (i < src.length() && Character.isWhitespace(src.charAt(i)))
+          i++;
+        String av = "";
+        if (i < src.length() && src.charAt(i) == '=') {
+          i++;
+          while (i < src.length() && Character.isWhitespace(src.charAt(i)))
+            i++;
+          if (i < src.length() && (src.charAt(i) == '"' || src.charAt(i) == '\'')) {
+            int e = src.indexOf(src.charAt(i), i + 1);
+            if (e == -1)
+              e = src.length();
+            av = src.substring(i + 1, e);
+            i = Math.min(e + 1, src.length());
+          } else {
+            s = i;
+            while (i < src.length() && !Character.isWhitespace(src.charAt(i)) && src.charAt(i) != '>')
+              i++;
+            av = src.substring(s, i);
+          }
+        }
+        attributes.put(an, Utilities.unescapeXml(av));
+      }
+    }
+    advance(i);
+    element(name, attributes, closed, tagLine);
+    if (!closed && (name.equals("script") || name.equals("style"))) {
+      advance(indexOfIgnoreCase("</" + name, cursor));
+    }
+  }
+
+  private void element(String name, Map<String, String> attributes, boolean closed, int tagLine) {
+    if ("a".equals(name)) {
+      endA(); // a doesn't nest
+      inA = true;
+      aLine = tagLine;
+      aText.setLength(0);
+      aIsLink = attributes.containsKey("href") || attributes.containsKey("xlink:href");
+      aIsInvalid = !attributes.containsKey("name") && !aIsLink && !"true".equals(attributes.get("ok"));
+      aHref = attributes.get("href");
+      if (Utilities.noString(aHref))
+        aHref = attributes.get("xlink:href");
+      aClass = attributes.get("class");
+      if (attributes.containsKey("name"))
+        handler.anchor(attributes.get("name"));
+    }
+    if (attributes.containsKey("id"))
+      handler.anchor(attributes.get("id"));
+    if (closed && "a".equals(name))
+      endA();
+  }
+
+  private void endA() {
+    if (!inA)
+      return;
+    inA = false;
+    String text = Utilities.unescapeXml(aText.toString());
+    if (aIsLink)
+      handler.link(aHref, aClass, text, aLine);
+    if (aIsInvalid)
+      handler.invalidLink(text, aLine);
+  }
+
+  private String readName(int start) {
+    int i = start;
+    while (i < src.length() && (Character.isLetterOrDigit(src.charAt(i)) || src.charAt(i) == ':' || src.charAt(i) == '-' || src.charAt(i) == '_'))
+      i++;
+    return src.substring(start, i);
+  }
+
+  // where s is next found, or the end of the source
+  private int indexOfIgnoreCase(String s, int from) {
+    for (int i = from; i <= src.length() - s.length(); i++)
+      if (src.regionMatches(true, i, s, 0, s.length()))
+        return i;
+    return src.length();
+  }
+
+  private void text(int end) {
+    if (inA)
+      aText.append(src, cursor, end);
+    advance(end);
+  }
+
+  private void skipPast(String s) {
+    int e = src.indexOf(s, cursor);
+    advance(e == -1 ? src.length() : e + s.length());
+  }
+
+  private void advance(int to) {
+    for (int i = cursor; i < to; i++)
+      if (src.charAt(i) == '\n')
+        line++;
+    cursor = to;
+  }
+}
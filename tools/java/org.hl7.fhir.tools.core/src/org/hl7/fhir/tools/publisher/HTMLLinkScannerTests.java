@@ -0,0 +1,107 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HTMLLinkScannerTests {
+
+  private class Collector implements HTMLLinkScanner.Handler {
+    private List<String> anchors = new ArrayList<String>();
+    private List<String> links = new ArrayList<String>();
+    private List<String> invalid = new ArrayList<String>();
+
+    @Override
+    public void anchor(String id) {
+      anchors.add(id);
+    }
+
+    @Override
+    public void link(String href, String clss, String text, int line) {
+      links.add(href+"|"+clss+"|"+text+"|"+line);
+    }
+
+    @Override
+    public void invalidLink(String text, int line) {
+      invalid.add(text+"|"+line);
+    }
+  }
+
+  private Collector scan(String src) {
+    Collector c = new Collector();
+    HTMLLinkScanner.scan(src, c);
+    return c;
+  }
+
+  @Test
+  public void testLinksAndAnchors() {
+    Collector c = scan("<p id=\"p1\">see <a href=\"a.html#x\" class=\"c\">the <b>a</b> page</a></p>\n<a name=\"n1\"> </a>");
+    assertEquals("[p1, n1]", c.anchors.toString());
+    assertEquals("[a.html#x|c|the a page|1]", c.links.toString());
+    assertEquals("[]", c.invalid.toString());
+  }
+
+  @Test
+  public void testUnquotedAttributes() {
+    // as in html, an unquoted value runs to the next space or >, so it can have a / in it
+    Collector c = scan("<a href=dir/a.html class=c>A</a><div id=d1></div><a name=n1 />");
+    assertEquals("[dir/a.html|c|A|1]", c.links.toString());
+    assertEquals("[d1, n1]", c.anchors.toString());
+  }
+
+  @Test
+  public void testGreaterThanInQuotes() {
+    Collector c = scan("<a title=\"a > b\" href=\"x.html\">X</a><a title='c > d' href='y.html'>Y</a>");
+    assertEquals("[x.html|null|X|1, y.html|null|Y|1]", c.links.toString());
+  }
+
+  @Test
+  public void testComments() {
+    Collector c = scan("<!-- <a href=\"hidden.html\">no</a> --><a href=\"shown.html\">yes</a>");
+    assertEquals("[shown.html|null|yes|1]", c.links.toString());
+    assertEquals("[]", c.anchors.toString());
+  }
+
+  @Test
+  public void testCData() {
+    Collector c = scan("<a href=\"x.html\">1 <![CDATA[<a href=\"no.html\">2</a>]]> 3</a>");
+    assertEquals("[x.html|null|1 <a href=\"no.html\">2</a> 3|1]", c.links.toString());
+  }
+
+  @Test
+  public void testScriptIsSkipped() {
+    Collector c = scan("<SCRIPT>var s = '<a href=\"no.html\">';</SCRIPT><a href=\"yes.html\">yes</a>");
+    assertEquals("[yes.html|null|yes|1]", c.links.toString());
+  }
+
+  @Test
+  public void testNamesIgnoreCase() {
+    Collector c = scan("<A HREF=\"x.html\" CLASS=\"c\">X</A><DIV ID=\"d\"/><A Name=\"n\"></a>");
+    assertEquals("[x.html|c|X|1]", c.links.toString());
+    assertEquals("[d, n]", c.anchors.toString());
+  }
+
+  @Test
+  public void testLineNumbers() {
+    Collector c = scan("<p>\n<!-- a\ncomment -->\n<a\n href=\"x.html\">\nX</a>\n<a>none</a>");
+    assertEquals("[x.html|null|\nX|4]", c.links.toString());
+    assertEquals("[none|7]", c.invalid.toString());
+  }
+
+  @Test
+  public void testUnclosedA() {
+    // an a doesn't nest, and one left open at the end of the page still counts
+    Collector c = scan("<a href=\"1.html\">one<a href=\"2.html\">two");
+    assertEquals("[1.html|null|one|1, 2.html|null|two|1]", c.links.toString());
+  }
+
+  @Test
+  public void testEscapes() {
+    Collector c = scan("<a href=\"x.html?a=1&amp;b=2\">a &amp; b</a>");
+    assertEquals("[x.html?a=1&b=2|null|a & b|1]", c.links.toString());
+  }
+
+}
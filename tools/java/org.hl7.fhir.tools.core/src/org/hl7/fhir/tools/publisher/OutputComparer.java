@@ -0,0 +1,142 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.hl7.fhir.utilities.TextFile;
+
+/**
+ * Compares two publication outputs, e.g. from a build with -threads 1 and one with
+ * -threads 4, which should be the same.
+ *
+ * Text files are compared with the build date/times masked out (Config.DATE_FORMAT, and
+ * xml/json instants). Zip files are compared entry by entry, ignoring the entry times.
+ * build-metrics.json is different every time, and is skipped
+ *
+ * usage: OutputComparer [dir1] [dir2] - lists the differences, and exits with 1 if there are any
+ */
+public class OutputComparer {
+
+  private static final Set<String> IGNORED = new HashSet<String>(Arrays.asList("build-metrics.json"));
+  private static final Pattern DATE = Pattern.compile("(Mon|Tue|Wed|Thu|Fri|Sat|Sun), (Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec) \\d{1,2}, \\d{4} \\d{2}:\\d{2}[+-]\\d{4}");
+  private static final Pattern INSTANT = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?(Z|[+-]\\d{2}:\\d{2})");
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("usage: OutputComparer [dir1] [dir2]");
+      System.exit(2);
+    }
+    List<String> diffs = new OutputComparer().compare(new File(args[0]), new File(args[1]));
+    for (String s : diffs)
+      System.out.println(s);
+    System.out.println(Integer.toString(diffs.size())+" differences between "+args[0]+" and "+args[1]);
+    System.exit(diffs.isEmpty() ? 0 : 1);
+  }
+
+  public List<String> compare(File dir1, File dir2) throws IOException {
+    List<String> res = new ArrayList<String>();
+    compareDirs(dir1, dir2, "", res);
+    return res;
+  }
+
+  private void compareDirs(File dir1, File dir2, String path, List<String> res) throws IOException {
+    Map<String, File> files1 = list(dir1);
+    Map<String, File> files2 = list(dir2);
+    for (String name : files1.keySet())
+      if (!files2.containsKey(name))
+        res.add(path+name+": only in "+dir1.getPath());
+    for (String name : files2.keySet())
+      if (!files1.containsKey(name))
+        res.add(path+name+": only in "+dir2.getPath());
+    for (String name : files1.keySet()) {
+      File f1 = files1.get(name);
+      File f2 = files2.get(name);
+      if (f2 == null || IGNORED.contains(name))
+        continue;
+      if (f1.isDirectory() != f2.isDirectory())
+        res.add(path+name+": a directory in one output, and a file in the other");
+      else if (f1.isDirectory())
+        compareDirs(f1, f2, path+name+"/", res);
+      else if (name.endsWith(".zip") || name.endsWith(".jar"))
+        compareZips(f1, f2, path+name, res);
+      else if (!sameContent(TextFile.fileToBytes(f1.getAbsolutePath()), TextFile.fileToBytes(f2.getAbsolutePath())))
+        res.add(path+name+": content differs");
+    }
+  }
+
+  private Map<String, File> list(File dir) {
+    Map<String, File> res = new TreeMap<String, File>();
+    File[] files = dir.listFiles();
+    if (files != null)
+      for (File f : files)
+        res.put(f.getName(), f);
+    return res;
+  }
+
+  private void compareZips(File f1, File f2, String path, List<String> res) throws IOException {
+    Map<String, byte[]> entries1 = readZip(f1);
+    Map<String, byte[]> entries2 = readZip(f2);
+    if (!entries1.keySet().equals(entries2.keySet()))
+      res.add(path+": entries differ ("+Integer.toString(entries1.size())+" vs "+Integer.toString(entries2.size())+")");
+    for (String name : entries1.keySet()) {
+      byte[] b2 = entries2.get(name);
+      if (b2 != null && !sameContent(entries1.get(name), b2))
+        res.add(path+"!"+name+": content differs");
+    }
+  }
+
+  private Map<String, byte[]> readZip(File f) throws IOException {
+    Map<String, byte[]> res = new TreeMap<String, byte[]>();
+    ZipInputStream zip = new ZipInputStream(new FileInputStream(f));
+    try {
+      ZipEntry e;
+      while ((e = zip.getNextEntry()) != null)
+        if (!e.isDirectory())
+          res.put(e.getName(), readEntry(zip));
+    } finally {
+      zip.close();
+    }
+    return res;
+  }
+
+  private byte[] readEntry(InputStream in) throws IOException {
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int n;
+    while ((n = in.read(buf)) > 0)
+      b.write(buf, 0, n);
+    return b.toByteArray();
+  }
+
+  private boolean sameContent(byte[] b1, byte[] b2) throws IOException {
+    if (Arrays.equals(b1, b2))
+      return true;
+    if (isBinary(b1) || isBinary(b2))
+      return false;
+    return mask(new String(b1, "UTF-8")).equals(mask(new String(b2, "UTF-8")));
+  }
+
+  private boolean isBinary(byte[] b) {
+    for (int i = 0; i < Math.min(b.length, 8192); i++)
+      if (b[i] == 0)
+        return true;
+    return false;
+  }
+
+  private String mask(String s) {
+    return INSTANT.matcher(DATE.matcher(s).replaceAll("[date]")).replaceAll("[instant]");
+  }
+}
@@ -48,6 +48,8 @@ import java.util.Date;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -399,6 +401,8 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   private final List<String> suppressedMessages = new ArrayList<String>();
   private Definitions definitions;
   private FolderManager folders;
+  private TemplateRegistry templates;
+  private ResidentState resident; // kept between builds by the PublisherDaemon, or null
   private FHIRVersion version;
   private Navigation navigation;
   private IniFile ini;
@@ -426,8 +430,9 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   private final String tsServer; // terminology to use
   private BuildWorkerContext workerContext;
 //  private List<ValidationMessage> collectedValidationErrors = new ArrayList<ValidationMessage>();
-  private List<ValidationMessage> validationErrors = new ArrayList<ValidationMessage>();
+  private List<ValidationMessage> validationErrors = new BuildTaskPool.JournaledList<ValidationMessage>();
   private long lastSecs = 0;
+  private BuildMetrics metrics = new BuildMetrics();
   private Set<String> searchTypeUsage = new HashSet<String>();
   private ValueSetValidator vsValidator;
   boolean forPublication;
@@ -670,165 +675,295 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public String processPageIncludes(String file, String src, String type, Map<String, String> others, String pagePath, Resource resource, List<String> tabs, String crumbTitle, Object object, ImplementationGuideDefn ig, ResourceDefn rd, WorkGroup wg) throws Exception {
-    String workingTitle = null;
-    int level = ig == null ? file.contains(File.separator) ? 1 : 0 : ig.isCore() ? 0 : 1;
-    boolean even = false;
-    String name = file.substring(0,file.lastIndexOf("."));
-    String searchAdditions = "";
+    return processPageIncludes(file, PageTemplate.parse(src), type, others, pagePath, resource, tabs, crumbTitle, object, ig, rd, wg);
+  }
 
-    while (src.contains("<%") || src.contains("[%"))
-    {
-      int i1 = src.indexOf("<%");
-      int i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%>")+i1;
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%]")+i1;
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-
-      String[] com = s2.split(" ");
-      if (com.length == 4 && com[0].equals("edt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1]), umlForDt(com[1], com[3]), umlForDt(com[1], com[3]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2]))+s3;
-      } else if (com.length == 3 && com[0].equals("dt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], file), treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], file), ttlForDt(com[1], file), diffForDt(com[1], file))+s3;
-      } else if (com.length == 3 && com[0].equals("adt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+orgADT(com[1], treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), diffForDt(com[1], file))+s3;
-      } else if (com.length == 2 && com[0].equals("dt.constraints"))
-        src = s1+genConstraints(com[1], genlevel(level))+s3;
-      else if (com.length == 2 && com[0].equals("dt.restrictions"))
-        src = s1+genRestrictions(com[1])+s3;
-      else if (com.length == 2 && com[0].equals("dictionary"))
-        src = s1+dictForDt(com[1])+s3;
-      else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
-      else if (com[0].equals("dtheader"))
-        src = s1+dtHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("atheader"))
-        src = s1+atHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("mdtheader"))
-        src = s1+mdtHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("edheader"))
-        src = s1+edHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("elheader"))
-        src = s1+elHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("belheader"))
-        src = s1+belHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("extheader"))
-        src = s1+extHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("mmheader"))
-        src = s1+mmHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("cdheader"))
-        src = s1+cdHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("diheader"))
-        src = s1+diHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("ctheader"))
-        src = s1+ctHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("ucheader"))
-        src = s1+ucHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("rrheader"))
-        src = s1+rrHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("drheader"))
-        src = s1+drHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("adheader"))
-        src = s1+adHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("pdheader"))
-        src = s1+pdHeader(com.length > 1 ? com[1] : null) + s3;
-      else if (com[0].equals("tdheader"))
-        src = s1+tdHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("narrheader"))
-        src = s1+narrHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("statheader"))
-        src = s1+statHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("ordistheader"))
-        src = s1+ordistHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("profilesheader"))
-        src = s1+profilesHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("refheader"))
-        src = s1+refHeader(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("resourcesheader"))
-        src = s1+resourcesHeader(com.length > 1 ? com[1] : null)+s3;
-//      else if (com[0].equals("formatsheader"))
-//        src = s1+formatsHeader(name, com.length > 1 ? com[1] : null)+s3;
-//      else if (com[0].equals("resourcesheader"))
-//        src = s1+resourcesHeader(name, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("txheader"))
-        src = s1+txHeader(name, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("sct-vs-list"))
-        src = s1+getSnomedCTVsList()+s3;
-      else if (com[0].equals("sct-concept-list"))
-        src = s1+getSnomedCTConceptList()+s3;
-      else if (com[0].equals("txheader0"))
-        src = s1+(level > 0 ? "" : txHeader(name, com.length > 1 ? com[1] : null))+s3;
-      else if (com[0].equals("fmtheader"))
-        src = s1+fmtHeader(name, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("cmpheader"))
-        src = s1+cmpHeader(name, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("dictheader"))
-        src = s1+dictHeader(((Bundle) resource).getId().toLowerCase(), com.length > 1 ? com[1] : "")+s3;
-//      else if (com[0].equals("atomheader"))
-//        src = s1+atomHeader(name, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("codelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file)+s3;
-      else if (com[0].equals("codelist-nh"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file)+s3;
-      else if (com[0].equals("linkcodelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file)+s3;
-      else if (com[0].equals("toc"))
-        src = s1 + generateToc() + s3;
-      else if (com[0].equals("codetoc"))
-        src = s1+codetoc(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("resheader")) {
+  public String processPageIncludes(String file, PageTemplate template, String type, Map<String, String> others, String pagePath, Resource resource, List<String> tabs, String crumbTitle, ImplementationGuideDefn ig, ResourceDefn rd, WorkGroup wg) throws Exception {
+    return processPageIncludes(file, template, type, others, pagePath, resource, tabs, crumbTitle, null, ig, rd, wg);
+  }
+
+  public String processPageIncludes(String file, PageTemplate template, String type, Map<String, String> others, String pagePath, Resource resource, List<String> tabs, String crumbTitle, Object object, ImplementationGuideDefn ig, ResourceDefn rd, WorkGroup wg) throws Exception {
+    return template.process(new PageIncludesProcessor(file, type, others, pagePath, resource, tabs, crumbTitle, object, ig, rd, wg));
+  }
+
+  /**
+   * The commands for processPageIncludes. This holds the page that is being processed, 
+   * and the state that the commands themselves change as it's processed (title, level, etc)
+   */
+  private class PageIncludesProcessor implements PageTemplate.CommandProcessor {
+    private String file;
+    private String type;
+    private Map<String, String> others;
+    private String pagePath;
+    private Resource resource;
+    private List<String> tabs;
+    private String crumbTitle;
+    private Object object;
+    private ImplementationGuideDefn ig;
+    private ResourceDefn rd;
+    private WorkGroup wg;
+    private String name;
+
+    private String workingTitle = null;
+    private int level;
+    private boolean even = false;
+
+    public PageIncludesProcessor(String file, String type, Map<String, String> others, String pagePath, Resource resource, List<String> tabs, String crumbTitle, Object object, ImplementationGuideDefn ig, ResourceDefn rd, WorkGroup wg) {
+      this.file = file;
+      this.type = type;
+      this.others = others;
+      this.pagePath = pagePath;
+      this.resource = resource;
+      this.tabs = tabs;
+      this.crumbTitle = crumbTitle;
+      this.object = object;
+      this.ig = ig;
+      this.rd = rd;
+      this.wg = wg;
+      this.name = file.substring(0,file.lastIndexOf("."));
+      this.level = ig == null ? file.contains(File.separator) ? 1 : 0 : ig.isCore() ? 0 : 1;
+    }
+
+    @Override
+    public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+      if (processCommandWithParams(s2, com, out))
+        return;
+      if (com.length != 1)
+        throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
+      if (processSimpleCommand(s2, com, out))
+        return;
+      if (others != null && others.containsKey(com[0])) {
+        out.append(others.get(com[0]));
+        return;
+      }
+      if (processOtherCommand(s2, com, out))
+        return;
+      if (macros.containsKey(com[0])) {
+        out.append(macros.get(com[0]));
+        return;
+      }
+      throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
+    }
+
+    private boolean processCommandWithParams(String s2, String[] com, StringBuilder out) throws Exception {
+      switch (com[0]) {
+      case "edt":
+        if (com.length == 4) {
+          if (tabs != null)
+            tabs.add("tabs-"+com[1]);
+          out.append(orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1]), umlForDt(com[1], com[3]), umlForDt(com[1], com[3]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2])));
+          return true;
+        }
+        break;
+      case "dt":
+        if (com.length == 3) {
+          if (tabs != null)
+            tabs.add("tabs-"+com[1]);
+          out.append(orgDT(com[1], xmlForDt(com[1], file), treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], file), ttlForDt(com[1], file), diffForDt(com[1], file)));
+          return true;
+        }
+        break;
+      case "adt":
+        if (com.length == 3) {
+          if (tabs != null)
+            tabs.add("tabs-"+com[1]);
+          out.append(orgADT(com[1], treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), diffForDt(com[1], file)));
+          return true;
+        }
+        break;
+      case "dt.constraints":
+        if (com.length == 2) {
+          out.append(genConstraints(com[1], genlevel(level)));
+          return true;
+        }
+        break;
+      case "dt.restrictions":
+        if (com.length == 2) {
+          out.append(genRestrictions(com[1]));
+          return true;
+        }
+        break;
+      case "dictionary":
+        if (com.length == 2) {
+          out.append(dictForDt(com[1]));
+          return true;
+        }
+        break;
+      case "othertabs":
+        out.append(genOtherTabs(com[1], tabs));
+        return true;
+      case "dtheader":
+        out.append(dtHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "atheader":
+        out.append(atHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "mdtheader":
+        out.append(mdtHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "edheader":
+        out.append(edHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "elheader":
+        out.append(elHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "belheader":
+        out.append(belHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "extheader":
+        out.append(extHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "mmheader":
+        out.append(mmHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "cdheader":
+        out.append(cdHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "diheader":
+        out.append(diHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "ctheader":
+        out.append(ctHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "ucheader":
+        out.append(ucHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "rrheader":
+        out.append(rrHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "drheader":
+        out.append(drHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "adheader":
+        out.append(adHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "pdheader":
+        out.append(pdHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "tdheader":
+        out.append(tdHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "narrheader":
+        out.append(narrHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "statheader":
+        out.append(statHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "ordistheader":
+        out.append(ordistHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "profilesheader":
+        out.append(profilesHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "refheader":
+        out.append(refHeader(com.length > 1 ? com[1] : null));
+        return true;
+      case "resourcesheader":
+        out.append(resourcesHeader(com.length > 1 ? com[1] : null));
+        return true;
+//    case "formatsheader":
+//      out.append(formatsHeader(name, com.length > 1 ? com[1] : null));
+//      return true;
+//    case "resourcesheader":
+//      out.append(resourcesHeader(name, com.length > 1 ? com[1] : null));
+//      return true;
+      case "txheader":
+        out.append(txHeader(name, com.length > 1 ? com[1] : null));
+        return true;
+      case "sct-vs-list":
+        out.append(getSnomedCTVsList());
+        return true;
+      case "sct-concept-list":
+        out.append(getSnomedCTConceptList());
+        return true;
+      case "txheader0":
+        out.append(level > 0 ? "" : txHeader(name, com.length > 1 ? com[1] : null));
+        return true;
+      case "fmtheader":
+        out.append(fmtHeader(name, com.length > 1 ? com[1] : null));
+        return true;
+      case "cmpheader":
+        out.append(cmpHeader(name, com.length > 1 ? com[1] : null));
+        return true;
+      case "dictheader":
+        out.append(dictHeader(((Bundle) resource).getId().toLowerCase(), com.length > 1 ? com[1] : ""));
+        return true;
+//    case "atomheader":
+//      out.append(atomHeader(name, com.length > 1 ? com[1] : null));
+//      return true;
+      case "codelist":
+        out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file));
+        return true;
+      case "codelist-nh":
+        out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file));
+        return true;
+      case "linkcodelist":
+        out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file));
+        return true;
+      case "toc":
+        out.append(generateToc());
+        return true;
+      case "codetoc":
+        out.append(codetoc(com.length > 1 ? com[1] : null));
+        return true;
+      case "resheader":
         if (resource != null && resource instanceof StructureDefinition)
-          src = s1+resHeader(((StructureDefinition) resource).getId().toLowerCase(), ((StructureDefinition) resource).getId(), com.length > 1 ? com[1] : null)+s3;
-        else if (rd != null) {
-          src = s1+resHeader(rd.getName().toLowerCase(), rd.getName(), com.length > 1 ? com[1] : null)+s3;
-        } else 
-          src = s1+s3;
-      } else if (com[0].equals("aresheader"))
-        src = s1+abstractResHeader("document", "Document", com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("onthispage"))
-        src = s1+onThisPage(s2.substring(com[0].length() + 1))+s3;
-      else if (com[0].equals("maponthispage"))
-          src = s1+mapOnThisPage(null)+s3;
-      else if (com[0].equals("res-category")) {
+          out.append(resHeader(((StructureDefinition) resource).getId().toLowerCase(), ((StructureDefinition) resource).getId(), com.length > 1 ? com[1] : null));
+        else if (rd != null)
+          out.append(resHeader(rd.getName().toLowerCase(), rd.getName(), com.length > 1 ? com[1] : null));
+        return true;
+      case "aresheader":
+        out.append(abstractResHeader("document", "Document", com.length > 1 ? com[1] : null));
+        return true;
+      case "onthispage":
+        out.append(onThisPage(s2.substring(com[0].length() + 1)));
+        return true;
+      case "maponthispage":
+        out.append(mapOnThisPage(null));
+        return true;
+      case "res-category":
         even = false;
-        src = s1+resCategory(s2.substring(com[0].length() + 1))+s3;
-      } else if (com[0].equals("res-item")) {
+        out.append(resCategory(s2.substring(com[0].length() + 1)));
+        return true;
+      case "res-item":
         even = !even;
-        src = s1+resItem(com[1], even)+s3;
-      } else if (com[0].equals("resdesc")) {
-        src = s1+resDesc(com[1])+s3;
-      } else if (com[0].equals("rescat")) {
-        src = s1+resCat(com.length == 1 ? null : s2.substring(7))+s3;
-      } else if (com[0].equals("svg"))
-        src = s1+svgs.get(com[1])+s3;
-      else if (com[0].equals("diagram"))
-        src = s1+new SvgGenerator(this, genlevel(level), null, false, file.contains("datatypes")).generate(folders.srcDir+ com[1], com[2])+s3;
-      else if (com[0].equals("file")) {
-        if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+TextFile.fileToString(folders.templateDir + com[1]+".html")+s3;          
+        out.append(resItem(com[1], even));
+        return true;
+      case "resdesc":
+        out.append(resDesc(com[1]));
+        return true;
+      case "rescat":
+        out.append(resCat(com.length == 1 ? null : s2.substring(7)));
+        return true;
+      case "svg":
+        out.append(svgs.get(com[1]));
+        return true;
+      case "diagram":
+        out.append(new SvgGenerator(PageProcessor.this, genlevel(level), null, false, file.contains("datatypes")).generate(folders.srcDir+ com[1], com[2]));
+        return true;
+      case "file":
+        if (templates.exists(com[1]+".html")) {
+          out.append(templates.getSource(com[1]+".html"));
         } else {
-          src = s1+TextFile.fileToString(folders.srcDir + com[1]+".html")+s3;
-        }
-      } else if (com[0].equals("v2xref"))
-        src = s1 + xreferencesForV2(name, com[1]) + s3;
-      else if (com[0].equals("vs-warning"))
-        src = s1 + vsWarning((ValueSet) resource) + s3;
-      else if (com[0].equals("res-status-special"))
-        src = s1 + vsSpecialStatus((DomainResource) resource) + s3;
-      else if (com[0].equals("conceptmaplistv2"))
-        src = s1 + conceptmaplist("http://terminology.hl7.org/ValueSet/v2-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]) + s3;
-      else if (com[0].equals("conceptmaplistv3"))
-        src = s1 + conceptmaplist("http://terminology.hl7.org/ValueSet/v3-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]) + s3;
-      else if (com[0].equals("conceptmaplistvs")) {
+          out.append(TextFile.fileToString(folders.srcDir + com[1]+".html"));
+        }
+        return true;
+      case "v2xref":
+        out.append(xreferencesForV2(name, com[1]));
+        return true;
+      case "vs-warning":
+        out.append(vsWarning((ValueSet) resource));
+        return true;
+      case "res-status-special":
+        out.append(vsSpecialStatus((DomainResource) resource));
+        return true;
+      case "conceptmaplistv2":
+        out.append(conceptmaplist("http://terminology.hl7.org/ValueSet/v2-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]));
+        return true;
+      case "conceptmaplistv3":
+        out.append(conceptmaplist("http://terminology.hl7.org/ValueSet/v3-"+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name), com[1]));
+        return true;
+      case "conceptmaplistvs": {
         ValueSet vs = (ValueSet) resource;
         String ref;
         if (vs == null) {
@@ -836,527 +971,753 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
         } else {
           ref = vs.getUrl();
         }
-        src = s1 + conceptmaplist(ref, com[1]) + s3;
-      } else if (com[0].equals("settitle")) {
+        out.append(conceptmaplist(ref, com[1]));
+        return true;
+      }
+      case "settitle":
         workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
-      } else if (com[0].equals("igregistries")) {
-        src = s1+igRegistryList(com[1], com[2])+s3;
-      } else if (com[0].equals("dtmappings")) {
-        src = s1 + genDataTypeMappings(com[1]) + s3;
-      } else if (com[0].equals("dtusage")) {
-        src = s1 + genDataTypeUsage(com[1]) + s3;
-      }  else if (com[0].equals("v3xref")) {
-        src = s1 + xreferencesForV3(name) + s3;
-      } else if (com[0].equals("setlevel")) {
+        return true;
+      case "igregistries":
+        out.append(igRegistryList(com[1], com[2]));
+        return true;
+      case "dtmappings":
+        out.append(genDataTypeMappings(com[1]));
+        return true;
+      case "dtusage":
+        out.append(genDataTypeUsage(com[1]));
+        return true;
+      case "v3xref":
+        out.append(xreferencesForV3(name));
+        return true;
+      case "setlevel":
         level = Integer.parseInt(com[1]);
-        src = s1+s3;
-      } else if (com[0].equals("w5")) {
-          src = s1+genW5("true".equals(com[1]))+s3;
-      } else if (com[0].equals("res-ref-list")) {
-        src = s1+genResRefList(com[1])+s3;
-      } else if (com[0].equals("sclist")) {
-        src = s1+genScList(com[1])+s3;
-      } else if (com[0].equals("xcm")) {
-        src = s1+getXcm(com[1])+s3;
-      } else if (com[0].equals("xcmchk")) {
-        src = s1+getXcmChk(com[1])+s3;
-      } else if (com[0].equals("sstatus")) {
+        return true;
+      case "w5":
+        out.append(genW5("true".equals(com[1])));
+        return true;
+      case "res-ref-list":
+        out.append(genResRefList(com[1]));
+        return true;
+      case "sclist":
+        out.append(genScList(com[1]));
+        return true;
+      case "xcm":
+        out.append(getXcm(com[1]));
+        return true;
+      case "xcmchk":
+        out.append(getXcmChk(com[1]));
+        return true;
+      case "sstatus": {
         if (com.length == 1) {
           StandardsStatus ss = ToolingExtensions.getStandardsStatus((DomainResource) resource);
           if (ss == null)
             ss = StandardsStatus.INFORMATIVE;
           if (ss == StandardsStatus.NORMATIVE && ToolingExtensions.hasExtension((DomainResource) resource, ToolingExtensions.EXT_NORMATIVE_VERSION))
-            src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ToolingExtensions.readStringExtension((DomainResource) resource, ToolingExtensions.EXT_NORMATIVE_VERSION)+")"+s3;
+            out.append("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ToolingExtensions.readStringExtension((DomainResource) resource, ToolingExtensions.EXT_NORMATIVE_VERSION)+")");
           else
-            src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>"+s3;
+            out.append("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>");
         } else
-          src = s1+getStandardsStatus(com[1])+s3;
-      } else if (com[0].equals("wg")) {
-        src = s1+getWgLink(file, wg == null && com.length > 1 ? wg(com[1]) : wg)+s3;
-      } else if (com[0].equals("wgt")) {
-        src = s1+getWgTitle(wg == null && com.length > 1 ? wg(com[1]) : wg)+s3;
-      } else if (com[0].equals("ig.registry")) {
-        src = s1+buildIgRegistry(ig, com[1])+s3;
-      } else if (com[0].equals("search-link")) {
-        src = s1+searchLink(s2)+s3;
-      } else if (com[0].equals("search-footer")) {
-        src = s1+searchFooter(level)+s3;
-      } else if (com[0].equals("search-header")) {
-          src = s1+searchHeader(level)+s3;
-      } else if (com[0].equals("profileheader")) {
-        src = s1+profileHeader(((StructureDefinition) resource).getId().toLowerCase(), com[1], hasExamples((StructureDefinition) resource, ig))+s3;
-      } else if (com[0].equals("resource-table")) {
-        src = s1+genResourceTable(definitions.getResourceByName(com[1]), genlevel(level))+s3;
-      } else if (com[0].equals("dtextras")) {
-        src = s1+produceDataTypeExtras(com[1], false)+s3;
-      } else if (com[0].equals("dtextensions")) {
-        src = s1+produceDataTypeExtras(com[1], true)+s3;
-      } else if (com[0].equals("tx")) {
-        src = s1+produceDataTypeTx(com[1])+s3;
-      } else if (com[0].equals("extension-diff")) {
+          out.append(getStandardsStatus(com[1]));
+        return true;
+      }
+      case "wg":
+        out.append(getWgLink(file, wg == null && com.length > 1 ? wg(com[1]) : wg));
+        return true;
+      case "wgt":
+        out.append(getWgTitle(wg == null && com.length > 1 ? wg(com[1]) : wg));
+        return true;
+      case "ig.registry":
+        out.append(buildIgRegistry(ig, com[1]));
+        return true;
+      case "search-link":
+        out.append(searchLink(s2));
+        return true;
+      case "search-footer":
+        out.append(searchFooter(level));
+        return true;
+      case "search-header":
+        out.append(searchHeader(level));
+        return true;
+      case "profileheader":
+        out.append(profileHeader(((StructureDefinition) resource).getId().toLowerCase(), com[1], hasExamples((StructureDefinition) resource, ig)));
+        return true;
+      case "resource-table":
+        out.append(genResourceTable(definitions.getResourceByName(com[1]), genlevel(level)));
+        return true;
+      case "dtextras":
+        out.append(produceDataTypeExtras(com[1], false));
+        return true;
+      case "dtextensions":
+        out.append(produceDataTypeExtras(com[1], true));
+        return true;
+      case "tx":
+        out.append(produceDataTypeTx(com[1]));
+        return true;
+      case "extension-diff": {
         StructureDefinition ed = workerContext.fetchResource(StructureDefinition.class, com[1]);
-        src = s1+generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level))+s3;
-      } else if (com[0].equals("profile-diff")) {
+        out.append(generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level)));
+        return true;
+      }
+      case "profile-diff": {
         ConstraintStructure p = definitions.findProfile(com[1]);
-        src = s1 + generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)) + s3;
-      } else if (com[0].equals("example")) {
+        out.append(generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)));
+        return true;
+      }
+      case "example": {
         String[] parts = com[1].split("\\/");
         Example e = findExample(parts[0], parts[1]);
-        src = s1+genExample(e, com.length > 2 ? Integer.parseInt(com[2]) : 0, genlevel(level))+s3;
-      } else if (com[0].equals("r3r4transform")) {
-        src = s1+dtR3R4Transform(com[1])+s3;
-      } else if (com[0].equals("fmm-style")) {
+        out.append(genExample(e, com.length > 2 ? Integer.parseInt(com[2]) : 0, genlevel(level)));
+        return true;
+      }
+      case "r3r4transform":
+        out.append(dtR3R4Transform(com[1]));
+        return true;
+      case "fmm-style": {
         String fmm = resource == null ? "N/A" :  ToolingExtensions.readStringExtension((DomainResource) resource, ToolingExtensions.EXT_FMM_LEVEL);
         StandardsStatus ss = ToolingExtensions.getStandardsStatus((DomainResource) resource);
-        src = s1+fmmBarColorStyle(ss, fmm)+s3;
-      } else if (com[0].equals("fmm")) {
+        out.append(fmmBarColorStyle(ss, fmm));
+        return true;
+      }
+      case "fmm": {
         String fmm = resource == null || !(resource instanceof CanonicalResource) ? getFmm(com[1], false) : ToolingExtensions.readStringExtension((DomainResource) resource, ToolingExtensions.EXT_FMM_LEVEL);
         StandardsStatus ss = ToolingExtensions.getStandardsStatus((DomainResource) resource);
         if (StandardsStatus.EXTERNAL == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "N/A")+s3;
+          out.append(getFmmFromlevel(genlevel(level), "N/A"));
         else if (StandardsStatus.NORMATIVE == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>")+s3;
+          out.append(getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>"));
         else
-          src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
-      } else if (com[0].equals("fmmna")) {
+          out.append(getFmmFromlevel(genlevel(level), fmm));
+        return true;
+      }
+      case "fmmna": {
         String fmm = "N/A";
-        src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
-      } else if (com[0].equals("mostlynormative")) {
+        out.append(getFmmFromlevel(genlevel(level), fmm));
+        return true;
+      }
+      case "mostlynormative": {
         String p = null;
-        String wt = workingTitle; 
+        String wt = workingTitle;
         if (com.length >= 3) {
           if (!com[2].equals("%check"))
-            p = com[2]; 
+            p = com[2];
           else if (StandardsStatus.NORMATIVE == ToolingExtensions.getStandardsStatus((DomainResource) resource)) {
             p = resource.getUserString("ballot.package");
             wt = ((CanonicalResource) resource).fhirType()+" "+((CanonicalResource) resource).present();
           }
         }
-        src = s1+(p == null ? "" : getMostlyNormativeNote(genlevel(level), p, com[1], wt, file))+s3;
-      } else if (com[0].equals("mixednormative")) {
+        out.append(p == null ? "" : getMostlyNormativeNote(genlevel(level), p, com[1], wt, file));
+        return true;
+      }
+      case "mixednormative": {
         String p = null;
-        String wt = workingTitle; 
+        String wt = workingTitle;
         if (com.length >= 3) {
           if (!com[2].equals("%check"))
-            p = com[2]; 
+            p = com[2];
           else if (StandardsStatus.NORMATIVE == ToolingExtensions.getStandardsStatus((DomainResource) resource)) {
             p = resource.getUserString("ballot.package");
             wt = ((CanonicalResource) resource).fhirType()+" "+((CanonicalResource) resource).present();
           }
         }
-        src = s1+(p == null ? "" : getMixedNormativeNote(genlevel(level), p, com[1], wt, file))+s3;
-      } else if (com[0].equals("normative")) {
+        out.append(p == null ? "" : getMixedNormativeNote(genlevel(level), p, com[1], wt, file));
+        return true;
+      }
+      case "normative": {
         String p = object instanceof Object ? rd.getNormativePackage() : null;
-        String wt = object instanceof Object ? rd.getName()+" Operation " + ((Operation) object).getName() : workingTitle; 
+        String wt = object instanceof Object ? rd.getName()+" Operation " + ((Operation) object).getName() : workingTitle;
         if (com.length >= 3) {
           if (!com[2].equals("%check"))
-            p = com[2]; 
+            p = com[2];
           else if (StandardsStatus.NORMATIVE == ToolingExtensions.getStandardsStatus((DomainResource) resource)) {
             p = resource.getUserString("ballot.package");
             wt = ((CanonicalResource) resource).fhirType()+" "+((CanonicalResource) resource).present();
           }
-        } 
-        src = s1+(p == null && com.length != 2 ? "" : getNormativeNote(genlevel(level), p, com[1], wt, file))+s3;
-      } else if (com[0].equals("normative-op")) {
+        }
+        out.append(p == null && com.length != 2 ? "" : getNormativeNote(genlevel(level), p, com[1], wt, file));
+        return true;
+      }
+      case "normative-op": {
         String p = rd.getNormativePackage();
-        String wt = rd.getName()+" Operation " + ((Operation) object).getName(); 
+        String wt = rd.getName()+" Operation " + ((Operation) object).getName();
         StandardsStatus st = ((Operation) object).getStandardsStatus();
         if (st == null)
           st = ToolingExtensions.getStandardsStatus((DomainResource) resource);
-        src = s1+(st == StandardsStatus.NORMATIVE ? getNormativeNote(genlevel(level), p, com[1], wt, file) : "")+s3;
-      } else if (com[0].equals("fmmshort")) {
+        out.append(st == StandardsStatus.NORMATIVE ? getNormativeNote(genlevel(level), p, com[1], wt, file) : "");
+        return true;
+      }
+      case "fmmshort": {
         String fmm = resource == null || !(resource instanceof CanonicalResource) ? getFmm(com[1], true) : ToolingExtensions.readStringExtension((DomainResource) resource, ToolingExtensions.EXT_FMM_LEVEL);
         String npr = resource == null || !(resource instanceof CanonicalResource) ? getNormativePackageRef(com[1]) : "";
-        src = s1+getFmmShortFromlevel(genlevel(level), fmm)+npr+s3;
-      } else if (com[0].equals("normative-pages")) {
-        src = s1+getNormativeList(genlevel(level), com[1])+s3;
-      } else if (s2.startsWith("search-additions\r\n")) {
-        searchAdditions = s2.substring(16).trim();
-        src = s1+s3;
-      } else if (com[0].equals("complinks")) {
-        src = s1+(rd == null ? "" : getCompLinks(rd, com.length > 1 ? com[1] : null))+s3;
-      } else if (com[0].equals("diff")) {
+        out.append(getFmmShortFromlevel(genlevel(level), fmm)+npr);
+        return true;
+      }
+      case "normative-pages":
+        out.append(getNormativeList(genlevel(level), com[1]));
+        return true;
+      case "complinks":
+        out.append(rd == null ? "" : getCompLinks(rd, com.length > 1 ? com[1] : null));
+        return true;
+      case "diff": {
         String p = com[1];
         String pd = p.contains("#") ? p.substring(0, p.indexOf("#")) : p;
         String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
-      } else if (com[0].equals("diffx")) {
+        out.append("<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
+        return true;
+      }
+      case "diffx": {
         String p1 = com[1];
         String pd = p1.contains("#") ? p1.substring(0, p1.indexOf("#")) : p1;
         String p2 = com[2];
         String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
-      } else if (com[0].equals("StandardsStatus")) {
-        src = s1+getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null)+s3;
-      } else if (com[0].equals("circular-references")) {
-        src = s1+buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1]))+s3;
-      } else if (com[0].equals("shortparameterlist")) {
-        src = s1+buildShortParameterList(com[1])+s3;
-      } else if (com[0].equals("op-example-link")) {
-        src = s1+buildOpReferenceList(com[1])+s3;       
-      } else if (com[0].equals("pattern-impls")) {
-        src = s1+buildPatternList(com[1])+s3;       
-      } else if (com[0].equals("diff-analysis")) {
+        out.append("<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
+        return true;
+      }
+      case "StandardsStatus":
+        out.append(getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null));
+        return true;
+      case "circular-references":
+        out.append(buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1])));
+        return true;
+      case "shortparameterlist":
+        out.append(buildShortParameterList(com[1]));
+        return true;
+      case "op-example-link":
+        out.append(buildOpReferenceList(com[1]));
+        return true;
+      case "pattern-impls":
+        out.append(buildPatternList(com[1]));
+        return true;
+      case "diff-analysis": {
         if ("*".equals(com[1])) {
           updateDiffEngineDefinitions();
-          src = s1+diffEngine.getDiffAsHtml(this)+s3;
+          out.append(diffEngine.getDiffAsHtml(PageProcessor.this));
         } else {
           StructureDefinition sd = workerContext.fetchTypeDefinition(com[1]);
           if (sd == null)
             throw new Exception("diff-analysis not found: "+com[1]);
-          src = s1+diffEngine.getDiffAsHtml(this, sd)+s3;
+          out.append(diffEngine.getDiffAsHtml(PageProcessor.this, sd));
         }
-      } else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
-      else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
-      else if (com[0].equals("newheader"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader.html")+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader1.html")+s3;
-      else if (com[0].equals("footer"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer.html")+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newfooter.html")+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer1.html")+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer2.html")+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer3.html")+s3;
-      else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle)+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1) + name.substring(1))+s3;
-      else if (com[0].equals("name"))
-        src = s1+name+s3;
-      else if (com[0].equals("name.tail"))
-        src = s1+fileTail(name)+s3;
-      else if (com[0].equals("piperesources"))
-        src = s1+pipeResources()+s3;
-      else if (com[0].equals("enteredInErrorTable"))
-        src = s1+enteredInErrorTable()+s3;
-      else if (com[0].equals("canonicalname"))
-        src = s1+makeCanonical(name)+s3;
-      else if (com[0].equals("prettyname"))
-        src = s1+makePretty(name)+s3;
-      else if (com[0].equals("jsonldname"))
-        src = s1+makeJsonld(name)+s3;
-      else if (com[0].equals("version"))
-        src = s1+version+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("maindiv"))
-        src = s1+"<div class=\"content\">"+s3;
-      else if (com[0].equals("/maindiv"))
-        src = s1+"</div>"+s3;
-      else if (com[0].equals("mappings-table"))
-        src = s1+genMappingsTable()+s3;
-      else if (com[0].equals("id"))
-        src = s1+(name.contains("|") ? name.substring(0,name.indexOf("|")) : name)+s3;
-      else if (com[0].equals("ver"))
-        src = s1+(name.contains("|") ? name.substring(name.indexOf("|")+1) : "??")+s3;
-      else if (com[0].equals("events"))
-        src = s1 + getEventsTable(pagePath)+ s3;
-      else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
-      else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
-      else if (com[0].equals("allparams"))
-        src = s1 + allParamlist() + s3;
-//      else if (com[0].equals("bindingtable-codelists"))
-//        src = s1 + genBindingTable(true) + s3;
-//      else if (com[0].equals("bindingtable"))
-//        src = s1 + genBindingsTable() + s3;
-      else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
-      else if (com[0].equals("valuesetslist"))
-        src = s1 + genValueSetsTable(ig) + s3;
-      else if (com[0].equals("namespacelist"))
-        src = s1 + genNSList() + s3;
-      else if (com[0].equals("extensionslist"))
-        src = s1 + genExtensionsTable() + s3;
-      else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
-      else if (com[0].equals("conceptmapslist"))
-        src = s1 + genConceptMapsTable() + s3;
-//      else if (com[0].equals("bindingtable-others"))
-//        src = s1 + genBindingTable(false) + s3;
-      else if (com[0].equals("resimplall"))
-          src = s1 + genResImplList() + s3;
-      else if (com[0].equals("txurl"))
-        src = s1 + "http://hl7.org/fhir/"+Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("vstxurl"))
-        src = s1 + "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("csurl")) {
+        return true;
+      }
+      default:
+        if (s2.startsWith("search-additions\r\n")) // only used on resource pages
+          return true;
+      }
+      return false;
+    }
+
+    private boolean processSimpleCommand(String s2, String[] com, StringBuilder out) throws Exception {
+      switch (com[0]) {
+      case "pageheader":
+        out.append(pageHeader(name.toUpperCase().substring(0, 1)+name.substring(1)));
+        return true;
+      case "newheader":
+        out.append(TextFile.fileToString(folders.srcDir + "newheader.html"));
+        return true;
+      case "newheader1":
+        out.append(TextFile.fileToString(folders.srcDir + "newheader1.html"));
+        return true;
+      case "footer":
+        out.append(TextFile.fileToString(folders.srcDir + "footer.html"));
+        return true;
+      case "newfooter":
+        out.append(TextFile.fileToString(folders.srcDir + "newfooter.html"));
+        return true;
+      case "footer1":
+        out.append(TextFile.fileToString(folders.srcDir + "footer1.html"));
+        return true;
+      case "footer2":
+        out.append(TextFile.fileToString(folders.srcDir + "footer2.html"));
+        return true;
+      case "footer3":
+        out.append(TextFile.fileToString(folders.srcDir + "footer3.html"));
+        return true;
+      case "title":
+        out.append(workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle);
+        return true;
+      case "xtitle":
+        out.append(Utilities.escapeXml(name.toUpperCase().substring(0, 1) + name.substring(1)));
+        return true;
+      case "name":
+        out.append(name);
+        return true;
+      case "name.tail":
+        out.append(fileTail(name));
+        return true;
+      case "piperesources":
+        out.append(pipeResources());
+        return true;
+      case "enteredInErrorTable":
+        out.append(enteredInErrorTable());
+        return true;
+      case "canonicalname":
+        out.append(makeCanonical(name));
+        return true;
+      case "prettyname":
+        out.append(makePretty(name));
+        return true;
+      case "jsonldname":
+        out.append(makeJsonld(name));
+        return true;
+      case "version":
+        out.append(version);
+        return true;
+      case "gendate":
+        out.append(Config.DATE_FORMAT().format(new Date()));
+        return true;
+      case "maindiv":
+        out.append("<div class=\"content\">");
+        return true;
+      case "/maindiv":
+        out.append("</div>");
+        return true;
+      case "mappings-table":
+        out.append(genMappingsTable());
+        return true;
+      case "id":
+        out.append(name.contains("|") ? name.substring(0,name.indexOf("|")) : name);
+        return true;
+      case "ver":
+        out.append(name.contains("|") ? name.substring(name.indexOf("|")+1) : "??");
+        return true;
+      case "events":
+        out.append(getEventsTable(pagePath));
+        return true;
+      case "resourcecodes":
+        out.append(genResCodes());
+        return true;
+      case "datatypecodes":
+        out.append(genDTCodes());
+        return true;
+      case "allparams":
+        out.append(allParamlist());
+        return true;
+//    case "bindingtable-codelists":
+//      out.append(genBindingTable(true));
+//      return true;
+//    case "bindingtable":
+//      out.append(genBindingsTable());
+//      return true;
+      case "codeslist":
+        out.append(genCodeSystemsTable());
+        return true;
+      case "valuesetslist":
+        out.append(genValueSetsTable(ig));
+        return true;
+      case "namespacelist":
+        out.append(genNSList());
+        return true;
+      case "extensionslist":
+        out.append(genExtensionsTable());
+        return true;
+      case "igvaluesetslist":
+        out.append(genIGValueSetsTable());
+        return true;
+      case "conceptmapslist":
+        out.append(genConceptMapsTable());
+        return true;
+//    case "bindingtable-others":
+//      out.append(genBindingTable(false));
+//      return true;
+      case "resimplall":
+        out.append(genResImplList());
+        return true;
+      case "txurl":
+        out.append("http://hl7.org/fhir/"+Utilities.fileTitle(file));
+        return true;
+      case "vstxurl":
+        out.append("http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file));
+        return true;
+      case "csurl": {
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
+          out.append(((CodeSystem) resource).getUrl());
         else {
           CodeSystem cs = (CodeSystem) ((ValueSet) resource).getUserData("cs");
-          src = s1 + (cs == null ? "" : cs.getUrl()) + s3;
-        }
-      } else if (com[0].equals("vsurl")) {
-        if (resource == null)
-          src = s1 + s3;
-        else if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
-        else 
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
-      } else if (com[0].equals("txdef"))
-        src = s1 + generateCodeDefinition(Utilities.fileTitle(file)) + s3;
-      else if (com[0].equals("vsdef"))
+          out.append(cs == null ? "" : cs.getUrl());
+        }
+        return true;
+      }
+      case "vsurl":
+        if (resource instanceof CodeSystem)
+          out.append(((CodeSystem) resource).getUrl());
+        else if (resource != null)
+          out.append(((ValueSet) resource).getUrl());
+        return true;
+      case "txdef":
+        out.append(generateCodeDefinition(Utilities.fileTitle(file)));
+        return true;
+      case "vsdef":
         if (resource instanceof CodeSystem)
-          src = s1 + processMarkdown("vsdef", ((CodeSystem) resource).getDescription(), genlevel(level)) + s3;
+          out.append(processMarkdown("vsdef", ((CodeSystem) resource).getDescription(), genlevel(level)));
         else
-          src = s1 + processMarkdown("vsdef", ((ValueSet) resource).getDescription(), genlevel(level)) + s3;
-      else if (com[0].equals("txoid"))
-        src = s1 + generateOID((CodeSystem) resource) + s3;
-      else if (com[0].equals("vsoid"))
-        src = s1 + generateOID((ValueSet) resource) + s3;
-      else if (com[0].equals("txname"))
-        src = s1 + Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("vsname"))
+          out.append(processMarkdown("vsdef", ((ValueSet) resource).getDescription(), genlevel(level)));
+        return true;
+      case "txoid":
+        out.append(generateOID((CodeSystem) resource));
+        return true;
+      case "vsoid":
+        out.append(generateOID((ValueSet) resource));
+        return true;
+      case "txname":
+        out.append(Utilities.fileTitle(file));
+        return true;
+      case "vsname":
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).present() + s3;
+          out.append(((CodeSystem) resource).present());
         else
-          src = s1 + ((ValueSet) resource).present() + s3;
-      else if (com[0].equals("vsnamed"))
+          out.append(((ValueSet) resource).present());
+        return true;
+      case "vsnamed":
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getName() + s3;
+          out.append(((CodeSystem) resource).getName());
         else
-          src = s1 + ((ValueSet) resource).getName() + s3;
-      else if (com[0].equals("vstitle"))
+          out.append(((ValueSet) resource).getName());
+        return true;
+      case "vstitle":
         if (resource instanceof CodeSystem)
-          src = s1 + checkTitle(((CodeSystem) resource).getTitle()) + s3;
+          out.append(checkTitle(((CodeSystem) resource).getTitle()));
         else
-          src = s1 + checkTitle(((ValueSet) resource).getTitle()) + s3;
-      else if (com[0].equals("vsver"))
+          out.append(checkTitle(((ValueSet) resource).getTitle()));
+        return true;
+      case "vsver":
         if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getVersion() + s3;
+          out.append(((CodeSystem) resource).getVersion());
         else
-          src = s1 + ((ValueSet) resource).getVersion() + s3;
-      else if (com[0].equals("vsref")) {
-        src = s1 + Utilities.fileTitle((String) resource.getUserData("filename")) + s3;
-      } else if (com[0].equals("vsdesc"))
-        src = s1 + (resource != null ? new XhtmlComposer(XhtmlComposer.HTML).compose(((ValueSet) resource).getText().getDiv()) :  generateVSDesc(Utilities.fileTitle(file))) + s3;
-      else if (com[0].equals("txusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
-      else if (com[0].equals("vsusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
-      else if (com[0].equals("csusage"))
-        src = s1 + generateCSUsage((CodeSystem) resource, genlevel(level)) + s3;
-      else if (com[0].equals("vssummary"))
-        src = s1 + "todo" + s3;
-      else if (com[0].equals("compartmentlist"))
-        src = s1 + compartmentlist() + s3;
-      else if (com[0].equals("qa"))
-        src = s1 + qa.report(this, validationErrors) + s3;
-      else if (com[0].equals("comp-title"))
-        src = s1 + compTitle(name) + s3;
-      else if (com[0].equals("comp-name"))
-        src = s1 + compName(name) + s3;
-      else if (com[0].equals("comp-desc"))
-        src = s1 + compDesc(name) + s3;
-      else if (com[0].equals("comp-uri"))
-        src = s1 + compUri(name) + s3;
-      else if (com[0].equals("comp-identity"))
-        src = s1 + compIdentity(name) + s3;
-      else if (com[0].equals("comp-membership"))
-        src = s1 + compMembership(name) + s3;
-      else if (com[0].equals("comp-resources"))
-        src = s1 + compResourceMap(name) + s3;
-      else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(name) + s3;
-      else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(name, genlevel(level)) + s3;
-      else if (com[0].equals("breadcrumblist")) {
+          out.append(((ValueSet) resource).getVersion());
+        return true;
+      case "vsref":
+        out.append(Utilities.fileTitle((String) resource.getUserData("filename")));
+        return true;
+      case "vsdesc":
+        out.append(resource != null ? new XhtmlComposer(XhtmlComposer.HTML).compose(((ValueSet) resource).getText().getDiv()) :  generateVSDesc(Utilities.fileTitle(file)));
+        return true;
+      case "txusage":
+        out.append(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
+        return true;
+      case "vsusage":
+        out.append(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
+        return true;
+      case "csusage":
+        out.append(generateCSUsage((CodeSystem) resource, genlevel(level)));
+        return true;
+      case "vssummary":
+        out.append("todo");
+        return true;
+      case "compartmentlist":
+        out.append(compartmentlist());
+        return true;
+      case "qa":
+        out.append(qa.report(PageProcessor.this, validationErrors));
+        return true;
+      case "comp-title":
+        out.append(compTitle(name));
+        return true;
+      case "comp-name":
+        out.append(compName(name));
+        return true;
+      case "comp-desc":
+        out.append(compDesc(name));
+        return true;
+      case "comp-uri":
+        out.append(compUri(name));
+        return true;
+      case "comp-identity":
+        out.append(compIdentity(name));
+        return true;
+      case "comp-membership":
+        out.append(compMembership(name));
+        return true;
+      case "comp-resources":
+        out.append(compResourceMap(name));
+        return true;
+      case "breadcrumb":
+        out.append(breadCrumbManager.make(name));
+        return true;
+      case "navlist":
+        out.append(breadCrumbManager.navlist(name, genlevel(level)));
+        return true;
+      case "breadcrumblist":
         if (object instanceof Operation)
-          src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(rd.getName().toLowerCase(), type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)) + s3;
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(rd.getName().toLowerCase(), type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle));
         else
-          src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)) + s3;
-      } else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
-      else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].equals("vssource"))
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle));
+        return true;
+      case "year":
+        out.append(new SimpleDateFormat("yyyy").format(new Date()));
+        return true;
+      case "buildId":
+        out.append(buildId);
+        return true;
+      case "pub-type":
+        out.append(publicationType);
+        return true;
+      case "pub-notice":
+        out.append(publicationNotice);
+        return true;
+      case "vssource":
         if (resource instanceof CodeSystem)
-          src = s1 + csSource((CodeSystem) resource) + s3;
+          out.append(csSource((CodeSystem) resource));
         else
-          src = s1 + vsSource((ValueSet) resource) + s3;
-      else if (com[0].equals("vsxref"))
-        src = s1 + xreferencesForFhir(name) + s3;
-      else if (com[0].equals("vsexpansion"))
-        src = s1 + expandValueSet(Utilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)) + s3;
-      else if (com[0].equals("vscld"))
-        src = s1 + vsCLD(Utilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)) + s3;
-      else if (com[0].equals("cs-content"))
-        src = s1 + csContent(Utilities.fileTitle(file), ((CodeSystem) resource), genlevel(level)) + s3;
-      else if (com[0].equals("vsexpansionig"))
-        src = s1 + expandValueSetIG((ValueSet) resource, true) + s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
-      else if (com[0].equals("archive"))
-        src = s1 + makeArchives() + s3;
-      else if (com[0].equals("pagepath"))
-        src = s1 + pagePath + s3;
-      else if (com[0].equals("rellink")) {
+          out.append(vsSource((ValueSet) resource));
+        return true;
+      case "vsxref":
+        out.append(xreferencesForFhir(name));
+        return true;
+      case "vsexpansion":
+        out.append(expandValueSet(Utilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)));
+        return true;
+      case "vscld":
+        out.append(vsCLD(Utilities.fileTitle(file), resource == null ? null : ((ValueSet) resource), genlevel(level)));
+        return true;
+      case "cs-content":
+        out.append(csContent(Utilities.fileTitle(file), ((CodeSystem) resource), genlevel(level)));
+        return true;
+      case "vsexpansionig":
+        out.append(expandValueSetIG((ValueSet) resource, true));
+        return true;
+      case "level":
+        out.append(genlevel(level));
+        return true;
+      case "archive":
+        out.append(makeArchives());
+        return true;
+      case "pagepath":
+        out.append(pagePath);
+        return true;
+      case "rellink":
         if (!pagePath.contains(".html"))
           throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pagePath) + s3;
-      } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(baseURL) + s3;
-      else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(baseURL) + s3;
-      else if (com[0].equals("profilelist"))
-        src = s1 + genProfilelist() + s3;
-      else if (com[0].equals("igprofileslist"))
-        src = s1 + genIGProfilelist() + s3;
-      else if (com[0].equals("operationslist"))
-        src = s1 + genOperationList() + s3;
-      else if (com[0].equals("example.profile.link"))
-        src = s1 + genExampleProfileLink(resource) + s3;
-      else if (com[0].equals("id_regex"))
-        src = s1 + FormatUtilities.ID_REGEX + s3;
-      else if (com[0].equals("resourcecount"))
-        src = s1 + Integer.toString(definitions.getResources().size()) + s3;
-      else if (others != null && others.containsKey(com[0]))
-        src = s1 + others.get(com[0]) + s3;
-      else if (com[0].equals("status-codes"))
-        src = s1 + genStatusCodes() + s3;
-      else if (com[0].equals("dictionary.name")) {
+        out.append(Utilities.URLEncode(pagePath));
+        return true;
+      case "baseURL":
+        out.append(Utilities.URLEncode(baseURL));
+        return true;
+      case "baseURLn":
+        out.append(Utilities.appendForwardSlash(baseURL));
+        return true;
+      case "profilelist":
+        out.append(genProfilelist());
+        return true;
+      case "igprofileslist":
+        out.append(genIGProfilelist());
+        return true;
+      case "operationslist":
+        out.append(genOperationList());
+        return true;
+      case "example.profile.link":
+        out.append(genExampleProfileLink(resource));
+        return true;
+      case "id_regex":
+        out.append(FormatUtilities.ID_REGEX);
+        return true;
+      case "resourcecount":
+        out.append(Integer.toString(definitions.getResources().size()));
+        return true;
+      }
+      return false;
+    }
+
+    private boolean processOtherCommand(String s2, String[] com, StringBuilder out) throws Exception {
+      switch (com[0]) {
+      case "status-codes":
+        out.append(genStatusCodes());
+        return true;
+      case "dictionary.name": {
         String n = name.contains(File.separator) ? name.substring(name.lastIndexOf(File.separator)+1) : name;
-        src = s1 + definitions.getDictionaries().get(n).getName() + s3;
-//      } else if (com[0].equals("dictionary.view"))
-//        src = s1 + ResourceUtilities.representDataElementCollection(this.workerContext, (Bundle) resource, true, "hspc-qnlab-de") + s3;
-      } else if (com[0].equals("search-param-pack") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getUserData("pack") + s3;
-      else if (com[0].equals("search-param-name") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getName() + s3;
-      else if (com[0].equals("search-param-url") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getUrl() + s3;
-      else if (com[0].equals("search-param-type") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getType().toCode() + s3;
-      else if (com[0].equals("search-param-definition") && resource instanceof SearchParameter)
-        src = s1 + ((SearchParameter) resource).getDescription() + s3;
-      else if (com[0].equals("search-param-paths") && resource instanceof SearchParameter)
-        src = s1 + (((SearchParameter) resource).hasXpath() ? ((SearchParameter) resource).getXpath() : "") + s3;
-      else if (com[0].equals("search-param-targets") && resource instanceof SearchParameter) {
-        CommaSeparatedStringBuilder b = new CommaSeparatedStringBuilder();
-        for (CodeType t : ((SearchParameter) resource).getTarget())
-          b.append(t.asStringValue());
-        src = s1 + b.toString() + s3;
-      }
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (com[0].equals("txsummary"))
+        out.append(definitions.getDictionaries().get(n).getName());
+        return true;
+      }
+//    case "dictionary.view":
+//      out.append(ResourceUtilities.representDataElementCollection(this.workerContext, (Bundle) resource, true, "hspc-qnlab-de"));
+//      return true;
+      case "search-param-pack":
+        if (resource instanceof SearchParameter) {
+          out.append(((SearchParameter) resource).getUserData("pack"));
+          return true;
+        }
+        break;
+      case "search-param-name":
+        if (resource instanceof SearchParameter) {
+          out.append(((SearchParameter) resource).getName());
+          return true;
+        }
+        break;
+      case "search-param-url":
+        if (resource instanceof SearchParameter) {
+          out.append(((SearchParameter) resource).getUrl());
+          return true;
+        }
+        break;
+      case "search-param-type":
+        if (resource instanceof SearchParameter) {
+          out.append(((SearchParameter) resource).getType().toCode());
+          return true;
+        }
+        break;
+      case "search-param-definition":
+        if (resource instanceof SearchParameter) {
+          out.append(((SearchParameter) resource).getDescription());
+          return true;
+        }
+        break;
+      case "search-param-paths":
+        if (resource instanceof SearchParameter) {
+          out.append(((SearchParameter) resource).hasXpath() ? ((SearchParameter) resource).getXpath() : "");
+          return true;
+        }
+        break;
+      case "search-param-targets":
+        if (resource instanceof SearchParameter) {
+          CommaSeparatedStringBuilder b = new CommaSeparatedStringBuilder();
+          for (CodeType t : ((SearchParameter) resource).getTarget())
+            b.append(t.asStringValue());
+          out.append(b.toString());
+          return true;
+        }
+        break;
+      case "txsummary":
         if (resource instanceof CodeSystem)
-          src = s1 + txsummary((CodeSystem) resource, genlevel(level)) + s3;
+          out.append(txsummary((CodeSystem) resource, genlevel(level)));
         else
-          src = s1 + txsummary((ValueSet) resource, genlevel(level)) + s3;
-      else if (com[0].equals("identifierlist"))
-        src = s1 + genIdentifierList()+s3;
-      else if (com[0].equals("allsearchparams"))
-        src = s1 + genAllSearchParams()+s3;
-      else if (com[0].equals("internalsystemlist"))
-        src = s1 + genCSList()+s3;
-      else if (com[0].equals("internalsystemlistx"))
-        src = s1 + genCSListX()+s3;
-      else if (com[0].equals("example-usage"))
-        src = s1+s3;
-      else if (com[0].equals("ig.title"))
-        src = s1+ig.getName()+s3;
-      else if (com[0].equals("ig.wglink"))
-        src = s1+igLink(ig)+s3;
-      else if (com[0].equals("ig.wgt"))
-        src = s1+ig.getCommittee()+s3;
-      else if (com[0].equals("ig.fmm"))
-        src = s1+getFmmFromlevel(genlevel(level), ig.getFmm())+s3;
-      else if (com[0].equals("ig.ballot"))
-        src = s1+ig.getBallot()+s3;
-      else if (com[0].equals("operations")) {
+          out.append(txsummary((ValueSet) resource, genlevel(level)));
+        return true;
+      case "identifierlist":
+        out.append(genIdentifierList());
+        return true;
+      case "allsearchparams":
+        out.append(genAllSearchParams());
+        return true;
+      case "internalsystemlist":
+        out.append(genCSList());
+        return true;
+      case "internalsystemlistx":
+        out.append(genCSListX());
+        return true;
+      case "example-usage":
+        return true;
+      case "ig.title":
+        out.append(ig.getName());
+        return true;
+      case "ig.wglink":
+        out.append(igLink(ig));
+        return true;
+      case "ig.wgt":
+        out.append(ig.getCommittee());
+        return true;
+      case "ig.fmm":
+        out.append(getFmmFromlevel(genlevel(level), ig.getFmm()));
+        return true;
+      case "ig.ballot":
+        out.append(ig.getBallot());
+        return true;
+      case "operations": {
         Profile p = (Profile) object;
-        src = s1 + genOperations(p.getOperations(), p.getTitle(), p.getId(), false, null, "../", "") + s3;
-      } else if (com[0].equals("operations-summary"))
-        src = s1 + genOperationsSummary(((Profile) object).getOperations(), rd) + s3;
-      else if (com[0].equals("ig.opcount"))
-        src = s1 + genOpCount(((Profile) object).getOperations()) + s3;
-      else if (com[0].equals("ig-toc"))
-        src = s1 + genIgToc(ig) + s3;
-      else if (com[0].equals("fhir-path"))
-        src = s1 + "../" + s3;
-      else if (com[0].equals("vscommittee"))
-        src = s1 + vscommittee(resource) + s3;
-      else if (com[0].equals("modifier-list"))
-        src = s1 + genModifierList() + s3;
-      else if (com[0].equals("missing-element-list"))
-        src = s1 + genMeaningWhenMissingList() + s3;
-      else if (com[0].equals("wgreport"))
-        src = s1 + genWGReport() + s3;
-      else if (com[0].equals("r3maps-summary"))
-        src = s1 + genR3MapsSummary() + s3;
-      else if (com[0].equals("wg")) {
-        src = s1+(wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+" (1))" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group")+s3;
-      } else if (com[0].equals("profile-context"))
-        src = s1+getProfileContext((CanonicalResource) resource, genlevel(level))+s3;
-      else if (com[0].equals("res-list-maturity"))
-        src = s1+buildResListByMaturity()+s3;
-      else if (com[0].equals("res-list-security"))
-        src = s1+buildResListBySecurity()+s3;
-      else if (com[0].equals("res-list-fmg"))
-        src = s1+buildResListByFMG()+s3;
-      else if (com[0].equals("res-list-ballot"))
-        src = s1+buildResListByBallot()+s3;
-      else if (com[0].equals("res-list-committee"))
-        src = s1+buildResListByCommittee()+s3;
-      else if (com[0].equals("wglist"))
-        src = s1+buildCommitteeList()+s3;
-      else if (com[0].equals("opName"))
-        src = s1+((Operation) object).getName()+s3;
-      else if (com[0].equals("rName"))
-        src = s1+rd.getName()+s3;
-      else if (com[0].equals("operation-summary"))
-        src = s1+((Operation) object).getName()+" summary"+s3;
-      else if (com[0].equals("extension-type-list"))
-        src = s1+genExtensionTypeList()+s3;
-      else if (com[0].equals("best-practice-list"))
-        src = s1+genBestPracticeList()+s3;
-      else if (com[0].equals("wildcard-type-list"))
-        src = s1+genWildcardTypeList()+s3;
-      else if (com[0].startsWith("GF#"))
-        src = s1+"<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>"+s3;      
-      else if (com[0].equals("operation")) {
+        out.append(genOperations(p.getOperations(), p.getTitle(), p.getId(), false, null, "../", ""));
+        return true;
+      }
+      case "operations-summary":
+        out.append(genOperationsSummary(((Profile) object).getOperations(), rd));
+        return true;
+      case "ig.opcount":
+        out.append(genOpCount(((Profile) object).getOperations()));
+        return true;
+      case "ig-toc":
+        out.append(genIgToc(ig));
+        return true;
+      case "fhir-path":
+        out.append("../");
+        return true;
+      case "vscommittee":
+        out.append(vscommittee(resource));
+        return true;
+      case "modifier-list":
+        out.append(genModifierList());
+        return true;
+      case "missing-element-list":
+        out.append(genMeaningWhenMissingList());
+        return true;
+      case "wgreport":
+        out.append(genWGReport());
+        return true;
+      case "r3maps-summary":
+        out.append(genR3MapsSummary());
+        return true;
+      case "profile-context":
+        out.append(getProfileContext((CanonicalResource) resource, genlevel(level)));
+        return true;
+      case "res-list-maturity":
+        out.append(buildResListByMaturity());
+        return true;
+      case "res-list-security":
+        out.append(buildResListBySecurity());
+        return true;
+      case "res-list-fmg":
+        out.append(buildResListByFMG());
+        return true;
+      case "res-list-ballot":
+        out.append(buildResListByBallot());
+        return true;
+      case "res-list-committee":
+        out.append(buildResListByCommittee());
+        return true;
+      case "wglist":
+        out.append(buildCommitteeList());
+        return true;
+      case "opName":
+        out.append(((Operation) object).getName());
+        return true;
+      case "rName":
+        out.append(rd.getName());
+        return true;
+      case "operation-summary":
+        out.append(((Operation) object).getName()+" summary");
+        return true;
+      case "extension-type-list":
+        out.append(genExtensionTypeList());
+        return true;
+      case "best-practice-list":
+        out.append(genBestPracticeList());
+        return true;
+      case "wildcard-type-list":
+        out.append(genWildcardTypeList());
+        return true;
+      case "operation": {
         Operation op = (Operation) object;
-        src = s1+genOperation(op, rd.getName(), rd.getName().toLowerCase(), false, rd.getStatus(), genlevel(level), rd.getNormativePackage())+s3;
-      } else if (com[0].equals("past-narrative-link")) {
-       if (object == null || !(object instanceof Boolean))  
-         src = s1 + s3;
-       else
-         src = s1 + "<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>" + s3;
-      } else if (others != null && others.containsKey(s2))
-        src = s1+others.get(s2)+s3;
-      else  if (com[0].equals("canonical-resources")) 
-        src = s1+listCanonicalResources()+s3;
-      else  if (com[0].equals("metadata-resources")) 
-        src = s1+listCanonicalResources()+s3;
-      else if (com[0].equals("special-search-parameters")) { 
-        src = s1+listSpecialParameters()+s3;
-      } else if (com[0].equals("diff-links-all")) { 
-        src = s1+genDiffLinks()+s3;
-      } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
-      } else if (com[0].equals("patterns-analysis")) { 
-        src = s1+patternFinder.generateReport()+s3;
-      } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
-      } else
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
+        out.append(genOperation(op, rd.getName(), rd.getName().toLowerCase(), false, rd.getStatus(), genlevel(level), rd.getNormativePackage()));
+        return true;
+      }
+      case "past-narrative-link":
+        if (object instanceof Boolean)
+          out.append("<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>");
+        return true;
+      case "canonical-resources":
+        out.append(listCanonicalResources());
+        return true;
+      case "metadata-resources":
+        out.append(listCanonicalResources());
+        return true;
+      case "special-search-parameters":
+        out.append(listSpecialParameters());
+        return true;
+      case "diff-links-all":
+        out.append(genDiffLinks());
+        return true;
+      case "res-type-count":
+        out.append(definitions.getResources().size());
+        return true;
+      case "patterns-analysis":
+        out.append(patternFinder.generateReport());
+        return true;
+      default:
+        if (com[0].startsWith("!"))
+          return true;
+        if (com[0].startsWith("GF#")) {
+          out.append("<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>");
+          return true;
+        }
+      }
+      return false;
     }
-    return src;
   }
 
   private String buildPatternList(String name) {
@@ -3592,7 +3953,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   private String generateValueSetUsage(ValueSet vs, String prefix, boolean addTitle) throws Exception {
-    List<String> items = new ArrayList<>();
+    Set<String> items = new LinkedHashSet<>();
     if (vs.hasUrl()) {
       for (CodeSystem cs : getCodeSystems().getList()) {
         if (cs != null) {
@@ -3621,28 +3982,8 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
       }
     }
 
-    for (ResourceDefn r : definitions.getBaseResources().values()) {
-      scanForUsage(items, vs, r.getRoot(), r.getName().toLowerCase()+"-definitions.html", prefix);
-      scanForOperationUsage(items, vs, r, r.getName().toLowerCase()+"-operation-", prefix);
-      scanForProfileUsage(items, vs, r, prefix);
-    }
-    for (ResourceDefn r : definitions.getResources().values()) {
-      scanForUsage(items, vs, r.getRoot(), r.getName().toLowerCase()+"-definitions.html", prefix);
-      scanForOperationUsage(items, vs, r, r.getName().toLowerCase()+"-operation-", prefix);
-      scanForProfileUsage(items, vs, r, prefix);
-    }
-    for (ElementDefn e : definitions.getInfrastructure().values()) {
-        scanForUsage(items, vs, e, definitions.getSrcFile(e.getName())+"-definitions.html", prefix);
-    }
-    for (ElementDefn e : definitions.getTypes().values()) {
-      if (!definitions.dataTypeIsSharedInfo(e.getName())) {
-        scanForUsage(items, vs, e, definitions.getSrcFile(e.getName())+"-definitions.html", prefix);
-      }
-    }
-
-    for (StructureDefinition sd : workerContext.getExtensionDefinitions()) {
-      scanForUsage(items, vs, sd, sd.getUserString("path"), prefix);
-    }
+    for (BindingUsage u : getBindingUsages(vs))
+      addItem(items, u.render(prefix));
 
     for (ValueSet vsi : definitions.getValuesets().getList()) {
       String path = (String) vsi.getUserData("path");
@@ -3671,63 +4012,149 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 //        }
       }
     }
-    if (ini.getPropertyNames(vs.getUrl()) != null) {
-      for (String n : ini.getPropertyNames(vs.getUrl())) {
-        addItem(items, "<li>"+ini.getStringProperty(vs.getUrl(), n)+"</li>\r\n");
+    if (ini.getPropertyNames(vs.getUrl()) != null) {
+      for (String n : ini.getPropertyNames(vs.getUrl())) {
+        addItem(items, "<li>"+ini.getStringProperty(vs.getUrl(), n)+"</li>\r\n");
+      }
+    }
+    if (items.size() == 0)
+      return "<p>\r\nThis value set is not currently used\r\n</p>\r\n";
+    else {
+      StringBuilder b = new StringBuilder();
+      for (String s : items) {
+        b.append(" " +s);
+      }
+      return (addTitle ? "<p>\r\nThis value set is used in the following places:\r\n</p>\r\n" : "")+"<ul>\r\n"+b.toString()+"</ul>\r\n";
+    }
+  }
+
+  private void addItem(Set<String> items, String value) {
+    items.add(value);
+  }
+
+  /**
+   * a place where a value set is bound, in the order they're listed
+   */
+  private abstract class BindingUsage {
+    private int order;
+
+    abstract String render(String prefix) throws Exception;
+  }
+
+  // where each value set is bound, in the definitions (by identity) and in the profiles
+  // and extensions (by the id at the end of the reference). Built the first time it's asked for
+  private Map<ValueSet, List<BindingUsage>> usageByValueSet;
+  private Map<String, List<BindingUsage>> usageById;
+  private int usageCount;
+  private final Object usageLock = new Object();
+
+  private List<BindingUsage> getBindingUsages(ValueSet vs) throws Exception {
+    synchronized (usageLock) {
+      if (usageByValueSet == null)
+        indexBindingUsages();
+    }
+    List<BindingUsage> res = new ArrayList<BindingUsage>();
+    if (usageByValueSet.containsKey(vs))
+      res.addAll(usageByValueSet.get(vs));
+    if (usageById.containsKey(vs.getId()))
+      res.addAll(usageById.get(vs.getId()));
+    Collections.sort(res, new Comparator<BindingUsage>() {
+      @Override
+      public int compare(BindingUsage o1, BindingUsage o2) {
+        return Integer.compare(o1.order, o2.order);
       }
+    });
+    return res;
+  }
+
+  private void indexBindingUsages() throws Exception {
+    Map<ValueSet, List<BindingUsage>> byValueSet = new IdentityHashMap<ValueSet, List<BindingUsage>>();
+    Map<String, List<BindingUsage>> byId = new HashMap<String, List<BindingUsage>>();
+    for (ResourceDefn r : definitions.getBaseResources().values()) {
+      scanForUsage(byValueSet, r.getRoot(), r.getName().toLowerCase()+"-definitions.html");
+      scanForOperationUsage(byValueSet, r, r.getName().toLowerCase()+"-operation-");
+      scanForProfileUsage(byId, r);
     }
-    if (items.size() == 0)
-      return "<p>\r\nThis value set is not currently used\r\n</p>\r\n";
-    else {
-      StringBuilder b = new StringBuilder();
-      for (String s : items) {
-        b.append(" " +s);
+    for (ResourceDefn r : definitions.getResources().values()) {
+      scanForUsage(byValueSet, r.getRoot(), r.getName().toLowerCase()+"-definitions.html");
+      scanForOperationUsage(byValueSet, r, r.getName().toLowerCase()+"-operation-");
+      scanForProfileUsage(byId, r);
+    }
+    for (ElementDefn e : definitions.getInfrastructure().values()) {
+        scanForUsage(byValueSet, e, definitions.getSrcFile(e.getName())+"-definitions.html");
+    }
+    for (ElementDefn e : definitions.getTypes().values()) {
+      if (!definitions.dataTypeIsSharedInfo(e.getName())) {
+        scanForUsage(byValueSet, e, definitions.getSrcFile(e.getName())+"-definitions.html");
       }
-      return (addTitle ? "<p>\r\nThis value set is used in the following places:\r\n</p>\r\n" : "")+"<ul>\r\n"+b.toString()+"</ul>\r\n";
     }
+
+    for (StructureDefinition sd : workerContext.getExtensionDefinitions()) {
+      scanForUsage(byId, sd, sd.getUserString("path"));
+    }
+    usageById = byId;
+    usageByValueSet = byValueSet;
   }
 
-  private void addItem(List<String> items, String value) {
-    if (!items.contains(value))
-      items.add(value);
+  private <K> void addUsage(Map<K, List<BindingUsage>> map, K key, BindingUsage usage) {
+    usage.order = usageCount++;
+    if (!map.containsKey(key))
+      map.put(key, new ArrayList<BindingUsage>());
+    map.get(key).add(usage);
   }
 
-  private void scanForUsage(List<String> items, ValueSet vs, StructureDefinition exd, String path, String prefix) {
-    for (ElementDefinition ed : exd.getSnapshot().getElement()) {
-      if (ed.hasBinding()) {
-        if (isValueSetMatch(ed.getBinding().getValueSet(), vs))
-          addItem(items, "<li>Extension: <a href=\""+prefix+path+"\">"+exd.getUrl()+": "+Utilities.escapeXml(exd.getName())+"</a> ("+ed.typeSummary()+" / "+getBindingTypeDesc(ed.getBinding(), prefix)+")</li>\r\n");
+  private void scanForUsage(Map<String, List<BindingUsage>> byId, final StructureDefinition exd, final String path) {
+    for (final ElementDefinition ed : exd.getSnapshot().getElement()) {
+      if (ed.hasBinding() && isValueSetReference(ed.getBinding().getValueSet())) {
+        addUsage(byId, referencedId(ed.getBinding().getValueSet()), new BindingUsage() {
+          @Override
+          String render(String prefix) {
+            return "<li>Extension: <a href=\""+prefix+path+"\">"+exd.getUrl()+": "+Utilities.escapeXml(exd.getName())+"</a> ("+ed.typeSummary()+" / "+getBindingTypeDesc(ed.getBinding(), prefix)+")</li>\r\n";
+          }
+        });
       }
     }
   }
 
-  private void scanForOperationUsage(List<String> items, ValueSet vs, ResourceDefn r, String page, String prefix) {
-    for (Operation op : r.getOperations()) {
-      for (OperationParameter p : op.getParameters()) {
-        if (p.getBs() != null && p.getBs().getValueSet() == vs) {
-          addItem(items, "<li>Operation: <a href=\""+prefix+page+op.getName()+".html"+"\"> Parameter $"+op.getName()+"."+p.getName()+"</a> ("+p.getFhirType()+" /: "+getBindingTypeDesc(p.getBs(), prefix)+")</li>\r\n");
+  private void scanForOperationUsage(Map<ValueSet, List<BindingUsage>> byValueSet, ResourceDefn r, final String page) {
+    for (final Operation op : r.getOperations()) {
+      for (final OperationParameter p : op.getParameters()) {
+        if (p.getBs() != null && p.getBs().getValueSet() != null) {
+          addUsage(byValueSet, p.getBs().getValueSet(), new BindingUsage() {
+            @Override
+            String render(String prefix) {
+              return "<li>Operation: <a href=\""+prefix+page+op.getName()+".html"+"\"> Parameter $"+op.getName()+"."+p.getName()+"</a> ("+p.getFhirType()+" /: "+getBindingTypeDesc(p.getBs(), prefix)+")</li>\r\n";
+            }
+          });
         }
       }
     }
   }
 
-  private void scanForProfileUsage(List<String> items, ValueSet vs, ResourceDefn r, String prefix) {
+  private void scanForProfileUsage(Map<String, List<BindingUsage>> byId, ResourceDefn r) {
     for (Profile ap : r.getConformancePackages()) {
-      for (ConstraintStructure p : ap.getProfiles()) {
-        for (ElementDefinition ed : p.getResource().getSnapshot().getElement()) {
-          if (ed.hasBinding()) {
-            if (isValueSetMatch(ed.getBinding().getValueSet(), vs))
-              addItem(items, "<li>Profile: <a href=\""+prefix+p.getId()+".html\"> "+p.getTitle()+": "+ed.getPath()+"</a> ("+ed.typeSummary()+" / "+getBindingTypeDesc(ed.getBinding(), prefix)+")</li>\r\n");
+      for (final ConstraintStructure p : ap.getProfiles()) {
+        for (final ElementDefinition ed : p.getResource().getSnapshot().getElement()) {
+          if (ed.hasBinding() && isValueSetReference(ed.getBinding().getValueSet())) {
+            addUsage(byId, referencedId(ed.getBinding().getValueSet()), new BindingUsage() {
+              @Override
+              String render(String prefix) {
+                return "<li>Profile: <a href=\""+prefix+p.getId()+".html\"> "+p.getTitle()+": "+ed.getPath()+"</a> ("+ed.typeSummary()+" / "+getBindingTypeDesc(ed.getBinding(), prefix)+")</li>\r\n";
+              }
+            });
           }
         }
       }
     }
   }
 
-  private boolean isValueSetMatch(String ref, ValueSet vs) {
-    if (ref == null)
-      return false;
-    return ref.endsWith("/"+vs.getId());
+  // a binding to ref matches a value set if ref ends with "/"+ the value set's id
+  private boolean isValueSetReference(String ref) {
+    return ref != null && ref.contains("/");
+  }
+
+  private String referencedId(String ref) {
+    return ref.substring(ref.lastIndexOf("/")+1);
   }
 
   private String getBindingTypeDesc(ElementDefinitionBindingComponent binding, String prefix) {
@@ -3746,21 +4173,31 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
       return "(<a href=\""+prefix+"terminologies.html#"+binding.getStrength().toCode()+"\">"+binding.getStrength().getDisplay()+"</a>)";
   }
 
-  private void scanForUsage(List<String> items, ValueSet vs, ElementDefn e, String ref, String prefix) {
-    scanForUsage(items, vs, e, "", ref, prefix);
+  private void scanForUsage(Map<ValueSet, List<BindingUsage>> byValueSet, ElementDefn e, String ref) {
+    scanForUsage(byValueSet, e, "", ref);
 
   }
 
-  private void scanForUsage(List<String> items, ValueSet vs, ElementDefn e, String path, String ref, String prefix) {
-    path = path.equals("") ? e.getName() : path+"."+e.getName();
-    if (e.hasBinding() && e.getBinding().getValueSet() == vs) {
-      addItem(items, "<li>Resource: <a href=\""+prefix+ref+"#"+path+"\">"+path+"</a> "+getBSTypeDesc(e, e.getBinding(), prefix)+"</li>\r\n");
+  private void scanForUsage(Map<ValueSet, List<BindingUsage>> byValueSet, final ElementDefn e, String path, final String ref) {
+    final String epath = path.equals("") ? e.getName() : path+"."+e.getName();
+    if (e.hasBinding() && e.getBinding().getValueSet() != null) {
+      addUsage(byValueSet, e.getBinding().getValueSet(), new BindingUsage() {
+        @Override
+        String render(String prefix) {
+          return "<li>Resource: <a href=\""+prefix+ref+"#"+epath+"\">"+epath+"</a> "+getBSTypeDesc(e, e.getBinding(), prefix)+"</li>\r\n";
+        }
+      });
     }
-    if (e.hasBinding() && e.getBinding().getMaxValueSet() == vs) {
-      addItem(items, "<li>Max ValueSet: <a href=\""+prefix+ref+"#"+path+"\">"+path+"</a> "+getBSTypeDesc(e, e.getBinding(), prefix)+"</li>\r\n");
+    if (e.hasBinding() && e.getBinding().getMaxValueSet() != null) {
+      addUsage(byValueSet, e.getBinding().getMaxValueSet(), new BindingUsage() {
+        @Override
+        String render(String prefix) {
+          return "<li>Max ValueSet: <a href=\""+prefix+ref+"#"+epath+"\">"+epath+"</a> "+getBSTypeDesc(e, e.getBinding(), prefix)+"</li>\r\n";
+        }
+      });
     }
     for (ElementDefn c : e.getElements()) {
-      scanForUsage(items, vs, c, path, ref, prefix);
+      scanForUsage(byValueSet, c, epath, ref);
     }
   }
 
@@ -4880,208 +5317,317 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   String processPageIncludesForPrinting(String file, String src, Resource resource, ImplementationGuideDefn ig) throws Exception {
-    boolean even = false;
-    List<String> tabs = new ArrayList<String>();
-
-    while (src.contains("<%") || src.contains("[%"))
-	  {
-		  int i1 = src.indexOf("<%");
-		  int i2 = src.indexOf("%>");
-		  if (i1 == -1) {
-			  i1 = src.indexOf("[%");
-			  i2 = src.indexOf("%]");
-		  }
-
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-      String name = file.substring(0,file.indexOf("."));
-
-      String[] com = s2.split(" ");
-      if (com.length == 3 && com[0].equals("edt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2]))+s3;
-      } else if (com.length == 2 && com[0].equals("dt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
-      } else if (com.length == 2 && com[0].equals("adt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
-      } else if (com.length == 2 && com[0].equals("dt.constraints"))
-        src = s1+genConstraints(com[1], "")+s3;
-      else if (com.length == 2 && com[0].equals("dt.restrictions"))
-        src = s1+genRestrictions(com[1])+s3;
-      else if (com.length == 2 && com[0].equals("dictionary"))
-        src = s1+dictForDt(com[1])+s3;
-      else if (Utilities.existsInList(com[0], "pageheader", "dtheader", "atheader", "mdtheader", "edheader", "mmheader", "drheader","elheader", "belheader", "extheader", "resourcesheader", 
-          "formatsheader", "narrheader", "refheader",  "extrasheader", "profilesheader", "txheader", "txheader0", "fmtheader", "igheader", "cmpheader", 
-          "atomheader", "dictheader", "ctheader", "adheader", "pdheader", "tdheader", "cdheader", "diheader", "statheader", "ordistheader", "ucheader", "rrheader"))
-        src = s1+s3;
-      else if (com[0].equals("resheader"))
-        src = s1+resHeader(name, "Document", com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("aresheader"))
-        src = s1+abstractResHeader(name, "Document", com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("codelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file)+s3;
-      else if (com[0].equals("codelist-nh"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file)+s3;
-      else if (com[0].equals("linkcodelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file)+s3;
-      else if (com[0].equals("sct-vs-list"))
-        src = s1+getSnomedCTVsList()+s3;
-      else if (com[0].equals("sct-concept-list"))
-        src = s1+getSnomedCTConceptList()+s3;
-      else if (com[0].equals("codetoc"))
-        src = s1+codetoc(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("res-category")) {
-        src = s1+resCategory(s2.substring(com[0].length()+1))+s3;
-        even = false;
-      } else if (com[0].equals("res-item")) {
-        even = !even;
-        src = s1+resItem(com[1], even)+s3;
-      } else if (com[0].equals("resdesc")) {
-        src = s1+resDesc(com[1])+s3;
-      } else if (com[0].equals("rescat")) {
-        src = s1+resCat(com.length == 1 ? null : s2.substring(7))+s3;
-      } else if (com[0].equals("w5"))
-        src = s1+genW5("true".equals(com[1]))+s3;
-      else if (com[0].equals("vs-warning"))
-        src = s1 + vsWarning((ValueSet) resource) + s3;
-      else if (com[0].equals("res-status-special"))
-        src = s1 + vsSpecialStatus((DomainResource) resource) + s3;
-      else if (com[0].equals("file")) {
-        if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+TextFile.fileToString(folders.templateDir + com[1]+".html")+s3;          
-        } else {
-          src = s1+TextFile.fileToString(folders.srcDir + com[1]+".html")+s3;
-        }
-      } else  if (com[0].equals("conceptmaplistvs")) {
-        throw new Error("Fix this");
-//        BindingSpecification bs = definitions.getBindingByName(Utilities.fileTitle(file));
-//        String ref;
-//        if (bs == null) {
-//          ref = "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file);
-//        } else {
-//          ref = bs.getReference();
-//          if (ref.startsWith("valueset-"))
-//            ref = ref.substring(9);
-//          ref = "http://hl7.org/fhir/ValueSet/"+ref;
-//        }
-//        src = s1 + conceptmaplist(ref, com[1]) + s3;
-      }  else if (com[0].equals("dtmappings"))
-        src = s1 + genDataTypeMappings(com[1]) + s3;
-      else if (com[0].equals("dtusage"))
-        src = s1 + genDataTypeUsage(com[1]) + s3;
-      else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
-      else if (com[0].equals("toc"))
-        src = s1 + generateToc() + s3;
-      else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
-      else if (com[0].equals("newheader"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader.html")+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader1.html")+s3;
-      else if (com[0].equals("footer"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer.html")+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newfooter.html")+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer1.html")+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer2.html")+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer3.html")+s3;
-      else if (com[0].equals("title"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
-      else if (com[0].equals("name"))
-        src = s1+name+s3;
-      else if (com[0].equals("version"))
-        src = s1+ini.getStringProperty("FHIR", "version")+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("maindiv"))
-        src = s1+s3;
-      else if (com[0].equals("/maindiv"))
-        src = s1+s3;
-      else if (com[0].equals("enteredInErrorTable"))
-        src = s1+enteredInErrorTable()+s3;
-      else if (com[0].equals("events"))
-        src = s1 + getEventsTable(file)+ s3;
-      else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
-      else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
-//      else if (com[0].equals("bindingtable-codelists"))
-//        src = s1 + genBindingTable(true) + s3;
-//      else if (com[0].equals("bindingtable"))
-//        src = s1 + genBindingsTable() + s3;
-//      else if (com[0].equals("bindingtable-others"))
-//        src = s1 + genBindingTable(false) + s3;
-      else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
-      else if (com[0].equals("valuesetslist"))
-        src = s1 + genValueSetsTable(ig) + s3;
-      else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
-      else if (com[0].equals("namespacelist"))
-        src = s1 + genNSList() + s3;
-      else if (com[0].equals("resimplall"))
-        src = s1 + genResImplList() + s3;
-      else if (com[0].equals("txurl"))
-        src = s1 + "http://hl7.org/fhir/"+Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("vstxurl"))
-        src = s1 + "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("csurl")) {
-        if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
-        else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
-      } else if (com[0].equals("vsurl")) {
-        if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
-        else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
-      } else if (com[0].equals("txdef"))
-        src = s1 + generateCodeDefinition(Utilities.fileTitle(file)) + s3;
-      else if (com[0].equals("vsxref"))
-        src = s1 + xreferencesForFhir(name) + s3;
-      else if (com[0].equals("vsdef"))
-        if (resource instanceof CodeSystem)
-          src = s1 + Utilities.escapeXml(((CodeSystem) resource).getDescription()) + s3;
-        else
-          src = s1 + Utilities.escapeXml(((ValueSet) resource).getDescription()) + s3;
-      else if (com[0].equals("txusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(0), true) + s3;
-      else if (com[0].equals("vsusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(0), true) + s3;
-      else if (com[0].equals("csusage"))
-        src = s1 + generateCSUsage((CodeSystem) resource, genlevel(0)) + s3;
-      else if (com[0].equals("vssummary"))
-        src = s1 + "todo" + s3;
-      else if (com[0].equals("piperesources"))
-        src = s1+pipeResources()+s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-//      else if (com[0].equals("vsexpansion"))
-//        src = s1 + expandValueSet(Utilities.fileTitle(file), resource == null ? null : (ValueSet) resource) + s3;
-      else if (com[0].equals("vsexpansionig"))
-        src = s1 + expandValueSetIG((ValueSet) resource, true) + s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
-      } else
+    return PageTemplate.parse(src).process(new PageTemplate.CommandProcessor() {
+      private boolean even = false;
+      private List<String> tabs = new ArrayList<String>();
+
+      @Override
+      public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+        String name = file.substring(0,file.indexOf("."));
+
+        switch (com[0]) {
+        case "edt":
+          if (com.length == 3) {
+            if (tabs != null)
+              tabs.add("tabs-"+com[1]);
+            out.append(orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2])));
+            return;
+          }
+          break;
+        case "dt":
+          if (com.length == 2) {
+            if (tabs != null)
+              tabs.add("tabs-"+com[1]);
+            out.append(xmlForDt(com[1], null)+tsForDt(com[1]));
+            return;
+          }
+          break;
+        case "adt":
+          if (com.length == 2) {
+            if (tabs != null)
+              tabs.add("tabs-"+com[1]);
+            out.append(xmlForDt(com[1], null)+tsForDt(com[1]));
+            return;
+          }
+          break;
+        case "dt.constraints":
+          if (com.length == 2) {
+            out.append(genConstraints(com[1], ""));
+            return;
+          }
+          break;
+        case "dt.restrictions":
+          if (com.length == 2) {
+            out.append(genRestrictions(com[1]));
+            return;
+          }
+          break;
+        case "dictionary":
+          if (com.length == 2) {
+            out.append(dictForDt(com[1]));
+            return;
+          }
+          break;
+        case "pageheader":
+        case "dtheader":
+        case "atheader":
+        case "mdtheader":
+        case "edheader":
+        case "mmheader":
+        case "drheader":
+        case "elheader":
+        case "belheader":
+        case "extheader":
+        case "resourcesheader":
+        case "formatsheader":
+        case "narrheader":
+        case "refheader":
+        case "extrasheader":
+        case "profilesheader":
+        case "txheader":
+        case "txheader0":
+        case "fmtheader":
+        case "igheader":
+        case "cmpheader":
+        case "atomheader":
+        case "dictheader":
+        case "ctheader":
+        case "adheader":
+        case "pdheader":
+        case "tdheader":
+        case "cdheader":
+        case "diheader":
+        case "statheader":
+        case "ordistheader":
+        case "ucheader":
+        case "rrheader":
+          return; // nothing to add
+        case "resheader":
+          out.append(resHeader(name, "Document", com.length > 1 ? com[1] : null));
+          return;
+        case "aresheader":
+          out.append(abstractResHeader(name, "Document", com.length > 1 ? com[1] : null));
+          return;
+        case "codelist":
+          out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file));
+          return;
+        case "codelist-nh":
+          out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file));
+          return;
+        case "linkcodelist":
+          out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file));
+          return;
+        case "sct-vs-list":
+          out.append(getSnomedCTVsList());
+          return;
+        case "sct-concept-list":
+          out.append(getSnomedCTConceptList());
+          return;
+        case "codetoc":
+          out.append(codetoc(com.length > 1 ? com[1] : null));
+          return;
+        case "res-category":
+          out.append(resCategory(s2.substring(com[0].length()+1)));
+          even = false;
+          return;
+        case "res-item":
+          even = !even;
+          out.append(resItem(com[1], even));
+          return;
+        case "resdesc":
+          out.append(resDesc(com[1]));
+          return;
+        case "rescat":
+          out.append(resCat(com.length == 1 ? null : s2.substring(7)));
+          return;
+        case "w5":
+          out.append(genW5("true".equals(com[1])));
+          return;
+        case "vs-warning":
+          out.append(vsWarning((ValueSet) resource));
+          return;
+        case "res-status-special":
+          out.append(vsSpecialStatus((DomainResource) resource));
+          return;
+        case "file":
+          if (templates.exists(com[1]+".html")) {
+            out.append(templates.getSource(com[1]+".html"));
+          } else {
+            out.append(TextFile.fileToString(folders.srcDir + com[1]+".html"));
+          }
+          return;
+        case "conceptmaplistvs":
+          throw new Error("Fix this");
+  //        BindingSpecification bs = definitions.getBindingByName(Utilities.fileTitle(file));
+  //        String ref;
+  //        if (bs == null) {
+  //          ref = "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file);
+  //        } else {
+  //          ref = bs.getReference();
+  //          if (ref.startsWith("valueset-"))
+  //            ref = ref.substring(9);
+  //          ref = "http://hl7.org/fhir/ValueSet/"+ref;
+  //        }
+  //        out.append(conceptmaplist(ref, com[1]));
+        case "dtmappings":
+          out.append(genDataTypeMappings(com[1]));
+          return;
+        case "dtusage":
+          out.append(genDataTypeUsage(com[1]));
+          return;
+        case "othertabs":
+          out.append(genOtherTabs(com[1], tabs));
+          return;
+        case "toc":
+          out.append(generateToc());
+          return;
+        }
+        if (com.length != 1)
+          throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
+        switch (com[0]) {
+        case "newheader":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader.html"));
+          return;
+        case "newheader1":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader1.html"));
+          return;
+        case "footer":
+          out.append(TextFile.fileToString(folders.srcDir + "footer.html"));
+          return;
+        case "newfooter":
+          out.append(TextFile.fileToString(folders.srcDir + "newfooter.html"));
+          return;
+        case "footer1":
+          out.append(TextFile.fileToString(folders.srcDir + "footer1.html"));
+          return;
+        case "footer2":
+          out.append(TextFile.fileToString(folders.srcDir + "footer2.html"));
+          return;
+        case "footer3":
+          out.append(TextFile.fileToString(folders.srcDir + "footer3.html"));
+          return;
+        case "title":
+          out.append(Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)));
+          return;
+        case "xtitle":
+          out.append(Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)));
+          return;
+        case "name":
+          out.append(name);
+          return;
+        case "version":
+          out.append(ini.getStringProperty("FHIR", "version"));
+          return;
+        case "gendate":
+          out.append(Config.DATE_FORMAT().format(new Date()));
+          return;
+        case "maindiv":
+          return; // nothing to add
+        case "/maindiv":
+          return; // nothing to add
+        case "enteredInErrorTable":
+          out.append(enteredInErrorTable());
+          return;
+        case "events":
+          out.append(getEventsTable(file));
+          return;
+        case "resourcecodes":
+          out.append(genResCodes());
+          return;
+        case "datatypecodes":
+          out.append(genDTCodes());
+          return;
+//    case "bindingtable-codelists":
+//      out.append(genBindingTable(true));
+//      return;
+//    case "bindingtable":
+//      out.append(genBindingsTable());
+//      return;
+//    case "bindingtable-others":
+//      out.append(genBindingTable(false));
+//      return;
+        case "codeslist":
+          out.append(genCodeSystemsTable());
+          return;
+        case "valuesetslist":
+          out.append(genValueSetsTable(ig));
+          return;
+        case "igvaluesetslist":
+          out.append(genIGValueSetsTable());
+          return;
+        case "namespacelist":
+          out.append(genNSList());
+          return;
+        case "resimplall":
+          out.append(genResImplList());
+          return;
+        case "txurl":
+          out.append("http://hl7.org/fhir/"+Utilities.fileTitle(file));
+          return;
+        case "vstxurl":
+          out.append("http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file));
+          return;
+        case "csurl":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).getUrl());
+          else
+            out.append(((ValueSet) resource).getUrl());
+          return;
+        case "vsurl":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).getUrl());
+          else
+            out.append(((ValueSet) resource).getUrl());
+          return;
+        case "txdef":
+          out.append(generateCodeDefinition(Utilities.fileTitle(file)));
+          return;
+        case "vsxref":
+          out.append(xreferencesForFhir(name));
+          return;
+        case "vsdef":
+          if (resource instanceof CodeSystem)
+            out.append(Utilities.escapeXml(((CodeSystem) resource).getDescription()));
+          else
+            out.append(Utilities.escapeXml(((ValueSet) resource).getDescription()));
+          return;
+        case "txusage":
+          out.append(generateValueSetUsage((ValueSet) resource, genlevel(0), true));
+          return;
+        case "vsusage":
+          out.append(generateValueSetUsage((ValueSet) resource, genlevel(0), true));
+          return;
+        case "csusage":
+          out.append(generateCSUsage((CodeSystem) resource, genlevel(0)));
+          return;
+        case "vssummary":
+          out.append("todo");
+          return;
+        case "piperesources":
+          out.append(pipeResources());
+          return;
+        case "pub-type":
+          out.append(publicationType);
+          return;
+//    case "vsexpansion":
+//      out.append(expandValueSet(Utilities.fileTitle(file), resource == null ? null : (ValueSet) resource));
+//      return;
+        case "vsexpansionig":
+          out.append(expandValueSetIG((ValueSet) resource, true));
+          return;
+        case "pub-notice":
+          out.append(publicationNotice);
+          return;
+        }
+        if (com[0].startsWith("!"))
+          return; // nothing to add
+        if (macros.containsKey(com[0])) {
+          out.append(macros.get(com[0]));
+          return;
+        }
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
-    }
-    return src;
+      }
+    });
   }
 
   private String genOtherTabs(String mode, List<String> tabs) {
@@ -5256,448 +5802,649 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   String processPageIncludesForBook(String file, String src, String type, Resource resource, ImplementationGuideDefn ig, WorkGroup wg) throws Exception {
-    String workingTitle = null;
-    int level = 0;
-    boolean even = false;
-    List<String> tabs = new ArrayList<String>();
-
-    while (src.contains("<%") || src.contains("[%"))
-	  {
-		  int i1 = src.indexOf("<%");
-		  int i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%>")+i1;
-		  if (i1 == -1) {
-			  i1 = src.indexOf("[%");
-			  i2 = i1 == -1 ? -1 : src.substring(i1).indexOf("%]")+i1;
-		  }
-
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-      String name = file.substring(0,file.indexOf("."));
-
-      String[] com = s2.split(" ");
-      if (com.length == 3 && com[0].equals("edt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2]))+s3;
-      } else if (com.length == 3 && com[0].equals("dt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
-      } else if (com.length == 3 && com[0].equals("adt")) {
-        if (tabs != null)
-          tabs.add("tabs-"+com[1]);
-        src = s1+xmlForDt(com[1], null)+tsForDt(com[1])+s3;
-      } else if (com.length == 2 && com[0].equals("dt.constraints"))
-        src = s1+genConstraints(com[1], genlevel(level))+s3;
-      else if (com.length == 2 && com[0].equals("dt.restrictions"))
-        src = s1+genRestrictions(com[1])+s3;
-      else if (com.length == 2 && com[0].equals("dictionary"))
-        src = s1+dictForDt(com[1])+s3;
-      else if (Utilities.existsInList(com[0], "pageheader", "dtheader", "atheader", "mdtheader", "edheader", "mmheader", "drheader","elheader", "belheader", "extheader", "resourcesheader", 
-          "formatsheader", "narrheader", "refheader",  "extrasheader", "profilesheader", "txheader", "txheader0", "fmtheader", "igheader", "cmpheader", 
-          "atomheader", "dictheader", "ctheader", "adheader", "pdheader", "tdheader", "cdheader", "diheader",  "statheader", "ordistheader", "ucheader", "rrheader"))
-        src = s1+s3;
-      else if (com[0].equals("resheader"))
-        src = s1+s3;
-      else if (com[0].equals("aresheader"))
-        src = s1+s3;
-      else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
-      else if (com[0].equals("diff")) {
-        String p = com[1];
-        String pd = p.contains("#") ? p.substring(0, p.indexOf("#")) : p;
-        String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
-      } else if (com[0].equals("diffx")) {
-        String p1 = com[1];
-        String pd = p1.contains("#") ? p1.substring(0, p1.indexOf("#")) : p1;
-        String p2 = com[2];
-        String t = s2.substring(com[0].length()+com[1].length()+2);
-        src = s1+"<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>"+s3;
-      }  else if (com[0].equals("dtmappings"))
-        src = s1 + genDataTypeMappings(com[1]) + s3;
-      else if (com[0].equals("sct-vs-list"))
-        src = s1+getSnomedCTVsList()+s3;
-      else if (com[0].equals("sct-concept-list"))
-        src = s1+getSnomedCTConceptList()+s3;
-      else if (com[0].equals("circular-references")) 
-      src = s1+buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1]))+s3;
-      else if (com[0].equals("dtusage"))
-        src = s1 + genDataTypeUsage(com[1]) + s3;
-      else if (com[0].equals("w5"))
-        src = s1+genW5("true".equals(com[1]))+s3;
-      else if (com[0].equals("codelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file)+s3;
-      else if (com[0].equals("codelist-nh"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file)+s3;
-      else if (com[0].equals("linkcodelist"))
-        src = s1+codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file)+s3;
-      else if (com[0].equals("codetoc"))
-        src = s1+codetoc(com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("vs-warning"))
-        src = s1 + vsWarning((ValueSet) resource) + s3;
-      else if (com[0].equals("res-status-special"))
-        src = s1 + vsSpecialStatus((DomainResource) resource) + s3;
-      else if (com[0].equals("maponthispage"))
-          src = s1+s3;
-      else if (com[0].equals("onthispage"))
-          src = s1+s3;
-      else if (com[0].equals("conceptmaplistvs")) {
-        ValueSet vs = (ValueSet) resource;
-        String ref;
-        if (vs == null) {
-          ref = "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file);
-        } else {
-          ref = vs.getUrl();
+    return PageTemplate.parse(src).process(new PageTemplate.CommandProcessor() {
+      private String workingTitle = null;
+      private int level = 0;
+      private boolean even = false;
+      private List<String> tabs = new ArrayList<String>();
+
+      @Override
+      public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+        String name = file.substring(0,file.indexOf("."));
+
+        switch (com[0]) {
+        case "edt":
+          if (com.length == 3) {
+            if (tabs != null)
+              tabs.add("tabs-"+com[1]);
+            out.append(orgDT(com[1], xmlForDt(com[1], com[2]), treeForDt(com[1]), umlForDt(com[1], com[2]), umlForDt(com[1], com[2]+"b"), profileRef(com[1]), tsForDt(com[1]), jsonForDt(com[1], com[2]), ttlForDt(com[1], com[2]), diffForDt(com[1], com[2])));
+            return;
+          }
+          break;
+        case "dt":
+          if (com.length == 3) {
+            if (tabs != null)
+              tabs.add("tabs-"+com[1]);
+            out.append(xmlForDt(com[1], null)+tsForDt(com[1]));
+            return;
+          }
+          break;
+        case "adt":
+          if (com.length == 3) {
+            if (tabs != null)
+              tabs.add("tabs-"+com[1]);
+            out.append(xmlForDt(com[1], null)+tsForDt(com[1]));
+            return;
+          }
+          break;
+        case "dt.constraints":
+          if (com.length == 2) {
+            out.append(genConstraints(com[1], genlevel(level)));
+            return;
+          }
+          break;
+        case "dt.restrictions":
+          if (com.length == 2) {
+            out.append(genRestrictions(com[1]));
+            return;
+          }
+          break;
+        case "dictionary":
+          if (com.length == 2) {
+            out.append(dictForDt(com[1]));
+            return;
+          }
+          break;
+        case "pageheader":
+        case "dtheader":
+        case "atheader":
+        case "mdtheader":
+        case "edheader":
+        case "mmheader":
+        case "drheader":
+        case "elheader":
+        case "belheader":
+        case "extheader":
+        case "resourcesheader":
+        case "formatsheader":
+        case "narrheader":
+        case "refheader":
+        case "extrasheader":
+        case "profilesheader":
+        case "txheader":
+        case "txheader0":
+        case "fmtheader":
+        case "igheader":
+        case "cmpheader":
+        case "atomheader":
+        case "dictheader":
+        case "ctheader":
+        case "adheader":
+        case "pdheader":
+        case "tdheader":
+        case "cdheader":
+        case "diheader":
+        case "statheader":
+        case "ordistheader":
+        case "ucheader":
+        case "rrheader":
+          return; // nothing to add
+        case "resheader":
+          return; // nothing to add
+        case "aresheader":
+          return; // nothing to add
+        case "othertabs":
+          out.append(genOtherTabs(com[1], tabs));
+          return;
+        case "diff": {
+          String p = com[1];
+          String pd = p.contains("#") ? p.substring(0, p.indexOf("#")) : p;
+          String t = s2.substring(com[0].length()+com[1].length()+2);
+          out.append("<a href=\""+p+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+pd+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
+          return;
         }
-        src = s1 + conceptmaplist(ref, com[1]) + s3;
-      }  else if (com[0].equals("res-category")) {
-        src = s1+resCategory(s2.substring(com[0].length()+1))+s3;
-        even = false;
-      } else if (com[0].equals("res-item")) {
-        even = !even;
-        src = s1+resItem(com[1], even)+s3;
-      } else if (com[0].equals("resdesc")) {
-        src = s1+resDesc(com[1])+s3;
-      } else if (com[0].equals("rescat")) {
-        src = s1+resCat(com.length == 1 ? null : s2.substring(7))+s3;
-      } else if (com[0].equals("sidebar"))
-        src = s1+s3;
-      else if (com[0].equals("svg"))
-        src = s1+svgs.get(com[1])+s3;
-      else if (com[0].equals("diagram"))
-        src = s1+new SvgGenerator(this, genlevel(level), null, false, file.contains("datatypes")).generate(folders.srcDir+ com[1], com[2])+s3;
-      else if (com[0].equals("file"))
-        src = s1+/*TextFile.fileToString(folders.srcDir + com[1]+".html")+*/s3;
-      else if (com[0].equals("settitle")) {
-        workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
-      } else if (com[0].equals("res-ref-list")) {
-        src = s1+genResRefList(com[1])+s3;
-      } else if (com[0].equals("sclist")) {
-        src = s1+genScList(com[1])+s3;
-      } else if (com[0].equals("xcm")) {
-        src = s1+getXcm(com[1])+s3;
-      } else if (com[0].equals("xcmchk")) {
-        src = s1+getXcmChk(com[1])+s3;
-      } else if (com[0].equals("fmm")) {
-        src = s1+getFmm(com[1], false)+s3;
-      } else if (com[0].equals("fmmshort")) {
-        src = s1+getFmmShort(com[1])+s3;
-      } else if (com[0].equals("sstatus")) {
-        src = s1+getStandardsStatus(com[1])+s3;
-      } else if (com[0].equals("wg")) {
-        src = s1+getWgLink(file, wg == null && com.length > 0 ? wg(com[1]) : wg)+s3;
-      } else if (com[0].equals("wgt")) {
-        src = s1+getWgTitle(wg == null && com.length > 0 ? wg(com[1]) : wg)+s3;
-      } else if (com[0].equals("search-link")) {
-        src = s1+searchLink(s2)+s3;
-      } else if (com[0].equals("search-footer")) {
-        src = s1+searchFooter(level)+s3;
-      } else if (com[0].equals("search-header")) {
-          src = s1+searchHeader(level)+s3;
-      } else if (com[0].equals("toc")) {
-        src = s1 + generateToc() + s3;
-      } else if (com[0].equals("igregistries")) {
-          src = s1+igRegistryList(com[1], com[2])+s3;
-      } else if (com[0].equals("ig.registry")) {
-        src = s1+buildIgRegistry(ig, com[1])+s3;
-      } else if (com[0].equals("dtextras")) {
-        src = s1+produceDataTypeExtras(com[1], true)+s3;
-      } else if (com[0].equals("dtextensions")) {
-        src = s1+produceDataTypeExtras(com[1], false)+s3;
-      } else if (com[0].equals("resource-table")) {
-        src = s1+genResourceTable(definitions.getResourceByName(com[1]), genlevel(level))+s3;
-      } else if (com[0].equals("profile-diff")) {
-        ConstraintStructure p = definitions.findProfile(com[1]);
-        src = s1 + generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)) + s3;
-      } else if (com[0].equals("example")) {
-        String[] parts = com[1].split("\\/");
-        Example e = findExample(parts[0], parts[1]);
-        src = s1+genExample(e, com.length > 2 ? Integer.parseInt(com[2]) : 0, genlevel(level))+s3;
-      } else if (com[0].equals("extension-diff")) {
-        StructureDefinition ed = workerContext.fetchResource(StructureDefinition.class, com[1]);
-        src = s1+generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level))+s3;
-      } else if (com[0].equals("setlevel")) {
-        level = Integer.parseInt(com[1]);
-        src = s1+s3;
-      } else if (com[0].equals("r3r4transform")) {
-        src = s1+dtR3R4Transform(com[1])+s3;
-      } else if (com[0].equals("normative-pages")) {
-        src = s1+getNormativeList(genlevel(level), com[1])+s3;
-      } else if (com[0].equals("tx")) {
-        src = s1+produceDataTypeTx(com[1])+s3;
-      } else if (com[0].equals("normative")) {
-        src = s1+s3;
-      } else if (com[0].equals("mostlynormative")) {
-        src = s1+s3;
-      } else if (com[0].equals("mixednormative")) {
-        src = s1+s3;
-      } else if (com[0].equals("pattern-impls")) {
-        src = s1+buildPatternList(com[1])+s3;       
-      } else if (com[0].equals("StandardsStatus")) {
-        src = s1+getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null)+s3;
-      } else if (com[0].equals("diff-analysis")) {
-        if ("*".equals(com[1])) {
-          updateDiffEngineDefinitions();
-          src = s1+diffEngine.getDiffAsHtml(this)+s3;
-        } else {
-          StructureDefinition sd = workerContext.fetchTypeDefinition(com[1]);
-          if (sd == null)
-            throw new Exception("diff-analysis not found: "+com[1]);
-          src = s1+diffEngine.getDiffAsHtml(this, sd)+s3;
+        case "diffx": {
+          String p1 = com[1];
+          String pd = p1.contains("#") ? p1.substring(0, p1.indexOf("#")) : p1;
+          String p2 = com[2];
+          String t = s2.substring(com[0].length()+com[1].length()+2);
+          out.append("<a href=\""+p1+"\">"+t+"</a> <a href=\"http://services.w3.org/htmldiff?doc1=http%3A%2F%2Fhl7.org%2Ffhir%2F2018May%2F"+p2+"&amp;doc2=http%3A%2F%2Fbuild.fhir.org%2F"+pd+"\" no-external=\"true\" style=\"border: 1px solid lightgrey; white-space: nowrap; background-color: #EDFDFE; padding: 2px 2px 2px 2px\">&Delta;B</a>");
+          return;
+        }
+        case "dtmappings":
+          out.append(genDataTypeMappings(com[1]));
+          return;
+        case "sct-vs-list":
+          out.append(getSnomedCTVsList());
+          return;
+        case "sct-concept-list":
+          out.append(getSnomedCTConceptList());
+          return;
+        case "circular-references":
+          out.append(buildCircularReferenceList(com[1].equals("null") ? null : Boolean.valueOf(com[1])));
+          return;
+        case "dtusage":
+          out.append(genDataTypeUsage(com[1]));
+          return;
+        case "w5":
+          out.append(genW5("true".equals(com[1])));
+          return;
+        case "codelist":
+          out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, true, file));
+          return;
+        case "codelist-nh":
+          out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, false, false, file));
+          return;
+        case "linkcodelist":
+          out.append(codelist((CodeSystem) resource, com.length > 1 ? com[1] : null, true, false, file));
+          return;
+        case "codetoc":
+          out.append(codetoc(com.length > 1 ? com[1] : null));
+          return;
+        case "vs-warning":
+          out.append(vsWarning((ValueSet) resource));
+          return;
+        case "res-status-special":
+          out.append(vsSpecialStatus((DomainResource) resource));
+          return;
+        case "maponthispage":
+          return; // nothing to add
+        case "onthispage":
+          return; // nothing to add
+        case "conceptmaplistvs": {
+          ValueSet vs = (ValueSet) resource;
+          String ref;
+          if (vs == null) {
+            ref = "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file);
+          } else {
+            ref = vs.getUrl();
+          }
+          out.append(conceptmaplist(ref, com[1]));
+          return;
+        }
+        case "res-category":
+          out.append(resCategory(s2.substring(com[0].length()+1)));
+          even = false;
+          return;
+        case "res-item":
+          even = !even;
+          out.append(resItem(com[1], even));
+          return;
+        case "resdesc":
+          out.append(resDesc(com[1]));
+          return;
+        case "rescat":
+          out.append(resCat(com.length == 1 ? null : s2.substring(7)));
+          return;
+        case "sidebar":
+          return; // nothing to add
+        case "svg":
+          out.append(svgs.get(com[1]));
+          return;
+        case "diagram":
+          out.append(new SvgGenerator(PageProcessor.this, genlevel(level), null, false, file.contains("datatypes")).generate(folders.srcDir+ com[1], com[2]));
+          return;
+        case "file":
+          return; // nothing to add
+        case "settitle":
+          workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
+          return;
+        case "res-ref-list":
+          out.append(genResRefList(com[1]));
+          return;
+        case "sclist":
+          out.append(genScList(com[1]));
+          return;
+        case "xcm":
+          out.append(getXcm(com[1]));
+          return;
+        case "xcmchk":
+          out.append(getXcmChk(com[1]));
+          return;
+        case "fmm":
+          out.append(getFmm(com[1], false));
+          return;
+        case "fmmshort":
+          out.append(getFmmShort(com[1]));
+          return;
+        case "sstatus":
+          out.append(getStandardsStatus(com[1]));
+          return;
+        case "wg":
+          out.append(getWgLink(file, wg == null && com.length > 0 ? wg(com[1]) : wg));
+          return;
+        case "wgt":
+          out.append(getWgTitle(wg == null && com.length > 0 ? wg(com[1]) : wg));
+          return;
+        case "search-link":
+          out.append(searchLink(s2));
+          return;
+        case "search-footer":
+          out.append(searchFooter(level));
+          return;
+        case "search-header":
+            out.append(searchHeader(level));
+          return;
+        case "toc":
+          out.append(generateToc());
+          return;
+        case "igregistries":
+            out.append(igRegistryList(com[1], com[2]));
+          return;
+        case "ig.registry":
+          out.append(buildIgRegistry(ig, com[1]));
+          return;
+        case "dtextras":
+          out.append(produceDataTypeExtras(com[1], true));
+          return;
+        case "dtextensions":
+          out.append(produceDataTypeExtras(com[1], false));
+          return;
+        case "resource-table":
+          out.append(genResourceTable(definitions.getResourceByName(com[1]), genlevel(level)));
+          return;
+        case "profile-diff": {
+          ConstraintStructure p = definitions.findProfile(com[1]);
+          out.append(generateProfileStructureTable(p, true, com[1]+".html", com[1], genlevel(level)));
+          return;
+        }
+        case "example": {
+          String[] parts = com[1].split("\\/");
+          Example e = findExample(parts[0], parts[1]);
+          out.append(genExample(e, com.length > 2 ? Integer.parseInt(com[2]) : 0, genlevel(level)));
+          return;
+        }
+        case "extension-diff": {
+          StructureDefinition ed = workerContext.fetchResource(StructureDefinition.class, com[1]);
+          out.append(generateExtensionTable(ed, "extension-"+com[1], "false", genlevel(level)));
+          return;
+        }
+        case "setlevel":
+          level = Integer.parseInt(com[1]);
+          return;
+        case "r3r4transform":
+          out.append(dtR3R4Transform(com[1]));
+          return;
+        case "normative-pages":
+          out.append(getNormativeList(genlevel(level), com[1]));
+          return;
+        case "tx":
+          out.append(produceDataTypeTx(com[1]));
+          return;
+        case "normative":
+          return;
+        case "mostlynormative":
+          return;
+        case "mixednormative":
+          return;
+        case "pattern-impls":
+          out.append(buildPatternList(com[1]));
+          return;
+        case "StandardsStatus":
+          out.append(getStandardsStatusNote(genlevel(level), com[1], com[2], com.length == 4 ? com[3] : null));
+          return;
+        case "diff-analysis":
+          if ("*".equals(com[1])) {
+            updateDiffEngineDefinitions();
+            out.append(diffEngine.getDiffAsHtml(PageProcessor.this));
+          } else {
+            StructureDefinition sd = workerContext.fetchTypeDefinition(com[1]);
+            if (sd == null)
+              throw new Exception("diff-analysis not found: "+com[1]);
+            out.append(diffEngine.getDiffAsHtml(PageProcessor.this, sd));
+          }
+          return;
+        }
+        if (com.length != 1)
+          throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
+        switch (com[0]) {
+        case "header":
+          return; // nothing to add
+        case "newheader":
+          return; // nothing to add
+        case "newheader1":
+          return; // nothing to add
+        case "footer":
+          return; // nothing to add
+        case "newfooter":
+          return; // nothing to add
+        case "footer1":
+          return; // nothing to add
+        case "footer2":
+          return; // nothing to add
+        case "footer3":
+          return; // nothing to add
+        case "title":
+          out.append(workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle);
+          return;
+        case "xtitle":
+          out.append(Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)));
+          return;
+        case "name":
+          out.append(name);
+          return;
+        case "version":
+          out.append(ini.getStringProperty("FHIR", "version"));
+          return;
+        case "gendate":
+          out.append(Config.DATE_FORMAT().format(new Date()));
+          return;
+        case "maindiv":
+          return; // nothing to add
+        case "/maindiv":
+          return; // nothing to add
+        case "events":
+          out.append(getEventsTable(file));
+          return;
+        case "resourcecodes":
+          out.append(genResCodes());
+          return;
+        case "enteredInErrorTable":
+          out.append(enteredInErrorTable());
+          return;
+        case "datatypecodes":
+          out.append(genDTCodes());
+          return;
+//    case "bindingtable-codelists":
+//      out.append(genBindingTable(true));
+//      return;
+        case "codeslist":
+          out.append(genCodeSystemsTable());
+          return;
+        case "valuesetslist":
+          out.append(genValueSetsTable(ig));
+          return;
+        case "igvaluesetslist":
+          out.append(genIGValueSetsTable());
+          return;
+        case "namespacelist":
+          return; // nothing to add
+        case "conceptmapslist":
+          out.append(genConceptMapsTable());
+          return;
+//    case "bindingtable":
+//      out.append(genBindingsTable());
+//      return;
+//    case "bindingtable-others":
+//      out.append(genBindingTable(false));
+//      return;
+        case "vsxref":
+          out.append(xreferencesForFhir(name));
+          return;
+        case "resimplall":
+          out.append(genResImplList());
+          return;
+        case "txurl":
+          out.append("http://hl7.org/fhir/"+Utilities.fileTitle(file));
+          return;
+        case "vstxurl":
+          out.append("http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file));
+          return;
+        case "csurl":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).getUrl());
+          else
+            out.append(((ValueSet) resource).getUrl());
+          return;
+        case "vsurl":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).getUrl());
+          else if (resource != null)
+            out.append(((ValueSet) resource).getUrl());
+          return;
+        case "txdef":
+          out.append(generateCodeDefinition(Utilities.fileTitle(file)));
+          return;
+        case "vsexpansion":
+          out.append(expandValueSet(Utilities.fileTitle(file), resource == null ? null : (ValueSet) resource, genlevel(level)));
+          return;
+        case "vsexpansionig":
+          out.append(expandValueSetIG((ValueSet) resource, true));
+          return;
+        case "vsdef":
+          if (resource instanceof CodeSystem)
+            out.append(Utilities.escapeXml(((CodeSystem) resource).getDescription()));
+          else
+            out.append(Utilities.escapeXml(((ValueSet) resource).getDescription()));
+          return;
+        case "txoid":
+          out.append(generateOID((CodeSystem) resource));
+          return;
+        case "vsoid":
+          out.append(generateOID((ValueSet) resource));
+          return;
+        case "txname":
+          out.append(Utilities.fileTitle(file));
+          return;
+        case "vsname":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).present());
+          else
+            out.append(((ValueSet) resource).present());
+          return;
+        case "vsnamed":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).getName());
+          else
+            out.append(((ValueSet) resource).getName());
+          return;
+        case "vstitle":
+          if (resource instanceof CodeSystem)
+            out.append(checkTitle(((CodeSystem) resource).getTitle()));
+          else
+            out.append(checkTitle(((ValueSet) resource).getTitle()));
+          return;
+        case "vsver":
+          if (resource instanceof CodeSystem)
+            out.append(((CodeSystem) resource).getVersion());
+          else
+            out.append(((ValueSet) resource).getVersion());
+          return;
+        case "vsref":
+          out.append(Utilities.fileTitle((String) resource.getUserData("filename")));
+          return;
+        case "vsdesc":
+          out.append(resource != null ? Utilities.escapeXml(((ValueSet) resource).getDescription()) :  generateVSDesc(Utilities.fileTitle(file)));
+          return;
+        case "txusage":
+          out.append(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
+          return;
+        case "vsusage":
+          out.append(generateValueSetUsage((ValueSet) resource, genlevel(level), true));
+          return;
+        case "csusage":
+          out.append(generateCSUsage((CodeSystem) resource, genlevel(level)));
+          return;
+        case "mappings-table":
+          out.append(genMappingsTable());
+          return;
+        case "vssummary":
+          out.append("todo");
+          return;
+        case "compartmentlist":
+          out.append(compartmentlist());
+          return;
+        case "comp-title":
+          out.append(compTitle(name));
+          return;
+        case "comp-desc":
+          out.append(compDesc(name));
+          return;
+        case "comp-uri":
+          out.append(compUri(name));
+          return;
+        case "comp-identity":
+          out.append(compIdentity(name));
+          return;
+        case "comp-membership":
+          out.append(compMembership(name));
+          return;
+        case "comp-resources":
+          out.append(compResourceMap(name));
+          return;
+        case "breadcrumb":
+          out.append(breadCrumbManager.make(name));
+          return;
+        case "navlist":
+          out.append(breadCrumbManager.navlist(name, genlevel(level)));
+          return;
+        case "breadcrumblist": {
+          String crumbTitle = (workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle);
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle));
+          return;
+        }
+        case "year":
+          out.append(new SimpleDateFormat("yyyy").format(new Date()));
+          return;
+        case "buildId":
+          out.append(buildId);
+          return;
+        case "level":
+          out.append(genlevel(level));
+          return;
+        case "piperesources":
+          out.append(pipeResources());
+          return;
+        case "archive":
+          out.append(makeArchives());
+          return;
+        case "pub-type":
+          out.append(publicationType);
+          return;
+        case "pub-notice":
+          out.append(publicationNotice);
+          return;
+        case "profilelist":
+          out.append(genProfilelist());
+          return;
+        case "extensionslist":
+          out.append(genExtensionsTable());
+          return;
+        case "igprofileslist":
+          out.append(genIGProfilelist());
+          return;
+        case "operationslist":
+          out.append(genOperationList());
+          return;
+        case "id_regex":
+          out.append(FormatUtilities.ID_REGEX);
+          return;
+        case "allparams":
+          out.append(allParamlist());
+          return;
+        case "resourcecount":
+          out.append(Integer.toString(definitions.getResources().size()));
+          return;
+        case "status-codes":
+          out.append(genStatusCodes());
+          return;
+        case "dictionary.name":
+          out.append(definitions.getDictionaries().get(name));
+          return;
+        case "identifierlist":
+          out.append(genIdentifierList());
+          return;
+        case "allsearchparams":
+          out.append(genAllSearchParams());
+          return;
+        case "internalsystemlist":
+          out.append(genCSList());
+          return;
+        case "internalsystemlistx":
+          out.append(genCSListX());
+          return;
+        case "baseURLn":
+          out.append(Utilities.appendForwardSlash(baseURL));
+          return;
+        case "ig.title":
+          out.append(ig.getName());
+          return;
+        case "ig.wglink":
+          out.append(igLink(ig));
+          return;
+        case "ig.wgt":
+          out.append(ig.getCommittee());
+          return;
+        case "ig.fmm":
+          out.append(ig.getFmm());
+          return;
+        case "comp-name":
+          out.append(compName(name));
+          return;
+        case "ig.ballot":
+          out.append(ig.getBallot());
+          return;
+        case "fhir-path":
+          out.append("../");
+          return;
+        case "modifier-list":
+          out.append(genModifierList());
+          return;
+        case "missing-element-list":
+          out.append(genMeaningWhenMissingList());
+          return;
+        case "wgreport":
+          out.append(genWGReport());
+          return;
+        case "r3maps-summary":
+          out.append(genR3MapsSummary());
+          return;
+        case "res-list-maturity":
+          out.append(buildResListByMaturity());
+          return;
+        case "res-list-security":
+          out.append(buildResListBySecurity());
+          return;
+        case "res-list-fmg":
+          out.append(buildResListByFMG());
+          return;
+        case "res-list-ballot":
+          out.append(buildResListByBallot());
+          return;
+        case "res-list-committee":
+          out.append(buildResListByCommittee());
+          return;
+        case "wglist":
+          out.append(buildCommitteeList());
+          return;
+        case "best-practice-list":
+          out.append(genBestPracticeList());
+          return;
+        case "extension-type-list":
+          out.append(genExtensionTypeList());
+          return;
+        case "wildcard-type-list":
+          out.append(genWildcardTypeList());
+          return;
+        case "canonical-resources":
+          out.append(listCanonicalResources());
+          return;
+        case "special-search-parameters":
+          out.append(listSpecialParameters());
+          return;
+        case "patterns-analysis":
+          out.append(patternFinder.generateReport());
+          return;
+        case "res-type-count":
+          out.append(definitions.getResources().size());
+          return;
+        }
+//    case "dictionary.view":
+//      out.append(ResourceUtilities.representDataElementCollection(PageProcessor.this.workerContext, (Bundle) resource, true, "hspc-QuantitativeLab-dataelements"));
+//      return;
+        if (com[0].startsWith("!"))
+          return; // nothing to add
+        if (com[0].startsWith("GF#")) {
+          out.append("<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>");
+          return;
+        }
+        if (macros.containsKey(com[0])) {
+          out.append(macros.get(com[0]));
+          return;
         }
-      } else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
-      else if (com[0].equals("header"))
-        src = s1+s3;
-      else if (com[0].equals("newheader"))
-        src = s1+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+s3;
-      else if (com[0].equals("footer"))
-        src = s1+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+s3;
-      else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle)+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1))+s3;
-      else if (com[0].equals("name"))
-        src = s1+name+s3;
-      else if (com[0].equals("version"))
-        src = s1+ini.getStringProperty("FHIR", "version")+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("maindiv"))
-        src = s1+s3;
-      else if (com[0].equals("/maindiv"))
-        src = s1+s3;
-      else if (com[0].equals("events"))
-        src = s1 + getEventsTable(file)+ s3;
-      else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
-      else if (com[0].equals("enteredInErrorTable"))
-        src = s1+enteredInErrorTable()+s3;
-      else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
-//      else if (com[0].equals("bindingtable-codelists"))
-//        src = s1 + genBindingTable(true) + s3;
-      else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
-      else if (com[0].equals("valuesetslist"))
-        src = s1 + genValueSetsTable(ig) + s3;
-      else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
-      else if (com[0].equals("namespacelist"))
-        src = s1 + s3;
-      else if (com[0].equals("conceptmapslist"))
-        src = s1 + genConceptMapsTable() + s3;
-//      else if (com[0].equals("bindingtable"))
-//        src = s1 + genBindingsTable() + s3;
-//      else if (com[0].equals("bindingtable-others"))
-//        src = s1 + genBindingTable(false) + s3;
-      else if (com[0].equals("vsxref"))
-        src = s1 + xreferencesForFhir(name) + s3;
-      else if (com[0].equals("resimplall"))
-        src = s1 + genResImplList() + s3;
-      else if (com[0].equals("txurl"))
-        src = s1 + "http://hl7.org/fhir/"+Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("vstxurl"))
-        src = s1 + "http://hl7.org/fhir/ValueSet/"+Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("csurl")) {
-        if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
-        else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
-      } else if (com[0].equals("vsurl")) {
-        if (resource == null) 
-          src = s1 + s3;
-        else if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getUrl() + s3;
-        else
-          src = s1 + ((ValueSet) resource).getUrl() + s3;
-      } else if (com[0].equals("txdef"))
-        src = s1 + generateCodeDefinition(Utilities.fileTitle(file)) + s3;
-      else if (com[0].equals("vsexpansion"))
-        src = s1 + expandValueSet(Utilities.fileTitle(file), resource == null ? null : (ValueSet) resource, genlevel(level)) + s3;
-      else if (com[0].equals("vsexpansionig"))
-        src = s1 + expandValueSetIG((ValueSet) resource, true) + s3;
-      else if (com[0].equals("vsdef"))
-        if (resource instanceof CodeSystem)
-          src = s1 + Utilities.escapeXml(((CodeSystem) resource).getDescription()) + s3;
-        else
-          src = s1 + Utilities.escapeXml(((ValueSet) resource).getDescription()) + s3;
-      else if (com[0].equals("txoid"))
-        src = s1 + generateOID((CodeSystem) resource) + s3;
-      else if (com[0].equals("vsoid"))
-        src = s1 + generateOID((ValueSet) resource) + s3;
-      else if (com[0].equals("txname"))
-        src = s1 + Utilities.fileTitle(file) + s3;
-      else if (com[0].equals("vsname"))
-        if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).present() + s3;
-        else
-          src = s1 + ((ValueSet) resource).present() + s3;
-      else if (com[0].equals("vsnamed"))
-        if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getName() + s3;
-        else
-          src = s1 + ((ValueSet) resource).getName() + s3;
-      else if (com[0].equals("vstitle"))
-        if (resource instanceof CodeSystem)
-          src = s1 + checkTitle(((CodeSystem) resource).getTitle()) + s3;
-        else
-          src = s1 + checkTitle(((ValueSet) resource).getTitle()) + s3;
-      else if (com[0].equals("vsver"))
-        if (resource instanceof CodeSystem)
-          src = s1 + ((CodeSystem) resource).getVersion() + s3;
-        else
-          src = s1 + ((ValueSet) resource).getVersion() + s3;
-      else if (com[0].equals("vsref")) {
-        src = s1 + Utilities.fileTitle((String) resource.getUserData("filename")) + s3;
-      } else if (com[0].equals("vsdesc"))
-        src = s1 + (resource != null ? Utilities.escapeXml(((ValueSet) resource).getDescription()) :  generateVSDesc(Utilities.fileTitle(file))) + s3;
-      else if (com[0].equals("txusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
-      else if (com[0].equals("vsusage"))
-        src = s1 + generateValueSetUsage((ValueSet) resource, genlevel(level), true) + s3;
-      else if (com[0].equals("csusage"))
-        src = s1 + generateCSUsage((CodeSystem) resource, genlevel(level)) + s3;
-      else if (com[0].equals("mappings-table"))
-        src = s1+genMappingsTable()+s3;
-      else if (com[0].equals("vssummary"))
-        src = s1 + "todo" + s3;
-      else if (com[0].equals("compartmentlist"))
-        src = s1 + compartmentlist() + s3;
-      else if (com[0].equals("comp-title"))
-        src = s1 + compTitle(name) + s3;
-      else if (com[0].equals("comp-desc"))
-        src = s1 + compDesc(name) + s3;
-      else if (com[0].equals("comp-uri"))
-        src = s1 + compUri(name) + s3;
-      else if (com[0].equals("comp-identity"))
-        src = s1 + compIdentity(name) + s3;
-      else if (com[0].equals("comp-membership"))
-        src = s1 + compMembership(name) + s3;
-      else if (com[0].equals("comp-resources"))
-        src = s1 + compResourceMap(name) + s3;
-      else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(name) + s3;
-      else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(name, genlevel(level)) + s3;
-      else if (com[0].equals("breadcrumblist")) {
-        String crumbTitle = (workingTitle == null ? Utilities.escapeXml(name.toUpperCase().substring(0, 1)+name.substring(1)) : workingTitle);
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), crumbTitle) : ig.makeList(name, type, genlevel(level), crumbTitle)) + s3;
-      }else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
-      else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
-      else if (com[0].equals("piperesources"))
-        src = s1+pipeResources()+s3;
-      else if (com[0].equals("archive"))
-        src = s1 + makeArchives() + s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].equals("profilelist"))
-        src = s1 + genProfilelist() + s3;
-      else if (com[0].equals("extensionslist"))
-        src = s1 + genExtensionsTable() + s3;
-      else if (com[0].equals("igprofileslist"))
-        src = s1 + genIGProfilelist() + s3;
-      else if (com[0].equals("operationslist"))
-        src = s1 + genOperationList() + s3;
-      else if (com[0].equals("id_regex"))
-        src = s1 + FormatUtilities.ID_REGEX + s3;
-      else if (com[0].equals("allparams"))
-        src = s1 + allParamlist() + s3;
-      else if (com[0].equals("resourcecount"))
-        src = s1 + Integer.toString(definitions.getResources().size()) + s3;
-      else if (com[0].equals("status-codes"))
-        src = s1 + genStatusCodes() + s3;
-      else if (com[0].equals("dictionary.name"))
-        src = s1 + definitions.getDictionaries().get(name) + s3;
-//      else if (com[0].equals("dictionary.view"))
-//        src = s1 + ResourceUtilities.representDataElementCollection(this.workerContext, (Bundle) resource, true, "hspc-QuantitativeLab-dataelements") + s3;
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (com[0].equals("identifierlist"))
-        src = s1 + genIdentifierList()+s3;
-      else if (com[0].equals("allsearchparams"))
-        src = s1 + genAllSearchParams()+s3;
-      else if (com[0].equals("internalsystemlist"))
-        src = s1 + genCSList()+s3;
-      else if (com[0].equals("internalsystemlistx"))
-        src = s1 + genCSListX()+s3;
-      else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(baseURL)+s3;
-      else if (com[0].equals("ig.title"))
-        src = s1+ig.getName()+s3;
-      else if (com[0].equals("ig.wglink"))
-        src = s1+igLink(ig)+s3;
-      else if (com[0].equals("ig.wgt"))
-        src = s1+ig.getCommittee()+s3;
-      else if (com[0].equals("ig.fmm"))
-        src = s1+ig.getFmm()+s3;
-      else if (com[0].equals("comp-name"))
-        src = s1 + compName(name) + s3;
-      else if (com[0].equals("ig.ballot"))
-        src = s1+ig.getBallot()+s3;
-      else if (com[0].equals("fhir-path"))
-        src = s1 + "../" + s3;
-      else if (com[0].equals("modifier-list"))
-        src = s1 + genModifierList() + s3;
-      else if (com[0].equals("missing-element-list"))
-        src = s1 + genMeaningWhenMissingList() + s3;
-      else if (com[0].equals("wgreport"))
-        src = s1 + genWGReport() + s3;
-      else if (com[0].equals("r3maps-summary"))
-        src = s1 + genR3MapsSummary() + s3;
-      else if (com[0].equals("res-list-maturity"))
-        src = s1+buildResListByMaturity()+s3;
-      else if (com[0].equals("res-list-security"))
-        src = s1+buildResListBySecurity()+s3;
-      else if (com[0].equals("res-list-fmg"))
-        src = s1+buildResListByFMG()+s3;
-      else if (com[0].equals("res-list-ballot"))
-        src = s1+buildResListByBallot()+s3;
-      else if (com[0].equals("res-list-committee"))
-        src = s1+buildResListByCommittee()+s3;
-      else if (com[0].equals("wglist"))
-        src = s1+buildCommitteeList()+s3;
-      else if (com[0].equals("best-practice-list"))
-        src = s1+genBestPracticeList()+s3;
-      else if (com[0].equals("extension-type-list"))
-        src = s1+genExtensionTypeList()+s3;
-      else if (com[0].equals("wildcard-type-list"))
-        src = s1+genWildcardTypeList()+s3;
-      else if (com[0].startsWith("GF#"))
-        src = s1+"<a href=\"https://gforge.hl7.org/gf/project/fhir/tracker/?action=TrackerItemEdit&amp;tracker_item_id="+com[0].substring(3)+"\">"+com[0]+"</a>"+s3;      
-      else  if (com[0].equals("canonical-resources")) 
-        src = s1+listCanonicalResources()+s3;      
-      else if (com[0].equals("special-search-parameters")) { 
-        src = s1+listSpecialParameters()+s3;
-      } else if (com[0].equals("patterns-analysis")) { 
-        src = s1+patternFinder.generateReport()+s3;
-      } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
-      } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
-      } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing page "+file);
-    }
-    return src;
+      }
+    });
   }
 
 
@@ -6006,256 +6753,337 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   String processResourceIncludes(String name, ResourceDefn resource, String xml, String json, String ttl, String tx, String dict, String src, String mappings, String mappingsList, String type, String pagePath, ImplementationGuideDefn ig, Map<String, String> otherValues, WorkGroup wg, Map<String, String> examples) throws Exception {
-    String workingTitle = Utilities.escapeXml(resource.getName());
-    List<String> tabs = new ArrayList<String>();
-    int level = (ig == null || ig.isCore()) ? 0 : 1;
-
-    while (src.contains("<%") || src.contains("[%"))
-    {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-
-      String[] com = s2.split(" ");
-      String searchAdditions = "";
-      if (com[0].equals("resheader"))
-        src = s1+resHeader(name, resource.getName(), com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("aresheader"))
-        src = s1+abstractResHeader(name, resource.getName(), com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("lmheader"))
-        src = s1+lmHeader(name, resource.getName(), com.length > 1 ? com[1] : null, false)+s3;
-      else if (com[0].equals("file")) {
-        if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+TextFile.fileToString(folders.templateDir + com[1]+".html")+s3;          
-        } else {
-          src = s1+TextFile.fileToString(folders.srcDir + com[1]+".html")+s3;
+    return PageTemplate.parse(src).process(new PageTemplate.CommandProcessor() {
+      private String workingTitle = Utilities.escapeXml(resource.getName());
+      private List<String> tabs = new ArrayList<String>();
+      private int level = (ig == null || ig.isCore()) ? 0 : 1;
+
+      @Override
+      public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+        String searchAdditions = "";
+        switch (com[0]) {
+        case "resheader":
+          out.append(resHeader(name, resource.getName(), com.length > 1 ? com[1] : null));
+          return;
+        case "aresheader":
+          out.append(abstractResHeader(name, resource.getName(), com.length > 1 ? com[1] : null));
+          return;
+        case "lmheader":
+          out.append(lmHeader(name, resource.getName(), com.length > 1 ? com[1] : null, false));
+          return;
+        case "file":
+          if (templates.exists(com[1]+".html")) {
+            out.append(templates.getSource(com[1]+".html"));
+          } else {
+            out.append(TextFile.fileToString(folders.srcDir + com[1]+".html"));
+          }
+          return;
+        case "settitle":
+          workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
+          return;
+        case "complinks":
+          out.append(getCompLinks(resource, com.length > 1 ? com[1] : null));
+          return;
+        case "othertabs":
+          out.append(genOtherTabs(com[1], tabs));
+          return;
+        case "svg":
+          out.append(new SvgGenerator(PageProcessor.this, genlevel(level), resource.getLayout(), true, false).generate(resource, com[1]));
+          return;
+        case "normative": {
+          String np = null;
+          if (com[2].equals("%check") || com[2].equals("%check-op")) {
+            StandardsStatus st = resource.getStatus();
+            boolean mixed = false;
+            if (com[2].equals("%check-op") && st == StandardsStatus.NORMATIVE) {
+              for (Operation op : resource.getOperations()) {
+                if (op.getStandardsStatus() != null)
+                  mixed = true;
+              }
+            }
+            if (st != null && (resource.getNormativePackage() != null || resource.getNormativeVersion() != null)) {
+              if (mixed)
+                np = getMixedNormativeNote(genlevel(level), resource.getNormativePackage(), com[1], workingTitle, name+".html");
+              else
+                np = getNormativeNote(genlevel(level), resource.getNormativePackage(), com[1], workingTitle, name+".html");
+            }
+          } else
+            np = getNormativeNote(genlevel(level), resource.getNormativePackage(), com[1], workingTitle, name+".html");
+          if (np != null)
+            out.append(np);
+          return;
         }
-      } else if (com[0].equals("settitle")) {
-        workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
-      }
-      else if (com[0].equals("complinks"))
-        src = s1+getCompLinks(resource, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("othertabs"))
-        src = s1 + genOtherTabs(com[1], tabs) + s3;
-      else if (com[0].equals("svg"))
-        src = s1+new SvgGenerator(this, genlevel(level), resource.getLayout(), true, false).generate(resource, com[1])+s3;
-      else if (com[0].equals("normative")) {
-        String np = null;
-        if (com[2].equals("%check") || com[2].equals("%check-op")) {
-          StandardsStatus st = resource.getStatus();
+        }
+        if (com.length != 1)
+          throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+name);
+        switch (com[0]) {
+        case "pageheader":
+          out.append(pageHeader(resource.getName()));
+          return;
+        case "maponthispage":
+          out.append(mapOnThisPage(mappingsList));
+          return;
+        case "newheader":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader.html"));
+          return;
+        case "newheader1":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader1.html"));
+          return;
+        case "footer":
+          out.append(TextFile.fileToString(folders.srcDir + "footer.html"));
+          return;
+        case "newfooter":
+          out.append(TextFile.fileToString(folders.srcDir + "newfooter.html"));
+          return;
+        case "footer1":
+          out.append(TextFile.fileToString(folders.srcDir + "footer1.html"));
+          return;
+        case "footer2":
+          out.append(TextFile.fileToString(folders.srcDir + "footer2.html"));
+          return;
+        case "footer3":
+          out.append(TextFile.fileToString(folders.srcDir + "footer3.html"));
+          return;
+        case "title":
+          out.append(workingTitle);
+          return;
+        case "xtitle":
+          out.append(Utilities.escapeXml(resource.getName()));
+          return;
+        case "status":
+          out.append(resource.getStatus());
+          return;
+        case "draft-note":
+          out.append(getDraftNote(resource));
+          return;
+        case "introduction":
+          out.append(loadXmlNotes(name, "introduction", true, resource.getRoot().getDefinition(), resource, tabs, null, wg));
+          return;
+        case "notes":
+          out.append(loadXmlNotes(name, "notes", false, null, resource, tabs, null, wg));
+          return;
+        case "examples":
+          out.append(produceExamples(resource));
+          return;
+        case "profilelist":
+          out.append(produceProfiles(resource));
+          return;
+        case "extensionlist":
+          out.append(produceExtensions(resource));
+          return;
+        case "extensionreflist":
+          out.append(produceRefExtensions(resource));
+          return;
+        case "searchextensionlist":
+          out.append(produceSearchExtensions(resource));
+          return;
+        case "wg":
+          out.append(resource.getWg() == null ?  "null" : resource.getWg().getUrl());
+          return;
+        case "wgt":
+          out.append(resource.getWg() == null ?  "null" : resource.getWg().getName());
+          return;
+        case "fmm":
+          if (resource.getNormativeVersion() != null)
+            out.append("<a href=\"versions.html#maturity\">Maturity Level</a>: <a href=\"versions.html#std-process\">N</a>");
+          else
+            out.append("<a href=\"versions.html#maturity\">Maturity Level</a>: "+resource.getFmmLevel());
+          return;
+        case "sec-cat":
+          out.append(resource.getSecurityCategorization() == null ? "" : "<a href=\"security.html#SecPrivConsiderations\">Security Category</a>: "+resource.getSecurityCategorization().toDisplay());
+          return;
+        case "sstatus":
+          out.append(getStandardsStatus(resource.getName()));
+          return;
+        case "example-list":
+          out.append(produceExampleList(resource));
+          return;
+        case "name":
+          out.append(name);
+          return;
+        case "cname":
+          out.append(resource.getName());
+          return;
+        case "search-additions":
+          searchAdditions = s2.substring(16).trim();
+          return;
+        case "search":
+          out.append(getSearch(resource, searchAdditions ));
+          return;
+        case "asearch":
+          out.append(getAbstractSearch(resource, searchAdditions));
+          return;
+        case "version":
+          out.append(ini.getStringProperty("FHIR", "version"));
+          return;
+        case "gendate":
+          out.append(Config.DATE_FORMAT().format(new Date()));
+          return;
+        case "definition":
+          out.append(processMarkdown("resource.definition", resource.getRoot().getDefinition(), "", true));
+          return;
+        case "xml":
+          out.append(xml);
+          return;
+        case "json":
+          out.append(json);
+          return;
+        case "ttl":
+          out.append(ttl);
+          return;
+        case "tx":
+          out.append(tx);
+          return;
+        case "inv":
+          out.append(genResourceConstraints(resource, genlevel(level)));
+          return;
+        case "resource-table":
+          out.append(genResourceTable(resource, genlevel(level)));
+          return;
+        case "plural":
+          out.append(Utilities.pluralizeMe(name));
+          return;
+        case "dictionary":
+          out.append(dict);
+          return;
+        case "mappings":
+          out.append(mappings);
+          return;
+        case "mappingslist":
+          out.append(mappingsList);
+          return;
+        case "breadcrumb":
+          out.append(breadCrumbManager.make(name));
+          return;
+        case "ext-link":
+          out.append(getExtensionsLink(resource));
+          return;
+        case "navlist":
+          out.append(breadCrumbManager.navlist(name, genlevel(level)));
+          return;
+        case "breadcrumblist":
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), workingTitle) : ig.makeList(name, type, genlevel(level), workingTitle));
+          return;
+        case "year":
+          out.append(new SimpleDateFormat("yyyy").format(new Date()));
+          return;
+        case "buildId":
+          out.append(buildId);
+          return;
+        case "level":
+          out.append(genlevel(level));
+          return;
+        case "atitle":
+          out.append(abstractResourceTitle(resource));
+          return;
+        case "pub-type":
+          out.append(publicationType);
+          return;
+        case "example-header":
+          out.append(loadXmlNotesFromFile(Utilities.path(folders.srcDir, name.toLowerCase(), name+"-examples-header.xml"), false, null, resource, tabs, null, wg));
+          return;
+        case "pub-notice":
+          out.append(publicationNotice);
+          return;
+        case "resref":
+          out.append(getReferences(resource.getName()));
+          return;
+        case "pagepath":
+          out.append(pagePath);
+          return;
+        case "rellink":
+          if (!pagePath.contains(".html"))
+            throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
+          out.append(Utilities.URLEncode(pagePath));
+          return;
+        case "baseURL":
+          out.append(Utilities.URLEncode(baseURL));
+          return;
+        case "baseURLn":
+          out.append(Utilities.appendForwardSlash(baseURL));
+          return;
+        case "operations": {
+          List<Operation> oplist = resource.getOperations();
+          String n = resource.getName();
+          String id = resource.getName().toLowerCase();
           boolean mixed = false;
-          if (com[2].equals("%check-op") && st == StandardsStatus.NORMATIVE) {
+          if (resource.getStatus() == StandardsStatus.NORMATIVE) {
             for (Operation op : resource.getOperations()) {
               if (op.getStandardsStatus() != null)
                 mixed = true;
             }
           }
-          if (st != null && (resource.getNormativePackage() != null || resource.getNormativeVersion() != null)) {
-            if (mixed)
-              np = getMixedNormativeNote(genlevel(level), resource.getNormativePackage(), com[1], workingTitle, name+".html")+s3;
-            else
-              np = getNormativeNote(genlevel(level), resource.getNormativePackage(), com[1], workingTitle, name+".html")+s3;
-          }
-        } else 
-          np = getNormativeNote(genlevel(level), resource.getNormativePackage(), com[1], workingTitle, name+".html");
-        if (np == null)  
-          src = s1+s3;
-        else
-          src = s1+np+s3;
-      } else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+name);
-      else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(resource.getName())+s3;
-      else if (com[0].equals("maponthispage"))
-          src = s1+mapOnThisPage(mappingsList)+s3;
-      else if (com[0].equals("newheader"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader.html")+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader1.html")+s3;
-      else if (com[0].equals("footer"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer.html")+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newfooter.html")+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer1.html")+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer2.html")+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer3.html")+s3;
-      else if (com[0].equals("title"))
-        src = s1+workingTitle+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(resource.getName())+s3;
-      else if (com[0].equals("status"))
-        src = s1+resource.getStatus()+s3;
-      else if (com[0].equals("draft-note"))
-        src = s1+getDraftNote(resource)+s3;
-      else if (com[0].equals("introduction"))
-        src = s1+loadXmlNotes(name, "introduction", true, resource.getRoot().getDefinition(), resource, tabs, null, wg)+s3;
-      else if (com[0].equals("notes"))
-        src = s1+loadXmlNotes(name, "notes", false, null, resource, tabs, null, wg)+s3;
-      else if (com[0].equals("examples"))
-        src = s1+produceExamples(resource)+s3;
-      else if (com[0].equals("profilelist"))
-        src = s1+produceProfiles(resource)+s3;
-      else if (com[0].equals("extensionlist"))
-        src = s1+produceExtensions(resource)+s3;
-      else if (com[0].equals("extensionreflist"))
-        src = s1+produceRefExtensions(resource)+s3;
-      else if (com[0].equals("searchextensionlist"))
-        src = s1+produceSearchExtensions(resource)+s3;
-      else if (com[0].equals("wg"))
-        src = s1+(resource.getWg() == null ?  "null" : resource.getWg().getUrl())+s3;
-      else if (com[0].equals("wgt"))
-        src = s1+(resource.getWg() == null ?  "null" : resource.getWg().getName())+s3;
-      else if (com[0].equals("fmm"))
-        if (resource.getNormativeVersion() != null)
-          src = s1+"<a href=\"versions.html#maturity\">Maturity Level</a>: <a href=\"versions.html#std-process\">N</a>"+s3;
-        else
-          src = s1+"<a href=\"versions.html#maturity\">Maturity Level</a>: "+resource.getFmmLevel()+""+s3;
-      else if (com[0].equals("sec-cat"))
-        src = s1+(resource.getSecurityCategorization() == null ? "" : "<a href=\"security.html#SecPrivConsiderations\">Security Category</a>: "+resource.getSecurityCategorization().toDisplay())+s3;
-      else if (com[0].equals("sstatus")) 
-        src = s1+getStandardsStatus(resource.getName())+s3;
-      else if (com[0].equals("example-list"))
-        src = s1+produceExampleList(resource)+s3;
-      else if (com[0].equals("name"))
-        src = s1+name+s3;
-      else if (com[0].equals("cname"))
-        src = s1+resource.getName()+s3;
-      else if (com[0].equals("search-additions")) {
-        searchAdditions = s2.substring(16).trim();
-        src = s1+s3;
-      } else if (com[0].equals("search"))
-        src = s1+getSearch(resource, searchAdditions )+s3;
-      else if (com[0].equals("asearch"))
-        src = s1+getAbstractSearch(resource, searchAdditions)+s3;
-      else if (com[0].equals("version"))
-        src = s1+ini.getStringProperty("FHIR", "version")+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("definition"))
-        src = s1+processMarkdown("resource.definition", resource.getRoot().getDefinition(), "", true)+s3;
-      else if (com[0].equals("xml"))
-        src = s1+xml+s3;
-      else if (com[0].equals("json"))
-        src = s1+json+s3;
-      else if (com[0].equals("ttl"))
-        src = s1+ttl+s3;
-      else if (com[0].equals("tx"))
-        src = s1+tx+s3;
-      else if (com[0].equals("inv"))
-        src = s1+genResourceConstraints(resource, genlevel(level))+s3;
-      else if (com[0].equals("resource-table"))
-        src = s1+genResourceTable(resource, genlevel(level))+s3;
-      else if (com[0].equals("plural"))
-        src = s1+Utilities.pluralizeMe(name)+s3;
-      else if (com[0].equals("dictionary"))
-        src = s1+dict+s3;
-      else if (com[0].equals("mappings"))
-          src = s1+mappings+s3;
-      else if (com[0].equals("mappingslist"))
-          src = s1+mappingsList+s3;
-      else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(name) + s3;
-      else if (com[0].equals("ext-link"))
-        src = s1 + getExtensionsLink(resource) + s3;
-      else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(name, genlevel(level)) + s3;
-      else if (com[0].equals("breadcrumblist"))
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(name, type, genlevel(level), workingTitle) : ig.makeList(name, type, genlevel(level), workingTitle)) + s3;
-      else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
-      else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
-      else if (com[0].equals("atitle"))
-        src = s1 + abstractResourceTitle(resource) + s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-      else if (com[0].equals("example-header"))
-        src = s1 + loadXmlNotesFromFile(Utilities.path(folders.srcDir, name.toLowerCase(), name+"-examples-header.xml"), false, null, resource, tabs, null, wg)+s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].equals("resref"))
-        src = s1 + getReferences(resource.getName()) + s3;
-      else if (com[0].equals("pagepath"))
-        src = s1 + pagePath + s3;
-      else if (com[0].equals("rellink")) {
-        if (!pagePath.contains(".html"))
-          throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pagePath) + s3;
-      } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(baseURL) + s3;
-      else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(baseURL) + s3;
-      else if (com[0].equals("operations")) {
-        List<Operation> oplist = resource.getOperations(); 
-        String n = resource.getName(); 
-        String id = resource.getName().toLowerCase();
-        boolean mixed = false;
-        if (resource.getStatus() == StandardsStatus.NORMATIVE) {
-          for (Operation op : resource.getOperations()) {
-            if (op.getStandardsStatus() != null)
-              mixed = true;
-          }
+          out.append(genOperations(oplist, n, id, mixed, resource.getStatus(), "", resource.getNormativePackage()));
+          return;
+        }
+        case "operations-summary":
+          out.append(genOperationsSummary(resource.getOperations(), resource));
+          return;
+        case "opcount":
+          out.append(genOpCount(resource.getOperations()));
+          return;
+        case "search-footer":
+          out.append(searchFooter(level));
+          return;
+        case "pattern-title":
+          out.append(resource.getName());
+          return;
+        case "search-header":
+          out.append(searchHeader(level));
+          return;
+        case "diff-analysis":
+          out.append(diffEngine.getDiffAsHtml(PageProcessor.this, resource.getProfile()));
+          return;
+        case "r3r4transforms":
+          out.append(getR3r4transformNote(resource.getName()));
+          return;
+        case "fmm-style":
+          out.append(fmmBarColorStyle(resource));
+          return;
+        }
+        if (com[0].startsWith("!"))
+          return; // nothing to add
+        if (otherValues.containsKey(com[0])) {
+          out.append(otherValues.get(com[0]));
+          return;
+        }
+        switch (com[0]) {
+        case "lmimplementations":
+          out.append(genImplementationList(resource));
+          return;
+        case "json-schema":
+          out.append(jsonSchema(resource.getName()));
+          return;
+        case "dependency-graph":
+          out.append(genDependencyGraph(resource, genlevel(level)));
+          return;
+        case "logical-mappings":
+          out.append(genLogicalMappings(resource, genlevel(level)));
+          return;
+        case "no-extensions-base-warning":
+          out.append(genNoExtensionsWarning(resource));
+          return;
+        case "res-ext-link":
+          out.append(genResExtLink(resource));
+          return;
+        case "pattern-analysis":
+          out.append(genLogicalAnalysis(resource, genlevel(level)));
+          return;
+        case "resurl":
+          if (!isAggregationEndpoint(resource.getName()))
+            out.append("<p>The resource name as it appears in a  RESTful URL is <a href=\"http.html#root\">[root]</a>/"+name+"/</p>");
+          return;
+        case "res-type-count":
+          out.append(definitions.getResources().size());
+          return;
+        }
+        if (macros.containsKey(com[0])) {
+          out.append(macros.get(com[0]));
+          return;
         }
-        src = s1 + genOperations(oplist, n, id, mixed, resource.getStatus(), "", resource.getNormativePackage()) + s3;
-      } else if (com[0].equals("operations-summary"))
-        src = s1 + genOperationsSummary(resource.getOperations(), resource) + s3;
-      else if (com[0].equals("opcount"))
-        src = s1 + genOpCount(resource.getOperations()) + s3;
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
-      else if (com[0].equals("pattern-title"))
-        src = s1+resource.getName()+s3;
-      else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
-      else if (com[0].equals("diff-analysis"))
-        src = s1+diffEngine.getDiffAsHtml(this, resource.getProfile())+s3;
-      else if (com[0].equals("r3r4transforms"))
-        src = s1+getR3r4transformNote(resource.getName())+s3;
-      else if (com[0].equals("fmm-style"))
-        src = s1+fmmBarColorStyle(resource)+s3;
-      else if (otherValues.containsKey(com[0]))
-        src = s1+otherValues.get(com[0])+s3;
-      else if (com[0].equals("lmimplementations"))
-        src = s1+genImplementationList(resource)+s3; 
-      else if (com[0].equals("json-schema"))
-        src = s1+jsonSchema(resource.getName())+s3; 
-      else if (com[0].equals("dependency-graph"))
-        src = s1+genDependencyGraph(resource, genlevel(level))+s3; 
-      else if (com[0].equals("logical-mappings"))
-        src = s1+genLogicalMappings(resource, genlevel(level))+s3; 
-      else if (com[0].equals("no-extensions-base-warning"))
-        src = s1+genNoExtensionsWarning(resource)+s3; 
-      else if (com[0].equals("res-ext-link"))  
-        src = s1+genResExtLink(resource)+s3;
-      else if (com[0].equals("pattern-analysis"))  
-        src = s1+genLogicalAnalysis(resource, genlevel(level))+s3;
-      else if (com[0].equals("resurl")) {
-        if (isAggregationEndpoint(resource.getName()))
-          src = s1+s3;
-        else
-          src = s1+"<p>The resource name as it appears in a  RESTful URL is <a href=\"http.html#root\">[root]</a>/"+name+"/</p>"+s3;
-      } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
-      } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
-      } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+name);
-    }
-    return src;
+      }
+    });
   }
 
   private String genNoExtensionsWarning(ResourceDefn resource) {
@@ -8178,215 +9006,277 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public String processProfileIncludes(String filename, String fileid, Profile pack, ConstraintStructure profile, String xml, String json, String tx, String src, String master, String path, String intro, String notes, ImplementationGuideDefn ig, boolean isDict, boolean hasNarrative) throws Exception {
-    String workingTitle = null;
-
-    int level = (ig == null || ig.isCore()) ? 0 : 1;
-
-    while (src.contains("<%") || src.contains("[%"))
-    {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-
-      String[] com = s2.split(" ");
-      if (com[0].equals("profileheader"))
-        src = s1+profileHeader(fileid, com.length > 1 ? com[1] : "", hasExamples(pack))+s3;
-      else if (com[0].equals("file")) {
-        if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+TextFile.fileToString(folders.templateDir + com[1]+".html")+s3;          
-        } else {
-          src = s1+TextFile.fileToString(folders.srcDir + com[1]+".html")+s3;
+    return PageTemplate.parse(src).process(new PageTemplate.CommandProcessor() {
+      private String workingTitle = null;
+      private int level = (ig == null || ig.isCore()) ? 0 : 1;
+
+      @Override
+      public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+        switch (com[0]) {
+        case "profileheader":
+          out.append(profileHeader(fileid, com.length > 1 ? com[1] : "", hasExamples(pack)));
+          return;
+        case "file":
+          if (templates.exists(com[1]+".html")) {
+            out.append(templates.getSource(com[1]+".html"));
+          } else {
+            out.append(TextFile.fileToString(folders.srcDir + com[1]+".html"));
+          }
+          return;
+        case "settitle":
+          workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
+          return;
         }
-      } else if (com[0].equals("settitle")) {
-        workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
-      }      else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
-      else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(pack.metadata("name"))+s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
-      else if (com[0].equals("newheader"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader.html")+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader1.html")+s3;
-      else if (com[0].equals("footer"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer.html")+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newfooter.html")+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer1.html")+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer2.html")+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer3.html")+s3;
-      else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : workingTitle)+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : Utilities.escapeXml(workingTitle))+s3;
-      else if (com[0].equals("profiletitle"))
-        src = s1+Utilities.escapeXml(pack.metadata("name"))+s3;
-      else if (com[0].equals("filetitle"))
-        src = s1+(filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename)+s3;
-      else if (com[0].equals("name"))
-        src = s1+filename+s3;
-      else if (com[0].equals("date")) {
-        if (!Utilities.noString(pack.metadata("date"))) {
-          Date d = new SimpleDateFormat("yyyy-MM-dd").parse(pack.metadata("date"));
-          src = s1+Config.DATE_FORMAT().format(d)+s3;
+        if (com.length != 1)
+          throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
+        switch (com[0]) {
+        case "pageheader":
+          out.append(pageHeader(pack.metadata("name")));
+          return;
+        case "level":
+          out.append(genlevel(level));
+          return;
+        case "newheader":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader.html"));
+          return;
+        case "newheader1":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader1.html"));
+          return;
+        case "footer":
+          out.append(TextFile.fileToString(folders.srcDir + "footer.html"));
+          return;
+        case "newfooter":
+          out.append(TextFile.fileToString(folders.srcDir + "newfooter.html"));
+          return;
+        case "footer1":
+          out.append(TextFile.fileToString(folders.srcDir + "footer1.html"));
+          return;
+        case "footer2":
+          out.append(TextFile.fileToString(folders.srcDir + "footer2.html"));
+          return;
+        case "footer3":
+          out.append(TextFile.fileToString(folders.srcDir + "footer3.html"));
+          return;
+        case "title":
+          out.append(workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : workingTitle);
+          return;
+        case "xtitle":
+          out.append(workingTitle == null ? Utilities.escapeXml("StructureDefinition: "+profile.getTitle()) : Utilities.escapeXml(workingTitle));
+          return;
+        case "profiletitle":
+          out.append(Utilities.escapeXml(pack.metadata("name")));
+          return;
+        case "filetitle":
+          out.append(filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename);
+          return;
+        case "name":
+          out.append(filename);
+          return;
+        case "date":
+          if (!Utilities.noString(pack.metadata("date"))) {
+            Date d = new SimpleDateFormat("yyyy-MM-dd").parse(pack.metadata("date"));
+            out.append(Config.DATE_FORMAT().format(d));
+          }
+          else
+            out.append("[no date]");
+          return;
+        case "version":
+          out.append(ini.getStringProperty("FHIR", "version"));
+          return;
+        case "gendate":
+          out.append(Config.DATE_FORMAT().format(new Date()));
+          return;
+        case "definition":
+          out.append(Utilities.escapeXml(pack.metadata("description")));
+          return;
+        case "status":
+          out.append(describeStatus(pack.metadata("status")));
+          return;
+        case "author":
+          out.append(Utilities.escapeXml(pack.metadata("author.name")));
+          return;
+        case "xml":
+          out.append(xml);
+          return;
+        case "json":
+          out.append(json);
+          return;
+        case "profiledesc":
+          out.append(Utilities.escapeXml(profile.getResource().getDescription()));
+          return;
+        case "tx":
+          out.append(tx);
+          return;
+        case "inv":
+          out.append(genProfileConstraints(profile.getResource()));
+          return;
+        case "plural":
+          out.append(Utilities.pluralizeMe(filename));
+          return;
+        case "notes":
+          out.append("todo");
+          return;
+        case "dictionary":
+          out.append("todo");
+          return;
+        case "breadcrumb":
+          out.append(breadCrumbManager.make(filename));
+          return;
+        case "navlist":
+          out.append(breadCrumbManager.navlist(filename, genlevel(level)));
+          return;
+        case "breadcrumblist":
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "profile:"+path, genlevel(0), profile.getResource().getName()) : ig.makeList(filename, "profile:"+path, genlevel(level), profile.getResource().getName()));
+          return;
+        case "year":
+          out.append(new SimpleDateFormat("yyyy").format(new Date()));
+          return;
+        case "buildId":
+          out.append(buildId);
+          return;
+        case "pub-type":
+          out.append(publicationType);
+          return;
+        case "pub-notice":
+          out.append(publicationNotice);
+          return;
+        case "profileurl":
+          out.append(profile.getResource().getUrl());
+          return;
+        case "baseURL":
+          out.append(Utilities.URLEncode(baseURL));
+          return;
+        case "baseURLn":
+          out.append(Utilities.appendForwardSlash(baseURL));
+          return;
+        case "base-link":
+          out.append(baseLink(profile.getResource(), genlevel(level)));
+          return;
+        case "profile-structure-table-diff":
+          out.append(generateProfileStructureTable(profile, true, filename, pack.getId(), genlevel(level)));
+          return;
+        case "profile-structure-table":
+          out.append(generateProfileStructureTable(profile, false, filename, pack.getId(), genlevel(level)));
+          return;
+        case "maponthispage":
+          out.append(mapOnPageProfile(profile.getResource()));
+          return;
+        case "mappings":
+          out.append(mappingsProfile(profile.getResource()));
+          return;
+        case "definitions":
+          out.append(definitionsProfile(profile.getResource(), genlevel(level)));
+          return;
+        case "profile.review":
+          out.append(profileReviewLink(profile));
+          return;
+        case "profile.datadictionary":
+          out.append(profileDictionaryLink(profile));
+          return;
+        case "profile.tx":
+          out.append(getTerminologyNotes(profile.getResource(), level));
+          return;
+        case "profile.inv":
+          out.append(getInvariantList(profile.getResource()));
+          return;
+        case "draft-note":
+          out.append(getDraftNote(pack, genlevel(level)));
+          return;
+        case "pagepath":
+          out.append(filename);
+          return;
+        case "rellink":
+          if (!filename.contains(".html"))
+            out.append(filename+".html");
+          else
+          out.append(filename);
+          return;
+        case "schematron":
+          out.append(isDict ? "<i>None</i>" : "<a href=\""+filename+".sch\">Schematron</a>");
+          return;
+        case "summary":
+          out.append(generateHumanSummary(profile.getResource(), genlevel(level)));
+          return;
+        case "profile-examples":
+          out.append(generateProfileExamples(pack, profile));
+          return;
+        case "profile-extensions-table":
+          out.append("<p><i>Todo</i></p>");
+          return;
+        case "definitionsonthispage":
+          out.append("<p><i>Todo</i></p>");
+          return;
+        case "profile.intro":
+          out.append(genProfileDoco(pack, intro));
+          return;
+        case "profile.notes":
+          out.append(genProfileDoco(pack, notes));
+          return;
+        case "search-footer":
+          out.append(searchFooter(level));
+          return;
+        case "search-header":
+          out.append(searchHeader(level));
+          return;
+        case "wg": {
+          String wg = profile.getWg().getCode();
+          if (Utilities.noString(wg))
+            pack.getWg();
+          if (Utilities.noString(wg) && profile.getDefn() != null)
+            wg = profile.getDefn().getWg().getCode();
+          if (wg == null || !definitions.getWorkgroups().containsKey(wg))
+            out.append("(No assigned work group) ("+wg+") (4)");
+          else
+            out.append("<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group");
+          return;
         }
-        else
-          src = s1+"[no date]"+s3;
-      } else if (com[0].equals("version"))
-        src = s1+ini.getStringProperty("FHIR", "version")+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("definition"))
-        src = s1+Utilities.escapeXml(pack.metadata("description"))+s3;
-      else if (com[0].equals("status"))
-        src = s1+describeStatus(pack.metadata("status"))+s3;
-      else if (com[0].equals("author"))
-        src = s1+Utilities.escapeXml(pack.metadata("author.name"))+s3;
-      else if (com[0].equals("xml"))
-        src = s1+xml+s3;
-      else if (com[0].equals("json"))
-        src = s1+json+s3;
-      else if (com[0].equals("profiledesc")) {
-        src = s1+Utilities.escapeXml(profile.getResource().getDescription())+s3;
-      } else if (com[0].equals("tx"))
-        src = s1+tx+s3;
-      else if (com[0].equals("inv"))
-        src = s1+genProfileConstraints(profile.getResource())+s3;
-      else if (com[0].equals("plural"))
-        src = s1+Utilities.pluralizeMe(filename)+s3;
-      else if (com[0].equals("notes"))
-        src = s1+"todo" /*Utilities.fileToString(folders.srcDir + filename+File.separatorChar+filename+".html")*/ +s3;
-      else if (com[0].equals("dictionary"))
-        src = s1+"todo"+s3;
-      else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(filename) + s3;
-      else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(filename, genlevel(level)) + s3;
-      else if (com[0].equals("breadcrumblist"))
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "profile:"+path, genlevel(0), profile.getResource().getName()) : ig.makeList(filename, "profile:"+path, genlevel(level), profile.getResource().getName())) + s3;
-      else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
-      else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(0) + s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].equals("profileurl"))
-        src = s1 + profile.getResource().getUrl() + s3;
-      else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(baseURL) + s3;
-      else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(baseURL) + s3;
-      else if (com[0].equals("base-link"))
-        src = s1 + baseLink(profile.getResource(), genlevel(level)) + s3;
-      else if (com[0].equals("profile-structure-table-diff"))
-        src = s1 + generateProfileStructureTable(profile, true, filename, pack.getId(), genlevel(level)) + s3;
-      else if (com[0].equals("profile-structure-table"))
-        src = s1 + generateProfileStructureTable(profile, false, filename, pack.getId(), genlevel(level)) + s3;
-      else if (com[0].equals("maponthispage"))
-        src = s1+mapOnPageProfile(profile.getResource())+s3;
-      else if (com[0].equals("mappings"))
-        src = s1+mappingsProfile(profile.getResource())+s3;
-      else if (com[0].equals("definitions"))
-        src = s1+definitionsProfile(profile.getResource(), genlevel(level))+s3;
-      else if (com[0].equals("profile.review"))
-        src = s1+profileReviewLink(profile)+s3;
-      else if (com[0].equals("profile.datadictionary"))
-        src = s1+profileDictionaryLink(profile)+s3;
-      else if (com[0].equals("profile.tx"))
-        src = s1+getTerminologyNotes(profile.getResource(), level)+s3;
-      else if (com[0].equals("profile.inv"))
-        src = s1+getInvariantList(profile.getResource())+s3;
-      else if (com[0].equals("draft-note"))
-        src = s1+getDraftNote(pack, genlevel(level))+s3;
-      else if (com[0].equals("pagepath"))
-        src = s1+filename+s3;
-      else if (com[0].equals("rellink")) {
-        if (!filename.contains(".html"))
-          src = s1+filename+".html"+s3;
-        else
-        src = s1+filename+s3;
-      } else if (com[0].equals("schematron"))
-        src = s1+(isDict ? "<i>None</i>" : "<a href=\""+filename+".sch\">Schematron</a>")+s3;
-      else if (com[0].equals("summary"))
-        src = s1+generateHumanSummary(profile.getResource(), genlevel(level))+s3;
-      else if (com[0].equals("profile-examples"))
-        src = s1+generateProfileExamples(pack, profile)+s3;
-      else if (com[0].equals("profile-extensions-table"))
-        src = s1+"<p><i>Todo</i></p>"+s3;
-      else if (com[0].equals("definitionsonthispage"))
-        src = s1+"<p><i>Todo</i></p>"+s3;
-      else if (com[0].equals("profile.intro"))
-        src = s1 +genProfileDoco(pack, intro)+ s3;
-      else if (com[0].equals("profile.notes"))
-        src = s1 +genProfileDoco(pack, notes)+ s3;
-      else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
-      else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (com[0].equals("wg")) {
-        String wg = profile.getWg().getCode();
-        if (Utilities.noString(wg))
-          pack.getWg();
-        if (Utilities.noString(wg) && profile.getDefn() != null)
-          wg = profile.getDefn().getWg().getCode();
-        if (wg == null || !definitions.getWorkgroups().containsKey(wg))
-          src = s1+"(No assigned work group) ("+wg+") (4)"+s3;
-        else
-          src = s1+ "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group"+s3;
-      } else if (com[0].equals("fmm-style")) {
-        String fmm = ToolingExtensions.readStringExtension(profile.getResource(), ToolingExtensions.EXT_FMM_LEVEL);
-        StandardsStatus ss = ToolingExtensions.getStandardsStatus(profile.getResource());
-        src = s1+fmmBarColorStyle(ss, fmm)+s3;
-      } else if (com[0].equals("fmm")) {
-        String fmm = profile.getFmm();
-        if (Utilities.noString(fmm))
+        case "fmm-style": {
+          String fmm = ToolingExtensions.readStringExtension(profile.getResource(), ToolingExtensions.EXT_FMM_LEVEL);
+          StandardsStatus ss = ToolingExtensions.getStandardsStatus(profile.getResource());
+          out.append(fmmBarColorStyle(ss, fmm));
+          return;
+        }
+        case "fmm": {
+          String fmm = profile.getFmm();
+          if (Utilities.noString(fmm))
             fmm = pack.getFmmLevel();
-        src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
-      } else if (com[0].equals("profile-context"))
-        src = s1+getProfileContext(pack.getCandidateResource(), genlevel(level))+s3;
-      else if (com[0].equals("sstatus")) {
-        StandardsStatus ss = ToolingExtensions.getStandardsStatus(profile.getResource());
-        if (ss == null)
-          ss = StandardsStatus.INFORMATIVE;
-        if (ss == StandardsStatus.NORMATIVE && ToolingExtensions.hasExtension(profile.getResource(), ToolingExtensions.EXT_NORMATIVE_VERSION))
-          src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ToolingExtensions.readStringExtension(profile.getResource(), ToolingExtensions.EXT_NORMATIVE_VERSION)+")"+s3;
-        else
-          src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>"+s3;
-      } else if (com[0].equals("past-narrative-link")) {
-        if (hasNarrative)  
-          src = s1 + s3;
-        else
-          src = s1 + "<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>" + s3;
-       } else if (com[0].equals("resurl")) {
-         if (Utilities.noString(pack.metadata("id")))
-           src = s1+s3;
-         else
-           src = s1+"The id of this profile is "+pack.metadata("id")+s3;
-       } else if (com[0].equals("res-type-count")) { 
-         src = s1+definitions.getResources().size()+s3;        
-       } else if (macros.containsKey(com[0])) {
-         src = s1+macros.get(com[0])+s3;
-       } else
-         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
-    }
-    return src;
+          out.append(getFmmFromlevel(genlevel(level), fmm));
+          return;
+        }
+        case "profile-context":
+          out.append(getProfileContext(pack.getCandidateResource(), genlevel(level)));
+          return;
+        case "sstatus": {
+          StandardsStatus ss = ToolingExtensions.getStandardsStatus(profile.getResource());
+          if (ss == null)
+            ss = StandardsStatus.INFORMATIVE;
+          if (ss == StandardsStatus.NORMATIVE && ToolingExtensions.hasExtension(profile.getResource(), ToolingExtensions.EXT_NORMATIVE_VERSION))
+            out.append("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a> (from v"+ToolingExtensions.readStringExtension(profile.getResource(), ToolingExtensions.EXT_NORMATIVE_VERSION)+")");
+          else
+            out.append("<a href=\""+genlevel(level)+"versions.html#std-process\">"+ss.toDisplay()+"</a>");
+          return;
+        }
+        case "past-narrative-link":
+          if (!hasNarrative)
+            out.append("<p><a href=\"#DomainResource.text.div-end\">Jump past Narrative</a></p>");
+          return;
+        case "resurl":
+          if (!Utilities.noString(pack.metadata("id")))
+            out.append("The id of this profile is "+pack.metadata("id"));
+          return;
+        case "res-type-count":
+          out.append(definitions.getResources().size());
+          return;
+        }
+        if (com[0].startsWith("!"))
+          return; // nothing to add
+        if (macros.containsKey(com[0])) {
+          out.append(macros.get(com[0]));
+          return;
+        }
+        throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
+      }
+    });
   }
 
   private String getProfileContext(CanonicalResource mr, String prefix) throws DefinitionException {
@@ -8690,175 +9580,230 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public String processExtensionIncludes(String filename, StructureDefinition ed, String xml, String json, String ttl, String tx, String src, String pagePath, ImplementationGuideDefn ig) throws Exception {
-    String workingTitle = null;
-    int level = ig.isCore() ? 0 : 1;
-
-    while (src.contains("<%") || src.contains("[%"))
-    {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-
-      String[] com = s2.split(" ");
-      if (com[0].equals("file")) {
-        if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+TextFile.fileToString(folders.templateDir + com[1]+".html")+s3;          
-        } else {
-          src = s1+TextFile.fileToString(folders.srcDir + com[1]+".html")+s3;
+    return PageTemplate.parse(src).process(new PageTemplate.CommandProcessor() {
+      private String workingTitle = null;
+      private int level = ig.isCore() ? 0 : 1;
+
+      @Override
+      public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+        switch (com[0]) {
+        case "file":
+          if (templates.exists(com[1]+".html")) {
+            out.append(templates.getSource(com[1]+".html"));
+          } else {
+            out.append(TextFile.fileToString(folders.srcDir + com[1]+".html"));
+          }
+          return;
+        case "extDefnHeader":
+          out.append(extDefnHeader(filename, com.length > 1 ? com[1] : null));
+          return;
+        case "extension-table":
+          out.append(generateExtensionTable(ed, filename, com[1], genlevel(level)));
+          return;
+        case "settitle":
+          workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
+          return;
+        }
+        if (com.length != 1)
+          throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
+        switch (com[0]) {
+        case "pageheader":
+          out.append(pageHeader(ed.getName()));
+          return;
+        case "newheader":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader.html"));
+          return;
+        case "newheader1":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader1.html"));
+          return;
+        case "footer":
+          out.append(TextFile.fileToString(folders.srcDir + "footer.html"));
+          return;
+        case "newfooter":
+          out.append(TextFile.fileToString(folders.srcDir + "newfooter.html"));
+          return;
+        case "footer1":
+          out.append(TextFile.fileToString(folders.srcDir + "footer1.html"));
+          return;
+        case "footer2":
+          out.append(TextFile.fileToString(folders.srcDir + "footer2.html"));
+          return;
+        case "footer3":
+          out.append(TextFile.fileToString(folders.srcDir + "footer3.html"));
+          return;
+        case "title":
+          out.append(workingTitle == null ? Utilities.escapeXml(ed.getName()) : workingTitle);
+          return;
+        case "xtitle":
+          out.append("Extension: "+Utilities.escapeXml(ed.getName()));
+          return;
+        case "filetitle":
+          out.append(filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename);
+          return;
+        case "name":
+          out.append(filename);
+          return;
+        case "date":
+          if (ed.hasDate())
+            out.append(ed.getDateElement().toHumanDisplay());
+          else
+            out.append("[no date]");
+          return;
+        case "version":
+          out.append(ini.getStringProperty("FHIR", "version"));
+          return;
+        case "gendate":
+          out.append(Config.DATE_FORMAT().format(new Date()));
+          return;
+        case "definition":
+          out.append(processor.process(Utilities.escapeXml(ed.getDescription()), "Definition on "+ed.getId()));
+          return;
+        case "ext-comments":
+          if (ed.getDifferential().getElementFirstRep().hasComment())
+            out.append("<p><b>Comment</b>: "+processor.process(Utilities.escapeXml(ed.getDifferential().getElementFirstRep().getComment()), "Definition on "+ed.getId())+"</p>");
+          return;
+        case "status":
+          out.append(ed.getStatus() == null ? "??" : ed.getStatus().toCode());
+          return;
+        case "author":
+          out.append(Utilities.escapeXml(ed.getPublisher()));
+          return;
+        case "xml":
+          out.append(xml);
+          return;
+        case "json":
+          out.append(json);
+          return;
+        case "ttl":
+          out.append(ttl);
+          return;
+        case "tx":
+          out.append(tx);
+          return;
+        case "inv":
+          out.append(genExtensionConstraints(ed));
+          return;
+        case "plural":
+          out.append(Utilities.pluralizeMe(filename));
+          return;
+        case "notes":
+          out.append("todo");
+          return;
+        case "dictionary":
+          out.append(definitionsProfile(ed, genlevel(level)));
+          return;
+        case "breadcrumb":
+          out.append(breadCrumbManager.make(filename));
+          return;
+        case "navlist":
+          out.append(breadCrumbManager.navlist(filename, genlevel(level)));
+          return;
+        case "breadcrumblist": {
+          String crumbTitle = ed.getUrl();
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle) : ig.makeList(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle));
+          return;
+        }
+        case "year":
+          out.append(new SimpleDateFormat("yyyy").format(new Date()));
+          return;
+        case "buildId":
+          out.append(buildId);
+          return;
+        case "level":
+          out.append(genlevel(level));
+          return;
+        case "pub-type":
+          out.append(publicationType);
+          return;
+        case "pub-notice":
+          out.append(publicationNotice);
+          return;
+        case "pagepath":
+          out.append(pagePath);
+          return;
+        case "extensionurl":
+          out.append(ed.getUrl());
+          return;
+        case "rellink":
+          if (!pagePath.contains(".html"))
+            throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
+          out.append(Utilities.URLEncode(pagePath));
+          return;
+        case "baseURL":
+          out.append(Utilities.URLEncode(baseURL));
+          return;
+        case "baseURLn":
+          out.append(Utilities.appendForwardSlash(baseURL));
+          return;
+        case "mappings":
+          out.append(mappingsExtension(ed));
+          return;
+        case "definitions":
+          out.append(definitionsExtension(ed, ""));
+          return;
+        case "pubdetails":
+          out.append("Extension maintained by: "+Utilities.escapeXml(ed.getPublisher()));
+          return;
+        case "extref":
+          out.append("");
+          return;
+        case "context-info":
+          out.append(describeExtensionContext(ed));
+          return;
+        case "ext-name":
+          out.append(Utilities.escapeXml(ed.getName()));
+          return;
+        case "search-footer":
+          out.append(searchFooter(level));
+          return;
+        case "search-header":
+          out.append(searchHeader(level));
+          return;
+        case "wg": {
+          String wg = ToolingExtensions.readStringExtension(ed, ToolingExtensions.EXT_WORKGROUP);
+          out.append(wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+") (3)" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group");
+          return;
+        }
+        case "fmm-style": {
+          String fmm = ed == null ? "N/A" :  ToolingExtensions.readStringExtension(ed, ToolingExtensions.EXT_FMM_LEVEL);
+          StandardsStatus ss = ToolingExtensions.getStandardsStatus(ed);
+          out.append(fmmBarColorStyle(ss, fmm));
+          return;
+        }
+        case "fmm": {
+          String fmm = ToolingExtensions.readStringExtension(ed, ToolingExtensions.EXT_FMM_LEVEL);
+          StandardsStatus ss = ToolingExtensions.getStandardsStatus(ed);
+          if (StandardsStatus.EXTERNAL == ss)
+            out.append(getFmmFromlevel(genlevel(level), "N/A"));
+          else if (StandardsStatus.NORMATIVE == ss)
+            out.append(getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>"));
+          else
+            out.append(getFmmFromlevel(genlevel(level), fmm));
+          return;
+        }
+        case "sstatus": {
+          StandardsStatus ss = ToolingExtensions.getStandardsStatus(ed);
+          if (ss == null)
+            ss = StandardsStatus.INFORMATIVE;
+          out.append("<a href=\""+genlevel(level)+"versions.html#std-process\">Informative</a>");
+          return;
+        }
+        case "profile-context":
+          out.append(getProfileContext(ed, genlevel(level)));
+          return;
+        case "res-type-count":
+          out.append(definitions.getResources().size());
+          return;
+        }
+        if (com[0].startsWith("!"))
+          return; // nothing to add
+        if (macros.containsKey(com[0])) {
+          out.append(macros.get(com[0]));
+          return;
         }
-      } else if (com[0].equals("extDefnHeader"))
-        src = s1+extDefnHeader(filename, com.length > 1 ? com[1] : null)+s3;
-      else if (com[0].equals("extension-table"))
-        src = s1+generateExtensionTable(ed, filename, com[1], genlevel(level))+s3;
-      else if (com[0].equals("settitle")) {
-        workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
-      }      else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
-      else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(ed.getName())+s3;
-      else if (com[0].equals("newheader"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader.html")+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader1.html")+s3;
-      else if (com[0].equals("footer"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer.html")+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newfooter.html")+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer1.html")+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer2.html")+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer3.html")+s3;
-      else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(ed.getName()) : workingTitle)+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+"Extension: "+Utilities.escapeXml(ed.getName())+s3;
-      else if (com[0].equals("filetitle"))
-        src = s1+(filename.contains(".") ? filename.substring(0, filename.lastIndexOf(".")) : filename)+s3;
-      else if (com[0].equals("name"))
-        src = s1+filename+s3;
-      else if (com[0].equals("date")) {
-        if (ed.hasDate())
-          src = s1+ed.getDateElement().toHumanDisplay()+s3;
-        else
-          src = s1+"[no date]"+s3;
-      } else if (com[0].equals("version"))
-        src = s1+ini.getStringProperty("FHIR", "version")+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("definition"))
-        src = s1+processor.process(Utilities.escapeXml(ed.getDescription()), "Definition on "+ed.getId())+s3;
-      else if (com[0].equals("ext-comments")) {
-        if (ed.getDifferential().getElementFirstRep().hasComment())
-          src = s1+"<p><b>Comment</b>: "+processor.process(Utilities.escapeXml(ed.getDifferential().getElementFirstRep().getComment()), "Definition on "+ed.getId())+"</p>"+s3;
-        else
-          src = s1+s3;
-      } else if (com[0].equals("status"))
-        src = s1+(ed.getStatus() == null ? "??" : ed.getStatus().toCode())+s3;
-      else if (com[0].equals("author"))
-        src = s1+Utilities.escapeXml(ed.getPublisher())+s3;
-      else if (com[0].equals("xml"))
-        src = s1+xml+s3;
-      else if (com[0].equals("json"))
-        src = s1+json+s3;
-      else if (com[0].equals("ttl"))
-        src = s1+ttl+s3;
-      else if (com[0].equals("tx"))
-        src = s1+tx+s3;
-      else if (com[0].equals("inv"))
-        src = s1+genExtensionConstraints(ed)+s3;
-      else if (com[0].equals("plural"))
-        src = s1+Utilities.pluralizeMe(filename)+s3;
-      else if (com[0].equals("notes"))
-        src = s1+"todo" /*Utilities.fileToString(folders.srcDir + filename+File.separatorChar+filename+".html")*/ +s3;
-      else if (com[0].equals("dictionary"))
-        src = s1+definitionsProfile(ed, genlevel(level))+s3;
-      else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(filename) + s3;
-      else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(filename, genlevel(level)) + s3;
-      else if (com[0].equals("breadcrumblist")) {
-        String crumbTitle = ed.getUrl();
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle) : ig.makeList(filename, "extension:"+ed.getName(), genlevel(level), crumbTitle))+ s3;
-      } else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
-      else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].equals("pagepath"))
-        src = s1 + pagePath + s3;
-      else if (com[0].equals("extensionurl"))
-        src = s1 + ed.getUrl() + s3;
-      else if (com[0].equals("rellink")) {
-        if (!pagePath.contains(".html"))
-          throw new Error("Invalid link: "+pagePath+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pagePath) + s3;
-      } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(baseURL) + s3;
-      else if (com[0].equals("baseURLn"))
-        src = s1 + Utilities.appendForwardSlash(baseURL) + s3;
-      else if (com[0].equals("mappings"))
-        src = s1+mappingsExtension(ed)+s3;
-      else if (com[0].equals("definitions"))
-        src = s1+definitionsExtension(ed, "")+s3;
-      else if (com[0].equals("pubdetails")) {
-        src = s1+"Extension maintained by: " +Utilities.escapeXml(ed.getPublisher())+s3;
-      } else if (com[0].equals("extref"))
-        src = s1+""+s3;
-      else if (com[0].equals("context-info"))
-        src = s1+describeExtensionContext(ed)+s3;
-      else if (com[0].equals("ext-name"))
-        src = s1+Utilities.escapeXml(ed.getName())+s3;
-      else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
-      else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (com[0].equals("wg")) {
-        String wg = ToolingExtensions.readStringExtension(ed, ToolingExtensions.EXT_WORKGROUP);
-        src = s1+(wg == null || !definitions.getWorkgroups().containsKey(wg) ?  "(No assigned work group) ("+wg+") (3)" : "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group")+s3;
-      } else if (com[0].equals("fmm-style"))  {
-        String fmm = ed == null ? "N/A" :  ToolingExtensions.readStringExtension(ed, ToolingExtensions.EXT_FMM_LEVEL);
-        StandardsStatus ss = ToolingExtensions.getStandardsStatus(ed);
-        src = s1+fmmBarColorStyle(ss, fmm)+s3;
-      } else if (com[0].equals("fmm")) {
-        String fmm = ToolingExtensions.readStringExtension(ed, ToolingExtensions.EXT_FMM_LEVEL);
-        StandardsStatus ss = ToolingExtensions.getStandardsStatus(ed);
-        if (StandardsStatus.EXTERNAL == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "N/A")+s3;
-        else if (StandardsStatus.NORMATIVE == ss)
-          src = s1+getFmmFromlevel(genlevel(level), "<a href=\""+genlevel(level)+"versions.html#std-process\">N</a>")+s3;
-        else
-          src = s1+getFmmFromlevel(genlevel(level), fmm)+s3;
-      } else if (com[0].equals("sstatus")) {
-        StandardsStatus ss = ToolingExtensions.getStandardsStatus(ed);
-        if (ss == null)
-          ss = StandardsStatus.INFORMATIVE;
-        src = s1+"<a href=\""+genlevel(level)+"versions.html#std-process\">Informative</a>"+s3;
-      } else if (com[0].equals("profile-context")) {
-        src = s1+getProfileContext(ed, genlevel(level))+s3;
-      } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
-      } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
-      } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing resource "+filename);
-    }
-    return src;
+      }
+    });
   }
 
   private String describeExtensionContext(StructureDefinition ed) {
@@ -9141,6 +10086,18 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     return definitions;
   }
 
+  public ResidentState getResident() {
+    return resident;
+  }
+
+  public void setResident(ResidentState resident) {
+    this.resident = resident;
+  }
+
+  public TemplateRegistry getTemplates() {
+    return templates;
+  }
+
   public FolderManager getFolders() {
     return folders;
   }
@@ -9173,7 +10130,12 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     workerContext.setLogger(this);
     workerContext.setAllowLoadingDuplicates(true);
     log("Load UTG Terminology", LogMessageType.Process);
-    NpmPackage utg = new FilesystemPackageCacheManager(true, ToolsVersion.TOOLS_VERSION).loadPackage("hl7.terminology");
+    NpmPackage utg = resident != null ? resident.getUtg() : null;
+    if (utg == null) {
+      utg = new FilesystemPackageCacheManager(true, ToolsVersion.TOOLS_VERSION).loadPackage("hl7.terminology");
+      if (resident != null)
+        resident.setUtg(utg);
+    }
     workerContext.loadFromPackage(utg, new R4ToR5Loader(BuildWorkerContext.defaultTypesToLoad(), new UTGLoader(utg.version())));
     log("Load Terminology Cache from "+Utilities.path(folders.rootDir, "vscache"), LogMessageType.Process);
     workerContext.initTS(Utilities.path(folders.rootDir, "vscache"));
@@ -9189,6 +10151,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
   public void setFolders(FolderManager folders) throws Exception {
     this.folders = folders;
+    templates = resident != null ? resident.getTemplates(folders.templateDir) : new TemplateRegistry(folders.templateDir);
     htmlchecker = new HTMLLinkChecker(this, validationErrors, baseURL);
     r3r4Outcomes = (JsonObject) new com.google.gson.JsonParser().parse(TextFile.fileToString(Utilities.path(folders.rootDir, "implementations", "r3maps", "outcomes.json")));
     for (File f : new File(Utilities.path(folders.rootDir, "tools", "macros")).listFiles()) {
@@ -9205,6 +10168,10 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
     }
   }
 
+  public BuildMetrics getMetrics() {
+    return metrics;
+  }
+
   public HTMLLinkChecker getHTMLChecker() {
     return htmlchecker;
   }
@@ -9215,7 +10182,7 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
 
 
   @Override
-  public void log(String content, LogMessageType type) {
+  public synchronized void log(String content, LogMessageType type) {
     if (suppressedMessages.contains(content) && (type == LogMessageType.Hint || type == LogMessageType.Warning))
       return;
     if (type == LogMessageType.Process) {
@@ -9327,7 +10294,13 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public void loadSnomed() throws Exception {
-    workerContext.loadSnomed(Utilities.path(folders.rootDir, "tools", "tx", "snomed", "snomed.xml"));
+    if (resident != null && resident.getSnomed() != null)
+      workerContext.setSnomedCodes(resident.getSnomed());
+    else {
+      workerContext.loadSnomed(Utilities.path(folders.rootDir, "tools", "tx", "snomed", "snomed.xml"));
+      if (resident != null)
+        resident.setSnomed(workerContext.getSnomedCodes());
+    }
   }
 
   public void saveSnomed() throws Exception {
@@ -9336,8 +10309,14 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public void loadLoinc() throws Exception {
-    log("Load Loinc", LogMessageType.Process);
-    workerContext.loadLoinc(Utilities.path(folders.rootDir, "tools", "tx", "loinc", "loinc.xml"));
+    if (resident != null && resident.getLoinc() != null)
+      workerContext.setLoincCodes(resident.getLoinc());
+    else {
+      log("Load Loinc", LogMessageType.Process);
+      workerContext.loadLoinc(Utilities.path(folders.rootDir, "tools", "tx", "loinc", "loinc.xml"));
+      if (resident != null)
+        resident.setLoinc(workerContext.getLoincCodes());
+    }
   }
 
   public CanonicalResourceManager<StructureDefinition> getProfiles() {
@@ -9567,157 +10546,206 @@ public class PageProcessor implements Logger, ProfileKnowledgeProvider, IReferen
   }
 
   public String processConformancePackageIncludes(Profile pack, String src, String intro, String notes, String resourceName, ImplementationGuideDefn ig) throws Exception {
-    String workingTitle = null;
-    int level = (ig == null || ig.isCore()) ? 0 : 1;
-    //boolean even = false;
-
-    while (src.contains("<%") || src.contains("[%"))
-    {
-      int i1 = src.indexOf("<%");
-      int i2 = src.indexOf("%>");
-      if (i1 == -1) {
-        i1 = src.indexOf("[%");
-        i2 = src.indexOf("%]");
-      }
-      String s1 = src.substring(0, i1);
-      String s2 = src.substring(i1 + 2, i2).trim();
-      String s3 = src.substring(i2+2);
-
-      String[] com = s2.split(" ");
-      if (com[0].equals("file")) {
-        if (new File(folders.templateDir + com[1]+".html").exists()) {
-          src = s1+TextFile.fileToString(folders.templateDir + com[1]+".html")+s3;          
-        } else {
-          src = s1+TextFile.fileToString(folders.srcDir + com[1]+".html")+s3;
+    return PageTemplate.parse(src).process(new PageTemplate.CommandProcessor() {
+      private String workingTitle = null;
+      private int level = (ig == null || ig.isCore()) ? 0 : 1;
+      //boolean even = false;
+
+      @Override
+      public void processCommand(String s2, String[] com, StringBuilder out) throws Exception {
+        switch (com[0]) {
+        case "file":
+          if (templates.exists(com[1]+".html")) {
+            out.append(templates.getSource(com[1]+".html"));
+          } else {
+            out.append(TextFile.fileToString(folders.srcDir + com[1]+".html"));
+          }
+          return;
+        case "settitle":
+          workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
+          return;
+        case "setlevel":
+          level = Integer.parseInt(com[1]);
+          return;
+        }
+        if (com.length != 1)
+          throw new Exception("Instruction <%"+s2+"%> not understood parsing profile "+pack.getId());
+        switch (com[0]) {
+        case "pageheader":
+          out.append(pageHeader(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1)));
+          return;
+        case "newheader":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader.html"));
+          return;
+        case "newheader1":
+          out.append(TextFile.fileToString(folders.srcDir + "newheader1.html"));
+          return;
+        case "footer":
+          out.append(TextFile.fileToString(folders.srcDir + "footer.html"));
+          return;
+        case "newfooter":
+          out.append(TextFile.fileToString(folders.srcDir + "newfooter.html"));
+          return;
+        case "footer1":
+          out.append(TextFile.fileToString(folders.srcDir + "footer1.html"));
+          return;
+        case "footer2":
+          out.append(TextFile.fileToString(folders.srcDir + "footer2.html"));
+          return;
+        case "footer3":
+          out.append(TextFile.fileToString(folders.srcDir + "footer3.html"));
+          return;
+        case "title":
+          out.append(workingTitle == null ? Utilities.escapeXml(pack.getTitle()) : workingTitle);
+          return;
+        case "xtitle":
+          out.append(Utilities.escapeXml(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1)));
+          return;
+        case "name":
+          out.append(pack.getId());
+          return;
+        case "package.intro":
+          out.append(intro == null ? pack.metadata("description") : intro);
+          return;
+        case "package.notes":
+          out.append(notes == null ? "" : notes);
+          return;
+        case "canonicalname":
+          out.append(makeCanonical(pack.getId()));
+          return;
+        case "prettyname":
+          out.append(makePretty(pack.getId()));
+          return;
+        case "version":
+          out.append(version);
+          return;
+        case "gendate":
+          out.append(Config.DATE_FORMAT().format(new Date()));
+          return;
+        case "maindiv":
+          out.append("<div class=\"content\">");
+          return;
+        case "/maindiv":
+          out.append("</div>");
+          return;
+        case "mappings-table":
+          out.append(genMappingsTable());
+          return;
+        case "id":
+          out.append(pack.getId());
+          return;
+        case "events":
+          out.append(getEventsTable(pack.getId()));
+          return;
+        case "resourcecodes":
+          out.append(genResCodes());
+          return;
+        case "datatypecodes":
+          out.append(genDTCodes());
+          return;
+        case "allparams":
+          out.append(allParamlist());
+          return;
+//    case "bindingtable-codelists":
+//      out.append(genBindingTable(true));
+//      return;
+//    case "bindingtable":
+//      out.append(genBindingsTable());
+//      return;
+        case "codeslist":
+          out.append(genCodeSystemsTable());
+          return;
+//    case "valuesetslist":
+//      out.append(genValueSetsTable());
+//      return;
+        case "igvaluesetslist":
+          out.append(genIGValueSetsTable());
+          return;
+        case "namespacelist":
+          out.append(genNSList());
+          return;
+        case "conceptmapslist":
+          out.append(genConceptMapsTable());
+          return;
+//    case "bindingtable-others":
+//      out.append(genBindingTable(false));
+//      return;
+        case "resimplall":
+          out.append(genResImplList());
+          return;
+        case "breadcrumb":
+          out.append(breadCrumbManager.make(pack.getId()));
+          return;
+        case "navlist":
+          out.append(breadCrumbManager.navlist(pack.getId(), genlevel(level)));
+          return;
+        case "breadcrumblist":
+          out.append((ig == null || ig.isCore()) ? breadCrumbManager.makelist(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle()): ig.makeList(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle()));
+          return;
+        case "year":
+          out.append(new SimpleDateFormat("yyyy").format(new Date()));
+          return;
+        case "buildId":
+          out.append(buildId);
+          return;
+        case "pub-type":
+          out.append(publicationType);
+          return;
+        case "pub-notice":
+          out.append(publicationNotice);
+          return;
+        case "level":
+          out.append(genlevel(level));
+          return;
+        case "pagepath":
+          out.append(pack.getId());
+          return;
+        case "rellink":
+          if (pack.getId().contains(".html"))
+            throw new Error("Invalid link: "+pack.getId()+" at "+workingTitle);
+          out.append(Utilities.URLEncode(pack.getId()+".html"));
+          return;
+        case "baseURL":
+          out.append(Utilities.URLEncode(baseURL));
+          return;
+        case "description":
+          out.append(Utilities.escapeXml(pack.getDescription()));
+          return;
+        case "package-content":
+          out.append(getPackageContent(pack, genlevel(level)));
+          return;
+        case "search-footer":
+          out.append(searchFooter(level));
+          return;
+        case "search-header":
+          out.append(searchHeader(level));
+          return;
+        case "package.search":
+          out.append(getSearch(pack));
+          return;
+        case "wg": {
+          String wg = pack.getWg();
+          if (Utilities.noString(wg) && definitions.hasResource(resourceName))
+            wg = definitions.getResourceByName(resourceName).getWg().getCode();
+          if (wg == null || !definitions.getWorkgroups().containsKey(wg))
+            out.append("(No assigned work group) ("+wg+") (4)");
+          else
+            out.append("<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group");
+          return;
+        }
+        case "res-type-count":
+          out.append(definitions.getResources().size());
+          return;
+        }
+        if (com[0].startsWith("!"))
+          return; // nothing to add
+        if (macros.containsKey(com[0])) {
+          out.append(macros.get(com[0]));
+          return;
         }
-      } else if (com[0].equals("settitle")) {
-        workingTitle = s2.substring(9).replace("{", "<%").replace("}", "%>");
-        src = s1+s3;
-      } else if (com[0].equals("setlevel")) {
-        level = Integer.parseInt(com[1]);
-        src = s1+s3;
-      } else if (com.length != 1)
-        throw new Exception("Instruction <%"+s2+"%> not understood parsing profile "+pack.getId());
-      else if (com[0].equals("pageheader"))
-        src = s1+pageHeader(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1))+s3;
-      else if (com[0].equals("newheader"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader.html")+s3;
-      else if (com[0].equals("newheader1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newheader1.html")+s3;
-      else if (com[0].equals("footer"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer.html")+s3;
-      else if (com[0].equals("newfooter"))
-        src = s1+TextFile.fileToString(folders.srcDir + "newfooter.html")+s3;
-      else if (com[0].equals("footer1"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer1.html")+s3;
-      else if (com[0].equals("footer2"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer2.html")+s3;
-      else if (com[0].equals("footer3"))
-        src = s1+TextFile.fileToString(folders.srcDir + "footer3.html")+s3;
-      else if (com[0].equals("title"))
-        src = s1+(workingTitle == null ? Utilities.escapeXml(pack.getTitle()) : workingTitle)+s3;
-      else if (com[0].equals("xtitle"))
-        src = s1+Utilities.escapeXml(pack.getId().toUpperCase().substring(0, 1)+pack.getId().substring(1))+s3;
-      else if (com[0].equals("name"))
-        src = s1+pack.getId()+s3;
-      else if (com[0].equals("package.intro"))
-        src = s1+(intro == null ? pack.metadata("description") : intro) +s3;
-      else if (com[0].equals("package.notes"))
-        src = s1+(notes == null ? "" : notes) +s3;
-      else if (com[0].equals("canonicalname"))
-        src = s1+makeCanonical(pack.getId())+s3;
-      else if (com[0].equals("prettyname"))
-        src = s1+makePretty(pack.getId())+s3;
-      else if (com[0].equals("version"))
-        src = s1+version+s3;
-      else if (com[0].equals("gendate"))
-        src = s1+Config.DATE_FORMAT().format(new Date())+s3;
-      else if (com[0].equals("maindiv"))
-        src = s1+"<div class=\"content\">"+s3;
-      else if (com[0].equals("/maindiv"))
-        src = s1+"</div>"+s3;
-      else if (com[0].equals("mappings-table"))
-        src = s1+genMappingsTable()+s3;
-      else if (com[0].equals("id"))
-        src = s1+pack.getId()+s3;
-      else if (com[0].equals("events"))
-        src = s1 + getEventsTable(pack.getId())+ s3;
-      else if (com[0].equals("resourcecodes"))
-        src = s1 + genResCodes() + s3;
-      else if (com[0].equals("datatypecodes"))
-        src = s1 + genDTCodes() + s3;
-      else if (com[0].equals("allparams"))
-        src = s1 + allParamlist() + s3;
-//      else if (com[0].equals("bindingtable-codelists"))
-//        src = s1 + genBindingTable(true) + s3;
-//      else if (com[0].equals("bindingtable"))
-//        src = s1 + genBindingsTable() + s3;
-      else if (com[0].equals("codeslist"))
-        src = s1 + genCodeSystemsTable() + s3;
-//      else if (com[0].equals("valuesetslist"))
-//        src = s1 + genValueSetsTable() + s3;
-      else if (com[0].equals("igvaluesetslist"))
-        src = s1 + genIGValueSetsTable() + s3;
-      else if (com[0].equals("namespacelist"))
-        src = s1 + genNSList() + s3;
-      else if (com[0].equals("conceptmapslist"))
-        src = s1 + genConceptMapsTable() + s3;
-//      else if (com[0].equals("bindingtable-others"))
-//        src = s1 + genBindingTable(false) + s3;
-      else if (com[0].equals("resimplall"))
-          src = s1 + genResImplList() + s3;
-      else if (com[0].equals("breadcrumb"))
-        src = s1 + breadCrumbManager.make(pack.getId()) + s3;
-      else if (com[0].equals("navlist"))
-        src = s1 + breadCrumbManager.navlist(pack.getId(), genlevel(level)) + s3;
-      else if (com[0].equals("breadcrumblist"))
-        src = s1 + ((ig == null || ig.isCore()) ? breadCrumbManager.makelist(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle()): ig.makeList(pack.getId(), "profile:"+resourceName+"/"+pack.getId(), genlevel(level), pack.getTitle())) + s3;
-      else if (com[0].equals("year"))
-        src = s1 + new SimpleDateFormat("yyyy").format(new Date()) + s3;
-      else if (com[0].equals("buildId"))
-        src = s1 + buildId + s3;
-      else if (com[0].equals("pub-type"))
-        src = s1 + publicationType + s3;
-      else if (com[0].equals("pub-notice"))
-        src = s1 + publicationNotice + s3;
-      else if (com[0].equals("level"))
-        src = s1 + genlevel(level) + s3;
-      else if (com[0].equals("pagepath"))
-        src = s1 + pack.getId() + s3;
-      else if (com[0].equals("rellink")) {
-        if (pack.getId().contains(".html"))
-          throw new Error("Invalid link: "+pack.getId()+" at "+workingTitle);
-        src = s1 + Utilities.URLEncode(pack.getId()+".html") + s3;
-      } else if (com[0].equals("baseURL"))
-        src = s1 + Utilities.URLEncode(baseURL) + s3;
-      else if (com[0].equals("description"))
-        src = s1 + Utilities.escapeXml(pack.getDescription()) + s3;
-      else if (com[0].equals("package-content"))
-        src = s1 + getPackageContent(pack, genlevel(level)) + s3;
-      else if (com[0].equals("search-footer"))
-        src = s1+searchFooter(level)+s3;
-      else if (com[0].equals("search-header"))
-        src = s1+searchHeader(level)+s3;
-      else if (com[0].equals("package.search"))
-        src = s1+getSearch(pack)+s3;
-      else if (com[0].startsWith("!"))
-        src = s1 + s3;
-      else if (com[0].equals("wg")) {
-        String wg = pack.getWg();
-        if (Utilities.noString(wg) && definitions.hasResource(resourceName))
-          wg = definitions.getResourceByName(resourceName).getWg().getCode();
-        if (wg == null || !definitions.getWorkgroups().containsKey(wg))
-          src = s1+"(No assigned work group) ("+wg+") (4)"+s3;
-        else
-          src = s1+ "<a _target=\"blank\" href=\""+definitions.getWorkgroups().get(wg).getUrl()+"\">"+definitions.getWorkgroups().get(wg).getName()+"</a> Work Group"+s3;
-      } else if (com[0].equals("res-type-count")) { 
-        src = s1+definitions.getResources().size()+s3;        
-      } else if (macros.containsKey(com[0])) {
-        src = s1+macros.get(com[0])+s3;
-      } else
         throw new Exception("Instruction <%"+s2+"%> not understood parsing profile "+pack.getId());
-    }
-    return src;
+      }
+    });
   }
 
   private String getPackageContent(Profile pack, String prefix) throws Exception {
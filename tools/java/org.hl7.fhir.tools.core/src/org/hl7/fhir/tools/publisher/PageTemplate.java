@@ -0,0 +1,133 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page source, tokenized into text and <% %> commands.
+ *
+ * Processing follows the rules the publisher has always used for pages:
+ *  - all the <% %> commands are processed before any of the [% %] commands
+ *  - commands are processed in the order they appear in the page
+ *  - the content a command is replaced with is itself processed for commands
+ *
+ * but the output is built up in a single buffer, rather than rebuilding the whole
+ * page for each command
+ */
+public class PageTemplate {
+
+  public interface CommandProcessor {
+    /**
+     * append the content that the command is replaced with to out
+     */
+    public void processCommand(String command, String[] com, StringBuilder out) throws Exception;
+  }
+
+  private static class Segment {
+    private String text;
+    private String command;
+    private String[] com;
+  }
+
+  private List<Segment> segments = new ArrayList<Segment>();
+  private boolean commands;
+
+  public static PageTemplate parse(String src) throws Exception {
+    PageTemplate res = new PageTemplate();
+    int last = 0;
+    int i1 = src.indexOf("<%");
+    while (i1 > -1) {
+      int i2 = src.indexOf("%>", i1);
+      if (i2 < i1 + 2)
+        throw new Exception("Unable to find the end of the instruction "+excerpt(src, i1));
+      if (i1 > last)
+        res.addText(src.substring(last, i1));
+      res.addCommand(src.substring(i1 + 2, i2).trim());
+      last = i2 + 2;
+      i1 = src.indexOf("<%", last);
+    }
+    if (last < src.length())
+      res.addText(src.substring(last));
+    return res;
+  }
+
+  private void addText(String text) {
+    Segment s = new Segment();
+    s.text = text;
+    segments.add(s);
+  }
+
+  private void addCommand(String command) {
+    Segment s = new Segment();
+    s.command = command;
+    s.com = command.split(" ");
+    segments.add(s);
+    commands = true;
+  }
+
+  /**
+   * true if the page has any <% %> commands in it (it may still have [% %] commands)
+   */
+  public boolean hasCommands() {
+    return commands;
+  }
+
+  public String process(CommandProcessor processor) throws Exception {
+    String src;
+    if (!commands)
+      src = segments.isEmpty() ? "" : segments.get(0).text;
+    else {
+      StringBuilder b = new StringBuilder();
+      processCommands(processor, b);
+      src = b.toString();
+    }
+    if (!src.contains("[%"))
+      return src;
+    StringBuilder b = new StringBuilder(src.length());
+    processLateCommands(src, processor, b);
+    return b.toString();
+  }
+
+  private void processCommands(CommandProcessor processor, StringBuilder b) throws Exception {
+    for (Segment s : segments) {
+      if (s.command == null)
+        b.append(s.text);
+      else {
+        StringBuilder content = new StringBuilder();
+        processor.processCommand(s.command, s.com, content);
+        PageTemplate t = parse(content.toString());
+        if (t.commands)
+          t.processCommands(processor, b);
+        else
+          b.append(content);
+      }
+    }
+  }
+
+  // once all the <% %> commands are done, the [% %] ones. The content of each one is
+  // completely processed (both kinds of commands) before moving on to the next
+  private static void processLateCommands(String src, CommandProcessor processor, StringBuilder b) throws Exception {
+    int last = 0;
+    int i1 = src.indexOf("[%");
+    while (i1 > -1) {
+      int i2 = src.indexOf("%]", i1);
+      if (i2 < i1 + 2)
+        throw new Exception("Unable to find the end of the instruction "+excerpt(src, i1));
+      b.append(src, last, i1);
+      String command = src.substring(i1 + 2, i2).trim();
+      StringBuilder content = new StringBuilder();
+      processor.processCommand(command, command.split(" "), content);
+      String s = content.toString();
+      if (s.contains("<%") || s.contains("[%"))
+        s = parse(s).process(processor);
+      b.append(s);
+      last = i2 + 2;
+      i1 = src.indexOf("[%", last);
+    }
+    b.append(src, last, src.length());
+  }
+
+  private static String excerpt(String src, int start) {
+    return src.substring(start, Math.min(src.length(), start + 40));
+  }
+}
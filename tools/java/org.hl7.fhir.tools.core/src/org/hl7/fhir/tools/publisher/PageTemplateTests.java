@@ -0,0 +1,119 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PageTemplateTests {
+
+  // replaces each command with its entry in the map, and records the order they were processed in
+  private class MapProcessor implements PageTemplate.CommandProcessor {
+    private Map<String, String> values = new HashMap<String, String>();
+    private List<String> processed = new ArrayList<String>();
+
+    @Override
+    public void processCommand(String command, String[] com, StringBuilder out) throws Exception {
+      processed.add(command);
+      if (!values.containsKey(com[0]))
+        throw new Exception("unknown command "+command);
+      out.append(values.get(com[0]));
+    }
+  }
+
+  @Test
+  public void testNoCommands() throws Exception {
+    MapProcessor p = new MapProcessor();
+    PageTemplate t = PageTemplate.parse("<p>plain</p>");
+    assertFalse(t.hasCommands());
+    assertEquals("<p>plain</p>", t.process(p));
+    assertEquals("", PageTemplate.parse("").process(p));
+    assertTrue(p.processed.isEmpty());
+  }
+
+  @Test
+  public void testCommands() throws Exception {
+    MapProcessor p = new MapProcessor();
+    p.values.put("a", "A");
+    p.values.put("b", "B");
+    PageTemplate t = PageTemplate.parse("<%a%>-<% b x y %>-");
+    assertTrue(t.hasCommands());
+    assertEquals("A-B-", t.process(p));
+    assertEquals("b x y", p.processed.get(1));
+  }
+
+  @Test
+  public void testUnterminatedCommand() throws Exception {
+    try {
+      PageTemplate.parse("<p>text <%title</p>");
+      fail("unterminated <% not detected");
+    } catch (Exception e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("<%title"));
+    }
+  }
+
+  @Test
+  public void testUnterminatedLateCommand() throws Exception {
+    MapProcessor p = new MapProcessor();
+    p.values.put("a", "A");
+    PageTemplate t = PageTemplate.parse("<%a%> [%title");
+    try {
+      t.process(p);
+      fail("unterminated [% not detected");
+    } catch (Exception e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("[%title"));
+    }
+  }
+
+  @Test
+  public void testNestedCommands() throws Exception {
+    // the content a command is replaced with is processed for commands too
+    MapProcessor p = new MapProcessor();
+    p.values.put("outer", "(<%inner%>)");
+    p.values.put("inner", "[<%leaf%>]");
+    p.values.put("leaf", "x");
+    assertEquals("1(([x]))2", PageTemplate.parse("1(<%outer%>)2").process(p));
+    assertEquals(3, p.processed.size());
+  }
+
+  @Test
+  public void testLateCommandsAfterCommands() throws Exception {
+    // all the <% %> commands are done before any [% %] command, and the content of a
+    // [% %] command is completely processed before the next one
+    MapProcessor p = new MapProcessor();
+    p.values.put("late", "<%early2%>");
+    p.values.put("early1", "E1");
+    p.values.put("early2", "E2");
+    p.values.put("last", "L");
+    assertEquals("E2 E1 L", PageTemplate.parse("[%late%] <%early1%> [%last%]").process(p));
+    assertEquals("early1", p.processed.get(0));
+    assertEquals("late", p.processed.get(1));
+    assertEquals("early2", p.processed.get(2));
+    assertEquals("last", p.processed.get(3));
+  }
+
+  @Test
+  public void testCommandProducesLateCommand() throws Exception {
+    MapProcessor p = new MapProcessor();
+    p.values.put("a", "[%b%]");
+    p.values.put("b", "B");
+    assertEquals("<B>", PageTemplate.parse("<<%a%>>").process(p));
+  }
+
+  @Test
+  public void testMarkerInsideCommand() throws Exception {
+    // a command ends at the first %> after it starts, so a second <% is part of the first command
+    MapProcessor p = new MapProcessor();
+    p.values.put("a", "A");
+    assertEquals("A%>", PageTemplate.parse("<%a <%b%>%>").process(p));
+    assertEquals("a <%b", p.processed.get(0));
+  }
+
+}
@@ -40,6 +40,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -49,6 +50,7 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
@@ -59,6 +61,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -74,6 +77,7 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.convertors.SpecDifferenceEvaluator.SpecPackage;
 import org.hl7.fhir.definitions.Config;
 import org.hl7.fhir.definitions.generators.specification.DataTypeTableGenerator;
 import org.hl7.fhir.definitions.generators.specification.DictHTMLGenerator;
@@ -404,7 +408,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   private SourceParser prsr;
   private PageProcessor page;
-  // private BookMaker book;
+  private BookMaker book;
 
   private boolean isGenerate;
   private boolean noArchive;
@@ -421,9 +425,8 @@ public class Publisher implements URIResolver, SectionNumberer {
   private Map<String, String> xmls = new HashMap<String, String>();
   private Map<String, String> jsons = new HashMap<String, String>();
   private Map<String, String> ttls = new HashMap<String, String>();
-  private Map<String, Long> dates = new HashMap<String, Long>();
   private Map<String, Boolean> buildFlags = new HashMap<String, Boolean>();
-  private IniFile cache;
+  private BuildCache buildCache;
   private String singleResource;
   private String singlePage;
   private PublisherTestSuites tester;
@@ -445,9 +448,29 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   private String validateId;
 
+  private int threads = 1; // for the parts of the build that can be run on a worker pool
+  private ArchiveService archives; // the zips etc that the build produces
+
+  private boolean daemon; // running under PublisherDaemon - don't exit on failure
+
   public static void main(String[] args) throws Exception {
     //
 
+    String dir = hasParam(args, "-folder") ? getNamedParam(args, "-folder") : System.getProperty("user.dir");
+    if (hasParam(args, "-serve")) {
+      int port = 8080;
+      if (hasParam(args, "-port")) {
+        String p = getNamedParam(args, "-port");
+        if (p == null || !Utilities.isInteger(p) || Integer.parseInt(p) < 1 || Integer.parseInt(p) > 65535)
+          throw new Exception("-port must be followed by the port number to listen on (1 - 65535), not '"+p+"'");
+        port = Integer.parseInt(p);
+      }
+      new PublisherDaemon(args, dir, hasParam(args, "-output") ? getNamedParam(args, "-output") : null, port).execute();
+    } else
+      configure(args, dir).execute(dir);
+  }
+
+  public static Publisher configure(String[] args, String dir) throws Exception {
     Publisher pub = new Publisher();
     pub.page = new PageProcessor(PageProcessor.DEF_TS_SERVER);
     pub.isGenerate = !(args.length > 1 && hasParam(args, "-nogen"));
@@ -460,6 +483,12 @@ public class Publisher implements URIResolver, SectionNumberer {
     pub.noPartialBuild = (args.length > 1 && hasParam(args, "-nopartial"));
     pub.validateBundles = hasParam(args, "-validate-bundles");
     pub.isPostPR = (args.length > 1 && hasParam(args, "-post-pr"));
+    if (hasParam(args, "-threads")) {
+      String t = getNamedParam(args, "-threads");
+      if (t == null || !Utilities.isInteger(t) || Integer.parseInt(t) < 1)
+        throw new Exception("-threads must be followed by the number of threads to use (1 or more), not '"+t+"'");
+      pub.threads = Integer.parseInt(t);
+    }
     if (hasParam(args, "-resource"))
       pub.singleResource = getNamedParam(args, "-resource");
     if (hasParam(args, "-page"))
@@ -482,10 +511,20 @@ public class Publisher implements URIResolver, SectionNumberer {
       pub.page.setPublicationNotice(PageProcessor.CI_PUB_NOTICE);
     }
     pub.validateId = getNamedParam(args, "-validate");
-    String dir = hasParam(args, "-folder") ? getNamedParam(args, "-folder") : System.getProperty("user.dir");
     pub.outputdir = hasParam(args, "-output") ? getNamedParam(args, "-output") : null; 
     pub.isCIBuild = dir.contains("/ubuntu/agents/"); 
-    pub.execute(dir);
+    return pub;
+  }
+
+  public void setDaemon(boolean daemon) {
+    this.daemon = daemon;
+  }
+
+  /**
+   * what the daemon keeps from one build to the next
+   */
+  public void setResident(ResidentState resident) {
+    page.setResident(resident);
   }
 
   private static boolean hasParam(String[] args, String param) {
@@ -529,22 +568,23 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.log("Detected Java version: " + System.getProperty("java.version")+" from "+System.getProperty("java.home")+" on "+System.getProperty("os.arch"), LogMessageType.Process);
     try {
       tester.initialTests();
+      XmlParsers.clearEntities();
       page.setFolders(new FolderManager(folder, outputdir));
+      buildCache = new BuildCache(page.getFolders().rootDir, page.getFolders().rootDir + "temp" + File.separator + "build.cache");
       if (!initialize(folder))
         throw new Exception("Unable to publish as preconditions aren't met");
+      archives = new ArchiveService(threads, page.getMetrics());
 
 
-      cache = new IniFile(page.getFolders().rootDir + "temp" + File.separator + "build.cache");
       loadSuppressedMessages(page.getFolders().rootDir);
       boolean doAny = false;
-      for (String n : dates.keySet()) {
-        Long d = cache.getLongProperty("dates", n);
-        boolean b = d == null || (dates.get(n) > d);
-        cache.setLongProperty("dates", n, dates.get(n).longValue(), null);
+      Map<String, Boolean> changes = buildCache.checkChanges();
+      for (String n : changes.keySet()) {
+        boolean b = changes.get(n);
         buildFlags.put(n.toLowerCase(), b);
         doAny = doAny || b;
       }
-      cache.save();
+      // (the build cache is saved once the build has produced the artifacts)
       // overriding build
 
       if (noPartialBuild || !doAny || !(new File(page.getFolders().dstDir + "qa.html").exists()))
@@ -573,6 +613,9 @@ public class Publisher implements URIResolver, SectionNumberer {
           if (buildFlags.get(n))
             b.append(n);
         page.log("  Build: "+b.toString(), LogMessageType.Process);
+        for (String n : buildCache.getArtifacts())
+          if (buildFlags.get(n.toLowerCase()) && !buildCache.getReasons(n).isEmpty())
+            page.log("    "+n+": "+buildCache.getReasons(n).toString(), LogMessageType.Process);
       } else {
         if (!noSound) 
           AudioUtilities.tone(1200, 30);
@@ -584,14 +627,18 @@ public class Publisher implements URIResolver, SectionNumberer {
       Utilities.createDirectory(page.getFolders().dstDir);
       Utilities.deleteTempFiles();
 
+      BuildMetrics.Timer timer = page.getMetrics().start("phase", "load");
       page.getBreadCrumbManager().parse(page.getFolders().srcDir + "hierarchy.xml");
       page.loadSnomed();
       page.loadLoinc();
       page.loadUcum();
       buildFeedsAndMaps();
       prsr.setExternals(externals);
+      timer.stop();
 
+      timer = page.getMetrics().start("phase", "parse");
       prsr.parse(page.getGenDate(), page.getValidationErrors());
+      timer.stop();
       for (String n : page.getDefinitions().sortedResourceNames())
         if (!page.getBreadCrumbManager().knowsResource(n))
           page.getValidationErrors().add(new ValidationMessage(Source.Publisher, IssueType.INVALID, -1, -1, "hierarchy.xml", "Resource not found: "+n,IssueSeverity.ERROR));
@@ -615,27 +662,41 @@ public class Publisher implements URIResolver, SectionNumberer {
         copyStaticContent();
       }
       page.makeRenderingContext();
+      timer = page.getMetrics().start("phase", "valuesets");
       loadValueSets1();
       prsr.getRegistry().commit();
+      timer.stop();
 
 
+      timer = page.getMetrics().start("phase", "profile");
       generateSCMaps();
       validate();
       processProfiles();
+      timer.stop();
       checkAllOk();
 
       if (isGenerate) {
+        timer = page.getMetrics().start("phase", "generate");
         produceSpecification();
+        timer.stop();
+        page.log(archives.report(), LogMessageType.Process);
         checkAllOk();
       } 
 
-      if (doValidate)
+      if (doValidate) {
+        timer = page.getMetrics().start("phase", "validate");
         validationProcess();
+        timer.stop();
+      }
       page.saveSnomed();
       page.getWorkerContext().saveCache();
       processWarnings(false);
       if (isGenerate && buildFlags.get("all"))
         produceQA();
+      if (isGenerate) {
+        page.getMetrics().save(page.getFolders().dstDir + "build-metrics.json");
+        commitBuildCache();
+      }
 
       if (!buildFlags.get("all")) {
         page.log("This was a Partial Build", LogMessageType.Process);
@@ -653,6 +714,7 @@ public class Publisher implements URIResolver, SectionNumberer {
         AudioUtilities.tone(1000, 10);
         AudioUtilities.tone(800, 10);
       }
+      page.log(page.getTemplates().summary(), LogMessageType.Process);
       page.log("Finished publishing FHIR @ " + Config.DATE_FORMAT().format(Calendar.getInstance().getTime()), LogMessageType.Process);
     } catch (Exception e) {
 
@@ -700,7 +762,11 @@ public class Publisher implements URIResolver, SectionNumberer {
       System.out.println("Error: " + e.getMessage());
       e.printStackTrace();
       TextFile.stringToFile(StringUtils.defaultString(e.getMessage()), Utilities.path(folder, "publish", "simple-error.txt"));
-      System.exit(1);
+      if (!daemon)
+        System.exit(1);
+    } finally {
+      if (archives != null)
+        archives.close();
     }
   }
 
@@ -959,7 +1025,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     for (FHIRPathUsage p : fpUsages) {
       checkExpression(b, fp, p);
     }
-    TextFile.stringToFile(b.toString(), Utilities.path(page.getFolders().dstDir, "fhirpaths.txt"));
+    TextFile.stringToFile(b.toString(), output(Utilities.path(page.getFolders().dstDir, "fhirpaths.txt")));
 
     checkAllOk();
   }
@@ -1277,15 +1343,19 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.log(" ...resource CodeSystem", LogMessageType.Process);
     ResourceDefn r = page.getDefinitions().getResources().get("CodeSystem");
     if (isGenerate && wantBuild("CodeSystem")) {
+      String was = building(r.getName());
       produceResource1(r, false);
       produceResource2(r, false, null, false);
+      building(was);
     }
     generateCodeSystemsPart2();
     page.log(" ...resource ValueSet", LogMessageType.Process);
     r = page.getDefinitions().getResources().get("ValueSet");
     if (isGenerate && wantBuild("ValueSet")) {
+      String was = building(r.getName());
       produceResource1(r, false);
       produceResource2(r, false, null, false);
+      building(was);
     }
     page.log(" ...value sets", LogMessageType.Process);
     generateValueSetsPart2();
@@ -1365,19 +1435,19 @@ public class Publisher implements URIResolver, SectionNumberer {
         }
       }
     }
-    xml.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.xml")), bnd);
+    xml.compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.xml"))), bnd);
     cloneToXhtml("namingsystem-terminologies", "Terminology Registry", false, "resource-instance:NamingSystem", "Terminology Registry", null, wg("vocab"));
     xml.setOutputStyle(OutputStyle.CANONICAL);
-    xml.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.canonical.xml")), bnd);
+    xml.compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.canonical.xml"))), bnd);
     JsonParser json = new JsonParser();
     json.setOutputStyle(OutputStyle.PRETTY);
-    json.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.json")), bnd);
+    json.compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.json"))), bnd);
     jsonToXhtml("namingsystem-terminologies", "Terminology Registry", TextFile.fileToString(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.json")), "resource-instance:NamingSystem", "Terminology Registry", null, wg("vocab"));
     json.setOutputStyle(OutputStyle.CANONICAL);
-    json.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.canonical.json")), bnd);
+    json.compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.canonical.json"))), bnd);
     RdfParser rdf = new RdfParser();
     rdf.setOutputStyle(OutputStyle.PRETTY);
-    rdf.compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.ttl")), bnd);
+    rdf.compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.ttl"))), bnd);
     ttlToXhtml("namingsystem-terminologies", "Terminology Registry", TextFile.fileToString(Utilities.path(page.getFolders().dstDir, "namingsystem-terminologies.ttl")), "resource-instance:NamingSystem", "Terminology Registry", null, wg("vocab"));
 
     StringBuilder b = new StringBuilder();
@@ -1407,9 +1477,9 @@ public class Publisher implements URIResolver, SectionNumberer {
       b.append("</tr>\r\n");
     }
     b.append("</table>\r\n");
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", b.toString()).replace("<%example-usage%>", "");
+    String html = page.getTemplates().getSource("template-example.html").replace("<%example%>", b.toString()).replace("<%example-usage%>", "");
     html = page.processPageIncludes("namingsystem-terminologies.html", html, "resource-instance:NamingSystem", null, bnd, null, "Example", null, null, page.getDefinitions().getWorkgroups().get("fhir"));
-    TextFile.stringToFile(html, page.getFolders().dstDir + "namingsystem-terminologies.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + "namingsystem-terminologies.html"));
     cachePage("namingsystem-terminologies.html", html, "Registered Code Systems", false);
   }
 
@@ -1485,27 +1555,27 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
     RenderingContext lrc = page.getRc().copy().setLocalPrefix("").setTooCostlyNoteEmpty(PageProcessor.TOO_MANY_CODES_TEXT_EMPTY).setTooCostlyNoteNotEmpty(PageProcessor.TOO_MANY_CODES_TEXT_NOT_EMPTY);
     RendererFactory.factory(cpd, lrc).render(cpd);
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".xml");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".xml"));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cpd);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".canonical.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".canonical.xml"));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, cpd);
     s.close();
     cloneToXhtml("compartmentdefinition-" + c.getName().toLowerCase(), "Compartment Definition for "+c.getName(), true, "resource-instance:CompartmentDefinition", "Compartment Definition for "+c.getName(), null, wg("fhir"));
-    s = new FileOutputStream(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".json"));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cpd);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".canonical.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".canonical.json"));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, cpd);
     s.close();
     jsonToXhtml("compartmentdefinition-" + c.getName().toLowerCase(), "Compartment Definition for "+c.getName(), resource2Json(cpd), "resource-instance:CompartmentDefinition", "Compartment Definition for "+c.getName(), null, wg("fhir"));
-    s = new FileOutputStream(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".ttl");
+    s = new FileOutputStream(output(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".ttl"));
     new RdfParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cpd);
     s.close();
     ttlToXhtml("compartmentdefinition-" + c.getName().toLowerCase(), "Compartment Definition for "+c.getName(), resource2Ttl(cpd), "resource-instance:CompartmentDefinition", "Compartment Definition for "+c.getName(), null, wg("fhir"));
 
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".xml"), new CSFile(page.getFolders().dstDir + "examples" + File.separator
-        + "compartmentdefinition-" + c.getName().toLowerCase()+ ".xml"));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + "compartmentdefinition-" + c.getName().toLowerCase() + ".xml"), new CSFile(output(page.getFolders().dstDir + "examples" + File.separator
+        + "compartmentdefinition-" + c.getName().toLowerCase()+ ".xml")));
     addToResourceFeed(cpd, page.getResourceBundle());
   }
   
@@ -1617,27 +1687,27 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (register) {
       RenderingContext lrc = page.getRc().copy().setLocalPrefix("").setTooCostlyNoteEmpty(PageProcessor.TOO_MANY_CODES_TEXT_EMPTY).setTooCostlyNoteNotEmpty(PageProcessor.TOO_MANY_CODES_TEXT_NOT_EMPTY);
       RendererFactory.factory(cpbs, lrc).render(cpbs);
-      FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + "capabilitystatement-" + name + ".xml");
+      FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + "capabilitystatement-" + name + ".xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cpbs);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "capabilitystatement-" + name + ".canonical.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "capabilitystatement-" + name + ".canonical.xml"));
       new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, cpbs);
       s.close();
       cloneToXhtml("capabilitystatement-" + name + "", "Basic Capability Statement", true, "resource-instance:CapabilityStatement", "Capability Statement", null, wg("fhir"));
-      s = new FileOutputStream(page.getFolders().dstDir + "capabilitystatement-" + name + ".json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "capabilitystatement-" + name + ".json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cpbs);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "capabilitystatement-" + name + ".canonical.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "capabilitystatement-" + name + ".canonical.json"));
       new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, cpbs);
       s.close();
       jsonToXhtml("capabilitystatement-" + name, "Base Capability Statement", resource2Json(cpbs), "resource-instance:CapabilityStatement", "Capability Statement", null, wg("fhir"));
-      s = new FileOutputStream(page.getFolders().dstDir + "capabilitystatement-" + name + ".ttl");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "capabilitystatement-" + name + ".ttl"));
       new RdfParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cpbs);
       s.close();
       ttlToXhtml("capabilitystatement-" + name, "Base Capability Statement", resource2Ttl(cpbs), "resource-instance:CapabilityStatement", "Capability Statement", null, wg("fhir"));
 
-      Utilities.copyFile(new CSFile(page.getFolders().dstDir + "capabilitystatement-" + name + ".xml"), new CSFile(page.getFolders().dstDir + "examples" + File.separator
-          + "capabilitystatement-" + name + ".xml"));
+      Utilities.copyFile(new CSFile(page.getFolders().dstDir + "capabilitystatement-" + name + ".xml"), new CSFile(output(page.getFolders().dstDir + "examples" + File.separator
+          + "capabilitystatement-" + name + ".xml")));
     }
     if (buildFlags.get("all")) {
       RenderingContext lrc = page.getRc().copy().setLocalPrefix("");
@@ -1714,9 +1784,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       errors.add("Unable to find " + purpose + " file " + file + " in " + dir);
       return false;
     } else if (category != null) {
-      long d = f.lastModified();
-      if ((!dates.containsKey(category) || d > dates.get(category)) && !f.getAbsolutePath().endsWith(".gen.svg") && !f.getName().contains("please-close-this-in-excel-and-return-the-build-prior-to-committing") )
-        dates.put(category, d);
+      buildCache.register(category, f);
       return true;
     } else
       return true;
@@ -1738,7 +1806,8 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.setVersion(FHIRVersion.fromCode(page.getIni().getStringProperty("FHIR", "version")));
 
       prsr = new SourceParser(page, folder, page.getDefinitions(), web, page.getVersion(), page.getWorkerContext(), page.getGenDate(), page, fpUsages, isCIBuild);
-      prsr.checkConditions(errors, dates);
+      prsr.setThreads(threads);
+      prsr.checkConditions(errors, buildCache);
       page.setRegistry(prsr.getRegistry());
       page.getDiffEngine().loadFromIni(prsr.getIni());
 
@@ -1768,8 +1837,8 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (checkFile("translations", page.getFolders().rootDir + "implementations" + File.separator, "translations.xml", errors, null)) {
       // schema check
       XmlValidator xv = new XmlValidator(page.getValidationErrors(), page.getFolders().rootDir + "implementations", Utilities.path(page.getFolders().rootDir, "tools", "schematron"), new String[] {"translations.xsd"});
-      xv.checkBySchema(Utilities.path(page.getFolders().rootDir, "implementations", "translations.xml"), true);
-      Utilities.copyFile(page.getFolders().rootDir + "implementations" + File.separator + "translations.xml", page.getFolders().dstDir + "translations.xml");
+      xv.validateBySchema(Utilities.path(page.getFolders().rootDir, "implementations", "translations.xml"), true);
+      Utilities.copyFile(page.getFolders().rootDir + "implementations" + File.separator + "translations.xml", output(page.getFolders().dstDir + "translations.xml"));
       page.getTranslations().setLang("en");
       page.getTranslations().load(page.getFolders().rootDir + "implementations" + File.separator + "translations.xml");
     }
@@ -1799,9 +1868,10 @@ public class Publisher implements URIResolver, SectionNumberer {
         page.getValidationErrors().addAll(val.check(n, page.getDefinitions().getResources().get(n)));
     page.getValidationErrors().addAll(val.check("Parameters", page.getDefinitions().getResourceByName("Parameters")));
 
+    ExampleReferenceIndex index = new ExampleReferenceIndex(page.getDefinitions(), page.pipeResources());
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       ResourceDefn r = page.getDefinitions().getResources().get(rname);
-      checkExampleLinks(page.getValidationErrors(), r);
+      checkExampleLinks(page.getValidationErrors(), r, index);
     }
     for (Compartment cmp : page.getDefinitions().getCompartments())
       page.getValidationErrors().addAll(val.check(cmp));
@@ -1831,7 +1901,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   private void processWarnings(boolean showOnlyErrors) throws Exception {
     String xslt = Utilities.path(page.getFolders().rootDir, "implementations", "xmltools", "OwnerResources.xslt");
-    OutputStreamWriter s = new OutputStreamWriter(new FileOutputStream(page.getFolders().dstDir + "warnings.xml"), "UTF-8");
+    OutputStreamWriter s = new OutputStreamWriter(new FileOutputStream(output(page.getFolders().dstDir + "warnings.xml")), "UTF-8");
     s.write("<warnings>");
     for (WorkGroup wg : page.getDefinitions().getWorkgroups().values()) {
       s.write("<wg code=\""+wg.getCode()+"\" name=\""+wg.getName()+"\" url=\""+wg.getUrl()+"\"/>\r\n");
@@ -1863,7 +1933,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     s.close();
 
     String xslt2 = Utilities.path(page.getFolders().rootDir, "implementations", "xmltools", "CategorizeWarnings.xslt");
-    FileOutputStream s2 = new FileOutputStream(page.getFolders().dstDir + "work-group-warnings.xml");
+    FileOutputStream s2 = new FileOutputStream(output(page.getFolders().dstDir + "work-group-warnings.xml"));
     try {
       s2.write(XsltUtilities.saxonTransform(page.getFolders().dstDir + "warnings.xml", xslt2).getBytes("UTF8"));
     } catch (Exception e) {
@@ -1897,6 +1967,38 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.getQa().setCounts(ee, w, i);
   }
 
+  /**
+   * record the inputs of each artifact that this build produced, and the files it wrote,
+   * so the next build can tell what's out of date
+   */
+  private void commitBuildCache() {
+    for (String artifact : buildCache.getArtifacts()) {
+      if (hasBuildFlag(artifact.toLowerCase()))
+        buildCache.commit(artifact);
+    }
+    buildCache.save();
+  }
+
+  /**
+   * the file is about to be written: note it as an output of the artifact being built 
+   * (see BuildCache). Wraps the filename where it's written
+   */
+  private String output(String filename) {
+    return buildCache == null ? filename : buildCache.output(filename);
+  }
+
+  private String output(String artifact, String filename) {
+    return buildCache == null ? filename : buildCache.output(artifact, filename);
+  }
+
+  /**
+   * the files written from now on (on this thread) are outputs of the artifact. Returns the 
+   * artifact that was being built before
+   */
+  private String building(String artifact) {
+    return buildCache == null ? null : buildCache.building(artifact);
+  }
+
   private boolean hasBuildFlag(String n) {
     return (buildFlags.containsKey("all") && buildFlags.get("all")) || (buildFlags.containsKey(n) && buildFlags.get(n));
   }
@@ -1906,23 +2008,22 @@ public class Publisher implements URIResolver, SectionNumberer {
     return buildFlags.get("all") || (!buildFlags.containsKey(rname) || buildFlags.get(rname));
   }
 
-  private void checkExampleLinks(List<ValidationMessage> errors, ResourceDefn r) throws Exception {
+  private void checkExampleLinks(List<ValidationMessage> errors, ResourceDefn r, ExampleReferenceIndex index) throws Exception {
     for (Example e : r.getExamples()) {
       try {
         if (e.getXml() != null) {
           List<ExampleReference> refs = new ArrayList<ExampleReference>();
           listLinks(e.getXml().getDocumentElement(), refs);
           for (ExampleReference ref : refs) {
-            if (!ref.isExempt() && !resolveLink(ref, e)) {
+            if (!ref.isExempt() && !resolveLink(ref, e, index)) {
               String path = ref.getPath().replace("/f:", ".").substring(1)+" (example "+e.getTitle()+")";
               if (ref.hasType() && page.getDefinitions().hasResource(ref.getType())) {
                 errors.add(new ValidationMessage(Source.ExampleValidator, IssueType.BUSINESSRULE, -1, -1, path,
-                    "Unable to resolve example reference to " + ref.getRef() + " in " + e.getTitle() + " (Possible Ids: " + listTargetIds(ref.getType())+")",
-                    "Unable to resolve example reference to " + ref.getRef() + " in <a href=\""+e.getTitle() + ".html"+"\">" + e.getTitle() + "</a> (Possible Ids: " + listTargetIds(ref.getType())+")",
+                    "Unable to resolve example reference to " + ref.getRef() + " in " + e.getTitle() + " (Possible Ids: " + index.listTargetIds(ref.getType())+")",
+                    "Unable to resolve example reference to " + ref.getRef() + " in <a href=\""+e.getTitle() + ".html"+"\">" + e.getTitle() + "</a> (Possible Ids: " + index.listTargetIds(ref.getType())+")",
                     IssueSeverity.INFORMATION/*WARNING*/));
               } else {
-                String regex = "((http|https)://([A-Za-z0-9\\\\\\/\\.\\:\\%\\$])*)?("+page.pipeResources()+")\\/"+FormatUtilities.ID_REGEX+"(\\/_history\\/"+FormatUtilities.ID_REGEX+")?";
-                if (ref.getRef().matches(regex)) {
+                if (index.isReference(ref.getRef())) {
                   errors.add(new ValidationMessage(Source.ExampleValidator, IssueType.BUSINESSRULE, -1, -1, path,
                       "Unable to resolve example reference " + ref.getRef() + " in " + e.getTitle(),
                       "Unable to resolve example reference " + ref.getRef() + " in <a href=\""+e.getTitle() + ".html"+"\">" + e.getTitle() + "</a>",
@@ -1944,33 +2045,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
   }
 
-  private String listTargetIds(String type) throws Exception {
-    StringBuilder b = new StringBuilder();
-    ResourceDefn r = page.getDefinitions().getResourceByName(type);
-    if (r != null) {
-      for (Example e : r.getExamples()) {
-        if (!Utilities.noString(e.getId()))
-          b.append(e.getId()).append(", ");
-        if (e.getXml() != null) {
-          if (e.getXml().getDocumentElement().getLocalName().equals("feed")) {
-            List<Element> entries = new ArrayList<Element>();
-            XMLUtil.getNamedChildren(e.getXml().getDocumentElement(), "entry", entries);
-            for (Element c : entries) {
-              String id = XMLUtil.getNamedChild(c, "id").getTextContent();
-              if (id.startsWith("http://hl7.org/fhir/") && id.contains("@"))
-                b.append(id.substring(id.indexOf("@") + 1)).append(", ");
-              else
-                b.append(id).append(", ");
-            }
-          }
-        }
-      }
-    } else
-      b.append("(unknown resource type)");
-    return b.toString();
-  }
-
-  private boolean resolveLink(ExampleReference ref, Example src) throws Exception {
+  private boolean resolveLink(ExampleReference ref, Example src, ExampleReferenceIndex index) throws Exception {
     if (!ref.hasType() && ref.getId() == null)
       return false;
     if (!ref.hasType() && ref.getId().startsWith("#"))
@@ -1980,25 +2055,10 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (ref.getId().startsWith("#"))
       return false;
     String id = ref.getId(); 
-    ResourceDefn r = page.getDefinitions().getResourceByName(ref.getType());
-    for (Example e : r.getExamples()) {
-      if (id.equals(e.getId())) {
-        e.getInbounds().add(src);
-        return true;
-      }
-      if (e.getXml() != null) {
-        if (resolveLinkInBundle(ref, src, e, id))
-          return true;
-      }
-    }
-    // didn't find it? well, we'll look through all the other examples looking for bundles that contain it
-    for (ResourceDefn rt : page.getDefinitions().getResources().values()) {
-      for (Example e : rt.getExamples()) {
-        if (e.getXml() != null) {
-          if (resolveLinkInBundle(ref, src, e, id))
-            return true;
-        }
-      }
+    Example e = index.find(ref.getType(), id);
+    if (e != null) {
+      e.getInbounds().add(src);
+      return true;
     }
     // still not found?
     if (ref.type.equals("ConceptMap"))
@@ -2008,34 +2068,8 @@ public class Publisher implements URIResolver, SectionNumberer {
         return true;
       if (page.getProfiles().has("http://hl7.org/fhir/"+ref.type+"/"+ref.getId()) || page.getWorkerContext().hasResource(StructureDefinition.class, "http://hl7.org/fhir/"+ref.type+"/"+ref.getId()))
         return true;
-      for (Profile cp : page.getDefinitions().getPackList())
-        for (ConstraintStructure p : cp.getProfiles())
-          if (p.getId().equals(id))
-            return true;
-      for (ResourceDefn rd : page.getDefinitions().getResources().values())
-        for (Profile cp : rd.getConformancePackages())
-          for (ConstraintStructure p : cp.getProfiles())
-            if (p.getId().equals(id))
-              return true;
-    }
-    return false;
-  }
-
-  private boolean resolveLinkInBundle(ExampleReference ref, Example src, Example e, String id) {
-    if (e.getXml().getDocumentElement().getLocalName().equals("Bundle")) {
-      List<Element> entries = new ArrayList<Element>();
-      XMLUtil.getNamedChildren(e.getXml().getDocumentElement(), "entry", entries);
-      for (Element c : entries) {
-        Element resh = XMLUtil.getNamedChild(c, "resource");
-        if (resh != null) {
-          Element res = XMLUtil.getFirstChild(resh);
-          String _id = XMLUtil.getNamedChildValue(res, "id");
-          if (id.equals(_id) && ref.getType().equals(res.getLocalName())) {
-            e.getInbounds().add(src);
-            return true;
-          }
-        }
-      }
+      if (index.isProfile(id))
+        return true;
     }
     return false;
   }
@@ -2118,32 +2152,141 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.getNavigation().parse(page.getFolders().srcDir + "navigation.xml");
 
     processCDA();
-    page.log("Generate RDF", LogMessageType.Process);
-    processRDF();
-
-    page.log("Produce Schemas", LogMessageType.Process);
-    new SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir+"codegen"+File.separator, page.getFolders().dstDir,
-        page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), true, page.getWorkerContext());
-    new SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
-        page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), false, page.getWorkerContext());
-    new org.hl7.fhir.definitions.generators.specification.json.SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
-        page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), page.getWorkerContext());
-    new org.hl7.fhir.definitions.generators.specification.json.JsonLDDefinitionsGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().dstDir,
-        page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), page.getWorkerContext());
+    // the search parameter definitions are built lazily, and building them registers them with
+    // the worker context and the definitions, so do that now, before the phases below start
+    // reading the definitions concurrently. Nothing else below changes them
+    buildSearchDefinitions();
+
+    // these all work from the loaded definitions, and mostly don't depend on each other.
+    // The XSD generator clears the xsd folder, so the JSON schema (which is written there too)
+    // has to follow it, and the schema zip packages up most of the others
+    BuildTaskGraph graph = new BuildTaskGraph("Definitions", threads);
+    graph.setMetrics(page.getMetrics());
+    graph.add("rdf", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        page.log("Generate RDF", LogMessageType.Process);
+        processRDF();
+      }
+    }).produces("rdf");
+    graph.add("xsd-codegen", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        page.log("Produce Schemas (code generation)", LogMessageType.Process);
+        new SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir+"codegen"+File.separator, page.getFolders().dstDir,
+            page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), true, page.getWorkerContext());
+      }
+    }).produces("xsd-codegen");
+    graph.add("xsd", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        page.log("Produce Schemas", LogMessageType.Process);
+        new SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
+            page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), false, page.getWorkerContext());
+      }
+    }).produces("xsd");
+    graph.add("json-schema", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        new org.hl7.fhir.definitions.generators.specification.json.SchemaGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().xsdDir, page.getFolders().dstDir,
+            page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), page.getWorkerContext());
+      }
+    }).needs("xsd").produces("json-schema");
+    graph.add("json-ld", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        new org.hl7.fhir.definitions.generators.specification.json.JsonLDDefinitionsGenerator().generate(page.getDefinitions(), page.getIni(), page.getFolders().tmpResDir, page.getFolders().dstDir,
+            page.getFolders().srcDir, page.getVersion().toCode(), Config.DATE_FORMAT().format(page.getGenDate().getTime()), page.getWorkerContext());
+      }
+    }).produces("json-ld");
+    graph.add("shex", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        List<StructureDefinition> list = new ArrayList<StructureDefinition>();
+        for (StructureDefinition sd : page.getWorkerContext().allStructures()) {
+          if (sd.getDerivation() == TypeDerivationRule.SPECIALIZATION)
+            list.add(sd);
+        }
+        ShExGenerator shgen = new ShExGenerator(page.getWorkerContext());
+        shgen.completeModel = true;
+        shgen.withComments = false;
+        TextFile.stringToFile(shgen.generate(HTMLLinkPolicy.NONE, list), output(page.getFolders().dstDir+"fhir.shex"), false);
+      }
+    }).produces("shex");
+    graph.add("xver-paths", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        new XVerPathsGenerator(page.getDefinitions(), Utilities.path(page.getFolders().dstDir, "xver-paths-"+Constants.VERSION_MM+".json"), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "xver-paths-4.0.json")).execute();
+      }
+    }).produces("xver-paths");
+    graph.add("graphql", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        produceGraphQL();
+      }
+    }).produces("graphql");
+    graph.add("element-lists", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        TextFile.stringToFile(page.genBackboneElementsJson(), output(Utilities.path(page.getFolders().dstDir, "backbone-elements.json")));
+        TextFile.stringToFile(page.genChoiceElementsJson(), output(Utilities.path(page.getFolders().dstDir, "choice-elements.json")));
+      }
+    }).produces("element-lists");
+    graph.add("schematron", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        produceSchematrons();
+      }
+    }).produces("schematron");
+    graph.add("schema-zip", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        produceSchemaZip();
+      }
+    }).needs("xsd", "xsd-codegen", "json-schema", "schematron", "graphql", "shex").produces("schema-zip");
+    graph.add("r4-definitions", new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        page.log("Load R4 Definitions", LogMessageType.Process);
+        loadR4Definitions();
+      }
+    }).produces("r4-definitions");
+    graph.execute();
+    page.log(graph.report(), LogMessageType.Process);
+    // the messages from the phases (e.g. the sparql rules) are only in once the graph is finished
+    checkAllOk();
 
-    List<StructureDefinition> list = new ArrayList<StructureDefinition>();
+    page.log("Produce Content", LogMessageType.Process);
+    produceSpec();
+
+    if (buildFlags.get("all")) {
+      if (web) {
+        generateRedirects();
+      }
+    }
+    page.clean();
+  }
+
+  private void buildSearchDefinitions() throws Exception {
+    // same order as produceGraphQL, which is where they used to get built
     for (StructureDefinition sd : page.getWorkerContext().allStructures()) {
-      if (sd.getDerivation() == TypeDerivationRule.SPECIALIZATION)
-        list.add(sd);
+      if (sd.getKind() == StructureDefinitionKind.RESOURCE && sd.getAbstract() == false && sd.getDerivation() == TypeDerivationRule.SPECIALIZATION) {
+        ResourceDefn rd = page.getDefinitions().getResourceByName(sd.getName());
+        while (rd != null) {
+          for (String n : sorted(rd.getSearchParams().keySet())) {
+            SearchParameterDefn spd = rd.getSearchParams().get(n);
+            if (spd.getResource() == null)
+              buildSearchDefinition(rd, spd);
+          }
+          rd = "Base".equals(rd.getRoot().typeCode())  ? null : page.getDefinitions().getResourceByName(rd.getRoot().typeCode());
+        }
+      }
     }
-    ShExGenerator shgen = new ShExGenerator(page.getWorkerContext());
-    shgen.completeModel = true;
-    shgen.withComments = false;
-    TextFile.stringToFile(shgen.generate(HTMLLinkPolicy.NONE, list), page.getFolders().dstDir+"fhir.shex", false);
+  }
 
-    new XVerPathsGenerator(page.getDefinitions(), Utilities.path(page.getFolders().dstDir, "xver-paths-"+Constants.VERSION_MM+".json"), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "xver-paths-4.0.json")).execute();
+  private void produceGraphQL() throws Exception {
     GraphQLSchemaGenerator gql = new GraphQLSchemaGenerator(page.getWorkerContext());
-    gql.generateTypes(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "types.graphql")));
+    gql.generateTypes(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "types.graphql"))));
     Set<String> names = new HashSet<String>();
     for (StructureDefinition sd : page.getWorkerContext().allStructures()) {
       if (sd.getKind() == StructureDefinitionKind.RESOURCE && sd.getAbstract() == false && sd.getDerivation() == TypeDerivationRule.SPECIALIZATION && !names.contains(sd.getUrl())) {
@@ -2153,51 +2296,33 @@ public class Publisher implements URIResolver, SectionNumberer {
         ResourceDefn rd = page.getDefinitions().getResourceByName(sd.getName());
         while (rd != null) {
           for (String n : sorted(rd.getSearchParams().keySet())) {
-            SearchParameterDefn spd = rd.getSearchParams().get(n);
-            if (spd.getResource() == null)
-              buildSearchDefinition(rd, spd);
-            splist.add(spd.getResource());
+            splist.add(rd.getSearchParams().get(n).getResource());
           }
           rd = "Base".equals(rd.getRoot().typeCode())  ? null : page.getDefinitions().getResourceByName(rd.getRoot().typeCode());
         }
         EnumSet<FHIROperationType> ops = EnumSet.of(FHIROperationType.READ, FHIROperationType.SEARCH, FHIROperationType.CREATE, FHIROperationType.UPDATE, FHIROperationType.DELETE);
-        gql.generateResource(new FileOutputStream(filename), sd, splist, ops);
+        gql.generateResource(new FileOutputStream(output(sd.getName(), filename)), sd, splist, ops);
       }
     }
-    
-    TextFile.stringToFile(page.genBackboneElementsJson(), Utilities.path(page.getFolders().dstDir, "backbone-elements.json"));
-    TextFile.stringToFile(page.genChoiceElementsJson(), Utilities.path(page.getFolders().dstDir, "choice-elements.json"));
+  }
 
+  private void produceSchematrons() throws Exception {
     page.log("Produce Schematrons", LogMessageType.Process);
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       ResourceDefn r = page.getDefinitions().getResources().get(rname);
       String n = r.getName().toLowerCase();
       SchematronGenerator sch = new SchematronGenerator(page);
-      sch.generate(new FileOutputStream(page.getFolders().dstDir + n + ".sch"), r, page.getDefinitions());
+      sch.generate(new FileOutputStream(output(r.getName(), page.getFolders().dstDir + n + ".sch")), r, page.getDefinitions());
     }
 
     ResourceDefn r = page.getDefinitions().getBaseResources().get("Parameters");
     String n = r.getName().toLowerCase();
     SchematronGenerator sch = new SchematronGenerator(page);
-    sch.generate(new FileOutputStream(page.getFolders().dstDir + n + ".sch"), r, page.getDefinitions());
+    sch.generate(new FileOutputStream(output(page.getFolders().dstDir + n + ".sch")), r, page.getDefinitions());
 
 
     SchematronGenerator sg = new SchematronGenerator(page);
-    sg.generate(new FileOutputStream(page.getFolders().dstDir + "fhir-invariants.sch"), page.getDefinitions());
-
-    produceSchemaZip();
-
-    page.log("Load R4 Definitions", LogMessageType.Process);
-    loadR4Definitions();
-    page.log("Produce Content", LogMessageType.Process);
-    produceSpec();
-
-    if (buildFlags.get("all")) {
-      if (web) {
-        generateRedirects();
-      }
-    }
-    page.clean();
+    sg.generate(new FileOutputStream(output(page.getFolders().dstDir + "fhir-invariants.sch")), page.getDefinitions());
   }
 
   private List<String> sorted(Set<String> keys) {
@@ -2209,12 +2334,25 @@ public class Publisher implements URIResolver, SectionNumberer {
 
 
   private void loadR4Definitions() throws FileNotFoundException, FHIRException, IOException {
+    SpecPackage r4 = page.getResident() != null ? page.getResident().getR4() : null;
+    if (r4 != null) {
+      // already loaded by an earlier build in this daemon; the release 4 files don't change
+      page.getDiffEngine().getOriginal().getTypes().putAll(r4.getTypes());
+      page.getDiffEngine().getOriginal().getResources().putAll(r4.getResources());
+      page.getDiffEngine().getOriginal().getExtensions().putAll(r4.getExtensions());
+      page.getDiffEngine().getOriginal().getProfiles().putAll(r4.getProfiles());
+      page.getDiffEngine().getOriginal().getExpansions().putAll(r4.getExpansions());
+      page.getDiffEngine().getOriginal().getValuesets().putAll(r4.getValuesets());
+      return;
+    }
     loadR4DefinitionBundle(page.getDiffEngine().getOriginal().getTypes(), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "profiles-types.xml"));
     loadR4DefinitionBundle(page.getDiffEngine().getOriginal().getResources(), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "profiles-resources.xml"));
     loadR4DefinitionBundle(page.getDiffEngine().getOriginal().getExtensions(), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "extension-definitions.xml"));
     loadR4DefinitionBundle(page.getDiffEngine().getOriginal().getProfiles(), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "profiles-others.xml"));
     loadValueSetBundle(page.getDiffEngine().getOriginal().getExpansions(), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "expansions.xml"));
     loadValueSetBundle(page.getDiffEngine().getOriginal().getValuesets(), Utilities.path(page.getFolders().rootDir, "tools", "history", "release4", "valuesets.xml"));
+    if (page.getResident() != null)
+      page.getResident().setR4(page.getDiffEngine().getOriginal());
   }
 
   private void loadR4DefinitionBundle(Map<String, StructureDefinition> map, String fn) throws FHIRException, FileNotFoundException, IOException {
@@ -2251,19 +2389,19 @@ public class Publisher implements URIResolver, SectionNumberer {
     FhirTurtleGenerator ttl = new FhirTurtleGenerator(tmp, page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors());
     ttl.executeV3(page.getValueSets(), page.getCodeSystems());
     rim = rim + tmp.toString();
-    TextFile.stringToFile(rim, Utilities.path(page.getFolders().dstDir, "rim.ttl"));
-    ttl = new FhirTurtleGenerator(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "fhir.ttl")), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors());
+    TextFile.stringToFile(rim, output(Utilities.path(page.getFolders().dstDir, "rim.ttl")));
+    ttl = new FhirTurtleGenerator(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "fhir.ttl"))), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors());
     ttl.executeMain();
-    W5TurtleGenerator w5 = new W5TurtleGenerator(new FileOutputStream(Utilities.path(page.getFolders().dstDir, "w5.ttl")), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors());
+    W5TurtleGenerator w5 = new W5TurtleGenerator(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, "w5.ttl"))), page.getDefinitions(), page.getWorkerContext(), page.getValidationErrors());
     w5.executeMain();
     RDFValidator val = new RDFValidator();
     val.validate(Utilities.path(page.getFolders().dstDir, "fhir.ttl"));
     val.validate(Utilities.path(page.getFolders().dstDir, "rim.ttl"));
     val.validate(Utilities.path(page.getFolders().dstDir, "w5.ttl"));
-    ZipGenerator zip = new ZipGenerator(Utilities.path(page.getFolders().dstDir, "fhir.rdf.ttl.zip"));
-    zip.addFileName("fhir.ttl", Utilities.path(page.getFolders().dstDir, "fhir.ttl"), false);
-    zip.addFileName("rim.ttl", Utilities.path(page.getFolders().dstDir, "rim.ttl"), false);
-    zip.addFileName("w5.ttl", Utilities.path(page.getFolders().dstDir, "w5.ttl"), false);
+    ArchiveWriter zip = archives.zip(Utilities.path(page.getFolders().dstDir, "fhir.rdf.ttl.zip"));
+    zip.addFileName("fhir.ttl", Utilities.path(page.getFolders().dstDir, "fhir.ttl"));
+    zip.addFileName("rim.ttl", Utilities.path(page.getFolders().dstDir, "rim.ttl"));
+    zip.addFileName("w5.ttl", Utilities.path(page.getFolders().dstDir, "w5.ttl"));
     zip.close();
 
     // now that the RDF is generated, run any sparql rules that have been defined
@@ -2276,7 +2414,6 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
       test = XMLUtil.getNextSibling(test);
     }
-    checkAllOk();
   }
 
 
@@ -2286,37 +2423,51 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (tf.exists())
       tf.delete();
 
-    ZipGenerator zip = new ZipGenerator(target);
-
-    int c = 0;
-    String[] files = new CSFile(page.getFolders().dstDir).list();
-    for (String f : files) {
-      File fn = new CSFile(page.getFolders().dstDir + f);
-      if (!fn.isDirectory()) {
-        if (f.endsWith(".html")) {
-          String src = TextFile.fileToString(fn.getAbsolutePath());
-          String srcn = src.replace("<!-- achive note -->",
-              "This is an old version of FHIR retained for archive purposes. Do not use for anything else");
-          if (!srcn.equals(src))
-            c++;
-          srcn = srcn.replace("<body>", "<body><div class=\"watermark\"/>").replace("<body class=\"book\">", "<body class=\"book\"><div class=\"watermark\"/>");
-          zip.addFileSource(f, srcn, false);
-          // Utilities.stringToFile(srcn, target+File.separator+f);
-        } else if (f.endsWith(".css")) {
-          String src = TextFile.fileToString(fn.getAbsolutePath());
-          src = src.replace("#fff", "lightcyan");
-          zip.addFileSource(f, src, false);
-          // Utilities.stringToFile(srcn, target+File.separator+f);
-        } else
-          zip.addFileName(f, fn.getAbsolutePath(), false);
-      } else if (!fn.getAbsolutePath().endsWith("v2") && !fn.getAbsolutePath().endsWith("v3")) {
-        // used to put stuff in sub-directories. clean them out if they
-        // still exist
-        // Utilities.clearDirectory(fn.getAbsolutePath());
-        // fn.delete();
+    // the pages are filtered and deflated on worker threads, and the zip is written in file order
+    ArchiveWriter zip = archives.zip(target);
+    final AtomicInteger notes = new AtomicInteger();
+    try {
+      ArchiveWriter.Filter htmlFilter = new ArchiveWriter.Filter() {
+        @Override
+        public OutputStream filter(OutputStream out) throws IOException {
+          out = new ReplacingOutputStream(out, "<body class=\"book\">", "<body class=\"book\"><div class=\"watermark\"/>", null);
+          out = new ReplacingOutputStream(out, "<body>", "<body><div class=\"watermark\"/>", null);
+          return new ReplacingOutputStream(out, "<!-- achive note -->",
+              "This is an old version of FHIR retained for archive purposes. Do not use for anything else", notes);
+        }
+      };
+      ArchiveWriter.Filter cssFilter = new ArchiveWriter.Filter() {
+        @Override
+        public OutputStream filter(OutputStream out) throws IOException {
+          return new ReplacingOutputStream(out, "#fff", "lightcyan", null);
+        }
+      };
+
+      String[] files = new CSFile(page.getFolders().dstDir).list();
+      Arrays.sort(files);
+      for (String f : files) {
+        File fn = new CSFile(page.getFolders().dstDir + f);
+        if (!fn.isDirectory()) {
+          if (f.endsWith(".html")) {
+            zip.addFile(f, fn, htmlFilter);
+            // Utilities.stringToFile(srcn, target+File.separator+f);
+          } else if (f.endsWith(".css")) {
+            zip.addFile(f, fn, cssFilter);
+            // Utilities.stringToFile(srcn, target+File.separator+f);
+          } else
+            zip.addFile(f, fn, null);
+        } else if (!fn.getAbsolutePath().endsWith("v2") && !fn.getAbsolutePath().endsWith("v3")) {
+          // used to put stuff in sub-directories. clean them out if they
+          // still exist
+          // Utilities.clearDirectory(fn.getAbsolutePath());
+          // fn.delete();
+        }
       }
+      zip.close();
+    } finally {
+      zip.abort(); // if it didn't get closed
     }
-    if (c < 3)
+    if (notes.get() < 3)
       throw new Exception("header note replacement in archive failed"); // so
     // check
     // the
@@ -2326,10 +2477,12 @@ public class Publisher implements URIResolver, SectionNumberer {
     // string
     // constant
     // above
-    zip.close();
   }
 
   private void produceSpec() throws Exception {
+    // fhir-book.html is only made when there's a book.html to lay it out
+    book = new File(page.getFolders().srcDir + "book.html").exists() ? new BookMaker(page, page.getValidationErrors()) : null;
+
     for (ImplementationGuideDefn ig : page.getDefinitions().getSortedIgs()) {
       for (LogicalModel lm : ig.getLogicalModels()) {
         page.log(" ...logical model " + lm.getId(), LogMessageType.Process);
@@ -2354,14 +2507,19 @@ public class Publisher implements URIResolver, SectionNumberer {
     checkAllOk();
 
     page.log(" ...resource identities", LogMessageType.Process);
+    // the files each resource writes are its outputs in the build cache
     for (String rname : page.getDefinitions().getBaseResources().keySet()) {
       ResourceDefn r = page.getDefinitions().getBaseResources().get(rname);
+      String was = building(r.getName());
       produceResource1(r, r.isAbstract());
+      building(was);
     }
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       if (!rname.equals("ValueSet") && !rname.equals("CodeSystem") && wantBuild(rname)) {
         ResourceDefn r = page.getDefinitions().getResources().get(rname);
+        String was = building(r.getName());
         produceResource1(r, false);
+        building(was);
       }
     }
     if (buildFlags.get("all")) {
@@ -2371,13 +2529,22 @@ public class Publisher implements URIResolver, SectionNumberer {
     for (String rname : page.getDefinitions().getBaseResources().keySet()) {
       ResourceDefn r = page.getDefinitions().getBaseResources().get(rname);
       page.log(" ...resource " + r.getName(), LogMessageType.Process);
+      String was = building(r.getName());
       produceResource2(r, !rname.equals("Parameters"), rname.equals("Resource") ? "Meta" : null, false);
+      building(was);
     }
+    // the resource pages are produced serially: they share a great deal of PageProcessor 
+    // state (ids, sidebars, registries, caches) that is only safe and deterministic when
+    // the resources are done one at a time, in order
     for (String rname : page.getDefinitions().sortedResourceNames()) {
       if (!rname.equals("ValueSet") && !rname.equals("CodeSystem") && wantBuild(rname)) {
         ResourceDefn r = page.getDefinitions().getResources().get(rname);
         page.log(" ...resource " + r.getName(), LogMessageType.Process);
+        BuildMetrics.Timer timer = page.getMetrics().start("resource", r.getName());
+        String was = building(r.getName());
         produceResource2(r, false, null, false);
+        building(was);
+        timer.stop();
       }
     }
 //    for (String rname : page.getDefinitions().getResourceTemplates().keySet()) {
@@ -2410,7 +2577,9 @@ public class Publisher implements URIResolver, SectionNumberer {
     for (String n : page.getIni().getPropertyNames("pages")) {
       if (buildFlags.get("all") || buildFlags.get("page-" + n.toLowerCase())) {
         page.log(" ...page " + n, LogMessageType.Process);
+        String was = building("page-" + n);
         producePage(n, page.getIni().getStringProperty("pages", n));
+        building(was);
       }
     }
     for (ImplementationGuideDefn ig : page.getDefinitions().getSortedIgs()) {
@@ -2480,32 +2649,30 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.getDiffEngine().getDiffAsJson(diff);
       Gson gson = new GsonBuilder().setPrettyPrinting().create();
       String json = gson.toJson(diff);
-      TextFile.stringToFile(json, Utilities.path(page.getFolders().dstDir, "fhir.diff.json"));
+      TextFile.stringToFile(json, output(Utilities.path(page.getFolders().dstDir, "fhir.diff.json")));
 
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      DocumentBuilder builder = dbf.newDocumentBuilder();
-      Document doc = builder.newDocument();
+      Document doc = XmlParsers.newDocument();
       Element element = doc.createElement("difference");
       doc.appendChild(element);
       page.getDiffEngine().getDiffAsXml(doc, element);
-      prettyPrint(doc, Utilities.path(page.getFolders().dstDir, "fhir.diff.xml"));
+      prettyPrint(doc, output(Utilities.path(page.getFolders().dstDir, "fhir.diff.xml")));
       
       checkBundleURLs(page.getResourceBundle());
       checkStructureDefinitions(page.getResourceBundle());
       page.getResourceBundle().getEntry().sort(new ProfileBundleSorter());
-      FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + "profiles-resources.xml");
+      FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + "profiles-resources.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, page.getResourceBundle());
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "profiles-resources.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "profiles-resources.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, page.getResourceBundle());
       s.close();
       checkBundleURLs(page.getTypeBundle());
       checkStructureDefinitions(page.getTypeBundle());
       page.getTypeBundle().getEntry().sort(new ProfileBundleSorter());
-      s = new FileOutputStream(page.getFolders().dstDir + "profiles-types.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "profiles-types.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, page.getTypeBundle());
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "profiles-types.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "profiles-types.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, page.getTypeBundle());
       s.close();
       
@@ -2522,21 +2689,21 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
       checkBundleURLs(extensionsFeed);
       checkStructureDefinitions(extensionsFeed);
-      s = new FileOutputStream(page.getFolders().dstDir + "extension-definitions.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "extension-definitions.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, extensionsFeed);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "extension-definitions.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "extension-definitions.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, extensionsFeed);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "extension-definitions.xml", page.getFolders().dstDir + "examples" + File.separator + "extension-definitions.xml");
+      Utilities.copyFile(page.getFolders().dstDir + "extension-definitions.xml", output(page.getFolders().dstDir + "examples" + File.separator + "extension-definitions.xml"));
 
-      s = new FileOutputStream(page.getFolders().dstDir + "search-parameters.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "search-parameters.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, searchParamsFeed);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "search-parameters.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "search-parameters.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, searchParamsFeed);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "search-parameters.xml", page.getFolders().dstDir + "examples" + File.separator + "search-parameters.xml");
+      Utilities.copyFile(page.getFolders().dstDir + "search-parameters.xml", output(page.getFolders().dstDir + "examples" + File.separator + "search-parameters.xml"));
 
       for (ResourceDefn rd : page.getDefinitions().getResources().values())
         addOtherProfiles(profileBundle, rd);
@@ -2545,13 +2712,13 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
       checkBundleURLs(profileBundle);
       checkStructureDefinitions(profileBundle);
-      s = new FileOutputStream(page.getFolders().dstDir + "profiles-others.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "profiles-others.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, profileBundle);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "profiles-others.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "profiles-others.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, profileBundle);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "profiles-others.xml", page.getFolders().dstDir + "examples" + File.separator + "profiles-others.xml");
+      Utilities.copyFile(page.getFolders().dstDir + "profiles-others.xml", output(page.getFolders().dstDir + "examples" + File.separator + "profiles-others.xml"));
             // todo-bundle - should this be checked?
 //      int ec = 0;
 //      for (Resource e : valueSetsFeed.getItem()) {
@@ -2565,38 +2732,38 @@ public class Publisher implements URIResolver, SectionNumberer {
 //        throw new Exception("Cannot continue due to value set mis-identification");
 
       checkBundleURLs(dataElements);
-      s = new FileOutputStream(page.getFolders().dstDir + "dataelements.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "dataelements.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, dataElements);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "dataelements.xml", page.getFolders().dstDir + "examples" + File.separator + "dataelements.xml");
-      s = new FileOutputStream(page.getFolders().dstDir + "dataelements.json");
+      Utilities.copyFile(page.getFolders().dstDir + "dataelements.xml", output(page.getFolders().dstDir + "examples" + File.separator + "dataelements.xml"));
+      s = new FileOutputStream(output(page.getFolders().dstDir + "dataelements.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, dataElements);
       s.close();
 
       checkBundleURLs(valueSetsFeed);
-      s = new FileOutputStream(page.getFolders().dstDir + "valuesets.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "valuesets.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, valueSetsFeed);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "valuesets.xml", page.getFolders().dstDir + "examples" + File.separator + "valuesets.xml");
-      s = new FileOutputStream(page.getFolders().dstDir + "valuesets.json");
+      Utilities.copyFile(page.getFolders().dstDir + "valuesets.xml", output(page.getFolders().dstDir + "examples" + File.separator + "valuesets.xml"));
+      s = new FileOutputStream(output(page.getFolders().dstDir + "valuesets.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, valueSetsFeed);
       s.close();
 
       checkBundleURLs(conceptMapsFeed);
-      s = new FileOutputStream(page.getFolders().dstDir + "conceptmaps.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "conceptmaps.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, conceptMapsFeed);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "conceptmaps.xml", page.getFolders().dstDir + "examples" + File.separator + "conceptmaps.xml");
-      s = new FileOutputStream(page.getFolders().dstDir + "conceptmaps.json");
+      Utilities.copyFile(page.getFolders().dstDir + "conceptmaps.xml", output(page.getFolders().dstDir + "examples" + File.separator + "conceptmaps.xml"));
+      s = new FileOutputStream(output(page.getFolders().dstDir + "conceptmaps.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, conceptMapsFeed);
       s.close();
 
       checkBundleURLs(externals);
-      s = new FileOutputStream(page.getFolders().dstDir + "external-resources.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "external-resources.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, externals);
       s.close();
-      Utilities.copyFile(page.getFolders().dstDir + "external-resources.xml", page.getFolders().dstDir + "examples" + File.separator + "external-resources.xml");
-      s = new FileOutputStream(page.getFolders().dstDir + "external-resources.json");
+      Utilities.copyFile(page.getFolders().dstDir + "external-resources.xml", output(page.getFolders().dstDir + "examples" + File.separator + "external-resources.xml"));
+      s = new FileOutputStream(output(page.getFolders().dstDir + "external-resources.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, externals);
       s.close();
 
@@ -2646,10 +2813,10 @@ public class Publisher implements URIResolver, SectionNumberer {
         new FilesystemPackageCacheManager(true, ToolsVersion.TOOLS_VERSION).addPackageToCache("hl7.fhir.r5.expansions", "current", new FileInputStream(Utilities.path(page.getFolders().dstDir, "hl7.fhir.r5.expansions.tgz")), Utilities.path(page.getFolders().dstDir, "hl7.fhir.r5.expansions.tgz"));
       }
       
-      s = new FileOutputStream(page.getFolders().dstDir + "expansions.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "expansions.xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, expansionFeed);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + "expansions.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + "expansions.json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, expansionFeed);
       s.close();
 
@@ -2659,57 +2826,57 @@ public class Publisher implements URIResolver, SectionNumberer {
       processRDF();
 
       page.log("....version maps", LogMessageType.Process);
-      ZipGenerator zip = new ZipGenerator(page.getFolders().dstDir + "r3r4maps.zip");
+      ArchiveWriter zip = archives.zip(page.getFolders().dstDir + "r3r4maps.zip");
       zip.addFiles(Utilities.path(page.getFolders().rootDir, "implementations", "r3maps", "R3toR4", ""), "r3/", null, null);
       zip.addFiles(Utilities.path(page.getFolders().rootDir, "implementations", "r3maps", "R4toR3", ""), "r4/", null, null);
       zip.close();
 
       page.log("....definitions", LogMessageType.Process);
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions.xml.zip");
-      zip.addFileName("version.info", page.getFolders().dstDir + "version.info", false);
-      zip.addFileName("profiles-types.xml", page.getFolders().dstDir + "profiles-types.xml", false);
-      zip.addFileName("profiles-resources.xml", page.getFolders().dstDir + "profiles-resources.xml", false);
-      zip.addFileName("profiles-others.xml", page.getFolders().dstDir + "profiles-others.xml", false);
-      zip.addFileName("extension-definitions.xml", page.getFolders().dstDir + "extension-definitions.xml", false);
-      zip.addFileName("search-parameters.xml", page.getFolders().dstDir + "search-parameters.xml", false);
-      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml", false);
-      zip.addFileName("dataelements.xml", page.getFolders().dstDir + "dataelements.xml", false);
-      zip.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip", false);
+      zip = archives.zip(page.getFolders().dstDir + "definitions.xml.zip");
+      zip.addFileName("version.info", page.getFolders().dstDir + "version.info");
+      zip.addFileName("profiles-types.xml", page.getFolders().dstDir + "profiles-types.xml");
+      zip.addFileName("profiles-resources.xml", page.getFolders().dstDir + "profiles-resources.xml");
+      zip.addFileName("profiles-others.xml", page.getFolders().dstDir + "profiles-others.xml");
+      zip.addFileName("extension-definitions.xml", page.getFolders().dstDir + "extension-definitions.xml");
+      zip.addFileName("search-parameters.xml", page.getFolders().dstDir + "search-parameters.xml");
+      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml");
+      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml");
+      zip.addFileName("dataelements.xml", page.getFolders().dstDir + "dataelements.xml");
+      zip.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip");
       zip.close();
 
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions.json.zip");
-      zip.addFileName("version.info", page.getFolders().dstDir + "version.info", false);
-      zip.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json", false);
-      zip.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json", false);
-      zip.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json", false);
-      zip.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json", false);
-      zip.addFileName("search-parameters.json", page.getFolders().dstDir + "search-parameters.json", false);
-      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json", false);
-      zip.addFileName("dataelements.json", page.getFolders().dstDir + "dataelements.json", false);
-      zip.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip", false);
+      zip = archives.zip(page.getFolders().dstDir + "definitions.json.zip");
+      zip.addFileName("version.info", page.getFolders().dstDir + "version.info");
+      zip.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json");
+      zip.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json");
+      zip.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json");
+      zip.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json");
+      zip.addFileName("search-parameters.json", page.getFolders().dstDir + "search-parameters.json");
+      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json");
+      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json");
+      zip.addFileName("dataelements.json", page.getFolders().dstDir + "dataelements.json");
+      zip.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip");
       zip.close();
 
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions.xlsx.zip");
+      zip = archives.zip(page.getFolders().dstDir + "definitions.xlsx.zip");
       for (String rn : page.getDefinitions().sortedResourceNames()) {
-        zip.addFileName(rn.toLowerCase()+".xlsx", page.getFolders().dstDir + rn.toLowerCase()+".xlsx", false);
+        zip.addFileName(rn.toLowerCase()+".xlsx", page.getFolders().dstDir + rn.toLowerCase()+".xlsx");
       }
       zip.close();
 
       // this is the actual package used by the validator. 
-      zip = new ZipGenerator(page.getFolders().dstDir + "validator.pack");
+      zip = archives.zip(page.getFolders().dstDir + "validator.pack");
       // conformance resources
-      zip.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json", false);
-      zip.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json", false);
-      zip.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json", false);
-      zip.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json", false);
-      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json", false);
+      zip.addFileName("profiles-types.json", page.getFolders().dstDir + "profiles-types.json");
+      zip.addFileName("profiles-resources.json", page.getFolders().dstDir + "profiles-resources.json");
+      zip.addFileName("profiles-others.json", page.getFolders().dstDir + "profiles-others.json");
+      zip.addFileName("extension-definitions.json", page.getFolders().dstDir + "extension-definitions.json");
+      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json");
+      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json");
       // native schema
-      zip.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip", false);
-      zip.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip", false);
-      zip.addFileName("fhir.shex", page.getFolders().dstDir + "fhir.shex", false);
+      zip.addFileName("fhir-all-xsd.zip", page.getFolders().dstDir + "fhir-all-xsd.zip");
+      zip.addFileName("fhir.schema.json.zip", page.getFolders().dstDir + "fhir.schema.json.zip");
+      zip.addFileName("fhir.shex", page.getFolders().dstDir + "fhir.shex");
       zip.close();
 
       page.log("....dstu3 format (xml)", LogMessageType.Process);
@@ -2723,15 +2890,15 @@ public class Publisher implements URIResolver, SectionNumberer {
       dstu3.convert(page.getFolders().dstDir + "conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.xml");
       dstu3.convert(page.getFolders().dstDir + "dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.xml");
       
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r3.xml.zip");
-      zip.addFileName("profiles-types.xml", page.getFolders().tmpDir + "profiles-types-r3.xml", false);
-      zip.addFileName("profiles-resources.xml", page.getFolders().tmpDir + "profiles-resources-r3.xml", false);
-      zip.addFileName("profiles-others.xml", page.getFolders().tmpDir + "profiles-others-r3.xml", false);
-      zip.addFileName("extension-definitions.xml", page.getFolders().tmpDir + "extension-definitions-r3.xml", false);
-      zip.addFileName("search-parameters.xml", page.getFolders().tmpDir + "search-parameters-r3.xml", false);
-      zip.addFileName("valuesets.xml", page.getFolders().tmpDir + "valuesets-r3.xml", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.xml", false);
-      zip.addFileName("dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.xml", false);
+      zip = archives.zip(page.getFolders().dstDir + "definitions-r3.xml.zip");
+      zip.addFileName("profiles-types.xml", page.getFolders().tmpDir + "profiles-types-r3.xml");
+      zip.addFileName("profiles-resources.xml", page.getFolders().tmpDir + "profiles-resources-r3.xml");
+      zip.addFileName("profiles-others.xml", page.getFolders().tmpDir + "profiles-others-r3.xml");
+      zip.addFileName("extension-definitions.xml", page.getFolders().tmpDir + "extension-definitions-r3.xml");
+      zip.addFileName("search-parameters.xml", page.getFolders().tmpDir + "search-parameters-r3.xml");
+      zip.addFileName("valuesets.xml", page.getFolders().tmpDir + "valuesets-r3.xml");
+      zip.addFileName("conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.xml");
+      zip.addFileName("dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.xml");
       zip.close();
 
       page.log("....dstu3 format (json)", LogMessageType.Process);
@@ -2744,55 +2911,55 @@ public class Publisher implements URIResolver, SectionNumberer {
       dstu3.convertJ(page.getFolders().dstDir + "conceptmaps.xml", page.getFolders().tmpDir + "conceptmaps-r3.json");
       dstu3.convertJ(page.getFolders().dstDir + "dataelements.xml", page.getFolders().tmpDir + "dataelements-r3.json");
       
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r3.json.zip");
-      zip.addFileName("profiles-types.json", page.getFolders().tmpDir + "profiles-types-r3.json", false);
-      zip.addFileName("profiles-resources.json", page.getFolders().tmpDir + "profiles-resources-r3.json", false);
-      zip.addFileName("profiles-others.json", page.getFolders().tmpDir + "profiles-others-r3.json", false);
-      zip.addFileName("extension-definitions.json", page.getFolders().tmpDir + "extension-definitions-r3.json", false);
-      zip.addFileName("search-parameters.json", page.getFolders().tmpDir + "search-parameters-r3.json", false);
-      zip.addFileName("valuesets.json", page.getFolders().tmpDir + "valuesets-r3.json", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().tmpDir + "conceptmaps-r3.json", false);
-      zip.addFileName("dataelements.json", page.getFolders().tmpDir + "dataelements-r3.json", false);
+      zip = archives.zip(page.getFolders().dstDir + "definitions-r3.json.zip");
+      zip.addFileName("profiles-types.json", page.getFolders().tmpDir + "profiles-types-r3.json");
+      zip.addFileName("profiles-resources.json", page.getFolders().tmpDir + "profiles-resources-r3.json");
+      zip.addFileName("profiles-others.json", page.getFolders().tmpDir + "profiles-others-r3.json");
+      zip.addFileName("extension-definitions.json", page.getFolders().tmpDir + "extension-definitions-r3.json");
+      zip.addFileName("search-parameters.json", page.getFolders().tmpDir + "search-parameters-r3.json");
+      zip.addFileName("valuesets.json", page.getFolders().tmpDir + "valuesets-r3.json");
+      zip.addFileName("conceptmaps.json", page.getFolders().tmpDir + "conceptmaps-r3.json");
+      zip.addFileName("dataelements.json", page.getFolders().tmpDir + "dataelements-r3.json");
       zip.close();
       System.gc();
 
       page.log("....r4 in r5 format", LogMessageType.Process);
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r2asr3.xml.zip");
-      page.getDiffEngine().saveR4AsR5(zip, FhirFormat.XML);
-      zip.close();
-      zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r2asr3.json.zip");
-      page.getDiffEngine().saveR4AsR5(zip, FhirFormat.JSON);
-      zip.close();
+      ZipGenerator r4zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r2asr3.xml.zip");
+      page.getDiffEngine().saveR4AsR5(r4zip, FhirFormat.XML);
+      r4zip.close();
+      r4zip = new ZipGenerator(page.getFolders().dstDir + "definitions-r2asr3.json.zip");
+      page.getDiffEngine().saveR4AsR5(r4zip, FhirFormat.JSON);
+      r4zip.close();
             
-      zip = new ZipGenerator(page.getFolders().dstDir + "all-valuesets.zip");
-      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml", false);
-      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml", false);
-      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json", false);
+      zip = archives.zip(page.getFolders().dstDir + "all-valuesets.zip");
+      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml");
+      zip.addFileName("valuesets.json", page.getFolders().dstDir + "valuesets.json");
+      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml");
+      zip.addFileName("conceptmaps.json", page.getFolders().dstDir + "conceptmaps.json");
       zip.close();
     
       page.log("....IG Builder Resources", LogMessageType.Process);
-      zip = new ZipGenerator(page.getFolders().tmpDir + "ig-template.zip");
-      zip.addFolder(Utilities.path(page.getFolders().rootDir, "tools", "ig"), "", false, null);
+      zip = archives.zip(page.getFolders().tmpDir + "ig-template.zip");
+      zip.addFolder(Utilities.path(page.getFolders().rootDir, "tools", "ig"), "");
       zip.close();
 
-      zip = new ZipGenerator(page.getFolders().dstDir + "igpack.zip");
-      zip.addFileName("fhir.css", page.getFolders().dstDir + "fhir.css", false);
-      zip.addFileName("spec.internals", page.getFolders().dstDir + "spec.internals", false);
-      zip.addFileName("profiles-types.xml", page.getFolders().dstDir + "profiles-types.xml", false);
-      zip.addFileName("profiles-resources.xml", page.getFolders().dstDir + "profiles-resources.xml", false);
-      zip.addFileName("profiles-others.xml", page.getFolders().dstDir + "profiles-others.xml", false);
-      zip.addFileName("extension-definitions.xml", page.getFolders().dstDir + "extension-definitions.xml", false);
-      zip.addFileName("search-parameters.xml", page.getFolders().dstDir + "search-parameters.xml", false);
-      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml", false);
-      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml", false);
-      zip.addFileName("dataelements.xml", page.getFolders().dstDir + "dataelements.xml", false);
-      zip.addFileName("version.info", page.getFolders().dstDir + "version.info", false);
-      zip.addFileName("mappingSpaces.details", page.getFolders().srcDir + "mappingSpaces.xml", false);
-      zip.addFileName("redirect.asp.template", page.getFolders().srcDir + "redirect.asp", false);
-      zip.addFileName("redirect.cgi.template", page.getFolders().srcDir + "redirect.cgi", false);
-      zip.addFileName("redirect.php.template", page.getFolders().srcDir + "redirect.php", false);
-      zip.addFileName("ig-template.zip", Utilities.path(page.getFolders().tmpDir, "ig-template.zip"), false);
+      zip = archives.zip(page.getFolders().dstDir + "igpack.zip");
+      zip.addFileName("fhir.css", page.getFolders().dstDir + "fhir.css");
+      zip.addFileName("spec.internals", page.getFolders().dstDir + "spec.internals");
+      zip.addFileName("profiles-types.xml", page.getFolders().dstDir + "profiles-types.xml");
+      zip.addFileName("profiles-resources.xml", page.getFolders().dstDir + "profiles-resources.xml");
+      zip.addFileName("profiles-others.xml", page.getFolders().dstDir + "profiles-others.xml");
+      zip.addFileName("extension-definitions.xml", page.getFolders().dstDir + "extension-definitions.xml");
+      zip.addFileName("search-parameters.xml", page.getFolders().dstDir + "search-parameters.xml");
+      zip.addFileName("valuesets.xml", page.getFolders().dstDir + "valuesets.xml");
+      zip.addFileName("conceptmaps.xml", page.getFolders().dstDir + "conceptmaps.xml");
+      zip.addFileName("dataelements.xml", page.getFolders().dstDir + "dataelements.xml");
+      zip.addFileName("version.info", page.getFolders().dstDir + "version.info");
+      zip.addFileName("mappingSpaces.details", page.getFolders().srcDir + "mappingSpaces.xml");
+      zip.addFileName("redirect.asp.template", page.getFolders().srcDir + "redirect.asp");
+      zip.addFileName("redirect.cgi.template", page.getFolders().srcDir + "redirect.cgi");
+      zip.addFileName("redirect.php.template", page.getFolders().srcDir + "redirect.php");
+      zip.addFileName("ig-template.zip", Utilities.path(page.getFolders().tmpDir, "ig-template.zip"));
       zip.addFiles(Utilities.path(page.getFolders().rootDir, "publish", ""), "", ".png", null);
       zip.addFiles(Utilities.path(page.getFolders().rootDir, "publish", ""), "", ".gif", null);
       zip.close();
@@ -2805,11 +2972,11 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
 
       page.log(" ...zips", LogMessageType.Process);
-      zip = new ZipGenerator(page.getFolders().dstDir + "examples.zip");
+      zip = archives.zip(page.getFolders().dstDir + "examples.zip");
       zip.addFiles(page.getFolders().dstDir + "examples" + File.separator, "", null, "expansions.xml");
       zip.close();
 
-      zip = new ZipGenerator(page.getFolders().dstDir + "examples-json.zip");
+      zip = archives.zip(page.getFolders().dstDir + "examples-json.zip");
       gson = new GsonBuilder().setPrettyPrinting().create();
       File f = new CSFile(page.getFolders().dstDir);
       File[] files = f.listFiles();
@@ -2832,7 +2999,7 @@ public class Publisher implements URIResolver, SectionNumberer {
                 
             }
             String jrs = gson.toJson(jr);
-            zip.addBytes(files[fi].getName(), jrs.getBytes(Charsets.UTF_8), true);
+            zip.addBytes(files[fi].getName(), jrs.getBytes(Charsets.UTF_8));
           }
         }
       }
@@ -2843,45 +3010,52 @@ public class Publisher implements URIResolver, SectionNumberer {
       ndjson.close();
       
 
-      zip = new ZipGenerator(page.getFolders().dstDir + "examples-ttl.zip");
+      zip = archives.zip(page.getFolders().dstDir + "examples-ttl.zip");
       zip.addFilesFiltered(page.getFolders().dstDir, "", ".ttl", new String[0]);
       zip.close();
 
+      if (book != null) {
+        page.log("Produce fhir-book.html", LogMessageType.Process);
+        book.produce();
+      }
+
       page.log("Check HTML Links", LogMessageType.Process);
-      page.getHTMLChecker().produce();
+      BuildMetrics.Timer timer = page.getMetrics().start("phase", "link-check");
+      page.getHTMLChecker().produce(threads);
+      timer.stop();
       checkAllOk();
     } else
       page.log("Partial Build - terminating now", LogMessageType.Error);
   }
 
   private void produceUml() throws IOException {
-    TextFile.stringToFile(UMLWriter.toJson(page.getUml()), page.getFolders().dstDir+"uml.json");
-    TextFile.stringToFile(UMLWriter.toText(page.getUml()), page.getFolders().dstDir+"uml.text");   
+    TextFile.stringToFile(UMLWriter.toJson(page.getUml()), output(page.getFolders().dstDir+"uml.json"));
+    TextFile.stringToFile(UMLWriter.toText(page.getUml()), output(page.getFolders().dstDir+"uml.text"));   
   }
 
   private void produceConceptMap(ConceptMap cm, ResourceDefn rd, SectionTracker st) throws Exception {
     RenderingContext lrc = page.getRc().copy().setLocalPrefix("");
     RendererFactory.factory(cm, lrc).render(cm);
     String n = cm.getUserString("path");
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(n, ".xml"));
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(n, ".xml")));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cm);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(n, ".canonical.xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(n, ".canonical.xml")));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, cm);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(n, ".json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(n, ".json")));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, cm);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(n, ".canonical.json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(n, ".canonical.json")));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, cm);
     s.close();
 
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + Utilities.changeFileExt(n, ".xml")), new CSFile(page.getFolders().dstDir + "examples" + File.separator + Utilities.changeFileExt(n, ".xml")));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + Utilities.changeFileExt(n, ".xml")), new CSFile(output(page.getFolders().dstDir + "examples" + File.separator + Utilities.changeFileExt(n, ".xml"))));
 //    saveAsPureHtml(cm, new FileOutputStream(Utilities.path(page.getFolders().dstDir, "html", n)), true);
-    String src = TextFile.fileToString(page.getFolders().templateDir + "template-status-map.html");
+    String src = page.getTemplates().getSource("template-status-map.html");
     Map<String, String> others = new HashMap<String, String>();
     others.put("status-map", new XhtmlComposer(XhtmlComposer.HTML).compose(cm.getText().getDiv()));
-    TextFile.stringToFile(insertSectionNumbers(page.processPageIncludes(n, src, "conceptmap-instance", others, null, null, "Profile", null, rd, rd.getWg()), st, n, 0, null), page.getFolders().dstDir + n);
+    TextFile.stringToFile(insertSectionNumbers(page.processPageIncludes(n, src, "conceptmap-instance", others, null, null, "Profile", null, rd, rd.getWg()), st, n, 0, null), output(page.getFolders().dstDir + n));
     page.getHTMLChecker().registerFile(n, cm.getTitle(), HTMLLinkChecker.XHTML_TYPE, true);
     cloneToXhtml(Utilities.changeFileExt(n, ""), cm.getTitle(), true, "conceptmap-instance", "Profile", null, ((ResourceDefn) cm.getUserData("resource-definition")).getWg());
     jsonToXhtml(Utilities.changeFileExt(n, ""), cm.getTitle(), resource2Json(cm), "conceptmap-instance", "Profile", null, ((ResourceDefn) cm.getUserData("resource-definition")).getWg());
@@ -2948,10 +3122,10 @@ public class Publisher implements URIResolver, SectionNumberer {
       values.put("bcks-status", "<p style=\"background-color: #ffb3b3; border:1px solid maroon; padding: 5px;\">This script does not compile: "+e.getMessage()+"</p>\r\n");
     }
     if (page.getDefinitions().hasResource(name) || (page.getDefinitions().getBaseResources().containsKey(name) && !name.equals("Parameters"))) {
-      String src = TextFile.fileToString(page.getFolders().templateDir + "template-version-maps.html");
+      String src = page.getTemplates().getSource("template-version-maps.html");
       TextFile.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, page.getDefinitions().getResourceByName(name), null, null, null, null, null, src, null, null, "res-R3/R4 Conversions", n + "-version-maps.html", null, values, res.getWg(), null), st, n
-              + "-version-maps.html", 0, null), page.getFolders().dstDir + n + "-version-maps.html");
+              + "-version-maps.html", 0, null), output(page.getFolders().dstDir + n + "-version-maps.html"));
       page.getHTMLChecker().registerFile(n + "-version-maps.html", "Version Maps for " + name, HTMLLinkChecker.XHTML_TYPE, true);
     }    
   }
@@ -3387,11 +3561,7 @@ public class Publisher implements URIResolver, SectionNumberer {
   }
 
   private Document loadDom(InputStream src, boolean namespaces) throws Exception {
-  DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-  factory.setNamespaceAware(namespaces);
-  DocumentBuilder builder = factory.newDocumentBuilder();
-  Document doc = builder.parse(src);
-  return doc;
+    return XmlParsers.parse(src, namespaces);
   }
 
   private void stripElement(Element element, String name) {
@@ -3466,16 +3636,16 @@ public class Publisher implements URIResolver, SectionNumberer {
       ImplementationGuideDefn ig = page.getDefinitions().getIgs().get(ed.getUserString(ToolResourceUtilities.NAME_RES_IG));
       String prefix = ig.isCore() ? "" : ig.getCode()+File.separator;
       String filename = ed.getUserString("filename");
-      FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + prefix+filename+".xml");
+      FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + prefix+filename+".xml"));
       new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, ed);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + prefix+filename+".canonical.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + prefix+filename+".canonical.xml"));
       new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, ed);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + prefix+filename+".json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + prefix+filename+".json"));
       new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, ed);
       s.close();
-      s = new FileOutputStream(page.getFolders().dstDir + prefix+filename+".canonical.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + prefix+filename+".canonical.json"));
       new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, ed);
       s.close();
       cloneToXhtml(prefix+filename, ed.getName(), false, "summary-instance", ed.getUrl(), null, wg(ed));
@@ -3505,20 +3675,20 @@ public class Publisher implements URIResolver, SectionNumberer {
       tgen.close();
       String tx = bytes.toString();
 
-      String src = TextFile.fileToString(page.getFolders().templateDir + "template-extension-mappings.html");
+      String src = page.getTemplates().getSource("template-extension-mappings.html");
       src = page.processExtensionIncludes(filename, ed, xml, json, ttl, tx, src, filename + ".html", ig);
       page.getHTMLChecker().registerFile(prefix+filename + "-mappings.html", "Mappings for Extension " + ed.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-      TextFile.stringToFile(src, page.getFolders().dstDir + prefix+filename + "-mappings.html");
+      TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix+filename + "-mappings.html"));
 
-      src = TextFile.fileToString(page.getFolders().templateDir + "template-extension-definitions.html");
+      src = page.getTemplates().getSource("template-extension-definitions.html");
       src = page.processExtensionIncludes(filename, ed, xml, json, ttl, tx, src, filename + ".html", ig);
       page.getHTMLChecker().registerFile(prefix+filename + "-definitions.html", "Definitions for Extension " + ed.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-      TextFile.stringToFile(src, page.getFolders().dstDir + prefix+filename + "-definitions.html");
+      TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix+filename + "-definitions.html"));
 
-      src = TextFile.fileToString(page.getFolders().templateDir + "template-extension.html");
+      src = page.getTemplates().getSource("template-extension.html");
       src = page.processExtensionIncludes(filename, ed, xml, json, ttl, tx, src, filename + ".html", ig);
       page.getHTMLChecker().registerFile(prefix+filename + ".html", "Extension " + ed.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-      TextFile.stringToFile(src, page.getFolders().dstDir + prefix+filename + ".html");
+      TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix+filename + ".html"));
     }
   }
 
@@ -3529,7 +3699,7 @@ public class Publisher implements URIResolver, SectionNumberer {
   private void copyStaticContent() throws IOException, Exception {
     if (page.getIni().getPropertyNames("support") != null)
       for (String n : page.getIni().getPropertyNames("support")) {
-        Utilities.copyFile(new CSFile(page.getFolders().srcDir + n), new CSFile(page.getFolders().dstDir + n));
+        Utilities.copyFile(new CSFile(page.getFolders().srcDir + n), new CSFile(output(page.getFolders().dstDir + n)));
         page.getHTMLChecker().registerFile(n, "Support File", HTMLLinkChecker.determineType(n), true);
       }
     for (String n : page.getIni().getPropertyNames("images")) {
@@ -3541,7 +3711,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
     }
     for (String n : page.getIni().getPropertyNames("files")) {
-      Utilities.copyFile(new CSFile(page.getFolders().rootDir + n), new CSFile(page.getFolders().dstDir + page.getIni().getStringProperty("files", n)));
+      Utilities.copyFile(new CSFile(page.getFolders().rootDir + n), new CSFile(output("page-" + n, page.getFolders().dstDir + page.getIni().getStringProperty("files", n))));
       page.getHTMLChecker().registerFile(page.getIni().getStringProperty("files", n), "Support File",
           HTMLLinkChecker.determineType(page.getIni().getStringProperty("files", n)), true);
     }
@@ -3550,7 +3720,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     Utilities.copyDirectory(page.getFolders().rootDir + page.getIni().getStringProperty("html", "source"), page.getFolders().dstDir, page.getHTMLChecker());
     TextFile.stringToFile("\r\n[FHIR]\r\nFhirVersion=" + page.getVersion() + "-" + page.getBuildId() + "\r\nversion=" + page.getVersion().toCode()
         + "\r\nbuildId=" + page.getBuildId() + "\r\ndate=" + new SimpleDateFormat("yyyyMMddHHmmss").format(page.getGenDate().getTime()),
-        Utilities.path(page.getFolders().dstDir, "version.info"), false);
+        output(Utilities.path(page.getFolders().dstDir, "version.info")), false);
 
     for (String n : page.getDefinitions().getDiagrams().keySet()) {
       page.log(" ...diagram " + n, LogMessageType.Process);
@@ -3568,11 +3738,11 @@ public class Publisher implements URIResolver, SectionNumberer {
         }
       });
       for (File f : files) {
-        Utilities.copyFile(f, new CSFile(page.getFolders().dstDir + f.getName()));
+        Utilities.copyFile(f, new CSFile(output(page.getFolders().dstDir + f.getName())));
         page.getHTMLChecker().registerFile(f.getName(), "Support File", HTMLLinkChecker.determineType(n), true);
       }
     } else {
-      Utilities.copyFile(new CSFile(Utilities.path(folder, n)), new CSFile(page.getFolders().dstDir + (n.contains("/") ? n.substring(n.lastIndexOf("/")+1): n)));
+      Utilities.copyFile(new CSFile(Utilities.path(folder, n)), new CSFile(output(page.getFolders().dstDir + (n.contains("/") ? n.substring(n.lastIndexOf("/")+1): n))));
       page.getHTMLChecker().registerFile(n, "Support File", HTMLLinkChecker.determineType(n), true);
     }
   }
@@ -3590,11 +3760,11 @@ public class Publisher implements URIResolver, SectionNumberer {
         }
       });
       for (File f : files) {
-        Utilities.copyFile(f, new CSFile(Utilities.path(page.getFolders().dstDir, prefix+f.getName())));
+        Utilities.copyFile(f, new CSFile(output(Utilities.path(page.getFolders().dstDir, prefix+f.getName()))));
         page.getHTMLChecker().registerFile(prefix+f.getName(), "Support File", HTMLLinkChecker.determineType(f.getName()), true);
       }
     } else {
-      Utilities.copyFile(file, new CSFile(Utilities.path(page.getFolders().dstDir, prefix+file.getName())));
+      Utilities.copyFile(file, new CSFile(output(Utilities.path(page.getFolders().dstDir, prefix+file.getName()))));
       page.getHTMLChecker().registerFile(prefix+file.getName(), "Support File", HTMLLinkChecker.determineType(file.getName()), true);
     }
   }
@@ -3631,7 +3801,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.getQa().countDefinitions(page.getDefinitions());
 
     String src = TextFile.fileToString(page.getFolders().srcDir + "qa.html");
-    TextFile.stringToFile(page.processPageIncludes("qa.html", src, "page", null, null, null, "QA Page", null, null, page.getDefinitions().getWorkgroups().get("fhir")), page.getFolders().dstDir + "qa.html");
+    TextFile.stringToFile(page.processPageIncludes("qa.html", src, "page", null, null, null, "QA Page", null, null, page.getDefinitions().getWorkgroups().get("fhir")), output(page.getFolders().dstDir + "qa.html"));
 
     if (web) {
       page.getQa().commit(page.getFolders().rootDir);
@@ -3656,26 +3826,26 @@ public class Publisher implements URIResolver, SectionNumberer {
     String fn = pt.getName().toLowerCase() + ".profile.xml";
     StructureDefinition rp = pt.getProfile();
 
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + fn);
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + fn));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml")));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json")));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json")));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
 
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(Utilities.path(page.getFolders().dstDir, "examples", fn)));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(output(Utilities.path(page.getFolders().dstDir, "examples", fn))));
     addToResourceFeed(rp, page.getTypeBundle(), (fn));
     cloneToXhtml(pt.getName().toLowerCase() + ".profile", "StructureDefinition for " + pt.getName(), false, "profile-instance:type:" + pt.getName(), "Type", null, wg("mnm"));
     jsonToXhtml(pt.getName().toLowerCase() + ".profile", "StructureDefinition for " + pt.getName(), resource2Json(rp), "profile-instance:type:" + pt.getName(), "Type", null, wg("mnm"));
     ttlToXhtml(pt.getName().toLowerCase() + ".profile", "StructureDefinition for " + pt.getName(), resource2Ttl(rp), "profile-instance:type:" + pt.getName(), "Type", null, wg("mnm"));
     String shex = new ShExGenerator(page.getWorkerContext()).generate(HTMLLinkPolicy.NONE, rp);
-    TextFile.stringToFile(shex, Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex"));
+    TextFile.stringToFile(shex, output(Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex")));
     shexToXhtml(pt.getName().toLowerCase(), "ShEx statement for " + pt.getName(), shex, "profile-instance:type:" + pt.getName(), "Type", null, wg("mnm"));
   }
 
@@ -3684,23 +3854,23 @@ public class Publisher implements URIResolver, SectionNumberer {
     String fn = "xhtml.profile.xml";
     StructureDefinition rp = page.getProfiles().get("xhtml");
 
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + fn);
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + fn));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml")));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json")));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json")));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
 
     String shex = new ShExGenerator(page.getWorkerContext()).generate(HTMLLinkPolicy.NONE, rp);
-    TextFile.stringToFile(shex, Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex"));
+    TextFile.stringToFile(shex, output(Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex")));
     
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(Utilities.path(page.getFolders().dstDir, "examples", fn)));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(output(Utilities.path(page.getFolders().dstDir, "examples", fn))));
     addToResourceFeed(rp, page.getTypeBundle(), (fn));
     // saveAsPureHtml(rp, new FileOutputStream(page.getFolders().dstDir+ "html"
     // + File.separator + "datatypes.html"));
@@ -3716,23 +3886,23 @@ public class Publisher implements URIResolver, SectionNumberer {
     String fn = type.getCode().toLowerCase() + ".profile.xml";
     StructureDefinition rp = type.getProfile();
 
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + fn);
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + fn));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml")));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json")));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json")));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
 
     String shex = new ShExGenerator(page.getWorkerContext()).generate(HTMLLinkPolicy.NONE, rp);
-    TextFile.stringToFile(shex, Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex"));
+    TextFile.stringToFile(shex, output(Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex")));
     
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(Utilities.path(page.getFolders().dstDir, "examples", fn)));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(output(Utilities.path(page.getFolders().dstDir, "examples", fn))));
     addToResourceFeed(rp, page.getTypeBundle(), (fn));
     // saveAsPureHtml(rp, new FileOutputStream(page.getFolders().dstDir+ "html"
     // + File.separator + "datatypes.html"));
@@ -3760,20 +3930,20 @@ public class Publisher implements URIResolver, SectionNumberer {
     String fn = type.getName().toLowerCase() + ".profile.xml";
     StructureDefinition rp = type.getProfile();
 
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + fn);
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + fn));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.xml")));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".json")));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(fn, ".canonical.json")));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
 
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(Utilities.path(page.getFolders().dstDir, "examples", fn)));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + fn), new CSFile(output(Utilities.path(page.getFolders().dstDir, "examples", fn))));
     addToResourceFeed(rp, page.getTypeBundle(), fn);
     // saveAsPureHtml(rp, new FileOutputStream(page.getFolders().dstDir+ "html"
     // + File.separator + "datatypes.html"));
@@ -3781,7 +3951,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     jsonToXhtml(type.getName().toLowerCase() + ".profile", "StructureDefinition for " + type.getName(), resource2Json(rp), "profile-instance:type:" + type.getName(), "Type", null, wg("mnm"));
     ttlToXhtml(type.getName().toLowerCase() + ".profile", "StructureDefinition for " + type.getName(), resource2Ttl(rp), "profile-instance:type:" + type.getName(), "Type", null, wg("mnm"));
     String shex = new ShExGenerator(page.getWorkerContext()).generate(HTMLLinkPolicy.NONE, rp);
-    TextFile.stringToFile(shex, Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex"));
+    TextFile.stringToFile(shex, output(Utilities.changeFileExt(page.getFolders().dstDir + fn, ".shex")));
     shexToXhtml(type.getName().toLowerCase(), "ShEx statement for " + type.getName(), shex, "profile-instance:type:" + type.getName(), "Type", null, wg("mnm"));
   }
 
@@ -3807,11 +3977,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       try {
         // System.out.println("    "+f.page+"/"+f.id);
         String xml = f.getXml();
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        InputSource is = new InputSource(new StringReader(xml));
-        Document doc = builder.parse(is);
+        Document doc = XmlParsers.parse(new InputSource(new StringReader(xml)), true);
         org.w3c.dom.Element base = doc.getDocumentElement();
         String type = base.getAttribute("fragment");
         if (!page.getDefinitions().hasPrimitiveType(type)) {
@@ -3836,7 +4002,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     File f = new CSFile(page.getFolders().dstDir + "fhir-all-xsd.zip");
     if (f.exists())
       f.delete();
-    ZipGenerator zip = new ZipGenerator(page.getFolders().tmpResDir + "fhir-all-xsd.zip");
+    ArchiveWriter zip = archives.zip(page.getFolders().tmpResDir + "fhir-all-xsd.zip");
     zip.addFiles(page.getFolders().dstDir, "", ".xsd", null);
     zip.addFiles(page.getFolders().dstDir, "", ".sch", null);
     zip.addFiles(page.getFolders().rootDir + "tools" + sc + "schematron" + sc, "", ".xsl", "");
@@ -3846,7 +4012,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     f = new CSFile(page.getFolders().dstDir + "fhir-codegen-xsd.zip");
     if (f.exists())
       f.delete();
-    zip = new ZipGenerator(page.getFolders().tmpResDir + "fhir-codegen-xsd.zip");
+    zip = archives.zip(page.getFolders().tmpResDir + "fhir-codegen-xsd.zip");
     zip.addFiles(page.getFolders().xsdDir+"codegen"+File.separator, "", ".xsd", null);
     zip.close();
     Utilities.copyFile(new CSFile(page.getFolders().tmpResDir + "fhir-codegen-xsd.zip"), f);
@@ -3854,19 +4020,19 @@ public class Publisher implements URIResolver, SectionNumberer {
     f = new CSFile(page.getFolders().dstDir + "fhir.schema.json.zip");
     if (f.exists())
       f.delete();
-    zip = new ZipGenerator(page.getFolders().tmpResDir + "fhir.schema.json.zip");
+    zip = archives.zip(page.getFolders().tmpResDir + "fhir.schema.json.zip");
     zip.addFiles(page.getFolders().dstDir, "", ".schema.json", null);
     zip.close();
     Utilities.copyFile(new CSFile(page.getFolders().tmpResDir + "fhir.schema.json.zip"), f);
     f = new CSFile(page.getFolders().dstDir + "fhir.schema.graphql.zip");
     if (f.exists())
       f.delete();
-    zip = new ZipGenerator(page.getFolders().tmpResDir + "fhir.schema.graphql.zip");
+    zip = archives.zip(page.getFolders().tmpResDir + "fhir.schema.graphql.zip");
     zip.addFiles(page.getFolders().dstDir, "", ".graphql", null);
     zip.close();
     Utilities.copyFile(new CSFile(page.getFolders().tmpResDir + "fhir.schema.graphql.zip"), f);
-    zip = new ZipGenerator(page.getFolders().dstDir + "fhir.schema.shex.zip");
-    zip.addFileName("fhir.shex", Utilities.path(page.getFolders().dstDir, "fhir.shex"), false);
+    zip = archives.zip(page.getFolders().dstDir + "fhir.schema.shex.zip");
+    zip.addFileName("fhir.shex", Utilities.path(page.getFolders().dstDir, "fhir.shex"));
     zip.close();
   }
 
@@ -3896,6 +4062,17 @@ public class Publisher implements URIResolver, SectionNumberer {
     generateProfile(resource, n, xml, json, ttl, false);
   }
 
+  // the book form of a resource page is only rendered if the book gets produced
+  private void registerBookPage(String filename, final String template, final String type, final String pagePath, final String n, final ResourceDefn resource, final String xml, final String json, final String ttl,
+      final String tx, final String dict, final String mappings, final String mappingsList, final Map<String, String> values) {
+    book.registerPage(filename, new BookMaker.PageSource() {
+      @Override
+      public String render() throws Exception {
+        return page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, page.getTemplates().getSource(template), mappings, mappingsList, type, pagePath, null, values, resource.getWg(), null);
+      }
+    });
+  }
+
   private void produceResource2(ResourceDefn resource, boolean isAbstract, String extraTypeForDefn, boolean logicalOnly) throws Exception {
     File tmp = Utilities.createTempFile("tmp", ".tmp");
     String n = resource.getName().toLowerCase();
@@ -3928,7 +4105,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     if (!logicalOnly) {
       SvgGenerator svg = new SvgGenerator(page, "", resource.getLayout(), true, false);
-      svg.generate(resource, page.getFolders().dstDir + n + ".svg", "1");
+      svg.generate(resource, output(page.getFolders().dstDir + n + ".svg"), "1");
       svg.generate(resource, Utilities.path(page.getFolders().srcDir, n, n + ".gen.svg"), "1");
   
       String prefix = page.getBreadCrumbManager().getIndexPrefixForReference(resource.getName());
@@ -3937,11 +4114,16 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.getSectionTrackerCache().put(n, st);
 
       String template = isAbstract ? "template-abstract" : "template";
-      String src = TextFile.fileToString(page.getFolders().templateDir + template+".html");
-      src = insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "resource", n + ".html", null, values, resource.getWg(), null), st, n + ".html", 0, null);
-      TextFile.stringToFile(src, page.getFolders().dstDir + n + ".html");
-      scanForFragments(n + ".html", new XhtmlParser().parseFragment(src));
-      page.getHTMLChecker().registerFile(n + ".html", "Base Page for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
+      String src = page.getTemplates().getSource(template+".html");
+      DocumentHolder doch = new DocumentHolder();
+      src = insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "resource", n + ".html", null, values, resource.getWg(), null), st, n + ".html", 0, doch);
+      TextFile.stringToFile(src, output(page.getFolders().dstDir + n + ".html"));
+      cachePage(n + ".html", doch, src, "Base Page for " + resource.getName(), true);
+      if (book != null) {
+        registerBookPage(n + ".html", "template-book.html", "resource", n + ".html", n, resource, xml, json, ttl, tx, dict, mappings, mappingsList, values);
+        registerBookPage(n + "Ex.html", "template-book-ex.html", "res-Examples", n + "-examples.html", n, resource, xml, json, ttl, tx, dict, mappings, mappingsList, values);
+        registerBookPage(n + "Defn.html", "template-book-defn.html", "res-Detailed Descriptions", n + "-definitions.html", n, resource, xml, json, ttl, tx, dict, mappings, mappingsList, values);
+      }
 
       StructureDefinition profile = (StructureDefinition) ResourceUtilities.getById(page.getResourceBundle(), ResourceType.StructureDefinition, resource.getName());
       String pages = page.getIni().getStringProperty("resource-pages", n);
@@ -3959,10 +4141,10 @@ public class Publisher implements URIResolver, SectionNumberer {
       }
 
       if (!isAbstract || !resource.getExamples().isEmpty()) {
-        src = TextFile.fileToString(page.getFolders().templateDir + template+"-examples.html");
+        src = page.getTemplates().getSource(template+"-examples.html");
         TextFile.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Examples", n + "-examples.html", null, values, resource.getWg(), null), st, n + "-examples.html", 0, null),
-            page.getFolders().dstDir + n + "-examples.html");
+            output(page.getFolders().dstDir + n + "-examples.html"));
         page.getHTMLChecker().registerFile(n + "-examples.html", "Examples for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
         for (Example e : resource.getExamples()) {
           try {
@@ -3973,29 +4155,29 @@ public class Publisher implements URIResolver, SectionNumberer {
           }
         }
       }
-      src = TextFile.fileToString(page.getFolders().templateDir + template+"-definitions.html");
+      src = page.getTemplates().getSource(template+"-definitions.html");
       TextFile.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Detailed Descriptions", n + "-definitions.html", null, values, resource.getWg(), null), st, n
-              + "-definitions.html", 0, null), page.getFolders().dstDir + n + "-definitions.html");
+              + "-definitions.html", 0, null), output(page.getFolders().dstDir + n + "-definitions.html"));
       page.getHTMLChecker().registerFile(n + "-definitions.html", "Detailed Descriptions for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
       if (!isAbstract) {
-        src = TextFile.fileToString(page.getFolders().templateDir + "template-mappings.html");
+        src = page.getTemplates().getSource("template-mappings.html");
         TextFile.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Mappings", n + "-mappings.html", null, values, resource.getWg(), null), st, n + "-mappings.html", 0, null),
-            page.getFolders().dstDir + n + "-mappings.html");
+            output(page.getFolders().dstDir + n + "-mappings.html"));
         page.getHTMLChecker().registerFile(n + "-mappings.html", "Formal Mappings for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-        src = TextFile.fileToString(page.getFolders().templateDir + "template-profiles.html");
+        src = page.getTemplates().getSource("template-profiles.html");
         TextFile.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Profiles", n + "-profiles.html", null, values, resource.getWg(), null), st, n + "-profiles.html", 0, null),
-            page.getFolders().dstDir + n + "-profiles.html");
+            output(page.getFolders().dstDir + n + "-profiles.html"));
         page.getHTMLChecker().registerFile(n + "-profiles.html", "Profiles for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       }
       if (!resource.getOperations().isEmpty()) {
-        src = TextFile.fileToString(page.getFolders().templateDir + "template-operations.html");
+        src = page.getTemplates().getSource("template-operations.html");
         TextFile.stringToFile(
             insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Operations", n + "-operations.html", null, values, resource.getWg(), null), st, n + "-operations.html", 0, null), 
-            page.getFolders().dstDir + n + "-operations.html");
+            output(page.getFolders().dstDir + n + "-operations.html"));
         page.getHTMLChecker().registerFile(n + "-operations.html", "Operations for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
         for (Operation t : resource.getOperations()) {
@@ -4005,16 +4187,16 @@ public class Publisher implements URIResolver, SectionNumberer {
       produceMap(resource.getName(), st, resource);
       for (Profile ap : resource.getConformancePackages())
         produceConformancePackage(resource, ap, st);
-      src = TextFile.fileToString(page.getFolders().templateDir + "template-json-schema.html");
+      src = page.getTemplates().getSource("template-json-schema.html");
       TextFile.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-schema", n + ".schema.json.html", null, values, resource.getWg(), null), st, n + ".schema.json.html", 0, null),
-          page.getFolders().dstDir + n + ".schema.json.html");
+          output(page.getFolders().dstDir + n + ".schema.json.html"));
       page.getHTMLChecker().registerFile(n + ".schema.json.html", "Json Schema for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
-      src = TextFile.fileToString(page.getFolders().templateDir + "template-dependencies.html");
+      src = page.getTemplates().getSource("template-dependencies.html");
       TextFile.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, resource, xml, json, ttl, tx, dict, src, mappings, mappingsList, "res-Dependencies", n + "-dependencies.html", null, values, resource.getWg(), null), st, n
-              + "-dependencies.html", 0, null), page.getFolders().dstDir + n + "-dependencies.html");
+              + "-dependencies.html", 0, null), output(page.getFolders().dstDir + n + "-dependencies.html"));
       page.getHTMLChecker().registerFile(n + "-dependencies.html", "Dependency graph for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
       
       for (ConceptMap cm : statusCodeConceptMaps)
@@ -4029,7 +4211,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
     tmp.delete();
 
-    new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).generateXlsx(new FileOutputStream(Utilities.path(page.getFolders().dstDir, n + ".xlsx")), resource.getProfile(), false, false);
+    new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).generateXlsx(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, n + ".xlsx"))), resource.getProfile(), false, false);
     
     // because we'll pick up a little more information as we process the
     // resource
@@ -4038,15 +4220,13 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.getDiffEngine().getDiffAsJson(diff, p);
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     json = gson.toJson(diff);
-    TextFile.stringToFile(json, Utilities.path(page.getFolders().dstDir, resource.getName().toLowerCase()+".diff.json"));
+    TextFile.stringToFile(json, output(Utilities.path(page.getFolders().dstDir, resource.getName().toLowerCase()+".diff.json")));
 
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = dbf.newDocumentBuilder();
-    Document doc = builder.newDocument();
+    Document doc = XmlParsers.newDocument();
     Element element = doc.createElement("difference");
     doc.appendChild(element);
     page.getDiffEngine().getDiffAsXml(doc, element, p);
-    prettyPrint(doc, Utilities.path(page.getFolders().dstDir, resource.getName().toLowerCase()+".diff.xml"));
+    prettyPrint(doc, output(Utilities.path(page.getFolders().dstDir, resource.getName().toLowerCase()+".diff.xml")));
 }
 
   public void prettyPrint(Document xml, String filename) throws Exception {
@@ -4063,27 +4243,27 @@ public class Publisher implements URIResolver, SectionNumberer {
     
     String dir = ig == null ? "" : ig.getCode()+File.separator;
 
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + dir+"operation-" + name + ".xml");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + dir+"operation-" + name + ".xml"));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, opd);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + dir+"operation-" + name + ".canonical.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + dir+"operation-" + name + ".canonical.xml"));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, opd);
     s.close();
     cloneToXhtml(dir+"operation-" + name + "", "Operation Definition", true, "resource-instance:OperationDefinition", "Operation definition", resource, resource.getWg());
-    s = new FileOutputStream(page.getFolders().dstDir + dir+"operation-" + name + ".json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + dir+"operation-" + name + ".json"));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, opd);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + dir+"operation-" + name + ".canonical.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + dir+"operation-" + name + ".canonical.json"));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, opd);
     s.close();
     jsonToXhtml(dir+"operation-" + name, "Operation Definition", resource2Json(opd), "resource-instance:OperationDefinition", "Operation definition", resource, resource.getWg());
 
-    s = new FileOutputStream(page.getFolders().dstDir + dir+"operation-" + name + ".ttl");
+    s = new FileOutputStream(output(page.getFolders().dstDir + dir+"operation-" + name + ".ttl"));
     new RdfParser().setOutputStyle(OutputStyle.PRETTY).compose(s, opd);
     s.close();
     ttlToXhtml(dir+"operation-" + name, "Operation Definition", resource2Ttl(opd), "resource-instance:OperationDefinition", "Operation definition", resource, resource.getWg());
     
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + dir+"operation-" + name + ".xml"), new CSFile(page.getFolders().dstDir + "examples" + File.separator + "operation-" + name + ".xml"));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + dir+"operation-" + name + ".xml"), new CSFile(output(page.getFolders().dstDir + "examples" + File.separator + "operation-" + name + ".xml")));
     if (buildFlags.get("all")) {
       addToResourceFeed(opd, page.getResourceBundle(), name);
       page.getWorkerContext().cacheResource(opd);
@@ -4091,16 +4271,16 @@ public class Publisher implements URIResolver, SectionNumberer {
     // now we create a page for the operation
     String fnp = resource.getName().toLowerCase()+"-operation-" + op.getName().toLowerCase()+".html";
     
-    String src = TextFile.fileToString(page.getFolders().templateDir + "template-operation.html");
+    String src = page.getTemplates().getSource("template-operation.html");
     src = page.processPageIncludes(fnp, src, "res-Operations", null, "operation-" + name + ".html", op.getResource(), null, "Operation Definition", op, ig, resource, resource.getWg());
-    TextFile.stringToFile(insertSectionNumbers(src, st, fnp, 0, null), page.getFolders().dstDir + fnp);
+    TextFile.stringToFile(insertSectionNumbers(src, st, fnp, 0, null), output(page.getFolders().dstDir + fnp));
     page.getHTMLChecker().registerFile(fnp, "Operation "+op.getName()+" for " + resource.getName(), HTMLLinkChecker.XHTML_TYPE, true);
 
     
     // now, we create an html page from the narrative
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", new XhtmlComposer(XhtmlComposer.HTML).compose(opd.getText().getDiv()));
+    String html = page.getTemplates().getSource("template-example.html").replace("<%example%>", new XhtmlComposer(XhtmlComposer.HTML).compose(opd.getText().getDiv()));
     html = page.processPageIncludes(dir+"operation-" + name + ".html", html, "resource-instance:OperationDefinition", null, null, null, "Operation Definition", ig, resource, resource.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + dir+"operation-" + name + ".html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + dir+"operation-" + name + ".html"));
     page.getHTMLChecker().registerFile(dir+"operation-" + name + ".html", "Operation " + op.getName(), HTMLLinkChecker.XHTML_TYPE, true);
     // head =
     // "<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"en\">\r\n<head>\r\n <title>"+Utilities.escapeXml(e.getDescription())+"</title>\r\n <link rel=\"Stylesheet\" href=\"fhir.css\" type=\"text/css\" media=\"screen\"/>\r\n"+
@@ -4118,8 +4298,8 @@ public class Publisher implements URIResolver, SectionNumberer {
     b.build();
     Questionnaire q = b.getQuestionnaire();
 
-    new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(page.getFolders().dstDir + n + "-questionnaire.xml"), q);
-    new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(page.getFolders().dstDir + n + "-questionnaire.json"), q);
+    new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(output(page.getFolders().dstDir + n + "-questionnaire.xml")), q);
+    new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(output(page.getFolders().dstDir + n + "-questionnaire.json")), q);
 
   }
 
@@ -4130,9 +4310,9 @@ public class Publisher implements URIResolver, SectionNumberer {
   
   private void shexToXhtml(String n, String description, String shex, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg) throws Exception {
     shex = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"shex\">\r\n" + Utilities.escapeXml(shex)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-shex.html").replace("<%example%>", shex);
+    String html = page.getTemplates().getSource("template-example-shex.html").replace("<%example%>", shex);
     html = page.processPageIncludes(n + ".shex.html", html, pageType, null, null, null, crumbTitle, igd, rd, wg);
-    TextFile.stringToFile(html, page.getFolders().dstDir + n + ".shex.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + n + ".shex.html"));
     page.getHTMLChecker().registerExternal(n + ".shex.html");
   }
 
@@ -4142,9 +4322,9 @@ public class Publisher implements URIResolver, SectionNumberer {
   
   private void ttlToXhtml(String n, String description, String ttl, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg) throws Exception {
     ttl = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"turtle\">\r\n" + Utilities.escapeXml(ttl)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-ttl.html").replace("<%example%>", ttl);
+    String html = page.getTemplates().getSource("template-example-ttl.html").replace("<%example%>", ttl);
     html = page.processPageIncludes(n + ".ttl.html", html, pageType, null, null, null, crumbTitle, igd, rd, wg);
-    TextFile.stringToFile(html, page.getFolders().dstDir + n + ".ttl.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + n + ".ttl.html"));
     page.getHTMLChecker().registerExternal(n + ".ttl.html");
   }
 
@@ -4154,9 +4334,9 @@ public class Publisher implements URIResolver, SectionNumberer {
   
   private void jsonToXhtml(String n, String description, String json, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg) throws Exception {
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(description) + "</p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().getSource("template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(n + ".json.html", html, pageType, null, null, null, crumbTitle, igd, rd, wg);
-    TextFile.stringToFile(html, page.getFolders().dstDir + n + ".json.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + n + ".json.html"));
     page.getHTMLChecker().registerExternal(n + ".json.html");
   }
 
@@ -4164,17 +4344,13 @@ public class Publisher implements URIResolver, SectionNumberer {
     cloneToXhtml(n, description, adorn, pageType, crumbTitle, null, rd, wg);
   }
   private void cloneToXhtml(String n, String description, boolean adorn, String pageType, String crumbTitle, ImplementationGuideDefn igd, ResourceDefn rd, WorkGroup wg) throws Exception {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    DocumentBuilder builder = factory.newDocumentBuilder();
-
-    Document xdoc = builder.parse(new CSFileInputStream(new CSFile(page.getFolders().dstDir + n + ".xml")));
+    Document xdoc = XmlParsers.parse(new CSFileInputStream(new CSFile(page.getFolders().dstDir + n + ".xml")), true);
     XhtmlGenerator xhtml = new XhtmlGenerator(new ExampleAdorner(page.getDefinitions(), page.genlevel(Utilities.charCount(n, File.separatorChar))));
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, n.toUpperCase().substring(0, 1) + n.substring(1), description, 0, adorn, n + ".xml.html");
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", b.toString());
+    String html = page.getTemplates().getSource("template-example-xml.html").replace("<%example%>", b.toString());
     html = page.processPageIncludes(n + ".xml.html", html, pageType, null, n + ".xml.html", null, null, crumbTitle, (adorn && hasNarrative(xdoc)) ? new Boolean(true) : null, igd, rd, wg);
-    TextFile.stringToFile(html, page.getFolders().dstDir + n + ".xml.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + n + ".xml.html"));
 
     //    page.getEpub().registerFile(n + ".xml.html", description, EPubManager.XHTML_TYPE);
     page.getHTMLChecker().registerExternal(n + ".xml.html");
@@ -4191,28 +4367,28 @@ public class Publisher implements URIResolver, SectionNumberer {
     qb.build();
     Questionnaire q = qb.getQuestionnaire();
 
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.json");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.json"));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, q);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.canonical.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.canonical.json"));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, q);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.xml"));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, q);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.canonical.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.canonical.xml"));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, q);
     s.close();
 
     String json = "<div class=\"example\">\r\n<p>Generated Questionnaire for "+profile.getId()+"</p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(new JsonParser().setOutputStyle(OutputStyle.PRETTY).composeString(q)) + "\r\n</pre>\r\n</div>\r\n";
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().getSource("template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(prefix+profile.getId().toLowerCase() + "-questionnaire.json.html", html, (isResource ? "resource-questionnaire:" : "profile-questionnaire:") + profile.getId(), null, null, null, "Questionnaire", ig, res, res == null ? wg("fhir") : res.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.json.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.json.html"));
 
     String xml = "<div class=\"example\">\r\n<p>Generated Questionnaire for "+profile.getId()+"</p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(new XmlParser().setOutputStyle(OutputStyle.PRETTY).composeString(q)) + "\r\n</pre>\r\n</div>\r\n";
-    html = TextFile.fileToString(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", xml);
+    html = page.getTemplates().getSource("template-example-xml.html").replace("<%example%>", xml);
     html = page.processPageIncludes(prefix+profile.getId().toLowerCase() + "-questionnaire.xml.html", html, (isResource ? "resource-questionnaire:" : "profile-questionnaire:") + profile.getId(), null, null, null, "Questionnaire", ig, res, res == null ? wg("fhir") : res.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.xml.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.xml.html"));
 
     if (false) {
       File tmpTransform = Utilities.createTempFile("tmp", ".html");
@@ -4231,14 +4407,14 @@ public class Publisher implements URIResolver, SectionNumberer {
       //      TextFile.stringToFile("test", tmpTransform.getAbsolutePath());
 
       // now, generate the form
-      html = TextFile.fileToString(page.getFolders().templateDir + (isResource ? "template-questionnaire.html" : "template-profile-questionnaire.html")).replace("<%questionnaire%>", loadHtmlForm(tmpTransform.getAbsolutePath()));
+      html = page.getTemplates().getSource((isResource ? "template-questionnaire.html" : "template-profile-questionnaire.html")).replace("<%questionnaire%>", loadHtmlForm(tmpTransform.getAbsolutePath()));
     } else
       html = "<html><p>Not generated in this build</p></html>";
     html = page.processPageIncludes(profile.getId().toLowerCase() + "-questionnaire.html", html, (isResource ? "resource-questionnaire:" : "profile-questionnaire:") + profile.getId(), null, profile, null, "Questionnaire", ig, res, res == null ? wg("fhir") : res.getWg());
     int level = (ig == null || ig.isCore()) ? 0 : 1;
     if (st != null)
       html = insertSectionNumbers(html, st, profile.getId().toLowerCase() + "-questionnaire.html", level, null);
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix+ profile.getId().toLowerCase() + "-questionnaire.html"));
 
     page.getHTMLChecker().registerExternal(prefix+ profile.getId().toLowerCase() + "-questionnaire.html");
     page.getHTMLChecker().registerExternal(prefix+ profile.getId().toLowerCase() + "-questionnaire.json.html");
@@ -4267,9 +4443,6 @@ public class Publisher implements URIResolver, SectionNumberer {
     int level = (ig == null || ig.isCore()) ? 0 : 1;
     String prefix = (ig == null || ig.isCore()) ? "" : ig.getCode() + File.separator;
 
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    DocumentBuilder builder = factory.newDocumentBuilder();
     Document xdoc;
     String narrative = null;
     String n = e.getTitle();
@@ -4436,41 +4609,40 @@ public class Publisher implements URIResolver, SectionNumberer {
     
     org.hl7.fhir.r5.elementmodel.Element ex = Manager.parse(page.getWorkerContext(), new CSFileInputStream(page.getFolders().dstDir + prefix+n + ".xml"), FhirFormat.XML);
     new DefinitionsUsageTracker(page.getDefinitions()).updateUsage(ex);
-    Manager.compose(page.getWorkerContext(), ex, new FileOutputStream(page.getFolders().dstDir + prefix+n + ".json"), FhirFormat.JSON, OutputStyle.PRETTY, canonical); 
+    Manager.compose(page.getWorkerContext(), ex, new FileOutputStream(output(page.getFolders().dstDir + prefix+n + ".json")), FhirFormat.JSON, OutputStyle.PRETTY, canonical); 
 //    Manager.compose(page.getWorkerContext(), ex, new FileOutputStream(Utilities.changeFileExt(destName, ".canonical.json")), FhirFormat.JSON, OutputStyle.CANONICAL); 
 //    Manager.compose(page.getWorkerContext(), ex, new FileOutputStream(Utilities.changeFileExt(destName, ".canonical.xml")), FhirFormat.XML, OutputStyle.CANONICAL); 
-    Manager.compose(page.getWorkerContext(), ex, new FileOutputStream(page.getFolders().dstDir + prefix+n + ".ttl"), FhirFormat.TURTLE, OutputStyle.PRETTY, resn.getName().equals("Parameters") || resn.getName().equals("OperationOutcome")  ? null : canonical); 
+    Manager.compose(page.getWorkerContext(), ex, new FileOutputStream(output(page.getFolders().dstDir + prefix+n + ".ttl")), FhirFormat.TURTLE, OutputStyle.PRETTY, resn.getName().equals("Parameters") || resn.getName().equals("OperationOutcome")  ? null : canonical); 
     
     String json = TextFile.fileToString(page.getFolders().dstDir + prefix+n + ".json");
     //        String json2 = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(e.getDescription()) + "</p>\r\n<p><a href=\""+ n + ".json\">Raw JSON</a> (<a href=\""+n + ".canonical.json\">Canonical</a>)</p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(json)
     //            + "\r\n</pre>\r\n</div>\r\n";
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(e.getDescription()) + "</p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(json)
     + "\r\n</pre>\r\n</div>\r\n";
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().getSource("template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(n + ".json.html", html, e.getResourceName() == null ? "profile-instance:resource:" + e.getResourceName() : "resource-instance:" + e.getResourceName(), null, null, null, "Example", null, resn, resn.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix+n + ".json.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix+n + ".json.html"));
 
     page.getHTMLChecker().registerExternal(prefix+n + ".json.html");
 
     String ttl = TextFile.fileToString(page.getFolders().dstDir + prefix+n + ".ttl");
     ttl = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml(e.getDescription()) + "</p>\r\n<pre class=\"rdf\">\r\n" + Utilities.escapeXml(ttl)
     + "\r\n</pre>\r\n</div>\r\n";
-    html = TextFile.fileToString(page.getFolders().templateDir + "template-example-ttl.html").replace("<%example%>", ttl);
+    html = page.getTemplates().getSource("template-example-ttl.html").replace("<%example%>", ttl);
     html = page.processPageIncludes(n + ".ttl.html", html, e.getResourceName() == null ? "profile-instance:resource:" + e.getResourceName() : "resource-instance:" + e.getResourceName(), null, null, null, "Example", null, resn, resn.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix+n + ".ttl.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix+n + ".ttl.html"));
 
     page.getHTMLChecker().registerExternal(prefix+n + ".ttl.html");
 
     // reload it now, xml to xhtml of xml
-    builder = factory.newDocumentBuilder();
-    xdoc = builder.parse(new CSFileInputStream(file));
+    xdoc = XmlParsers.parse(new CSFileInputStream(file), true);
     XhtmlGenerator xhtml = new XhtmlGenerator(new ExampleAdorner(page.getDefinitions(), page.genlevel(level)));
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, n.toUpperCase().substring(0, 1) + n.substring(1), Utilities.noString(e.getId()) ? e.getDescription() : e.getDescription()
         + " (id = \"" + e.getId() + "\")", 0, true, n + ".xml.html");
-    html = TextFile.fileToString(page.getFolders().templateDir + "template-example-xml.html").replace("<%example%>", b.toString());
+    html = page.getTemplates().getSource("template-example-xml.html").replace("<%example%>", b.toString());
     html = page.processPageIncludes(n + ".xml.html", html, resn == null ? "profile-instance:resource:" + rt : "resource-instance:" + resn.getName(), null, n + ".xml.html", profile, null, "Example", (hasNarrative(xdoc)) ? new Boolean(true) : null, ig, resn, resn.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix +n + ".xml.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix +n + ".xml.html"));
     XhtmlDocument d = new XhtmlParser().parse(new CSFileInputStream(page.getFolders().dstDir + prefix +n + ".xml.html"), "html");
     XhtmlNode pre = d.getElement("html").getElement("body").getElement("div");
     e.setXhtm(b.toString());
@@ -4498,15 +4670,15 @@ public class Publisher implements URIResolver, SectionNumberer {
     XMLUtil.spacer(xdoc, meta, 2); 
     
     String destf = (!Utilities.noString(e.getId())) ?  page.getFolders().dstDir + "examples" + File.separator + n + "(" + e.getId() + ").xml" : page.getFolders().dstDir + "examples" + File.separator + n + ".xml";
-    FileOutputStream fs = new FileOutputStream(destf);
+    FileOutputStream fs = new FileOutputStream(output(destf));
     XMLUtil.saveToFile(root, fs); 
     fs.close();
     
     // now, we create an html page from the narrative
     narrative = fixExampleReferences(e.getTitle(), narrative);
-    html = TextFile.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", narrative == null ? "" : narrative).replace("<%example-usage%>", genExampleUsage(e, page.genlevel(level)));
+    html = page.getTemplates().getSource("template-example.html").replace("<%example%>", narrative == null ? "" : narrative).replace("<%example-usage%>", genExampleUsage(e, page.genlevel(level)));
     html = page.processPageIncludes(n + ".html", html, resn == null ? "profile-instance:resource:" + rt : "resource-instance:" + resn.getName(), null, profile, null, "Example", ig, resn, resn.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix +n + ".html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix +n + ".html"));
     // head =
     // "<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"en\">\r\n<head>\r\n <title>"+Utilities.escapeXml(e.getDescription())+"</title>\r\n <link rel=\"Stylesheet\" href=\"fhir.css\" type=\"text/css\" media=\"screen\"/>\r\n"+
     // "</head>\r\n<body>\r\n<p>&nbsp;</p>\r\n<p>"+Utilities.escapeXml(e.getDescription())+"</p>\r\n"+
@@ -4620,11 +4792,11 @@ public class Publisher implements URIResolver, SectionNumberer {
     conv.setDefinitions(Utilities.path(page.getFolders().srcDir, "loinc", "loincS.xml"));
     conv.process();
     IParser xml = new XmlParser().setOutputStyle(OutputStyle.PRETTY);
-    FileOutputStream s = new FileOutputStream(Utilities.path(page.getFolders().dstDir, filename+".xml"));
+    FileOutputStream s = new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, filename+".xml")));
     xml.compose(s, conv.getBundle());
     s.close();
     IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-    s = new FileOutputStream(Utilities.path(page.getFolders().dstDir, filename+".json"));
+    s = new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, filename+".json")));
     json.compose(s, conv.getBundle());
     s.close();
     return "Loinc Narrative";
@@ -4633,31 +4805,31 @@ public class Publisher implements URIResolver, SectionNumberer {
   private StructureDefinition generateProfile(ResourceDefn root, String n, String xmlSpec, String jsonSpec, String ttlSpec, boolean gen) throws Exception, FileNotFoundException {
     StructureDefinition rp = root.getProfile();
     page.getProfiles().see(rp, page.packageInfo());
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + n + ".profile.xml");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + n + ".profile.xml"));
     new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + n + ".profile.canonical.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + n + ".profile.canonical.xml"));
     new XmlParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + n + ".profile.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + n + ".profile.json"));
     new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(s, rp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + n + ".profile.canonical.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + n + ".profile.canonical.json"));
     new JsonParser().setOutputStyle(OutputStyle.CANONICAL).compose(s, rp);
     s.close();
 
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + n + ".profile.xml"), new CSFile(page.getFolders().dstDir + "examples" + File.separator + n
-        + ".profile.xml"));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + n + ".profile.xml"), new CSFile(output(page.getFolders().dstDir + "examples" + File.separator + n
+        + ".profile.xml")));
     if (buildFlags.get("all")) {
       addToResourceFeed(rp, page.getResourceBundle(), null);
     }
     if (gen) {
-      saveAsPureHtml(rp, new FileOutputStream(page.getFolders().dstDir + "html" + File.separator + n + ".html"));
+      saveAsPureHtml(rp, new FileOutputStream(output(page.getFolders().dstDir + "html" + File.separator + n + ".html")));
       cloneToXhtml(n + ".profile", "StructureDefinition for " + n, true, "profile-instance:resource:" + root.getName(), "Profile", root, root.getWg());
       jsonToXhtml(n + ".profile", "StructureDefinition for " + n, resource2Json(rp), "profile-instance:resource:" + root.getName(), "Profile", root, root.getWg());
       ttlToXhtml(n + ".profile", "StructureDefinition for " + n, resource2Ttl(rp), "profile-instance:resource:" + root.getName(), "Profile", root, root.getWg());
       String shex = new ShExGenerator(page.getWorkerContext()).generate(HTMLLinkPolicy.NONE, rp);
-      TextFile.stringToFile(shex, page.getFolders().dstDir + n+".shex");
+      TextFile.stringToFile(shex, output(page.getFolders().dstDir + n+".shex"));
       shexToXhtml(n, "ShEx statement for " + n, shex, "profile-instance:type:" + root.getName(), "Type", root, root.getWg());
     }
     return rp;
@@ -4805,7 +4977,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     String notes = pack.getNotes() != null ? page.loadXmlNotesFromFile(pack.getNotes(), false, null, null, null, null, res == null ? wg("fhir") : res.getWg()) : null;
 
     if (!("profile".equals(pack.metadata("navigation")) && pack.getProfiles().size() == 1)) {
-      String src = TextFile.fileToString(page.getFolders().templateDir + "template-conformance-pack.html");
+      String src = page.getTemplates().getSource("template-conformance-pack.html");
       src = page.processConformancePackageIncludes(pack, src, intro, notes, resourceName, ig);
       if (st != null)
         src = insertSectionNumbers(src, st, pack.getId().toLowerCase() + ".html",  0, null);
@@ -4813,7 +4985,7 @@ public class Publisher implements URIResolver, SectionNumberer {
         src = addSectionNumbers(pack.getId() + ".html", pack.getId(), src, null, 1, null, ig);
 
       page.getHTMLChecker().registerFile(prefix+pack.getId().toLowerCase() + ".html", "Profile " + pack.getId(), HTMLLinkChecker.XHTML_TYPE, true);
-      TextFile.stringToFile(src, page.getFolders().dstDir + prefix+pack.getId() + ".html");
+      TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix+pack.getId() + ".html"));
     }
 
     // now, we produce each profile
@@ -4852,33 +5024,33 @@ public class Publisher implements URIResolver, SectionNumberer {
     int level = (ig == null || ig.isCore()) ? 0 : 1;
 
     XmlParser comp = new XmlParser();
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + prefix+title + ".xml");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + prefix+title + ".xml"));
     comp.setOutputStyle(OutputStyle.PRETTY).compose(s, sp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix+title + ".canonical.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix+title + ".canonical.xml"));
     comp.setOutputStyle(OutputStyle.CANONICAL).compose(s, sp);
     s.close();
     JsonParser jcomp = new JsonParser();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix+title + ".json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix+title + ".json"));
     jcomp.setOutputStyle(OutputStyle.PRETTY).compose(s, sp);
     s.close();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix+title + ".canonical.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix+title + ".canonical.json"));
     jcomp.setOutputStyle(OutputStyle.CANONICAL).compose(s, sp);
     s.close();
 
-    String src = TextFile.fileToString(page.getFolders().templateDir + "template-search-parameter.html");
+    String src = page.getTemplates().getSource("template-search-parameter.html");
     src = page.processPageIncludes(sp.getId()+".html", src, "search-parameter:"+(res == null ? "na" : res.getName())+"/"+pack.getId()+"/"+sp.getId(), null, sp, null, "Search Parameter", ig, res, res == null ? wg("fhir"): res.getWg());
     if (st != null)
       src = insertSectionNumbers(src, st, title + ".html", level, null);
     page.getHTMLChecker().registerFile(prefix+title + ".html", "SearchParameter " + sp.getName(), HTMLLinkChecker.XHTML_TYPE, true);
-    TextFile.stringToFile(src, page.getFolders().dstDir + prefix+title + ".html");
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix+title + ".html"));
     cloneToXhtml(prefix+title, "Search Parameter "+sp.getName(), false, "searchparam-instance", "Search Parameter", res, res == null ? wg("fhir") : res.getWg());
 
     String json = resource2Json(sp);
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml("SearchParameter " + sp.getName()) + "</p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example-json.html").replace("<%example%>", json);
+    String html = page.getTemplates().getSource("template-example-json.html").replace("<%example%>", json);
     html = page.processPageIncludes(title + ".json.html", html, "search-parameter:"+(res == null ? "wg" : res.getName())+"/"+pack.getId()+"/"+sp.getId(), null, sp, null, "Search Parameter", ig, res, res == null ? wg("fhir"): res.getWg());
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix+title + ".json.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix+title + ".json.html"));
     page.getHTMLChecker().registerExternal(prefix+title + ".json.html");
   }
 
@@ -4903,12 +5075,12 @@ public class Publisher implements URIResolver, SectionNumberer {
     String json = new String(bs.toByteArray());
 
     XmlParser comp = new XmlParser();
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + prefix +title + ".profile.xml");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + prefix +title + ".profile.xml"));
     comp.setOutputStyle(OutputStyle.PRETTY).compose(s, profile.getResource());
     s.close();
-    Utilities.copyFile(new CSFile(page.getFolders().dstDir + prefix +title + ".profile.xml"), new CSFile(page.getFolders().dstDir + "examples" + File.separator + title+ ".profile.xml"));
+    Utilities.copyFile(new CSFile(page.getFolders().dstDir + prefix +title + ".profile.xml"), new CSFile(output(page.getFolders().dstDir + "examples" + File.separator + title+ ".profile.xml")));
     JsonParser jcomp = new JsonParser();
-    s = new FileOutputStream(page.getFolders().dstDir + prefix +title + ".profile.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir + prefix +title + ".profile.json"));
     jcomp.setOutputStyle(OutputStyle.PRETTY).compose(s, profile.getResource());
     s.close();
 //    String shex = new ShExGenerator(page.getWorkerContext()).generate(HTMLLinkPolicy.NONE, profile.getResource());
@@ -4920,7 +5092,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     tgen.close();
     String tx = TextFile.fileToString(tmp.getAbsolutePath());
 
-    String src = TextFile.fileToString(page.getFolders().templateDir + "template-profile.html");
+    String src = page.getTemplates().getSource("template-profile.html");
     src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     if (st != null)
       src = insertSectionNumbers(src, st, title + ".html", level, null);
@@ -4930,28 +5102,28 @@ public class Publisher implements URIResolver, SectionNumberer {
     }
 
     page.getHTMLChecker().registerFile(prefix +title + ".html", "StructureDefinition " + profile.getResource().getName(), HTMLLinkChecker.XHTML_TYPE, false);
-    TextFile.stringToFile(src, page.getFolders().dstDir + prefix +title + ".html");
-    new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).generateSchematrons(new FileOutputStream(page.getFolders().dstDir + prefix +title + ".sch"), profile.getResource());
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix +title + ".html"));
+    new ProfileUtilities(page.getWorkerContext(), page.getValidationErrors(), page).generateSchematrons(new FileOutputStream(output(page.getFolders().dstDir + prefix +title + ".sch")), profile.getResource());
 
     if (pack.getExamples().size() > 0) {
-      src = TextFile.fileToString(page.getFolders().templateDir + "template-profile-examples.html");
+      src = page.getTemplates().getSource("template-profile-examples.html");
       src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
       page.getHTMLChecker().registerFile(prefix+title + "-examples.html", "Examples for StructureDefinition " + profile.getResource().getName(), HTMLLinkChecker.XHTML_TYPE, true);
-      TextFile.stringToFile(src, page.getFolders().dstDir + prefix +title + "-examples.html");
+      TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix +title + "-examples.html"));
     }
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-profile-definitions.html");
+    src = page.getTemplates().getSource("template-profile-definitions.html");
     src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     if (st != null)
       src = insertSectionNumbers(src, st, title + "-definitions.html", level, null);
     page.getHTMLChecker().registerFile(prefix +title + "-definitions.html", "Definitions for StructureDefinition " + profile.getResource().getName(), HTMLLinkChecker.XHTML_TYPE, true);
-    TextFile.stringToFile(src, page.getFolders().dstDir + prefix +title + "-definitions.html");
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix +title + "-definitions.html"));
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-profile-mappings.html");
+    src = page.getTemplates().getSource("template-profile-mappings.html");
     src = page.processProfileIncludes(profile.getId(), profile.getId(), pack, profile, xml, json, tx, src, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
     if (st != null)
       src = insertSectionNumbers(src, st, title + "-mappings.html", level, null);
     page.getHTMLChecker().registerFile(prefix +title + "-mappings.html", "Mappings for StructureDefinition " + profile.getResource().getName(), HTMLLinkChecker.XHTML_TYPE, true);
-    TextFile.stringToFile(src, page.getFolders().dstDir + prefix +title + "-mappings.html");
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + prefix +title + "-mappings.html"));
 
     try {
       processQuestionnaire(resource, profile.getResource(), st, false, prefix, ig);
@@ -4964,22 +5136,18 @@ public class Publisher implements URIResolver, SectionNumberer {
     // xml to xhtml of xml
     // first pass is to strip the xsi: stuff. seems to need double
     // processing in order to delete namespace crap
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    Document xdoc = builder.parse(new CSFileInputStream(page.getFolders().dstDir + prefix +title + ".profile.xml"));
+    Document xdoc = XmlParsers.parse(new CSFileInputStream(page.getFolders().dstDir + prefix +title + ".profile.xml"), true);
     XmlGenerator xmlgen = new XmlGenerator();
     xmlgen.generate(xdoc.getDocumentElement(), tmp, "http://hl7.org/fhir", xdoc.getDocumentElement().getLocalName());
 
     // reload it now
-    builder = factory.newDocumentBuilder();
-    xdoc = builder.parse(new CSFileInputStream(tmp.getAbsolutePath()));
+    xdoc = XmlParsers.parse(new CSFileInputStream(tmp.getAbsolutePath()), true);
     XhtmlGenerator xhtml = new XhtmlGenerator(new ExampleAdorner(page.getDefinitions(), page.genlevel(level)));
     ByteArrayOutputStream b = new ByteArrayOutputStream();
     xhtml.generate(xdoc, b, "StructureDefinition", profile.getTitle(), 0, true, title + ".profile.xml.html");
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-profile-example-xml.html").replace("<%example%>", b.toString());
+    String html = page.getTemplates().getSource("template-profile-example-xml.html").replace("<%example%>", b.toString());
     html = page.processProfileIncludes(title + ".profile.xml.html", profile.getId(), pack, profile, "", "", "", html, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, hasNarrative(xdoc));
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix +title + ".profile.xml.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix +title + ".profile.xml.html"));
 
     page.getHTMLChecker().registerFile(prefix +title + ".profile.xml.html", "StructureDefinition", HTMLLinkChecker.XHTML_TYPE, false);
     String n = prefix +title + ".profile";
@@ -4987,9 +5155,9 @@ public class Publisher implements URIResolver, SectionNumberer {
 
 
     json = "<div class=\"example\">\r\n<p>" + Utilities.escapeXml("StructureDefinition for " + profile.getResource().getDescription()) + "</p>\r\n<p><a href=\""+title+".profile.json\">Raw JSON</a></p>\r\n<pre class=\"json\">\r\n" + Utilities.escapeXml(json)+ "\r\n</pre>\r\n</div>\r\n";
-    html = TextFile.fileToString(page.getFolders().templateDir + "template-profile-example-json.html").replace("<%example%>", json);
+    html = page.getTemplates().getSource("template-profile-example-json.html").replace("<%example%>", json);
     html = page.processProfileIncludes(title + ".profile.json.html", profile.getId(), pack, profile, "", "", "", html, title + ".html", (resource == null ? profile.getResource().getType() : resource.getName())+"/"+pack.getId()+"/"+profile.getId(), intro, notes, ig, false, false);
-    TextFile.stringToFile(html, page.getFolders().dstDir + prefix +title + ".profile.json.html");
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + prefix +title + ".profile.json.html"));
     //    page.getEpub().registerFile(n + ".json.html", description, EPubManager.XHTML_TYPE);
     page.getHTMLChecker().registerExternal(n + ".json.html");
     tmp.delete();
@@ -5053,7 +5221,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (Utilities.noString(logicalName))
       logicalName = Utilities.fileTitle(file);
 
-    TextFile.stringToFile(src, page.getFolders().dstDir + file);
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + file));
     DocumentHolder doch = new DocumentHolder();
     src = addSectionNumbers(file, logicalName, src, null, 0, doch, null);
 
@@ -5070,11 +5238,12 @@ public class Publisher implements URIResolver, SectionNumberer {
         page.getDefinitions().page(file).setWg(wg.getChildNodes().get(0).allText());
     }
 
-    TextFile.stringToFile(src, page.getFolders().dstDir + file);
-
-    src = TextFile.fileToString(page.getFolders().srcDir + file).replace("<body>", "<body style=\"margin: 10px\">");
-    src = page.processPageIncludesForBook(file, src, "page", null, null, null);
-    cachePage(file, src, logicalName, true);
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + file));
+    cachePage(file, doch, src, logicalName, true);
+    if (book != null) {
+      src = TextFile.fileToString(page.getFolders().srcDir + file).replace("<body>", "<body style=\"margin: 10px\">");
+      book.registerPage(file, page.processPageIncludesForBook(file, src, "page", null, null, null));
+    }
   }
 
   private String get2ndPart(String t) {
@@ -5087,7 +5256,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     String logicalName = Utilities.fileTitle(actualName);
     String src;
     if (IgParser.getKind(p) == GuidePageKind.TOC)
-      src = TextFile.fileToString(Utilities.path(page.getFolders().templateDir, "template-ig-toc.html"));
+      src = page.getTemplates().getSource("template-ig-toc.html");
     else
       throw new Exception("Unsupported special page kind "+IgParser.getKind(p).toCode());
 
@@ -5097,13 +5266,11 @@ public class Publisher implements URIResolver, SectionNumberer {
     // before we save this page out, we're going to figure out what it's index
     // is, and number the headers if we can
 
-    src = addSectionNumbers(file, logicalName, src, null, 1, null, ig);
-
-    TextFile.stringToFile(src, Utilities.path(page.getFolders().dstDir, file));
+    DocumentHolder doch = new DocumentHolder();
+    src = addSectionNumbers(file, logicalName, src, null, 1, doch, ig);
 
-    src = TextFile.fileToString(Utilities.path(page.getFolders().dstDir, file)).replace("<body>", "<body style=\"margin: 10px\">");
-    src = page.processPageIncludesForBook(file, src, "page", null, ig, null);
-    cachePage(file, src, logicalName, true);
+    TextFile.stringToFile(src, output(Utilities.path(page.getFolders().dstDir, file)));
+    cachePage(file, doch, src, logicalName, true);
   }
 
   private void produceIgPage(String file, ImplementationGuideDefn ig) throws Exception {
@@ -5116,14 +5283,12 @@ public class Publisher implements URIResolver, SectionNumberer {
     // before we save this page out, we're going to figure out what it's index
     // is, and number the headers if we can
 
-    TextFile.stringToFile(src, page.getFolders().dstDir + file);
-    src = addSectionNumbers(file, logicalName, src, null, 1, null, ig);
-
-    TextFile.stringToFile(src, page.getFolders().dstDir + file);
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + file));
+    DocumentHolder doch = new DocumentHolder();
+    src = addSectionNumbers(file, logicalName, src, null, 1, doch, ig);
 
-    src = TextFile.fileToString(actualName).replace("<body>", "<body style=\"margin: 10px\">");
-    src = page.processPageIncludesForBook(file, src, "page", null, ig, null);
-    cachePage(file, src, logicalName, true);
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + file));
+    cachePage(file, doch, src, logicalName, true);
   }
 
   private void produceIgPage(String file, ImplementationGuideDefn ig, String logicalName) throws Exception {
@@ -5136,7 +5301,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (Utilities.noString(logicalName))
       logicalName = Utilities.fileTitle(file);
 
-    TextFile.stringToFile(src, Utilities.path(page.getFolders().dstDir, ig.getCode(), file));
+    TextFile.stringToFile(src, output(Utilities.path(page.getFolders().dstDir, ig.getCode(), file)));
     DocumentHolder doch = new DocumentHolder();
     src = addSectionNumbers(file, logicalName, src, null, 0, doch, ig);
 
@@ -5194,9 +5359,9 @@ public class Publisher implements URIResolver, SectionNumberer {
     SvgGenerator svg = new SvgGenerator(page, "", lm.getLayout(), true, false);
     String fn = ig.getPrefix()+n;
     if (lm.hasResource())
-      svg.generate(lm.getResource(), page.getFolders().dstDir + fn+".svg", "2");
+      svg.generate(lm.getResource(), output(page.getFolders().dstDir + fn+".svg"), "2");
     else
-      svg.generate(lm.getDefinition(), page.getFolders().dstDir + fn+".svg", "2");
+      svg.generate(lm.getDefinition(), output(page.getFolders().dstDir + fn+".svg"), "2");
 
     String prefix = page.getBreadCrumbManager().getIndexPrefixForReference(lm.getId()+".html");
     SectionTracker st = new SectionTracker(prefix, true);
@@ -5204,59 +5369,59 @@ public class Publisher implements URIResolver, SectionNumberer {
     page.getSectionTrackerCache().put(fn, st);
 
     if (lm.getDefinition() != null) {
-      new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, ig.getPrefix(), n+".xml")), lm.getDefinition());
+      new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, ig.getPrefix(), n+".xml"))), lm.getDefinition());
       cloneToXhtml(ig.getPrefix()+n, "Logical Model "+lm.getDefinition().getName(), true, "logical-model", lm.getDefinition().getName(), null, lm.getWg());
-      new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(Utilities.path(page.getFolders().dstDir, ig.getPrefix(), n+".json")), lm.getDefinition());
+      new JsonParser().setOutputStyle(OutputStyle.PRETTY).compose(new FileOutputStream(output(Utilities.path(page.getFolders().dstDir, ig.getPrefix(), n+".json"))), lm.getDefinition());
       jsonToXhtml(ig.getPrefix()+n, "Logical Model "+lm.getDefinition().getName(), new JsonParser().setOutputStyle(OutputStyle.PRETTY).composeString(lm.getDefinition()), "logical-model", lm.getDefinition().getName(), null, lm.getWg());
       ttlToXhtml(ig.getPrefix()+n, "Logical Model "+lm.getDefinition().getName(), new RdfParser().setOutputStyle(OutputStyle.PRETTY).composeString(lm.getDefinition()), "logical-model", lm.getDefinition().getName(), null, lm.getWg());
     }
     if (lm.getWg() != null && lm.getResource().getWg() == null)
       lm.getResource().setWg(lm.getWg());
     String template = "template-logical";
-    String src = TextFile.fileToString(page.getFolders().templateDir + template+".html");
+    String src = page.getTemplates().getSource(template+".html");
     Map<String, String> values = new HashMap<String, String>();
     if (lm.hasResource())
       src = insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "resource", n + ".html", ig, values, lm.getWg(), examples), st, n + ".html", ig.getLevel(), null);
     else
       src = insertSectionNumbers(new LogicalModelProcessor(n, page, ig, lm.getDefinition().getId(), "logical-model", n+".html", lm.getDefinition(), tx, dict, examples, ig.getLogicalModels(), page.getDefinitions()).process(src), st, n + ".html", ig.getLevel(), null);
-    TextFile.stringToFile(src, page.getFolders().dstDir + fn+".html");
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + fn+".html"));
     page.getHTMLChecker().registerFile(fn+".html", "Base Page for " + n, HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-logical-definitions.html");
+    src = page.getTemplates().getSource("template-logical-definitions.html");
     if (lm.hasResource())
       TextFile.stringToFile(insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "res-Detailed Descriptions", n + "-definitions.html", ig, values, lm.getWg(), examples), st, n
-            + "-definitions.html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-definitions.html");
+            + "-definitions.html", ig.getLevel(), null), output(page.getFolders().dstDir + fn+"-definitions.html"));
     else
       TextFile.stringToFile(insertSectionNumbers(new LogicalModelProcessor(n, page, ig, lm.getDefinition().getId(), "logical-model", n+".html", lm.getDefinition(), tx, dict, examples, ig.getLogicalModels(), page.getDefinitions()).process(src), st, n
-          + "-definitions.html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-definitions.html");
+          + "-definitions.html", ig.getLevel(), null), output(page.getFolders().dstDir + fn+"-definitions.html"));
     page.getHTMLChecker().registerFile(fn+"-definitions.html", "Detailed Descriptions for " + (lm.hasResource() ? lm.getResource().getName() : lm.getDefinition().getName()), HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-logical-examples.html");
+    src = page.getTemplates().getSource("template-logical-examples.html");
     if (lm.hasResource())
-      TextFile.stringToFile(insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "resource", n + ".html", ig, values, lm.getWg(), examples), st, n + ".html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-implementations.html");
+      TextFile.stringToFile(insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "resource", n + ".html", ig, values, lm.getWg(), examples), st, n + ".html", ig.getLevel(), null), output(page.getFolders().dstDir + fn+"-implementations.html"));
     else
       TextFile.stringToFile(insertSectionNumbers(new LogicalModelProcessor(n, page, ig, lm.getDefinition().getId(), "logical-model", n+".html", lm.getDefinition(), tx, dict, examples, ig.getLogicalModels(), page.getDefinitions()).process(src), st, n
-          + "-implementations.html", ig.getLevel(), null), page.getFolders().dstDir + fn+"-implementations.html");
+          + "-implementations.html", ig.getLevel(), null), output(page.getFolders().dstDir + fn+"-implementations.html"));
     page.getHTMLChecker().registerFile(fn+"-implementations.html", "Implementations for " + (lm.hasResource() ? lm.getResource().getName() : lm.getDefinition().getName()), HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-logical-mappings.html");
+    src = page.getTemplates().getSource("template-logical-mappings.html");
     if (lm.hasResource())
       TextFile.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "res-Mappings", n + "-mappings.html", ig, values, lm.getWg(), examples), st, n + "-mappings.html", ig.getLevel(), null),
-          page.getFolders().dstDir + fn + "-mappings.html");
+          output(page.getFolders().dstDir + fn + "-mappings.html"));
     else
       TextFile.stringToFile(insertSectionNumbers(new LogicalModelProcessor(n, page, ig, lm.getDefinition().getId(), "logical-model", n+".html", lm.getDefinition(), tx, dict, examples, ig.getLogicalModels(), page.getDefinitions()).process(src), st, n + "-mappings.html", ig.getLevel(), null),
-        page.getFolders().dstDir + fn + "-mappings.html");
+        output(page.getFolders().dstDir + fn + "-mappings.html"));
     page.getHTMLChecker().registerFile(fn+"-mappings.html", "Formal Mappings for " + n, HTMLLinkChecker.XHTML_TYPE, true);
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-logical-analysis.html");
+    src = page.getTemplates().getSource("template-logical-analysis.html");
     if (lm.hasResource())
       TextFile.stringToFile(
           insertSectionNumbers(page.processResourceIncludes(n, lm.getResource(), "", "", "", tx, dict, src, mappings, mappingsList, "res-Analysis", n + "-analysis.html", ig, values, lm.getWg(), examples), st, n + "-analysis.html", ig.getLevel(), null),
-          page.getFolders().dstDir + fn + "-analysis.html");
+          output(page.getFolders().dstDir + fn + "-analysis.html"));
     else
       TextFile.stringToFile(insertSectionNumbers(new LogicalModelProcessor(n, page, ig, lm.getDefinition().getId(), "logical-model", n+".html", lm.getDefinition(), tx, dict, examples, ig.getLogicalModels(), page.getDefinitions()).process(src), st, n + "-analysis.html", ig.getLevel(), null),
-        page.getFolders().dstDir + fn + "-analysis.html");
+        output(page.getFolders().dstDir + fn + "-analysis.html"));
     page.getHTMLChecker().registerFile(fn+"-analysis.html", "Analysis for " + n, HTMLLinkChecker.XHTML_TYPE, true);
 
     tmp.delete();
@@ -5267,7 +5432,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     if (web)
       return;
 
-    String src = TextFile.fileToString(page.getFolders().templateDir + "template-dictionary.html");
+    String src = page.getTemplates().getSource("template-dictionary.html");
     String file = d.getSource();
     String prefix = d.getIg() != null ? d.getIg().getCode()+File.separator : "";
     String filename = prefix+d.getId();
@@ -5278,30 +5443,28 @@ public class Publisher implements URIResolver, SectionNumberer {
     // before we save this page out, we're going to figure out what it's index
     // is, and number the headers if we can
 
-    TextFile.stringToFile(src, page.getFolders().dstDir + filename+".html");
-    src = addSectionNumbers(filename+".html", filename, src, null, d.getIg() != null ? 1 : 0, null, d.getIg());
-
-    TextFile.stringToFile(src, page.getFolders().dstDir + filename+".html");
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + filename+".html"));
+    DocumentHolder doch = new DocumentHolder();
+    src = addSectionNumbers(filename+".html", filename, src, null, d.getIg() != null ? 1 : 0, doch, d.getIg());
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-dictionary.html").replace("<body>", "<body style=\"margin: 10px\">");
-    src = page.processPageIncludesForBook(filename+".html", src, "page", dict, null, null);
-    cachePage(filename+".html", src, d.getId(), true);
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + filename+".html"));
+    cachePage(filename+".html", doch, src, d.getId(), true);
 
     xml.setOutputStyle(OutputStyle.PRETTY);
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + filename+".xml");
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + filename+".xml"));
     xml.compose(s, dict);
     s.close();
     xml.setOutputStyle(OutputStyle.CANONICAL);
-    s = new FileOutputStream(page.getFolders().dstDir + filename+".canonical.xml");
+    s = new FileOutputStream(output(page.getFolders().dstDir + filename+".canonical.xml"));
     xml.compose(s, dict);
     s.close();
     cloneToXhtml(filename, "Source for Dictionary" + d.getName(), false, "dict-instance", "Dictionary", null, null);
     IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-    s = new FileOutputStream(page.getFolders().dstDir+filename+ ".json");
+    s = new FileOutputStream(output(page.getFolders().dstDir+filename+ ".json"));
     json.compose(s, dict);
     s.close();
     json = new JsonParser().setOutputStyle(OutputStyle.CANONICAL);
-    s = new FileOutputStream(page.getFolders().dstDir+filename+ ".canonical.json");
+    s = new FileOutputStream(output(page.getFolders().dstDir+filename+ ".canonical.json"));
     json.compose(s, dict);
     s.close();
     jsonToXhtml(filename, "Source for Dictionary" + d.getName(), resource2Json(dict), "dict-instance", "Dictionary", null, null);
@@ -5410,7 +5573,7 @@ public class Publisher implements URIResolver, SectionNumberer {
     TextFile.stringToFile(src, dstName);
     src = addSectionNumbers(Utilities.path("sid", logicalName, "index.html"), "sid:terminologies-systems", src, "3." + Integer.toString(i), 0, null, null);
     TextFile.stringToFile(src, dstName);
-    page.getHTMLChecker().registerFile(Utilities.path("sid", logicalName, "index.html"), logicalName, HTMLLinkChecker.XHTML_TYPE, true);
+    page.getHTMLChecker().registerPage(Utilities.path("sid", logicalName, "index.html"), logicalName, true, src);
   }
 
   @Override
@@ -5440,7 +5603,7 @@ public class Publisher implements URIResolver, SectionNumberer {
 
     String logicalName = "compartmentdefinition-" + c.getName().toLowerCase();
     String file = logicalName + ".html";
-    String src = TextFile.fileToString(page.getFolders().templateDir + "template-compartment.html");
+    String src = page.getTemplates().getSource("template-compartment.html");
     src = page.processPageIncludes(file, src, "resource-instance:CompartmentDefinition", null, null, null, "Compartment", null, null, wg("fhir"));
 
     // String prefix = "";
@@ -5458,14 +5621,14 @@ public class Publisher implements URIResolver, SectionNumberer {
     // src = insertSectionNumbers(src,
     // page.getSectionTrackerCache().get(logicalName), file);
 
-    TextFile.stringToFile(src, page.getFolders().dstDir + file);
+    TextFile.stringToFile(src, output(page.getFolders().dstDir + file));
 
-    src = TextFile.fileToString(page.getFolders().templateDir + "template-compartment.html").replace("<body>", "<body style=\"margin: 10px\">");
+    src = page.getTemplates().getSource("template-compartment.html").replace("<body>", "<body style=\"margin: 10px\">");
     src = page.processPageIncludesForBook(file, src, "compartment", null, null, null);
     cachePage(file, src, "Compartments", true);
   }
 
-  private String insertSectionNumbers(String src, SectionTracker st, String link, int level, DocumentHolder doch) throws Exception {
+  String insertSectionNumbers(String src, SectionTracker st, String link, int level, DocumentHolder doch) throws Exception {
     try {
       // TextFile.stringToFile(src, "c:\\temp\\text.html");
       XhtmlDocument doc = new XhtmlParser().parse(src, "html");
@@ -5581,13 +5744,24 @@ public class Publisher implements URIResolver, SectionNumberer {
       // page.log("parse "+filename);
       XhtmlDocument src = new XhtmlParser().parse(source, "html");
       scanForFragments(filename, src);
-      // book.getPages().put(filename, src);
+      if (book != null && includeInBook)
+        book.registerPage(filename, source);
       page.getHTMLChecker().registerFile(filename, title, HTMLLinkChecker.XHTML_TYPE, includeInBook);
     } catch (Exception e) {
       throw new Exception("error parsing page " + filename + ": " + e.getMessage() + " in source\r\n" + source, e);
     }
   }
 
+  /**
+   * for a page that has already been parsed to add the section numbers: the same document
+   * is scanned for fragments, and the html is handed straight to the link checker, rather
+   * than parsing the page again
+   */
+  private void cachePage(String filename, DocumentHolder doch, String html, String title, boolean includeInBook) throws Exception {
+    scanForFragments(filename, doch.doc);
+    page.getHTMLChecker().registerPage(filename, title, includeInBook, html);
+  }
+
   private void scanForFragments(String filename, XhtmlNode node) throws Exception {
     if (node != null && (node.getNodeType() == NodeType.Element || node.getNodeType() == NodeType.Document)) {
       if (node.getNodeType() == NodeType.Element && node.getName().equals("pre") && node.getAttribute("fragment") != null) {
@@ -5630,6 +5804,7 @@ public class Publisher implements URIResolver, SectionNumberer {
       ExampleInspector ei = new ExampleInspector(page.getWorkerContext(), page, page.getFolders().dstDir, Utilities.path(page.getFolders().rootDir, "tools", "schematron"), page.getValidationErrors(), page.getDefinitions());
       page.log(".. Loading", LogMessageType.Process);
       ei.prepare();
+      BuildTaskPool pool = new BuildTaskPool("validation", threads);
 
       for (String rname : page.getDefinitions().sortedResourceNames()) {
         ResourceDefn r = page.getDefinitions().getResources().get(rname);
@@ -5640,7 +5815,7 @@ public class Publisher implements URIResolver, SectionNumberer {
             if (ig != null)
               n = ig.getCode()+File.separator+n;
             if (validateId == null || validateId.equals(n))
-              ei.validate(n, rname);
+              validateExample(pool, ei, n, rname, null);
           }
 
           for (Profile e : r.getConformancePackages()) {
@@ -5649,7 +5824,7 @@ public class Publisher implements URIResolver, SectionNumberer {
               String prefix = (ig == null || ig.isCore()) ? "" : ig.getCode()+File.separator;
               String n = prefix+Utilities.changeFileExt(en.getTitle(), "");
               if (validateId == null || validateId.equals(n))
-                ei.validate(n, rname, e.getProfiles().get(0).getResource());
+                validateExample(pool, ei, n, rname, e.getProfiles().get(0).getResource());
             }
           }
         }
@@ -5659,30 +5834,33 @@ public class Publisher implements URIResolver, SectionNumberer {
         String prefix = (ig == null || ig.isCore()) ? "" : ig.getCode()+File.separator;
         for (Example ex : ig.getExamples()) {
           String n = ex.getTitle();
-          ei.validate(prefix+n, ex.getResourceName());
+          validateExample(pool, ei, prefix+n, ex.getResourceName(), null);
         }
         for (Profile pck : ig.getProfiles()) {
           for (Example en : pck.getExamples()) {
-            ei.validate(prefix+Utilities.changeFileExt(en.getTitle(), ""), en.getResourceName(), pck.getProfiles().get(0).getResource());
+            validateExample(pool, ei, prefix+Utilities.changeFileExt(en.getTitle(), ""), en.getResourceName(), pck.getProfiles().get(0).getResource());
           }
         }
       }
       if (buildFlags.get("all") && validateBundles) {
         if (validateId == null || validateId.equals("valuesets"))
-          ei.validate("valuesets", "Bundle");
+          validateExample(pool, ei, "valuesets", "Bundle", null);
         if (validateId == null || validateId.equals("conceptmaps"))
-          ei.validate("conceptmaps", "Bundle");
+          validateExample(pool, ei, "conceptmaps", "Bundle", null);
         if (validateId == null || validateId.equals("profiles-types"))
-          ei.validate("profiles-types", "Bundle");
+          validateExample(pool, ei, "profiles-types", "Bundle", null);
         if (validateId == null || validateId.equals("profiles-resources"))
-          ei.validate("profiles-resources", "Bundle");
+          validateExample(pool, ei, "profiles-resources", "Bundle", null);
         if (validateId == null || validateId.equals("profiles-others"))
-          ei.validate("profiles-others", "Bundle");
+          validateExample(pool, ei, "profiles-others", "Bundle", null);
         if (validateId == null || validateId.equals("search-parameters"))
-          ei.validate("search-parameters", "Bundle");
+          validateExample(pool, ei, "search-parameters", "Bundle", null);
         if (validateId == null || validateId.equals("extension-definitions"))
-          ei.validate("extension-definitions", "Bundle");
+          validateExample(pool, ei, "extension-definitions", "Bundle", null);
       }
+      if (threads > 1)
+        page.log(".. Validating on "+Integer.toString(threads)+" threads", LogMessageType.Process);
+      pool.execute();
       ei.summarise();
 
       if (buildFlags.get("all"))
@@ -5696,6 +5874,18 @@ public class Publisher implements URIResolver, SectionNumberer {
 
   }
 
+  private void validateExample(BuildTaskPool pool, final ExampleInspector ei, final String n, final String rt, final StructureDefinition profile) {
+    pool.add(n, new BuildTaskPool.BuildTask() {
+      @Override
+      public void execute() throws Exception {
+        if (profile == null)
+          ei.validate(n, rt);
+        else
+          ei.validate(n, rt, profile);
+      }
+    });
+  }
+
   private void runJUnitTestsInProcess() throws Exception {
     /*
 	  TestingUtilities.context = page.getWorkerContext();
@@ -5878,28 +6068,27 @@ public class Publisher implements URIResolver, SectionNumberer {
 
         addToResourceFeed(vs, valueSetsFeed, null); // todo - what should the Oids be
 
-        String sf = page.processPageIncludes(title + ".html", TextFile.fileToString(page.getFolders().templateDir + "template-vs-ig.html"), "valueSet", null, name+".html", vs, null, "Value Set", null, null, wg("vocab"));
-        sf = addSectionNumbers(title + ".html", "template-valueset", sf, "??", 0, null, ig);
-        TextFile.stringToFile(sf, page.getFolders().dstDir + name + ".html");
-
-        String src = page.processPageIncludesForBook(title + ".html", TextFile.fileToString(page.getFolders().templateDir + "template-vs-ig-book.html"), "valueSet", vs, null, null);
-        cachePage(name + ".html", src, "Value Set " + title, false);
+        String sf = page.processPageIncludes(title + ".html", page.getTemplates().getPageTemplate("template-vs-ig.html"), "valueSet", null, name+".html", vs, null, "Value Set", null, null, wg("vocab"));
+        DocumentHolder doch = new DocumentHolder();
+        sf = addSectionNumbers(title + ".html", "template-valueset", sf, "??", 0, doch, ig);
+        TextFile.stringToFile(sf, output(page.getFolders().dstDir + name + ".html"));
+        cachePage(name + ".html", doch, sf, "Value Set " + title, false);
         page.setId(null);
 
         IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-        FileOutputStream s = new FileOutputStream(page.getFolders().dstDir+name + ".json");
+        FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir+name + ".json"));
         json.compose(s, vs);
         s.close();
         json = new JsonParser().setOutputStyle(OutputStyle.CANONICAL);
-        s = new FileOutputStream(page.getFolders().dstDir+name + ".canonical.json");
+        s = new FileOutputStream(output(page.getFolders().dstDir+name + ".canonical.json"));
         json.compose(s, vs);
         s.close();
         IParser xml = new XmlParser().setOutputStyle(OutputStyle.PRETTY);
-        s = new FileOutputStream(page.getFolders().dstDir+name + ".xml");
+        s = new FileOutputStream(output(page.getFolders().dstDir+name + ".xml"));
         xml.compose(s, vs);
         s.close();
         xml = new XmlParser().setOutputStyle(OutputStyle.CANONICAL);
-        s = new FileOutputStream(page.getFolders().dstDir+name + ".canonical.xml");
+        s = new FileOutputStream(output(page.getFolders().dstDir+name + ".canonical.xml"));
         xml.compose(s, vs);
         s.close();
         cloneToXhtml(name, "Definition for Value Set" + vs.getName(), false, "valueset-instance", "Value Set", null, wg("vocab"));
@@ -5963,35 +6152,35 @@ public class Publisher implements URIResolver, SectionNumberer {
       page.setId(vs.getId());
       String sf;
       try {
-        sf = page.processPageIncludes(n + ".html", TextFile.fileToString(page.getFolders().templateDir + "template-vs.html"), "valueSet", null, n+".html", vs, null, "Value Set", ig, null, wg(vs, "vocab"));
+        sf = page.processPageIncludes(n + ".html", page.getTemplates().getPageTemplate("template-vs.html"), "valueSet", null, n+".html", vs, null, "Value Set", ig, null, wg(vs, "vocab"));
       } catch (Exception e) {
         throw new Exception("Error processing "+n+".html: "+e.getMessage(), e);
       }
-      sf = addSectionNumbers(n + ".html", "template-valueset", sf, vsCounter(), ig == null ? 0 : 1, null, ig);
+      DocumentHolder doch = new DocumentHolder();
+      sf = addSectionNumbers(n + ".html", "template-valueset", sf, vsCounter(), ig == null ? 0 : 1, doch, ig);
 
-      TextFile.stringToFile(sf, page.getFolders().dstDir + n + ".html");
+      TextFile.stringToFile(sf, output(page.getFolders().dstDir + n + ".html"));
       try {
-        String src = page.processPageIncludesForBook(n + ".html", TextFile.fileToString(page.getFolders().templateDir + "template-vs-book.html"), "valueSet", vs, ig, null);
-        cachePage(n + ".html", src, "Value Set " + n, false);
+        cachePage(n + ".html", doch, sf, "Value Set " + n, false);
         page.setId(null);
       } catch (Exception e) {
         throw new Exception("Error processing "+n+".html: "+e.getMessage(), e);
       }
 
       IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-      FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + n + ".json");
+      FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + n + ".json"));
       json.compose(s, vs);
       s.close();
       json = new JsonParser().setOutputStyle(OutputStyle.CANONICAL);
-      s = new FileOutputStream(page.getFolders().dstDir + n + ".canonical.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + n + ".canonical.json"));
       json.compose(s, vs);
       s.close();
       IParser xml = new XmlParser().setOutputStyle(OutputStyle.PRETTY);
-      s = new FileOutputStream(page.getFolders().dstDir + n + ".xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + n + ".xml"));
       xml.compose(s, vs);
       s.close();
       xml = new XmlParser().setOutputStyle(OutputStyle.CANONICAL);
-      s = new FileOutputStream(page.getFolders().dstDir + n + ".canonical.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + n + ".canonical.xml"));
       xml.compose(s, vs);
       s.close();
 //      System.out.println(vs.getUrl());
@@ -6044,35 +6233,35 @@ public class Publisher implements URIResolver, SectionNumberer {
       String sf;
       WorkGroup wg = wg(cs, "vocab");
       try {
-        sf = page.processPageIncludes(n + ".html", TextFile.fileToString(page.getFolders().templateDir + "template-cs.html"), "codeSystem", null, n+".html", cs, null, "Value Set", ig, null, wg);
+        sf = page.processPageIncludes(n + ".html", page.getTemplates().getPageTemplate("template-cs.html"), "codeSystem", null, n+".html", cs, null, "Value Set", ig, null, wg);
       } catch (Exception e) {
         throw new Exception("Error processing "+n+".html: "+e.getMessage(), e);
       }
-      sf = addSectionNumbers(n + ".html", "template-codesystem", sf, csCounter(), ig == null ? 0 : 1, null, ig);
+      DocumentHolder doch = new DocumentHolder();
+      sf = addSectionNumbers(n + ".html", "template-codesystem", sf, csCounter(), ig == null ? 0 : 1, doch, ig);
 
-      TextFile.stringToFile(sf, page.getFolders().dstDir + n + ".html");
+      TextFile.stringToFile(sf, output(page.getFolders().dstDir + n + ".html"));
       try {
-        String src = page.processPageIncludesForBook(n + ".html", TextFile.fileToString(page.getFolders().templateDir + "template-cs-book.html"), "codeSystem", cs, ig, null);
-        cachePage(n + ".html", src, "Code System " + n, false);
+        cachePage(n + ".html", doch, sf, "Code System " + n, false);
         page.setId(null);
       } catch (Exception e) {
         throw new Exception("Error processing "+n+".html: "+e.getMessage(), e);
       }
 
       IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-      FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + n + ".json");
+      FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + n + ".json"));
       json.compose(s, cs);
       s.close();
       json = new JsonParser().setOutputStyle(OutputStyle.CANONICAL);
-      s = new FileOutputStream(page.getFolders().dstDir + n + ".canonical.json");
+      s = new FileOutputStream(output(page.getFolders().dstDir + n + ".canonical.json"));
       json.compose(s, cs);
       s.close();
       IParser xml = new XmlParser().setOutputStyle(OutputStyle.PRETTY);
-      s = new FileOutputStream(page.getFolders().dstDir + n + ".xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + n + ".xml"));
       xml.compose(s, cs);
       s.close();
       xml = new XmlParser().setOutputStyle(OutputStyle.CANONICAL);
-      s = new FileOutputStream(page.getFolders().dstDir + n + ".canonical.xml");
+      s = new FileOutputStream(output(page.getFolders().dstDir + n + ".canonical.xml"));
       xml.compose(s, cs);
       s.close();
 //      System.out.println(vs.getUrl());
@@ -6153,31 +6342,31 @@ private String csCounter() {
     RendererFactory.factory(cm, lrc).render(cm);
 
     IParser json = new JsonParser().setOutputStyle(OutputStyle.PRETTY);
-    FileOutputStream s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".json"));
+    FileOutputStream s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".json")));
     json.compose(s, cm);
     s.close();
     json = new JsonParser().setOutputStyle(OutputStyle.CANONICAL);
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".canonical.json"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".canonical.json")));
     json.compose(s, cm);
     s.close();
     String n = Utilities.changeFileExt(filename, "");
     jsonToXhtml(n, cm.getName(), resource2Json(cm), "conceptmap-instance", "Concept Map", null, wg("vocab"));
     ttlToXhtml(n, cm.getName(), resource2Ttl(cm), "conceptmap-instance", "Concept Map", null, wg("vocab"));
     IParser xml = new XmlParser().setOutputStyle(OutputStyle.PRETTY);
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".xml")));
     xml.compose(s, cm);
     s.close();
     xml = new XmlParser().setOutputStyle(OutputStyle.CANONICAL);
-    s = new FileOutputStream(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".canonical.xml"));
+    s = new FileOutputStream(output(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".canonical.xml")));
     xml.compose(s, cm);
     s.close();
     cloneToXhtml(n, cm.getName(), false, "conceptmap-instance", "Concept Map", null, wg("vocab"));
 
     // now, we create an html page from the narrative
     String narrative = new XhtmlComposer(XhtmlComposer.HTML).compose(cm.getText().getDiv());
-    String html = TextFile.fileToString(page.getFolders().templateDir + "template-example.html").replace("<%example%>", narrative);
+    String html = page.getTemplates().getSource("template-example.html").replace("<%example%>", narrative);
     html = page.processPageIncludes(Utilities.changeFileExt(filename, ".html"), html, "conceptmap-instance", null, null, null, "Concept Map", null, null, wg("vocab"));
-    TextFile.stringToFile(html, page.getFolders().dstDir + Utilities.changeFileExt(filename, ".html"));
+    TextFile.stringToFile(html, output(page.getFolders().dstDir + Utilities.changeFileExt(filename, ".html")));
 
     conceptMapsFeed.getEntry().add(new BundleEntryComponent().setResource(cm).setFullUrl("http://hl7.org/fhir/"+cm.fhirType()+"/"+cm.getId()));
     page.getConceptMaps().see(cm, page.packageInfo());
@@ -0,0 +1,209 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.utilities.Utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps the publisher running (-serve): builds once, then watches source/ and the
+ * templates, and builds again whenever something changes. The output folder is
+ * served at http://localhost:port/ (default port 8080, -port to change it)
+ *
+ * Each build is a new publisher in the same JVM, so there's no startup cost, the
+ * JIT is warm, and the build.cache content hashes mean that a change to one resource
+ * only does a partial build of that resource. What's loaded from outside the source
+ * (templates, terminology, the R4 definitions) is kept between builds - see
+ * {@link ResidentState}. A failed build doesn't stop the daemon, even if it fails
+ * with an Error (e.g. out of memory); fix the source, and it'll build again
+ */
+public class PublisherDaemon {
+
+  private static final long QUIET_PERIOD = 500; // ms to wait for an editor to finish saving
+
+  private String[] args;
+  private String folder;
+  private int port;
+  private FolderManager folders;
+  private WatchService watcher;
+  private Set<Path> watched = new HashSet<Path>();
+  private ResidentState resident = new ResidentState();
+
+  public PublisherDaemon(String[] args, String folder, String outputdir, int port) throws IOException {
+    super();
+    this.args = args;
+    this.folder = folder;
+    this.port = port;
+    this.folders = new FolderManager(folder, outputdir);
+  }
+
+  public void execute() throws Exception {
+    watcher = FileSystems.getDefault().newWatchService();
+    watch(Paths.get(folders.srcDir));
+    watch(Paths.get(folders.templateDir));
+    startServer();
+    while (true) {
+      build();
+      // anything the build itself wrote into the source (e.g. .gen.svg files) doesn't count
+      drain();
+      Set<String> changes = waitForChanges();
+      System.out.println("Changed: "+changes.toString());
+    }
+  }
+
+  private void build() {
+    try {
+      Publisher pub = Publisher.configure(args, folder);
+      pub.setDaemon(true);
+      pub.setResident(resident);
+      pub.execute(folder);
+    } catch (Throwable e) {
+      System.out.println("Build failed: "+e.toString());
+      e.printStackTrace();
+    }
+    System.out.println("Waiting for changes in "+folders.srcDir+" (serving "+folders.dstDir+" at http://localhost:"+Integer.toString(port)+"/)");
+  }
+
+  private void watch(Path dir) throws IOException {
+    if (!Files.isDirectory(dir) || watched.contains(dir))
+      return;
+    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    watched.add(dir);
+    File[] list = dir.toFile().listFiles();
+    if (list != null)
+      for (File f : list)
+        if (f.isDirectory())
+          watch(f.toPath());
+  }
+
+  private void drain() throws IOException {
+    WatchKey key = watcher.poll();
+    while (key != null) {
+      handle(key, null);
+      key = watcher.poll();
+    }
+  }
+
+  private Set<String> waitForChanges() throws Exception {
+    Set<String> changes = new HashSet<String>();
+    while (changes.isEmpty()) {
+      WatchKey key = watcher.take();
+      handle(key, changes);
+      // an edit is often several events (and several files); wait for it to finish
+      key = watcher.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+      while (key != null) {
+        handle(key, changes);
+        key = watcher.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+      }
+    }
+    return changes;
+  }
+
+  private void handle(WatchKey key, Set<String> changes) throws IOException {
+    Path dir = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        if (changes != null)
+          changes.add(dir.toString());
+        continue;
+      }
+      Path path = dir.resolve((Path) event.context());
+      String name = path.getFileName().toString();
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+        watch(path);
+      if (changes != null && !name.endsWith(".gen.svg") && !name.startsWith(".") && !name.startsWith("~$"))
+        changes.add(path.toString());
+    }
+    if (!key.reset())
+      watched.remove(dir);
+  }
+
+  private void startServer() throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String path = URI.create(exchange.getRequestURI().getRawPath()).getPath();
+    if (path.endsWith("/"))
+      path = path + "index.html";
+    File root = new File(folders.dstDir).getCanonicalFile();
+    File f = new File(root, path.substring(1)).getCanonicalFile();
+    if (!f.getPath().startsWith(root.getPath()) || !f.isFile()) {
+      byte[] msg = ("Not found: "+path).getBytes("UTF-8");
+      exchange.sendResponseHeaders(404, msg.length);
+      exchange.getResponseBody().write(msg);
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", contentType(f.getName()));
+    exchange.sendResponseHeaders(200, f.length());
+    InputStream in = new FileInputStream(f);
+    try {
+      OutputStream out = exchange.getResponseBody();
+      byte[] buffer = new byte[65536];
+      int n;
+      while ((n = in.read(buffer)) > 0)
+        out.write(buffer, 0, n);
+    } finally {
+      in.close();
+    }
+  }
+
+  private String contentType(String name) {
+    String ext = name.contains(".") ? name.substring(name.lastIndexOf(".")+1).toLowerCase() : "";
+    if (Utilities.existsInList(ext, "html", "htm"))
+      return "text/html; charset=UTF-8";
+    if (ext.equals("css"))
+      return "text/css";
+    if (ext.equals("js"))
+      return "application/javascript";
+    if (Utilities.existsInList(ext, "xml", "xsd", "sch", "xsl", "xslt"))
+      return "application/xml";
+    if (ext.equals("json"))
+      return "application/json";
+    if (ext.equals("ttl"))
+      return "text/turtle";
+    if (ext.equals("png"))
+      return "image/png";
+    if (Utilities.existsInList(ext, "jpg", "jpeg"))
+      return "image/jpeg";
+    if (ext.equals("gif"))
+      return "image/gif";
+    if (ext.equals("svg"))
+      return "image/svg+xml";
+    if (Utilities.existsInList(ext, "txt", "shex", "graphql"))
+      return "text/plain; charset=UTF-8";
+    return "application/octet-stream";
+  }
+}
@@ -0,0 +1,101 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replaces every occurrence of a byte sequence in whatever is written through it, as it
+ * goes - the same result as String.replace, without holding the content in memory.
+ * Matches don't overlap, and are found left to right.
+ *
+ * If a counter is provided, it counts the replacements
+ */
+public class ReplacingOutputStream extends FilterOutputStream {
+
+  private byte[] find;
+  private byte[] replace;
+  private int[] fail; // KMP failure function for find
+  private int matched; // how much of find has been seen (and not yet written)
+  private AtomicInteger counter;
+  private byte[] buffer = new byte[8192]; // what's to be written, for the current write
+  private int used;
+
+  public ReplacingOutputStream(OutputStream out, String find, String replace, AtomicInteger counter) throws IOException {
+    super(out);
+    this.find = find.getBytes("UTF-8");
+    this.replace = replace.getBytes("UTF-8");
+    this.counter = counter;
+    if (this.find.length == 0)
+      throw new IOException("Nothing to find");
+    fail = new int[this.find.length];
+    int k = 0;
+    for (int i = 1; i < this.find.length; i++) {
+      while (k > 0 && this.find[i] != this.find[k])
+        k = fail[k - 1];
+      if (this.find[i] == this.find[k])
+        k++;
+      fail[i] = k;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  /**
+   * What's to be passed on (the bytes that aren't part of a match, and the replacements)
+   * is collected, and written in one go, rather than a byte at a time
+   */
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    used = 0;
+    for (int i = off; i < off + len; i++) {
+      byte v = b[i];
+      while (matched > 0 && find[matched] != v) {
+        // the first part of what was matched can't be part of a match any more
+        int keep = fail[matched - 1];
+        collect(find, matched - keep);
+        matched = keep;
+      }
+      if (find[matched] != v) {
+        ensure(1);
+        buffer[used++] = v;
+      } else if (++matched == find.length) {
+        collect(replace, replace.length);
+        matched = 0;
+        if (counter != null)
+          counter.incrementAndGet();
+      }
+    }
+    if (used > 0)
+      out.write(buffer, 0, used);
+  }
+
+  private void collect(byte[] b, int len) {
+    ensure(len);
+    System.arraycopy(b, 0, buffer, used, len);
+    used = used + len;
+  }
+
+  private void ensure(int len) {
+    if (used + len > buffer.length)
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, used + len));
+  }
+
+  @Override
+  public void flush() throws IOException {
+    // a partial match is kept back until we know what follows it
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.write(find, 0, matched);
+    matched = 0;
+    super.close();
+  }
+}
@@ -0,0 +1,98 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ReplacingOutputStreamTests {
+
+  // writes src in pieces of the given sizes (repeating the last one)
+  private String replace(String src, String find, String replace, AtomicInteger counter, int... pieces) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ReplacingOutputStream out = new ReplacingOutputStream(bytes, find, replace, counter);
+    byte[] b = src.getBytes("UTF-8");
+    int i = 0;
+    int p = 0;
+    while (i < b.length) {
+      int len = Math.min(pieces[p], b.length - i);
+      if (len == 1)
+        out.write(b[i]);
+      else
+        out.write(b, i, len);
+      i = i + len;
+      if (p < pieces.length - 1)
+        p++;
+    }
+    out.close();
+    return new String(bytes.toByteArray(), "UTF-8");
+  }
+
+  @Test
+  public void testReplace() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    assertEquals("a-X-b-X", replace("a-find-b-find", "find", "X", counter, 100));
+    assertEquals(2, counter.get());
+  }
+
+  @Test
+  public void testMatchAcrossWrites() throws Exception {
+    // the match starts in one write and finishes in the next
+    assertEquals("aaXbb", replace("aafindbb", "find", "X", null, 4, 100));
+    assertEquals("aaXbb", replace("aafindbb", "find", "X", null, 1));
+    assertEquals("aaXbb", replace("aafindbb", "find", "X", null, 3, 1, 100));
+  }
+
+  @Test
+  public void testMatchAcrossBufferSize() throws Exception {
+    // a match that straddles the 8k collection buffer, and output bigger than it
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 8190; i++)
+      b.append('.');
+    b.append("find");
+    for (int i = 0; i < 10000; i++)
+      b.append("fin");
+    String src = b.toString();
+    assertEquals(src.replace("find", "replacement"), replace(src, "find", "replacement", null, 8192, 8192));
+    assertEquals(src.replace("find", "replacement"), replace(src, "find", "replacement", null, 100000));
+  }
+
+  @Test
+  public void testPartialMatchAtEnd() throws Exception {
+    // what might have been the start of a match is written when the stream is closed
+    assertEquals("abcfin", replace("abcfin", "find", "X", null, 2));
+  }
+
+  @Test
+  public void testFalseStarts() throws Exception {
+    assertEquals("aX", replace("aaab", "aab", "X", null, 1));
+    assertEquals("abaX", replace("abaabab", "abab", "X", null, 1));
+    assertEquals("XX", replace("aaaa", "aa", "X", null, 3, 1));
+  }
+
+  @Test
+  public void testUtf8() throws Exception {
+    assertEquals("Gr\u00f6\u00dfe: \u00b5", replace("Gr\u00f6\u00dfe: [%mu%]", "[%mu%]", "\u00b5", null, 1));
+  }
+
+  @Test
+  public void testSameAsStringReplace() throws Exception {
+    Random r = new Random(1);
+    for (int t = 0; t < 500; t++) {
+      StringBuilder b = new StringBuilder();
+      int len = r.nextInt(200);
+      for (int i = 0; i < len; i++)
+        b.append("ab".charAt(r.nextInt(2)));
+      String find = t % 2 == 0 ? "aab" : "abab";
+      AtomicInteger counter = new AtomicInteger();
+      String src = b.toString();
+      String expected = src.replace(find, "<>");
+      assertEquals(src, expected, replace(src, find, "<>", counter, 1 + r.nextInt(7), 1 + r.nextInt(7)));
+      assertEquals(src, (src.length() - expected.replace("<>", "").length()) / find.length(), counter.get());
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.util.Map;
+
+import org.hl7.fhir.convertors.SpecDifferenceEvaluator.SpecPackage;
+import org.hl7.fhir.tools.publisher.BuildWorkerContext.Concept;
+import org.hl7.fhir.utilities.cache.NpmPackage;
+
+/**
+ * What the {@link PublisherDaemon} keeps from one build to the next - the things the
+ * build loads that don't come from the source being edited:
+ *
+ *  - the templates (the registry notices when one is edited)
+ *  - the hl7.terminology package
+ *  - the snomed and loinc codes (tools/tx - the build only adds to these)
+ *  - the R4 definitions that the differences are worked out against
+ *
+ * The definitions themselves, and the worker context built on them, are made again
+ * for each build, since they are what the source changes
+ */
+public class ResidentState {
+
+  private TemplateRegistry templates;
+  private NpmPackage utg;
+  private Map<String, Concept> snomed;
+  private Map<String, Concept> loinc;
+  private SpecPackage r4;
+
+  public TemplateRegistry getTemplates(String folder) {
+    if (templates == null || !templates.getFolder().equals(folder))
+      templates = new TemplateRegistry(folder);
+    return templates;
+  }
+
+  public NpmPackage getUtg() {
+    return utg;
+  }
+
+  public void setUtg(NpmPackage utg) {
+    this.utg = utg;
+  }
+
+  public Map<String, Concept> getSnomed() {
+    return snomed;
+  }
+
+  public void setSnomed(Map<String, Concept> snomed) {
+    this.snomed = snomed;
+  }
+
+  public Map<String, Concept> getLoinc() {
+    return loinc;
+  }
+
+  public void setLoinc(Map<String, Concept> loinc) {
+    this.loinc = loinc;
+  }
+
+  public SpecPackage getR4() {
+    return r4;
+  }
+
+  public void setR4(SpecPackage r4) {
+    this.r4 = r4;
+  }
+}
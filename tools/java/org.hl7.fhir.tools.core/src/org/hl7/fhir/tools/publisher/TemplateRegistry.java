@@ -0,0 +1,74 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.utilities.TextFile;
+
+/**
+ * The page templates (tools/templates).
+ *
+ * Each template is read from disk once, and tokenized the first time it's asked
+ * for as a PageTemplate. If the file changes after it's been loaded (e.g. it's
+ * being edited while the publisher is watching), it's read again
+ */
+public class TemplateRegistry {
+
+  private static class Template {
+    private long modified;
+    private long length;
+    private String source;
+    private PageTemplate template;
+  }
+
+  private String folder;
+  private Map<String, Template> templates = new HashMap<String, Template>();
+  private int hits;
+  private int misses;
+
+  public TemplateRegistry(String folder) {
+    super();
+    this.folder = folder;
+  }
+
+  public String getFolder() {
+    return folder;
+  }
+
+  public boolean exists(String name) {
+    return new File(folder + name).exists();
+  }
+
+  public String getSource(String name) throws IOException {
+    return getTemplate(name).source;
+  }
+
+  public synchronized PageTemplate getPageTemplate(String name) throws Exception {
+    Template t = getTemplate(name);
+    if (t.template == null)
+      t.template = PageTemplate.parse(t.source);
+    return t.template;
+  }
+
+  private synchronized Template getTemplate(String name) throws IOException {
+    File f = new File(folder + name);
+    Template t = templates.get(name);
+    if (t != null && t.modified == f.lastModified() && t.length == f.length())
+      hits++;
+    else {
+      misses++;
+      t = new Template();
+      t.modified = f.lastModified();
+      t.length = f.length();
+      t.source = TextFile.fileToString(folder + name);
+      templates.put(name, t);
+    }
+    return t;
+  }
+
+  public synchronized String summary() {
+    return "Templates: "+Integer.toString(templates.size())+" loaded, "+Integer.toString(hits)+" hits, "+Integer.toString(misses)+" misses";
+  }
+}
@@ -0,0 +1,180 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.hl7.fhir.utilities.TextFile;
+import org.w3c.dom.Document;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * DOM parsers and schema validators for the build, set up once per thread and reused.
+ *
+ * Looking up a DocumentBuilderFactory (a service lookup each time), configuring it and
+ * creating a builder costs more than parsing most of the files the build reads, and
+ * attaching a schema means setting up a validator for it as well. None of these are
+ * thread safe, so each thread gets its own, which is reset before each use. The
+ * parse methods get, reset and use the builder in one go - don't hold on to one.
+ * For a schema, each thread keeps the builder and validator for the last schema it
+ * used (the validators share their compiled schemas, so this doesn't change often)
+ *
+ * External entities (DTDs etc) are fetched once, and kept by system id - the most
+ * recently used MAX_ENTITIES of them, until the next build clears them (clearEntities)
+ */
+public class XmlParsers {
+
+  private static final ThreadLocal<DocumentBuilder> namespaced = new ThreadLocal<DocumentBuilder>();
+  private static final ThreadLocal<DocumentBuilder> plain = new ThreadLocal<DocumentBuilder>();
+  private static final ThreadLocal<ForSchema<DocumentBuilder>> validating = new ThreadLocal<ForSchema<DocumentBuilder>>();
+  private static final ThreadLocal<ForSchema<Validator>> validators = new ThreadLocal<ForSchema<Validator>>();
+
+  private static class ForSchema<T> {
+    private Schema schema;
+    private T value;
+
+    private ForSchema(Schema schema, T value) {
+      this.schema = schema;
+      this.value = value;
+    }
+  }
+
+  private static final int MAX_ENTITIES = 100;
+  private static final Map<String, byte[]> entities = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > MAX_ENTITIES;
+    }
+  };
+  private static final EntityResolver resolver = new EntityResolver() {
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+      if (systemId == null)
+        return null;
+      byte[] content;
+      synchronized (entities) {
+        content = entities.get(systemId);
+      }
+      if (content == null) {
+        InputStream in = new URL(systemId).openStream();
+        try {
+          content = TextFile.streamToBytes(in);
+        } finally {
+          in.close();
+        }
+        synchronized (entities) {
+          entities.put(systemId, content);
+        }
+      }
+      InputSource res = new InputSource(new ByteArrayInputStream(content));
+      res.setPublicId(publicId);
+      res.setSystemId(systemId);
+      return res;
+    }
+  };
+
+  public static Document parse(InputStream in, boolean namespaces) throws ParserConfigurationException, SAXException, IOException {
+    return parse(new InputSource(in), namespaces);
+  }
+
+  public static Document parse(InputSource in, boolean namespaces) throws ParserConfigurationException, SAXException, IOException {
+    DocumentBuilder builder = getBuilder(namespaces);
+    try {
+      return builder.parse(in);
+    } finally {
+      close(in);
+    }
+  }
+
+  /**
+   * parse (namespace aware), validating against the schema as the document is read.
+   * The validation errors go to errors
+   */
+  public static Document parse(InputStream in, Schema schema, ErrorHandler errors) throws ParserConfigurationException, SAXException, IOException {
+    ForSchema<DocumentBuilder> local = validating.get();
+    DocumentBuilder builder;
+    if (local == null || local.schema != schema) {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setValidating(false);
+      factory.setSchema(schema);
+      builder = factory.newDocumentBuilder();
+      validating.set(new ForSchema<DocumentBuilder>(schema, builder));
+    } else {
+      builder = local.value;
+      builder.reset();
+    }
+    builder.setEntityResolver(resolver);
+    builder.setErrorHandler(errors);
+    try {
+      return builder.parse(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  public static Document newDocument() throws ParserConfigurationException {
+    return getBuilder(true).newDocument();
+  }
+
+  /**
+   * this thread's validator for the schema, reset, for checking a document without
+   * building a DOM
+   */
+  public static Validator getValidator(Schema schema) {
+    ForSchema<Validator> local = validators.get();
+    Validator validator;
+    if (local == null || local.schema != schema) {
+      validator = schema.newValidator();
+      validators.set(new ForSchema<Validator>(schema, validator));
+    } else {
+      validator = local.value;
+      validator.reset();
+    }
+    return validator;
+  }
+
+  /**
+   * forget the external entities, so that a new build fetches them again
+   */
+  public static void clearEntities() {
+    synchronized (entities) {
+      entities.clear();
+    }
+  }
+
+  private static DocumentBuilder getBuilder(boolean namespaces) throws ParserConfigurationException {
+    ThreadLocal<DocumentBuilder> local = namespaces ? namespaced : plain;
+    DocumentBuilder builder = local.get();
+    if (builder == null) {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(namespaces);
+      builder = factory.newDocumentBuilder();
+      local.set(builder);
+    } else
+      builder.reset();
+    builder.setEntityResolver(resolver);
+    return builder;
+  }
+
+  private static void close(InputSource in) throws IOException {
+    if (in.getByteStream() != null)
+      in.getByteStream().close();
+    else if (in.getCharacterStream() != null)
+      in.getCharacterStream().close();
+  }
+}
@@ -0,0 +1,233 @@
+package org.hl7.fhir.tools.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+public class XmlParsersTests {
+
+  private static final String NS = "http://hl7.org/fhir";
+
+  private class Errors implements ErrorHandler {
+    private List<String> messages = new ArrayList<String>();
+
+    @Override
+    public void warning(SAXParseException e) {
+    }
+
+    @Override
+    public void error(SAXParseException e) {
+      messages.add(e.getMessage());
+    }
+
+    @Override
+    public void fatalError(SAXParseException e) throws SAXException {
+      throw e;
+    }
+  }
+
+  private class TrackedStream extends ByteArrayInputStream {
+    private boolean closed;
+
+    private TrackedStream(String content) throws IOException {
+      super(content.getBytes("UTF-8"));
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  private InputStream stream(String content) throws IOException {
+    return new ByteArrayInputStream(content.getBytes("UTF-8"));
+  }
+
+  private Schema schema(String type) throws Exception {
+    String xsd = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\""+NS+"\" elementFormDefault=\"qualified\">"+
+        "<xs:element name=\"a\"><xs:complexType><xs:sequence><xs:element name=\"b\" type=\"xs:"+type+"\"/></xs:sequence></xs:complexType></xs:element>"+
+        "</xs:schema>";
+    return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(new StreamSource(new StringReader(xsd)));
+  }
+
+  private File write(File dir, String name, String content) throws IOException {
+    File f = new File(dir, name);
+    OutputStream out = new FileOutputStream(f);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    Document doc = XmlParsers.parse(stream("<a xmlns=\""+NS+"\"><b/></a>"), true);
+    assertEquals(NS, doc.getDocumentElement().getNamespaceURI());
+    assertEquals("a", doc.getDocumentElement().getLocalName());
+
+    doc = XmlParsers.parse(stream("<x:a xmlns:x=\""+NS+"\"><b/></x:a>"), false);
+    assertNull(doc.getDocumentElement().getNamespaceURI());
+    assertEquals("x:a", doc.getDocumentElement().getNodeName());
+
+    // the builder for each kind is kept separately
+    doc = XmlParsers.parse(new InputSource(new StringReader("<x:a xmlns:x=\""+NS+"\"/>")), true);
+    assertEquals(NS, doc.getDocumentElement().getNamespaceURI());
+
+    doc = XmlParsers.newDocument();
+    doc.appendChild(doc.createElementNS(NS, "a"));
+    assertEquals(NS, doc.getDocumentElement().getNamespaceURI());
+  }
+
+  @Test
+  public void testClosesInput() throws Exception {
+    TrackedStream in = new TrackedStream("<a/>");
+    XmlParsers.parse(in, true);
+    assertTrue(in.closed);
+
+    in = new TrackedStream("<a>");
+    try {
+      XmlParsers.parse(in, false);
+      fail("parsed a broken document");
+    } catch (SAXParseException e) {
+      // expected
+    }
+    assertTrue(in.closed);
+
+    in = new TrackedStream("<a xmlns=\""+NS+"\"><b>1</b></a>");
+    XmlParsers.parse(in, schema("int"), new Errors());
+    assertTrue(in.closed);
+  }
+
+  @Test
+  public void testReuseAfterError() throws Exception {
+    // the builder is reset after a failure, so the next parse starts clean
+    for (int i = 0; i < 3; i++) {
+      try {
+        XmlParsers.parse(stream("<a><b></a>"), true);
+        fail("parsed a broken document");
+      } catch (SAXParseException e) {
+        // expected
+      }
+      Document doc = XmlParsers.parse(stream("<a><b/></a>"), true);
+      assertEquals("b", doc.getDocumentElement().getFirstChild().getLocalName());
+    }
+  }
+
+  @Test
+  public void testValidatingParse() throws Exception {
+    Schema ints = schema("int");
+    Schema dates = schema("date");
+
+    Errors errors = new Errors();
+    Document doc = XmlParsers.parse(stream("<a xmlns=\""+NS+"\"><b>1</b></a>"), ints, errors);
+    assertEquals("1", doc.getDocumentElement().getTextContent());
+    assertTrue(errors.messages.isEmpty());
+
+    errors = new Errors();
+    XmlParsers.parse(stream("<a xmlns=\""+NS+"\"><b>x</b><c/></a>"), ints, errors);
+    assertTrue(errors.messages.toString(), errors.messages.toString().contains("'x'"));
+    assertTrue(errors.messages.toString(), errors.messages.toString().contains("'c'"));
+
+    // the builder is for the schema it was made for
+    errors = new Errors();
+    XmlParsers.parse(stream("<a xmlns=\""+NS+"\"><b>2016-01-01</b></a>"), dates, errors);
+    assertTrue(errors.messages.toString(), errors.messages.isEmpty());
+    errors = new Errors();
+    XmlParsers.parse(stream("<a xmlns=\""+NS+"\"><b>2016-01-01</b></a>"), ints, errors);
+    assertFalse(errors.messages.isEmpty());
+
+    // and the plain parsers don't validate
+    XmlParsers.parse(stream("<a xmlns=\""+NS+"\"><b>x</b><c/></a>"), true);
+  }
+
+  @Test
+  public void testValidator() throws Exception {
+    final Schema ints = schema("int");
+    Schema dates = schema("date");
+    Validator v = XmlParsers.getValidator(ints);
+    assertSame(v, XmlParsers.getValidator(ints));
+
+    // reset, so the error handler set for one document isn't used for the next
+    Errors errors = new Errors();
+    v.setErrorHandler(errors);
+    assertSame(v, XmlParsers.getValidator(ints));
+    assertNull(v.getErrorHandler());
+
+    Validator d = XmlParsers.getValidator(dates);
+    assertNotSame(v, d);
+    d.setErrorHandler(errors);
+    d.validate(new StreamSource(new StringReader("<a xmlns=\""+NS+"\"><b>1</b></a>")));
+    assertFalse(errors.messages.isEmpty());
+
+    // each thread has its own
+    final Validator[] other = new Validator[1];
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        other[0] = XmlParsers.getValidator(ints);
+      }
+    };
+    t.start();
+    t.join();
+    assertNotSame(v, other[0]);
+    assertSame(d, XmlParsers.getValidator(dates));
+  }
+
+  @Test
+  public void testEntities() throws Exception {
+    File dir = File.createTempFile("entities", "");
+    dir.delete();
+    dir.mkdir();
+    try {
+      File dtd = write(dir, "a.dtd", "<!ENTITY e \"one\">");
+      String xml = "<!DOCTYPE a SYSTEM \""+dtd.toURI().toString()+"\"><a>&e;</a>";
+      XmlParsers.clearEntities();
+      assertEquals("one", XmlParsers.parse(stream(xml), false).getDocumentElement().getTextContent());
+
+      // the entity is kept, so a change isn't seen until the entities are cleared
+      write(dir, "a.dtd", "<!ENTITY e \"two\">");
+      assertEquals("one", XmlParsers.parse(stream(xml), true).getDocumentElement().getTextContent());
+      XmlParsers.clearEntities();
+      assertEquals("two", XmlParsers.parse(stream(xml), true).getDocumentElement().getTextContent());
+
+      // and it isn't fetched again
+      dtd.delete();
+      assertEquals("two", XmlParsers.parse(stream(xml), false).getDocumentElement().getTextContent());
+    } finally {
+      XmlParsers.clearEntities();
+      for (File f : dir.listFiles())
+        f.delete();
+      dir.delete();
+    }
+  }
+}
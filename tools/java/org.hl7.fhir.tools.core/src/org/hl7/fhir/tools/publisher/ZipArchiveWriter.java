@@ -0,0 +1,125 @@
+package org.hl7.fhir.tools.publisher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.hl7.fhir.tools.publisher.ArchiveService.Content;
+
+/**
+ * Writes the zip structure around entries that have already been deflated.
+ *
+ * (java.util.zip.ZipOutputStream can't take entries that are already compressed, so
+ * this writes the zip structure itself - with zip64 records if there's too many entries
+ * or too much content for the original format)
+ */
+public class ZipArchiveWriter extends ArchiveWriter {
+
+  private class Entry {
+    private byte[] name;
+    private long crc;
+    private long size;
+    private long csize;
+    private long time;
+    private long offset;
+  }
+
+  private List<Entry> written = new ArrayList<Entry>();
+
+  public ZipArchiveWriter(ArchiveService service, String filename) throws IOException {
+    super(service, filename);
+  }
+
+  @Override
+  protected void writeEntry(String name, long time, Content content) throws IOException {
+    if (content.size >= 0xFFFFFFFFL || content.data.length >= 0xFFFFFFFFL)
+      throw new IOException("Entry "+name+" is too big for the archive");
+    Entry e = new Entry();
+    e.name = name.getBytes("UTF-8");
+    e.crc = content.crc;
+    e.size = content.size;
+    e.csize = content.data.length;
+    e.time = time;
+    e.offset = offset;
+    writeInt(0x04034b50);
+    writeShort(20); // version needed
+    writeShort(0x0800); // names are utf-8
+    writeShort(8); // deflated
+    writeInt(dosTime(e.time));
+    writeInt(e.crc);
+    writeInt(e.csize);
+    writeInt(e.size);
+    writeShort(e.name.length);
+    writeShort(0);
+    writeBytes(e.name);
+    writeBytes(content.data);
+    written.add(e);
+  }
+
+  @Override
+  protected void writeEnd() throws IOException {
+    long start = offset;
+    for (Entry e : written) {
+      boolean zip64 = e.offset >= 0xFFFFFFFFL;
+      writeInt(0x02014b50);
+      writeShort(zip64 ? 45 : 20); // version made by
+      writeShort(zip64 ? 45 : 20); // version needed
+      writeShort(0x0800);
+      writeShort(8);
+      writeInt(dosTime(e.time));
+      writeInt(e.crc);
+      writeInt(e.csize);
+      writeInt(e.size);
+      writeShort(e.name.length);
+      writeShort(zip64 ? 12 : 0); // extra
+      writeShort(0); // comment
+      writeShort(0); // disk
+      writeShort(0); // internal attributes
+      writeInt(0); // external attributes
+      writeInt(zip64 ? 0xFFFFFFFFL : e.offset);
+      writeBytes(e.name);
+      if (zip64) {
+        writeShort(0x0001);
+        writeShort(8);
+        writeLong(e.offset);
+      }
+    }
+    long size = offset - start;
+    if (written.size() >= 0xFFFF || start >= 0xFFFFFFFFL || size >= 0xFFFFFFFFL) {
+      long end = offset;
+      writeInt(0x06064b50); // zip64 end of central directory
+      writeLong(44);
+      writeShort(45);
+      writeShort(45);
+      writeInt(0);
+      writeInt(0);
+      writeLong(written.size());
+      writeLong(written.size());
+      writeLong(size);
+      writeLong(start);
+      writeInt(0x07064b50); // locator
+      writeInt(0);
+      writeLong(end);
+      writeInt(1);
+    }
+    writeInt(0x06054b50);
+    writeShort(0);
+    writeShort(0);
+    writeShort((int) Math.min(written.size(), 0xFFFF));
+    writeShort((int) Math.min(written.size(), 0xFFFF));
+    writeInt(Math.min(size, 0xFFFFFFFFL));
+    writeInt(Math.min(start, 0xFFFFFFFFL));
+    writeShort(0);
+  }
+
+  private static long dosTime(long time) {
+    Calendar c = Calendar.getInstance();
+    c.setTimeInMillis(time);
+    int year = c.get(Calendar.YEAR);
+    if (year < 1980)
+      return (1 << 21) | (1 << 16);
+    return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16) |
+        (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+  }
+}
@@ -3,26 +3,59 @@ package org.hl7.fhir.tools.site;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.hl7.fhir.utilities.IniFile;
-import org.hl7.fhir.utilities.TextFile;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.json.JSONUtil;
 
 import com.google.gson.JsonObject;
 
+/**
+ * Updates the release header (between the ReleaseHeader markers) in every page of a
+ * published version of the spec, and makes sure every page links to fhir-pub.css.
+ *
+ * The site is walked once to find the pages, and they are updated on a pool of worker
+ * threads. The pages are searched as bytes (the markers are all ascii), and a page is
+ * only written - to a temporary file, which is then moved over the original - if it
+ * actually changes
+ */
 public class WebSiteReleaseUpdater {
-  private static final String START_HTML_MARKER = "<!--ReleaseHeader-->";
-  private static final String END_HTML_MARKER = "<!--EndReleaseHeader-->";
+  private static final byte[] START_HTML_MARKER = bytes("<!--ReleaseHeader-->");
+  private static final byte[] END_HTML_MARKER = bytes("<!--EndReleaseHeader-->");
+  private static final byte[] BODY = bytes("<body");
+  private static final byte[] REFRESH_1 = bytes("http-equiv=\"Refresh\"");
+  private static final byte[] REFRESH_2 = bytes("http-equiv=\"refresh\"");
+  private static final byte[] CSS = bytes("fhir-pub.css");
+  private static final byte[] HEAD_END = bytes("</head>");
+  private static final byte[] CSS_LINK = bytes("  <link rel=\"stylesheet\" href=\"fhir-pub.css\"/>\r\n");
 
   private String dir;
   private JsonObject ver;
   private String root;
   private JsonObject currentVer;
   private IniFile ini;
-  private int total = 0;
+  private AtomicInteger scanned = new AtomicInteger();
+  private AtomicInteger changed = new AtomicInteger();
+  private AtomicInteger skipped = new AtomicInteger();
+  private AtomicLong volume = new AtomicLong();
 
   public WebSiteReleaseUpdater(String root, String dir, JsonObject ver, JsonObject currentVer) throws IOException {
     this.root = root;
@@ -35,8 +68,11 @@ public class WebSiteReleaseUpdater {
   public void execute(List<String> exempt) throws FileNotFoundException, IOException {
     System.out.print("v"+JSONUtil.str(ver, "version"));
     String statusMsg = generateStatusMessage(exempt);
-    updateStatus(new File(dir), statusMsg, exempt, 0);
-    System.out.println(" - "+total+" files updated");
+    long start = System.currentTimeMillis();
+    updateStatus(Paths.get(dir), statusMsg, exempt);
+    long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+    System.out.println(" - "+changed.get()+" files updated ("+scanned.get()+" scanned, "+skipped.get()+" skipped, "+
+        (scanned.get() * 1000L / elapsed)+" files/sec, "+(volume.get() / 1024 * 1000 / 1024 / elapsed)+" MB/sec)");
     if (exempt == null) {
       FileUtils.copyFile(new File(Utilities.path(root, "fhir-pub.css")), new File(Utilities.path(dir, "fhir-pub.css")));
       FileUtils.copyFile(new File(Utilities.path(root, "external.png")), new File(Utilities.path(dir, "external.png")));
@@ -71,49 +107,146 @@ public class WebSiteReleaseUpdater {
     }
   }
 
-  private String updateStatus(File d, String msg, List<String> exempt, int depth) throws FileNotFoundException, IOException {
-    for (File f : d.listFiles()) {
-      if (f.isDirectory()) {
-        if (!Utilities.existsInList(f.getName(), "html", "uv", "us", "smart-app-launch", "quick") && (exempt == null || !exempt.contains(f.getAbsolutePath())) ) {
-          String s = updateStatus(f, msg, null, depth+1);
-          if (s != null)
-            return s;
-        }
-      } else if (f.getName().endsWith(".html") || f.getName().endsWith(".htm")) {
-        String src = TextFile.fileToString(f);
-        String o = src;
-        if (src.contains("<body") && !(src.contains("http-equiv=\"Refresh\"") || src.contains("http-equiv=\"refresh\""))) {
-          int b = src.indexOf(START_HTML_MARKER);
-          int e = src.lastIndexOf(END_HTML_MARKER);
-          String rp = f.getAbsolutePath().substring(dir.length()+1);
-          if (b == -1 || e == -1 || e < b) {
-            throw new Error(f.getAbsolutePath().substring(root.length()+1)+" does not contain the html markers");
-          } else {
-            boolean hasCurrentMatch = new File(Utilities.path(root, rp)).exists();
-            String fmsg = hasCurrentMatch ? msg.replace("{ref}", rp) : msg.replace("{ref}", "index.html");
-            fmsg = fmsg.replace("{pd}", gen(depth));
-            src = src.substring(0, b+START_HTML_MARKER.length()) + fmsg+src.substring(e);
-          }
-          b = src.indexOf("fhir-pub.css");
-          if (b == -1) {
-            b = src.indexOf("</head>");
-            if (b == -1)
-              throw new Error("unable to find </head> in "+rp);
-            src = src.substring(0, b) + "  <link rel=\"stylesheet\" href=\"fhir-pub.css\"/>\r\n"+src.substring(b);
-            b = src.indexOf("fhir-pub.css");
-          }
-          e = b;
-          b = src.substring(0, b).lastIndexOf("\"");
-          src = src.substring(0, b+1)+gen(depth)+src.substring(e);
-          if (!src.equals(o)) {
-            TextFile.stringToFile(src, f, false);
-            total++;
+  private void updateStatus(final Path start, final String msg, final List<String> exempt) throws FileNotFoundException, IOException {
+    final List<Path> files = new ArrayList<Path>();
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+        if (d.equals(start))
+          return FileVisitResult.CONTINUE;
+        String name = d.getFileName().toString();
+        if (Utilities.existsInList(name, "html", "uv", "us", "smart-app-launch", "quick"))
+          return FileVisitResult.SKIP_SUBTREE;
+        // exemptions only apply to the top level
+        if (exempt != null && d.getParent().equals(start) && exempt.contains(d.toFile().getAbsolutePath()))
+          return FileVisitResult.SKIP_SUBTREE;
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+        String name = f.getFileName().toString();
+        if (attrs.isRegularFile() && (name.endsWith(".html") || name.endsWith(".htm")))
+          files.add(f);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final Path f : files) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            updateFile(f, msg, start.relativize(f).getNameCount() - 1);
+            return null;
           }
-          
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+          if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+          throw new IOException(e.getCause());
         }
       }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void updateFile(Path f, String msg, int depth) throws IOException {
+    byte[] src = Files.readAllBytes(f);
+    scanned.incrementAndGet();
+    volume.addAndGet(src.length);
+    if (indexOf(src, BODY, 0) == -1 || indexOf(src, REFRESH_1, 0) > -1 || indexOf(src, REFRESH_2, 0) > -1) {
+      skipped.incrementAndGet();
+      return;
+    }
+    int b = indexOf(src, START_HTML_MARKER, 0);
+    int e = lastIndexOf(src, END_HTML_MARKER);
+    String rp = f.toFile().getAbsolutePath().substring(dir.length()+1);
+    if (b == -1 || e == -1 || e < b)
+      throw new Error(f.toFile().getAbsolutePath().substring(root.length()+1)+" does not contain the html markers");
+    boolean hasCurrentMatch = new File(Utilities.path(root, rp)).exists();
+    String fmsg = hasCurrentMatch ? msg.replace("{ref}", rp) : msg.replace("{ref}", "index.html");
+    fmsg = fmsg.replace("{pd}", gen(depth));
+    byte[] res = concat(Arrays.copyOfRange(src, 0, b+START_HTML_MARKER.length), fmsg.getBytes("UTF-8"), Arrays.copyOfRange(src, e, src.length));
+
+    b = indexOf(res, CSS, 0);
+    if (b == -1) {
+      b = indexOf(res, HEAD_END, 0);
+      if (b == -1)
+        throw new Error("unable to find </head> in "+rp);
+      res = concat(Arrays.copyOfRange(res, 0, b), CSS_LINK, Arrays.copyOfRange(res, b, res.length));
+      b = indexOf(res, CSS, 0);
+    }
+    e = b;
+    b = b - 1;
+    while (b >= 0 && res[b] != '"')
+      b--;
+    res = concat(Arrays.copyOfRange(res, 0, b+1), bytes(gen(depth)), Arrays.copyOfRange(res, e, res.length));
+
+    if (!Arrays.equals(src, res)) {
+      Path tmp = Files.createTempFile(f.getParent(), ".release", ".tmp");
+      try {
+        Files.write(tmp, res);
+        Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      changed.incrementAndGet();
+    }
+  }
+
+  private static int indexOf(byte[] src, byte[] s, int from) {
+    outer:
+    for (int i = from; i <= src.length - s.length; i++) {
+      for (int j = 0; j < s.length; j++)
+        if (src[i+j] != s[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  private static int lastIndexOf(byte[] src, byte[] s) {
+    outer:
+    for (int i = src.length - s.length; i >= 0; i--) {
+      for (int j = 0; j < s.length; j++)
+        if (src[i+j] != s[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    int l = 0;
+    for (byte[] p : parts)
+      l = l + p.length;
+    byte[] res = new byte[l];
+    int i = 0;
+    for (byte[] p : parts) {
+      System.arraycopy(p, 0, res, i, p.length);
+      i = i + p.length;
+    }
+    return res;
+  }
+
+  private static byte[] bytes(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (IOException e) {
+      throw new Error(e);
     }
-    return null;
   }
 
   private String gen(int depth) {